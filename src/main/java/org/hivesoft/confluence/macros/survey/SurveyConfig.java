@@ -20,33 +20,29 @@ import java.util.List;
 import java.util.Map;
 
 public class SurveyConfig extends VoteConfig {
-  private static final String KEY_CHOICES = "choices";
+  static final String KEY_CHOICES = "choices";
   public static final String KEY_SHOW_SUMMARY = "showSummary";
   public static final String KEY_SHOW_LAST = "showLast";  // old key as showSummary was a boolean field
 
-  private final SurveySummary surveySummary;
-  private final List<String> choices;
-
   public SurveyConfig(PermissionEvaluator permissionEvaluator, Map<String, String> parameters) {
-    super(permissionEvaluator, getModifiedSurveyParameters(parameters));
-    choices = SurveyUtils.getListFromStringCommaSeparated(parameters.get(KEY_CHOICES));
+    this(permissionEvaluator, new SurveyDefinition(parameters));
+  }
 
-    surveySummary = SurveySummary.getFor(parameters.get(KEY_SHOW_SUMMARY));
+  public SurveyConfig(PermissionEvaluator permissionEvaluator, SurveyDefinition definition) {
+    super(permissionEvaluator, definition);
   }
 
-  private static Map<String, String> getModifiedSurveyParameters(Map<String, String> parameters) {
-    Map<String, String> modifiedParameters = new HashMap<String, String>(parameters);
-    modifiedParameters.put(KEY_RENDER_TITLE_LEVEL, SurveyUtils.getIntegerFromString(parameters.get(KEY_RENDER_TITLE_LEVEL), 2) + "");
-    modifiedParameters.put(KEY_SHOW_COMMENTS, SurveyUtils.getBooleanFromString(parameters.get(KEY_SHOW_COMMENTS), true) + "");
-    return modifiedParameters;
+  @Override
+  public SurveyDefinition getDefinition() {
+    return (SurveyDefinition) super.getDefinition();
   }
 
   public SurveySummary getSurveySummary() {
-    return surveySummary;
+    return getDefinition().getSurveySummary();
   }
 
   public List<String> getChoices() {
-    return choices;
+    return getDefinition().getChoices();
   }
 
   /**
@@ -83,9 +79,7 @@ public class SurveyConfig extends VoteConfig {
   @Override
   public String toString() {
     return "SurveyConfig{" +
-            "surveySummary=" + surveySummary +
-            ", choices=" + choices +
-            ", super=" + super.toString() +
+            "super=" + super.toString() +
             '}';
   }
 }
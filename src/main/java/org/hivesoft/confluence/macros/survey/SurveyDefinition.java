@@ -0,0 +1,60 @@
+/**
+ * Copyright (c) 2006-2015, Confluence Community
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hivesoft.confluence.macros.survey;
+
+import org.hivesoft.confluence.macros.vote.BallotDefinition;
+import org.hivesoft.confluence.macros.vote.VoteConfig;
+import org.hivesoft.confluence.model.SurveySummary;
+import org.hivesoft.confluence.utils.SurveyUtils;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The settings of a survey as parsed from the macro parameters, shared by all ballots of the survey. Like the
+ * {@link BallotDefinition} it does not depend on the viewing user.
+ */
+public class SurveyDefinition extends BallotDefinition {
+  private final SurveySummary surveySummary;
+  private final List<String> choices;
+
+  public SurveyDefinition(Map<String, String> parameters) {
+    super(getModifiedSurveyParameters(parameters));
+    choices = Collections.unmodifiableList(SurveyUtils.getListFromStringCommaSeparated(parameters.get(SurveyConfig.KEY_CHOICES)));
+    surveySummary = SurveySummary.getFor(parameters.get(SurveyConfig.KEY_SHOW_SUMMARY));
+  }
+
+  private static Map<String, String> getModifiedSurveyParameters(Map<String, String> parameters) {
+    Map<String, String> modifiedParameters = new HashMap<String, String>(parameters);
+    modifiedParameters.put(VoteConfig.KEY_RENDER_TITLE_LEVEL, SurveyUtils.getIntegerFromString(parameters.get(VoteConfig.KEY_RENDER_TITLE_LEVEL), 2) + "");
+    modifiedParameters.put(VoteConfig.KEY_SHOW_COMMENTS, SurveyUtils.getBooleanFromString(parameters.get(VoteConfig.KEY_SHOW_COMMENTS), true) + "");
+    return modifiedParameters;
+  }
+
+  public SurveySummary getSurveySummary() {
+    return surveySummary;
+  }
+
+  public List<String> getChoices() {
+    return choices;
+  }
+
+  @Override
+  public String toString() {
+    return "SurveyDefinition{" +
+            "surveySummary=" + surveySummary +
+            ", choices=" + choices +
+            ", super=" + super.toString() +
+            '}';
+  }
+}
@@ -31,6 +31,7 @@ import org.hivesoft.confluence.macros.MacroConstructionResult;
 import org.hivesoft.confluence.model.Survey;
 import org.hivesoft.confluence.model.vote.Ballot;
 import org.hivesoft.confluence.rest.callbacks.TransactionCallbackStorePage;
+import org.hivesoft.confluence.utils.PageMacroIndex;
 import org.hivesoft.confluence.utils.SurveyManager;
 import org.hivesoft.confluence.utils.SurveyUtils;
 import org.hivesoft.confluence.utils.VelocityAbstractionHelper;
@@ -55,8 +56,9 @@ public class SurveyMacro implements Macro {
   private final VelocityAbstractionHelper velocityAbstractionHelper;
   private final PageManager pageManager;
   private final TransactionTemplate transactionTemplate;
+  private final PageMacroIndex pageMacroIndex;
 
-  public SurveyMacro(PluginSettingsFactory pluginSettingsFactory, SurveyManager surveyManager, TemplateRenderer renderer, XhtmlContent xhtmlContent, VelocityAbstractionHelper velocityAbstractionHelper, PageManager pageManager, TransactionTemplate transactionTemplate) {
+  public SurveyMacro(PluginSettingsFactory pluginSettingsFactory, SurveyManager surveyManager, TemplateRenderer renderer, XhtmlContent xhtmlContent, VelocityAbstractionHelper velocityAbstractionHelper, PageManager pageManager, TransactionTemplate transactionTemplate, PageMacroIndex pageMacroIndex) {
     this.pluginSettingsFactory = pluginSettingsFactory;
     this.surveyManager = surveyManager;
     this.renderer = renderer;
@@ -64,6 +66,7 @@ public class SurveyMacro implements Macro {
     this.velocityAbstractionHelper = velocityAbstractionHelper;
     this.pageManager = pageManager;
     this.transactionTemplate = transactionTemplate;
+    this.pageMacroIndex = pageMacroIndex;
   }
 
   /**
@@ -118,55 +121,74 @@ public class SurveyMacro implements Macro {
   }
 
   private void validateInputAndUpdateIfNecessary(Map<String, String> parameters, String body, ConversionContext conversionContext) throws MacroExecutionException {
-    final List<String> macros = new ArrayList<String>();
-    final List<Integer> upgraded = new ArrayList<Integer>();
-    String completePageBody;
+    final String surveyMacroTitle = StringUtils.defaultString(parameters.get(SurveyConfig.KEY_TITLE)).trim();
+    if (LOG.isInfoEnabled()) {
+      LOG.info("Try executing " + SURVEY_MACRO + "-macro XHtml Style with title: '" + surveyMacroTitle + "' body: '" + body + "'");
+    }
+    if (conversionContext.getEntity() == null) {
+      throw new MacroExecutionException("The survey could not be rendered. Probably this is not a persistable ContentObject");
+    }
     try {
-      final String surveyMacroTitle = StringUtils.defaultString(parameters.get(SurveyConfig.KEY_TITLE)).trim();
-      if (LOG.isInfoEnabled()) {
-        LOG.info("Try executing " + SURVEY_MACRO + "-macro XHtml Style with title: '" + surveyMacroTitle + "' body: '" + body + "'");
+      if (!isUpgradeRequired(conversionContext.getEntity(), surveyMacroTitle)) {
+        LOG.debug("No upgrade required..");
+        return;
       }
-      if (conversionContext.getEntity() == null) {
-        throw new MacroExecutionException("The survey could not be rendered. Probably this is not a persistable ContentObject");
-      }
-      completePageBody = xhtmlContent.updateMacroDefinitions(conversionContext.getEntity().getBodyAsString(), conversionContext, new MacroDefinitionUpdater() {
+      final String completePageBody = xhtmlContent.updateMacroDefinitions(conversionContext.getEntity().getBodyAsString(), conversionContext, new MacroDefinitionUpdater() {
         @Override
         public MacroDefinition update(MacroDefinition macroDefinition) {
           if (SURVEY_MACRO.equals(macroDefinition.getName())) {
             final Map<String, String> parameters = macroDefinition.getParameters();
-            String currentTitle = SurveyUtils.getTitleInMacroParameters(parameters);
-            if (!StringUtils.isBlank(currentTitle)) {
-              if (macros.contains(currentTitle)) {
-                LOG.warn("A " + SURVEY_MACRO + "-macro should not have the same title " + currentTitle + " on the same page! In newer version it may become mandatory / unique.");
-              } else {
-                macros.add(currentTitle);
-              }
-            }
-            if (StringUtils.isNotBlank(currentTitle) && StringUtils.isNotBlank(surveyMacroTitle) && !currentTitle.equals(surveyMacroTitle)) {
-              LOG.debug("Survey with title " + currentTitle + " is not this survey. Skip potential upgrading!");
+            if (!isThisSurvey(SurveyUtils.getTitleInMacroParameters(parameters), surveyMacroTitle)) {
               return macroDefinition;
             }
-            LOG.debug("Shall survey parameters be upgraded?, currentTitle to check is=" + currentTitle);
             Map<String, String> modifiedParameters = SurveyConfig.migrateParameters(parameters);
             if (!modifiedParameters.equals(parameters)) {
               LOG.debug("parameters " + parameters + " differ from " + modifiedParameters + ". Upgrading.");
-              upgraded.add(1);
               macroDefinition.setParameters(modifiedParameters);
               return new MacroDefinition(macroDefinition.getName(), macroDefinition.getBody(), macroDefinition.getDefaultParameterValue(), macroDefinition.getParameters());
             }
-            LOG.debug("No upgrade required..");
-            return macroDefinition;
           }
           return macroDefinition;
         }
       });
+      LOG.debug("page will be updated!");
+      transactionTemplate.execute(new TransactionCallbackStorePage(pageManager, conversionContext.getEntity(), completePageBody));
     } catch (XhtmlException e) {
       throw new MacroExecutionException(e);
     }
-    if (!upgraded.isEmpty()) {
-      LOG.debug("page will be updated!");
-      transactionTemplate.execute(new TransactionCallbackStorePage(pageManager, conversionContext.getEntity(), completePageBody));
+  }
+
+  /**
+   * Read only check on the macro index of the page version whether any survey with the given title still has parameters
+   * of an older version. Only then the page body is rewritten and stored.
+   */
+  private boolean isUpgradeRequired(ContentEntityObject contentObject, String surveyMacroTitle) throws XhtmlException {
+    final List<String> macros = new ArrayList<String>();
+    boolean upgradeRequired = false;
+    for (PageMacroIndex.IndexedMacro survey : pageMacroIndex.getMacros(contentObject).getSurveys()) {
+      final String currentTitle = survey.getTitle();
+      if (!StringUtils.isBlank(currentTitle)) {
+        if (macros.contains(currentTitle)) {
+          LOG.warn("A " + SURVEY_MACRO + "-macro should not have the same title " + currentTitle + " on the same page! In newer version it may become mandatory / unique.");
+        } else {
+          macros.add(currentTitle);
+        }
+      }
+      if (!isThisSurvey(currentTitle, surveyMacroTitle)) {
+        LOG.debug("Survey with title " + currentTitle + " is not this survey. Skip potential upgrading!");
+        continue;
+      }
+      LOG.debug("Shall survey parameters be upgraded?, currentTitle to check is=" + currentTitle);
+      final Map<String, String> parameters = survey.getParameters();
+      if (!SurveyConfig.migrateParameters(parameters).equals(parameters)) {
+        upgradeRequired = true;
+      }
     }
+    return upgradeRequired;
+  }
+
+  private static boolean isThisSurvey(String currentTitle, String surveyMacroTitle) {
+    return StringUtils.isBlank(currentTitle) || StringUtils.isBlank(surveyMacroTitle) || currentTitle.equals(surveyMacroTitle);
   }
 
   @Override
@@ -0,0 +1,198 @@
+/**
+ * Copyright (c) 2006-2015, Confluence Community
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hivesoft.confluence.macros.vote;
+
+import org.apache.commons.lang3.StringUtils;
+import org.hivesoft.confluence.model.enums.UserVisualization;
+import org.hivesoft.confluence.utils.SurveyUtils;
+import org.hivesoft.confluence.utils.UserRenderer;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The settings of a ballot as parsed from the macro parameters. Contains nothing depending on the viewing user (see
+ * {@link ViewerContext} for that), is immutable and may therefore be shared across requests and threads.
+ */
+public class BallotDefinition {
+  private final int uniqueId;
+  private final String title;
+  private final int renderTitleLevel;
+  private final boolean changeableVotes;
+  private final List<String> voters;
+  private final List<String> viewers;
+  private final List<String> managers;
+  private final boolean alwaysShowResults;
+  private final boolean showComments;
+  private final boolean locked;
+  private final String visibleVoters;
+  private final String visiblePendingVoters;
+  private final boolean showCondensed;
+  private final boolean anonymous;
+
+  private final int startBound;
+  private final int iterateStep;
+
+  private final UserRenderer userRenderer;
+
+  public BallotDefinition(Map<String, String> parameters) {
+    title = SurveyUtils.getTitleInMacroParameters(parameters);
+    uniqueId = SurveyUtils.getIntegerFromString(parameters.get(VoteConfig.KEY_UNIQUE_ID), -1);
+    renderTitleLevel = SurveyUtils.getIntegerFromString(parameters.get(VoteConfig.KEY_RENDER_TITLE_LEVEL), 3);
+    changeableVotes = Boolean.parseBoolean(parameters.get(VoteConfig.KEY_CHANGEABLE_VOTES));
+    voters = Collections.unmodifiableList(SurveyUtils.getListFromStringCommaSeparated(StringUtils.defaultString(parameters.get(VoteConfig.KEY_VOTERS))));
+    viewers = Collections.unmodifiableList(SurveyUtils.getListFromStringCommaSeparated(StringUtils.defaultString(parameters.get(VoteConfig.KEY_VIEWERS))));
+    managers = Collections.unmodifiableList(SurveyUtils.getListFromStringCommaSeparated(StringUtils.defaultString(parameters.get(VoteConfig.KEY_MANAGERS))));
+    alwaysShowResults = Boolean.parseBoolean(parameters.get(VoteConfig.KEY_ALWAYS_SHOW_RESULTS));
+    showComments = SurveyUtils.getBooleanFromString(parameters.get(VoteConfig.KEY_SHOW_COMMENTS), false);
+    locked = SurveyUtils.getBooleanFromString(parameters.get(VoteConfig.KEY_LOCKED), false);
+    visibleVoters = parameters.get(VoteConfig.KEY_VISIBLE_VOTERS);
+    visiblePendingVoters = parameters.get(VoteConfig.KEY_VISIBLE_PENDING_VOTERS);
+    showCondensed = SurveyUtils.getBooleanFromString(parameters.get(VoteConfig.KEY_SHOW_CONDENSED), false);
+    anonymous = SurveyUtils.getBooleanFromString(parameters.get(VoteConfig.KEY_ANONYMOUS_MODE), false);
+
+    startBound = SurveyUtils.getIntegerFromString(parameters.get(VoteConfig.KEY_START_BOUND), VoteConfig.DEFAULT_START_BOUND);
+    iterateStep = SurveyUtils.getIntegerFromString(parameters.get(VoteConfig.KEY_ITERATE_STEP), VoteConfig.DEFAULT_ITERATE_STEP);
+
+    UserVisualization userVisualization = SurveyUtils.getUserVisualizationFromString(parameters.get(VoteConfig.KEY_USER_VISUALIZATION), null);
+    if (userVisualization == null) {
+      // default and backwards compatibility for version <= 2.8.0
+      boolean visibleVotersWiki = SurveyUtils.getBooleanFromString(parameters.get(VoteConfig.KEY_VISIBLE_VOTERS_WIKI), false);
+      if (visibleVotersWiki) {
+        userVisualization = UserVisualization.LINKED_LOGIN;
+      } else {
+        userVisualization = UserVisualization.PLAIN_LOGIN;
+      }
+    }
+    userRenderer = new UserRenderer(userVisualization);
+  }
+
+  /**
+   * The definition of a ballot within a survey: everything is taken from the survey, only the title is rendered one
+   * level below the survey title.
+   */
+  public BallotDefinition(BallotDefinition surveyDefinition) {
+    title = surveyDefinition.title;
+    uniqueId = surveyDefinition.uniqueId;
+    renderTitleLevel = surveyDefinition.renderTitleLevel > 0 ? surveyDefinition.renderTitleLevel + 1 : 0;
+    changeableVotes = surveyDefinition.changeableVotes;
+    voters = surveyDefinition.voters;
+    viewers = surveyDefinition.viewers;
+    managers = surveyDefinition.managers;
+    alwaysShowResults = surveyDefinition.alwaysShowResults;
+    showComments = surveyDefinition.showComments;
+    locked = surveyDefinition.locked;
+    visibleVoters = surveyDefinition.visibleVoters;
+    visiblePendingVoters = surveyDefinition.visiblePendingVoters;
+    showCondensed = surveyDefinition.showCondensed;
+    anonymous = surveyDefinition.anonymous;
+    startBound = surveyDefinition.startBound;
+    iterateStep = surveyDefinition.iterateStep;
+    userRenderer = surveyDefinition.userRenderer;
+  }
+
+  public String getTitle() {
+    return title;
+  }
+
+  public int getUniqueId() {
+    return uniqueId;
+  }
+
+  public int getRenderTitleLevel() {
+    return renderTitleLevel;
+  }
+
+  public boolean isChangeableVotes() {
+    return changeableVotes;
+  }
+
+  public List<String> getVoters() {
+    return voters;
+  }
+
+  public List<String> getViewers() {
+    return viewers;
+  }
+
+  public List<String> getManagers() {
+    return managers;
+  }
+
+  public boolean isAlwaysShowResults() {
+    return alwaysShowResults;
+  }
+
+  public boolean isShowComments() {
+    return showComments;
+  }
+
+  public boolean isLocked() {
+    return locked;
+  }
+
+  /**
+   * @return the raw parameter, whether the voters are visible also depends on the viewer
+   */
+  public String getVisibleVoters() {
+    return visibleVoters;
+  }
+
+  /**
+   * @return the raw parameter, whether the pending voters are visible also depends on the viewer
+   */
+  public String getVisiblePendingVoters() {
+    return visiblePendingVoters;
+  }
+
+  public boolean isShowCondensed() {
+    return showCondensed;
+  }
+
+  public boolean isAnonymous() {
+    return anonymous;
+  }
+
+  public int getStartBound() {
+    return startBound;
+  }
+
+  public int getIterateStep() {
+    return iterateStep;
+  }
+
+  public UserRenderer getUserRenderer() {
+    return userRenderer;
+  }
+
+  @Override
+  public String toString() {
+    return "BallotDefinition{" +
+            "title='" + title + '\'' +
+            ", renderTitleLevel=" + renderTitleLevel +
+            ", changeableVotes=" + changeableVotes +
+            ", voters=" + voters +
+            ", viewers=" + viewers +
+            ", managers=" + managers +
+            ", showComments=" + showComments +
+            ", locked=" + locked +
+            ", visibleVoters=" + visibleVoters +
+            ", visiblePendingVoters=" + visiblePendingVoters +
+            ", showCondensed=" + showCondensed +
+            ", anonymous=" + anonymous +
+            ", uniqueId=" + uniqueId +
+            ", startBound=" + startBound +
+            ", iterateStep=" + iterateStep +
+            ", userRenderer=" + userRenderer +
+            '}';
+  }
+}
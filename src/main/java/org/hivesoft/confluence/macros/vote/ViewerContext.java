@@ -0,0 +1,74 @@
+/**
+ * Copyright (c) 2006-2015, Confluence Community
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hivesoft.confluence.macros.vote;
+
+import com.atlassian.user.User;
+import org.hivesoft.confluence.model.wrapper.AnonymousUser;
+import org.hivesoft.confluence.utils.PermissionEvaluator;
+
+/**
+ * What the user of the current request may do with a ballot or survey. Evaluated once per request against a
+ * {@link BallotDefinition}, which itself can be shared between users.
+ */
+public class ViewerContext {
+  private final boolean canSeeResults;
+  private final boolean canTakeSurvey;
+  private final boolean canManageSurvey;
+  private final boolean visibleVoters;
+  private final boolean visiblePendingVoters;
+
+  public ViewerContext(PermissionEvaluator permissionEvaluator, BallotDefinition definition) {
+    final User remoteUser = permissionEvaluator.getRemoteUser();
+
+    if (remoteUser instanceof AnonymousUser) {
+      canSeeResults = definition.getViewers().isEmpty(); // if the viewers field contains something then anonymous probably is not allowed, obviously
+      canTakeSurvey = false;
+      canManageSurvey = false;
+    } else {
+      canSeeResults = permissionEvaluator.isPermissionListEmptyOrContainsGivenUser(definition.getViewers(), remoteUser);
+      canTakeSurvey = permissionEvaluator.isPermissionListEmptyOrContainsGivenUser(definition.getVoters(), remoteUser);
+      canManageSurvey = permissionEvaluator.isPermissionListEmptyOrContainsGivenUser(definition.getManagers(), remoteUser);
+    }
+    visibleVoters = permissionEvaluator.canSeeVoters(definition.getVisibleVoters(), canSeeResults) && canManageSurvey;
+    visiblePendingVoters = permissionEvaluator.canSeeVoters(definition.getVisiblePendingVoters(), canSeeResults) && !definition.getVoters().isEmpty();
+  }
+
+  public boolean isCanSeeResults() {
+    return canSeeResults;
+  }
+
+  public boolean isCanTakeSurvey() {
+    return canTakeSurvey;
+  }
+
+  public boolean isCanManageSurvey() {
+    return canManageSurvey;
+  }
+
+  public boolean isVisibleVoters() {
+    return visibleVoters;
+  }
+
+  public boolean isVisiblePendingVoters() {
+    return visiblePendingVoters;
+  }
+
+  @Override
+  public String toString() {
+    return "ViewerContext{" +
+            "canSeeResults=" + canSeeResults +
+            ", canTakeSurvey=" + canTakeSurvey +
+            ", canManageSurvey=" + canManageSurvey +
+            ", visibleVoters=" + visibleVoters +
+            ", visiblePendingVoters=" + visiblePendingVoters +
+            '}';
+  }
+}
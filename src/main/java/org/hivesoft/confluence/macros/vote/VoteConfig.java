@@ -13,14 +13,11 @@ package org.hivesoft.confluence.macros.vote;
 import com.atlassian.user.User;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
-import org.apache.commons.lang3.StringUtils;
 import org.hivesoft.confluence.macros.survey.SurveyConfig;
-import org.hivesoft.confluence.model.enums.UserVisualization;
-import org.hivesoft.confluence.model.wrapper.AnonymousUser;
 import org.hivesoft.confluence.utils.PermissionEvaluator;
-import org.hivesoft.confluence.utils.SurveyUtils;
 import org.hivesoft.confluence.utils.UserRenderer;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -37,7 +34,7 @@ public class VoteConfig {
   protected static final String KEY_VIEWERS = "viewers";
   public static final String KEY_MANAGERS = "managers";
   protected static final String KEY_ALWAYS_SHOW_RESULTS = "alwaysShowResults";
-  protected static final String KEY_SHOW_COMMENTS = "showComments";
+  public static final String KEY_SHOW_COMMENTS = "showComments";
   protected static final String KEY_VISIBLE_VOTERS = "visibleVoters";
   protected static final String KEY_VISIBLE_PENDING_VOTERS = "visiblePendingVoters";
   protected static final String KEY_VISIBLE_VOTERS_WIKI = "visibleVotersWiki"; // old key for userVisualization
@@ -48,221 +45,166 @@ public class VoteConfig {
   public static final String KEY_SHOW_CONDENSED = "showCondensed";
   protected static final String KEY_ANONYMOUS_MODE = "anonymousMode";
 
-  private final int uniqueId;
-  private final String title;
-  private final int renderTitleLevel;
-  private final boolean changeableVotes;
-  private final List<String> voters;
-  private final List<String> viewers;
-  private final List<String> managers;
-  private final boolean alwaysShowResults;
-  private final boolean showComments;
-  private final boolean locked;
-  private final boolean visibleVoters;
-  private final boolean visiblePendingVoters;
-  private final boolean showCondensed;
-  private final boolean anonymous;
-
-  private final boolean canSeeResults;
-  private final boolean canTakeSurvey;
-  private final boolean canManageSurvey;
-
-  private final int startBound;
-  private final int iterateStep;
-
-  private final UserRenderer userRenderer;
-  private final List<User> allPossibleVoters;
+  private final BallotDefinition definition;
+  private final ViewerContext viewerContext;
+  private final PermissionEvaluator permissionEvaluator;
+  private final VoteConfig possibleVotersSource;
+  private List<User> allPossibleVoters;
+  private Set<String> allPossibleVoterNames;
 
   public VoteConfig(PermissionEvaluator permissionEvaluator, Map<String, String> parameters) {
-    String tmpTitle = StringUtils.defaultString(parameters.get(VoteConfig.KEY_TITLE)).trim();
-    if (StringUtils.isBlank(tmpTitle)) {
-      //in case of the vote macro there was the possibility to pass the title anonymously
-      tmpTitle = StringUtils.defaultString(parameters.get("0")).trim();
-    }
-    uniqueId = SurveyUtils.getIntegerFromString(parameters.get(KEY_UNIQUE_ID), -1);
-    title = tmpTitle;
-    renderTitleLevel = SurveyUtils.getIntegerFromString(parameters.get(KEY_RENDER_TITLE_LEVEL), 3);
-    changeableVotes = Boolean.parseBoolean(parameters.get(KEY_CHANGEABLE_VOTES));
-    voters = SurveyUtils.getListFromStringCommaSeparated(StringUtils.defaultString(parameters.get(KEY_VOTERS)));
-    viewers = SurveyUtils.getListFromStringCommaSeparated(StringUtils.defaultString(parameters.get(KEY_VIEWERS)));
-    managers = SurveyUtils.getListFromStringCommaSeparated(StringUtils.defaultString(parameters.get(KEY_MANAGERS)));
-    alwaysShowResults = Boolean.parseBoolean(parameters.get(KEY_ALWAYS_SHOW_RESULTS));
-    showComments = SurveyUtils.getBooleanFromString(parameters.get(KEY_SHOW_COMMENTS), false);
-    locked = SurveyUtils.getBooleanFromString(parameters.get(KEY_LOCKED), false);
-    showCondensed = SurveyUtils.getBooleanFromString(parameters.get(KEY_SHOW_CONDENSED), false);
-    anonymous = SurveyUtils.getBooleanFromString(parameters.get(KEY_ANONYMOUS_MODE), false);
-
-    final User remoteUser = permissionEvaluator.getRemoteUser();
-
-    if (remoteUser instanceof AnonymousUser) {
-      canSeeResults = viewers.isEmpty(); // if the viewers field contains something then anonymous probably is not allowed, obviously
-      canTakeSurvey = false;
-      canManageSurvey = false;
-    } else {
-      canSeeResults = permissionEvaluator.isPermissionListEmptyOrContainsGivenUser(viewers, remoteUser);
-      canTakeSurvey = permissionEvaluator.isPermissionListEmptyOrContainsGivenUser(voters, remoteUser);
-      canManageSurvey = permissionEvaluator.isPermissionListEmptyOrContainsGivenUser(managers, remoteUser);
-    }
-    visibleVoters = permissionEvaluator.canSeeVoters(parameters.get(KEY_VISIBLE_VOTERS), canSeeResults) && canManageSurvey;
-    visiblePendingVoters = permissionEvaluator.canSeeVoters(parameters.get(KEY_VISIBLE_PENDING_VOTERS), canSeeResults) && !voters.isEmpty();
-
-    this.startBound = SurveyUtils.getIntegerFromString(parameters.get(KEY_START_BOUND), DEFAULT_START_BOUND);
-    this.iterateStep = SurveyUtils.getIntegerFromString(parameters.get(KEY_ITERATE_STEP), DEFAULT_ITERATE_STEP);
-
-    UserVisualization userVisualization = SurveyUtils.getUserVisualizationFromString(parameters.get(KEY_USER_VISUALIZATION), null);
-    if (userVisualization == null) {
-      // default and backwards compatibility for version <= 2.8.0
-      boolean visibleVotersWiki = SurveyUtils.getBooleanFromString(parameters.get(KEY_VISIBLE_VOTERS_WIKI), false);
-      if (visibleVotersWiki) {
-        userVisualization = UserVisualization.LINKED_LOGIN;
-      } else {
-        userVisualization = UserVisualization.PLAIN_LOGIN;
-      }
-    }
-    this.userRenderer = new UserRenderer(userVisualization);
+    this(permissionEvaluator, new BallotDefinition(parameters));
+  }
 
-    Set<User> users = Sets.newHashSet();
-    for (String configuredVoter : voters) {
-      users.addAll(permissionEvaluator.getActiveUsersForGroupOrUser(configuredVoter));
-    }
-    this.allPossibleVoters = Lists.newArrayList(users);
+  public VoteConfig(PermissionEvaluator permissionEvaluator, BallotDefinition definition) {
+    this.definition = definition;
+    this.viewerContext = new ViewerContext(permissionEvaluator, definition);
+    this.permissionEvaluator = permissionEvaluator;
+    this.possibleVotersSource = null;
   }
 
+  /**
+   * The config of a ballot within the given survey, the viewer has the same permissions as on the survey.
+   */
   public VoteConfig(SurveyConfig surveyConfig) {
-    title = surveyConfig.getTitle();
-
-    renderTitleLevel = surveyConfig.getRenderTitleLevel() > 0 ? surveyConfig.getRenderTitleLevel() + 1 : 0;
-
-    changeableVotes = surveyConfig.isChangeableVotes();
-    voters = surveyConfig.getVoters();
-    viewers = surveyConfig.getViewers();
-    managers = surveyConfig.getManagers();
-    alwaysShowResults = surveyConfig.isAlwaysShowResults();
-    showComments = surveyConfig.isShowComments();
-    locked = surveyConfig.isLocked();
-    showCondensed = surveyConfig.isShowCondensed();
-    anonymous = surveyConfig.isAnonymous();
-    uniqueId = surveyConfig.getUniqueId();
-
-    canSeeResults = surveyConfig.isCanSeeResults();
-    canTakeSurvey = surveyConfig.isCanTakeSurvey();
-    canManageSurvey = surveyConfig.isCanManageSurvey();
-
-    visibleVoters = surveyConfig.isVisibleVoters();
-    visiblePendingVoters = surveyConfig.isVisiblePendingVoters();
+    definition = new BallotDefinition(surveyConfig.getDefinition());
+    viewerContext = surveyConfig.getViewerContext();
+    permissionEvaluator = null;
+    possibleVotersSource = surveyConfig;
+  }
 
-    startBound = surveyConfig.getStartBound();
-    iterateStep = surveyConfig.getIterateStep();
+  public BallotDefinition getDefinition() {
+    return definition;
+  }
 
-    userRenderer = surveyConfig.getUserRenderer();
-    allPossibleVoters = surveyConfig.getAllPossibleVoters();
+  public ViewerContext getViewerContext() {
+    return viewerContext;
   }
 
   public String getTitle() {
-    return title;
+    return definition.getTitle();
   }
 
   public int getRenderTitleLevel() {
-    return renderTitleLevel;
+    return definition.getRenderTitleLevel();
   }
 
   public Boolean isChangeableVotes() {
-    return changeableVotes;
+    return definition.isChangeableVotes();
   }
 
   public List<String> getVoters() {
-    return voters;
+    return definition.getVoters();
   }
 
   public List<String> getViewers() {
-    return viewers;
+    return definition.getViewers();
   }
 
   public List<String> getManagers() {
-    return managers;
+    return definition.getManagers();
   }
 
   public boolean isAlwaysShowResults() {
-    return alwaysShowResults;
+    return definition.isAlwaysShowResults();
   }
 
   public Boolean isShowComments() {
-    return showComments;
+    return definition.isShowComments();
   }
 
   public Boolean isLocked() {
-    return locked;
+    return definition.isLocked();
   }
 
   public Boolean isVisibleVoters() {
-    return visibleVoters;
+    return viewerContext.isVisibleVoters();
   }
 
   public boolean isVisiblePendingVoters() {
-    return visiblePendingVoters;
+    return viewerContext.isVisiblePendingVoters();
   }
 
   public Boolean isCanSeeResults() {
-    return canSeeResults;
+    return viewerContext.isCanSeeResults();
   }
 
   public Boolean isCanTakeSurvey() {
-    return canTakeSurvey;
+    return viewerContext.isCanTakeSurvey();
   }
 
   public boolean isCanManageSurvey() {
-    return canManageSurvey;
+    return viewerContext.isCanManageSurvey();
   }
 
   public boolean isShowCondensed() {
-    return showCondensed;
+    return definition.isShowCondensed();
   }
 
   public boolean isAnonymous() {
-    return anonymous;
+    return definition.isAnonymous();
   }
 
   public int getUniqueId() {
-    return uniqueId;
+    return definition.getUniqueId();
   }
 
   public int getStartBound() {
-    return startBound;
+    return definition.getStartBound();
   }
 
   public int getIterateStep() {
-    return iterateStep;
+    return definition.getIterateStep();
   }
 
   public UserRenderer getUserRenderer() {
-    return userRenderer;
+    return definition.getUserRenderer();
   }
 
+  /**
+   * The configured groups are only expanded on the first call, as this is just needed to render the pending voters.
+   * Ballots of a survey share the expansion of the survey.
+   *
+   * @return all active users of the configured voters, not modifiable
+   */
   public List<User> getAllPossibleVoters() {
+    if (possibleVotersSource != null) {
+      return possibleVotersSource.getAllPossibleVoters();
+    }
+    if (allPossibleVoters == null) {
+      Set<User> users = Sets.newLinkedHashSet();
+      for (String configuredVoter : definition.getVoters()) {
+        users.addAll(permissionEvaluator.getActiveUsersForGroupOrUser(configuredVoter));
+      }
+      allPossibleVoters = Collections.unmodifiableList(Lists.newArrayList(users));
+    }
     return allPossibleVoters;
   }
 
+  /**
+   * Like {@link #getAllPossibleVoters()}, but only the names, so the pending voters can be counted without the users.
+   *
+   * @return the names of all active users of the configured voters, not modifiable
+   */
+  public Set<String> getAllPossibleVoterNames() {
+    if (possibleVotersSource != null) {
+      return possibleVotersSource.getAllPossibleVoterNames();
+    }
+    if (allPossibleVoterNames == null) {
+      Set<String> names = Sets.newLinkedHashSet();
+      for (String configuredVoter : definition.getVoters()) {
+        names.addAll(permissionEvaluator.getActiveUserNamesForGroupOrUser(configuredVoter));
+      }
+      allPossibleVoterNames = Collections.unmodifiableSet(names);
+    }
+    return allPossibleVoterNames;
+  }
+
   @Override
   public String toString() {
     return "VoteConfig{" +
-            "renderTitleLevel=" + renderTitleLevel +
-            ", changeableVotes=" + changeableVotes +
-            ", voters=" + voters +
-            ", viewers=" + viewers +
-            ", managers=" + managers +
-            ", showComments=" + showComments +
-            ", locked=" + locked +
-            ", visibleVoters=" + visibleVoters +
-            ", visiblePendingVoters=" + visiblePendingVoters +
-            ", showCondensed=" + showCondensed +
-            ", anonymous=" + anonymous +
-            ", uniqueId=" + uniqueId +
-            ", canSeeResults=" + canSeeResults +
-            ", canTakeSurvey=" + canTakeSurvey +
-            ", canManageSurvey=" + canManageSurvey +
-            ", startBound=" + startBound +
-            ", iterateStep=" + iterateStep +
-            ", userRenderer=" + userRenderer +
+            "definition=" + definition +
+            ", viewerContext=" + viewerContext +
             '}';
   }
-}
\ No newline at end of file
+}
@@ -18,17 +18,15 @@ import com.atlassian.confluence.core.ContentEntityObject;
 import com.atlassian.confluence.macro.Macro;
 import com.atlassian.confluence.macro.MacroExecutionException;
 import com.atlassian.confluence.pages.Comment;
-import com.atlassian.confluence.xhtml.api.MacroDefinition;
-import com.atlassian.confluence.xhtml.api.MacroDefinitionHandler;
-import com.atlassian.confluence.xhtml.api.XhtmlContent;
 import com.atlassian.extras.common.log.Logger;
 import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
 import com.atlassian.templaterenderer.TemplateRenderer;
 import org.apache.commons.lang3.StringUtils;
 import org.hivesoft.confluence.macros.MacroConstructionResult;
-import org.hivesoft.confluence.macros.survey.SurveyMacro;
 import org.hivesoft.confluence.model.vote.Ballot;
 import org.hivesoft.confluence.model.vote.Choice;
+import org.hivesoft.confluence.utils.PageMacroIndex;
+import org.hivesoft.confluence.utils.PageMacroIndex.BallotTitle;
 import org.hivesoft.confluence.utils.SurveyManager;
 import org.hivesoft.confluence.utils.SurveyUtils;
 import org.hivesoft.confluence.utils.VelocityAbstractionHelper;
@@ -52,13 +50,13 @@ public class VoteMacro implements Macro {
   private final PluginSettingsFactory pluginSettingsFactory;
   private final SurveyManager surveyManager;
   private final TemplateRenderer renderer;
-  private final XhtmlContent xhtmlContent;
+  private final PageMacroIndex pageMacroIndex;
   private final VelocityAbstractionHelper velocityAbstractionHelper;
 
-  public VoteMacro(SurveyManager surveyManager, TemplateRenderer renderer, XhtmlContent xhtmlContent, PluginSettingsFactory pluginSettingsFactory, VelocityAbstractionHelper velocityAbstractionHelper) {
+  public VoteMacro(SurveyManager surveyManager, TemplateRenderer renderer, PageMacroIndex pageMacroIndex, PluginSettingsFactory pluginSettingsFactory, VelocityAbstractionHelper velocityAbstractionHelper) {
     this.surveyManager = surveyManager;
     this.renderer = renderer;
-    this.xhtmlContent = xhtmlContent;
+    this.pageMacroIndex = pageMacroIndex;
     this.pluginSettingsFactory = pluginSettingsFactory;
     this.velocityAbstractionHelper = velocityAbstractionHelper;
   }
@@ -133,43 +131,21 @@ public class VoteMacro implements Macro {
 
       //TODO: issue #53: Migrate question+answer to the uniqueId parameter or a random number if not present (and then stored as uniqueId)
       //                 1. determine if it has old votes and comments stored to migrate
-      xhtmlContent.handleMacroDefinitions(conversionContext.getEntity().getBodyAsString(), conversionContext, new MacroDefinitionHandler() {
-        @Override
-        public void handle(MacroDefinition macroDefinition) {
-          if (VOTE_MACRO.equals(macroDefinition.getName())) {
-            final Map<String, String> parameters = macroDefinition.getParameters();
-            String currentTitle = StringUtils.defaultString(parameters.get(VoteConfig.KEY_TITLE)).trim();
-            if (voteMacroTitle.equalsIgnoreCase(currentTitle)) {
-              if (voteMacroTitles.contains(currentTitle)) {
-                LOG.info("A " + VOTE_MACRO + "-macro must not have the same title / question: " + currentTitle + " on the same page!");
-                if (voteMacroTitles.contains(voteMacroTitle)) {
-                  voteMacroTitles.add(voteMacroTitle + ".vote");
-                }
-              } else {
-                voteMacroTitles.add(currentTitle);
-              }
-            }
+      for (BallotTitle ballotTitle : pageMacroIndex.getMacros(conversionContext.getEntity()).getBallotTitles(voteMacroTitle)) {
+        final String currentTitle = ballotTitle.getTitle();
+        if (voteMacroTitles.contains(currentTitle)) {
+          if (ballotTitle.isSurveyRow()) {
+            LOG.info("A survey-macro should not have the same ballot as this vote " + currentTitle);
+          } else {
+            LOG.info("A " + VOTE_MACRO + "-macro must not have the same title / question: " + currentTitle + " on the same page!");
           }
-          if (SurveyMacro.SURVEY_MACRO.equals(macroDefinition.getName())) {
-            final String[] lines = macroDefinition.getBodyText().split("\n");
-            for (String line : lines) {
-              if (StringUtils.isNotBlank(line)) {
-                final String currentBallotTitle = line.split("\\-")[0].trim();
-                if (voteMacroTitle.equalsIgnoreCase(currentBallotTitle)) {
-                  if (voteMacroTitles.contains(currentBallotTitle)) {
-                    LOG.info("A survey-macro should not have the same ballot as this vote " + currentBallotTitle);
-                    if (voteMacroTitles.contains(voteMacroTitle)) {
-                      voteMacroTitles.add(voteMacroTitle + ".survey");
-                    }
-                  } else {
-                    voteMacroTitles.add(currentBallotTitle);
-                  }
-                }
-              }
-            }
+          if (voteMacroTitles.contains(voteMacroTitle)) {
+            voteMacroTitles.add(voteMacroTitle + (ballotTitle.isSurveyRow() ? ".survey" : ".vote"));
           }
+        } else {
+          voteMacroTitles.add(currentTitle);
         }
-      });
+      }
       if (voteMacroTitles.contains(voteMacroTitle + ".vote") || voteMacroTitles.contains(voteMacroTitle + ".survey")) {
         throw new MacroExecutionException("The " + VOTE_MACRO + "-macro with title '" + voteMacroTitle + "' exists more then one time on this page or has the same question than a survey. That is not allowed. Please change one of them!");
       }
@@ -11,16 +11,12 @@
 package org.hivesoft.confluence.model.vote;
 
 import com.atlassian.user.User;
-import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
 import org.apache.commons.lang3.StringUtils;
 import org.hivesoft.confluence.macros.vote.VoteConfig;
 import org.hivesoft.confluence.utils.SurveyUtils;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
 
 /**
  * A vote object representing a voting ballot. Ballots can have several {@link Choice}s that can be voted on.
@@ -34,6 +30,10 @@ public class Ballot {
 
   private final List<Choice> choices;
   private final List<Comment> comments;
+  private final Map<String, Choice> choiceByVoterName = new HashMap<String, Choice>();
+  private final Map<String, Comment> commentByUserName = new HashMap<String, Comment>();
+  private BallotTally tally;
+  private List<User> pendingVoters;
 
   public Ballot(String title, String description, VoteConfig config, List<Choice> choices, List<Comment> comments) {
     this.title = title;
@@ -41,6 +41,20 @@ public class Ballot {
     this.config = config;
     this.choices = choices;
     this.comments = comments;
+
+    for (Choice choice : choices) {
+      choice.setBallot(this);
+      for (User voter : choice.getVoters()) {
+        if (!choiceByVoterName.containsKey(voter.getName())) {
+          choiceByVoterName.put(voter.getName(), choice);
+        }
+      }
+    }
+    for (Comment comment : comments) {
+      if (!commentByUserName.containsKey(comment.getUser().getName())) {
+        commentByUserName.put(comment.getUser().getName(), comment);
+      }
+    }
   }
 
   public String getTitle() {
@@ -59,8 +73,11 @@ public class Ballot {
     return choices;
   }
 
+  /**
+   * @return the comments of this ballot, not modifiable as they are indexed by user
+   */
   public List<Comment> getComments() {
-    return comments;
+    return Collections.unmodifiableList(comments);
   }
 
   /**
@@ -78,13 +95,44 @@ public class Ballot {
     return SurveyUtils.enrichStringWithHttpPattern(description);
   }
 
+  /**
+   * @return the first {@link Choice} the given user has voted for, looked up in the index kept by the choices
+   */
   public Choice getChoiceForUser(User user) {
-    for (Choice choice : choices) {
-      if (choice.getHasVotedFor(user)) {
-        return choice;
+    if (user == null) {
+      return null;
+    }
+    return choiceByVoterName.get(user.getName());
+  }
+
+  /**
+   * Called by a {@link Choice} of this ballot after the given voter was added.
+   */
+  void voterAdded(Choice choice, User voter) {
+    tally = null;
+    pendingVoters = null;
+    final Choice indexedChoice = choiceByVoterName.get(voter.getName());
+    if (indexedChoice == null || choices.indexOf(choice) < choices.indexOf(indexedChoice)) {
+      choiceByVoterName.put(voter.getName(), choice);
+    }
+  }
+
+  /**
+   * Called by a {@link Choice} of this ballot after the given voter was removed.
+   */
+  void voterRemoved(Choice choice, User voter) {
+    tally = null;
+    pendingVoters = null;
+    if (choiceByVoterName.get(voter.getName()) != choice) {
+      return;
+    }
+    choiceByVoterName.remove(voter.getName());
+    for (Choice otherChoice : choices) {
+      if (otherChoice.getHasVotedFor(voter)) {
+        choiceByVoterName.put(voter.getName(), otherChoice);
+        return;
       }
     }
-    return null;
   }
 
   public boolean getHasVoted(User user) {
@@ -111,12 +159,10 @@ public class Ballot {
    * @return The requested user's comment or null if not present.
    */
   public Comment getCommentForUser(User user) {
-    for (Comment comment : comments) {
-      if (user.equals(comment.getUser())) {
-        return comment;
-      }
+    if (user == null) {
+      return null;
     }
-    return null;
+    return commentByUserName.get(user.getName());
   }
 
   /**
@@ -143,14 +189,38 @@ public class Ballot {
   }
 
   /**
-   * Return pending {@code voters} determined by {@link #getAllPossibleVoters()} - {@link #getAllVoters()}.
+   * Return pending {@code voters} determined by {@link #getAllPossibleVoters()} - {@link #getAllVoters()}. The result is
+   * kept until votes are added or removed.
    *
-   * @return all pending {@code voters} of the ballot. Never {@code null}.
+   * @return all pending {@code voters} of the ballot, not modifiable. Never {@code null}.
    */
   public List<User> getAllPendingVoters() {
-    List<User> result = getAllPossibleVoters();
-    Iterables.removeAll(result, getAllVoters());
-    return result;
+    if (pendingVoters == null) {
+      final List<User> result = new ArrayList<User>();
+      for (User possibleVoter : getAllPossibleVoters()) {
+        if (!choiceByVoterName.containsKey(possibleVoter.getName())) {
+          result.add(possibleVoter);
+        }
+      }
+      pendingVoters = Collections.unmodifiableList(result);
+    }
+    return pendingVoters;
+  }
+
+  /**
+   * @return the number of pending {@code voters}, counted by name if they have not been asked for yet
+   */
+  public int getPendingVoterCount() {
+    if (pendingVoters != null) {
+      return pendingVoters.size();
+    }
+    int count = 0;
+    for (String possibleVoterName : config.getAllPossibleVoterNames()) {
+      if (!choiceByVoterName.containsKey(possibleVoterName)) {
+        count++;
+      }
+    }
+    return count;
   }
 
   public String getEmailStringOfAllVoters() {
@@ -176,24 +246,27 @@ public class Ballot {
   }
 
   /**
-   * @return The calculated EndBound Value (out of StartBound + iteration-steps)
+   * @return the statistics of the current votes, only computed again after votes have been added or removed
    */
-  private int getEndBound() {
-    return config.getStartBound() + (choices.size() - 1) * config.getIterateStep();
+  public BallotTally getTally() {
+    if (tally == null) {
+      tally = new BallotTally(choices, config.getStartBound(), config.getIterateStep());
+    }
+    return tally;
   }
 
   /**
    * @return The calculated <code>real<code> LowerBound Value
    */
   public int getLowerBound() {
-    return config.getStartBound() > getEndBound() ? getEndBound() : config.getStartBound();
+    return getTally().getLowerBound();
   }
 
   /**
    * @return The calculated <code>real<code> UpperBound Value
    */
   public int getUpperBound() {
-    return config.getStartBound() > getEndBound() ? config.getStartBound() : getEndBound();
+    return getTally().getUpperBound();
   }
 
   public int getCurrentValueByIndex(int index) {
@@ -201,37 +274,21 @@ public class Ballot {
   }
 
   public int getAveragePercentage() {
-    int choiceIndex = choices.size() - 1;
-    int totalVoteCount = 0;
-    int weightedChoices = 0;
-    for (Choice choice : choices) {
-      final int voteCount = choice.getVoters().size();
-      weightedChoices += choiceIndex * voteCount;
-      choiceIndex--;
-      totalVoteCount += voteCount;
-    }
-    if (totalVoteCount == 0) {
-      return 0;
-    }
-    return weightedChoices * 100 / ((choices.size() - 1) * totalVoteCount);
+    return getTally().getAveragePercentage();
   }
 
   /**
    * @return The bounds for this ballot if different then the default
    */
   public String getBoundsIfNotDefault() {
-    return (config.getStartBound() == 1 && config.getIterateStep() == 1) ? "" : "(" + config.getStartBound() + "-" + getEndBound() + ")";
+    return getTally().getBoundsIfNotDefault();
   }
 
   /**
    * @return a count of all votes that have been cast
    */
   public int getTotalVoteCount() {
-    int totalVotes = 0;
-    for (Choice choice : choices) {
-      totalVotes += choice.getVoters().size();
-    }
-    return totalVotes;
+    return getTally().getTotalVoteCount();
   }
 
   /**
@@ -241,12 +298,7 @@ public class Ballot {
    * @return the percentage of the total vote represented by the provided {@link Choice}. The percentage is given as a whole number, rather than a floating point number.
    */
   public int getPercentageOfVoteForChoice(Choice choice) {
-    int totalVoteCount = getTotalVoteCount();
-    if (totalVoteCount != 0) {
-      return (100 * choice.getVoters().size()) / totalVoteCount;
-    } else {
-      return 0;
-    }
+    return getTally().getPercentage(choice);
   }
 
   /**
@@ -255,27 +307,17 @@ public class Ballot {
    * @return The calculated average response.
    */
   public float computeAverage() {
-    int total = 0;
-    int totalVoteCount = getTotalVoteCount();
-    if (totalVoteCount == 0) {
-      return 0.0f;
-    }
-
-    Collection<Choice> choices = this.getChoices();
-    //the first choice gets the highest number, so calculate last
-    int iCur = config.getStartBound() + (choices.size() - 1) * config.getIterateStep();
-    for (Choice choice : choices) {
-      total += iCur * choice.getVoters().size();
-      iCur -= config.getIterateStep();
-    }
-    return ((float) total) / totalVoteCount;
+    return getTally().getAverage();
   }
 
   /**
    * format the output to a default of 2 digits, format like "0.##"
    */
   public String computeFormattedAverage(String format) {
-    return new java.text.DecimalFormat(format).format((double) computeAverage());
+    if (BallotTally.DEFAULT_AVERAGE_FORMAT.equals(format)) {
+      return getTally().getFormattedAverage();
+    }
+    return BallotTally.format(computeAverage(), format);
   }
 
   /**
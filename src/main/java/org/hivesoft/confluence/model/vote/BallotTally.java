@@ -0,0 +1,119 @@
+/**
+ * Copyright (c) 2006-2015, Confluence Community
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hivesoft.confluence.model.vote;
+
+import java.text.DecimalFormat;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable statistics of a {@link Ballot}, computed in one pass over the choices. The ballot creates a new tally after
+ * votes have been added or removed, so templates and exports can ask for the numbers as often as they like.
+ */
+public class BallotTally {
+  public static final String DEFAULT_AVERAGE_FORMAT = "0.00";
+
+  private final Map<String, Integer> voteCounts = new HashMap<String, Integer>();
+  private final int totalVoteCount;
+  private final int averagePercentage;
+  private final float average;
+  private final String formattedAverage;
+  private final int lowerBound;
+  private final int upperBound;
+  private final String boundsIfNotDefault;
+
+  public BallotTally(Collection<Choice> choices, int startBound, int iterateStep) {
+    final int endBound = startBound + (choices.size() - 1) * iterateStep;
+    int choiceIndex = choices.size() - 1;
+    int choiceValue = endBound;
+    int total = 0;
+    int weightedChoices = 0;
+    int weightedValues = 0;
+    for (Choice choice : choices) {
+      final int voteCount = choice.getVoters().size();
+      voteCounts.put(choice.getDescription(), voteCount);
+      total += voteCount;
+      //the first choice gets the highest index and value
+      weightedChoices += choiceIndex * voteCount;
+      weightedValues += choiceValue * voteCount;
+      choiceIndex--;
+      choiceValue -= iterateStep;
+    }
+
+    this.totalVoteCount = total;
+    this.averagePercentage = total == 0 || choices.size() < 2 ? 0 : weightedChoices * 100 / ((choices.size() - 1) * total);
+    this.average = total == 0 ? 0.0f : ((float) weightedValues) / total;
+    this.formattedAverage = format(average, DEFAULT_AVERAGE_FORMAT);
+    this.lowerBound = Math.min(startBound, endBound);
+    this.upperBound = Math.max(startBound, endBound);
+    this.boundsIfNotDefault = (startBound == 1 && iterateStep == 1) ? "" : "(" + startBound + "-" + endBound + ")";
+  }
+
+  static String format(float average, String format) {
+    return new DecimalFormat(format).format((double) average);
+  }
+
+  /**
+   * @return the number of votes of the given choice, 0 if it is not part of the ballot
+   */
+  public int getVoteCount(Choice choice) {
+    final Integer voteCount = voteCounts.get(choice.getDescription());
+    return voteCount == null ? 0 : voteCount;
+  }
+
+  /**
+   * @return the percentage of the total vote represented by the given choice as a whole number
+   */
+  public int getPercentage(Choice choice) {
+    return totalVoteCount == 0 ? 0 : 100 * getVoteCount(choice) / totalVoteCount;
+  }
+
+  public int getTotalVoteCount() {
+    return totalVoteCount;
+  }
+
+  public int getAveragePercentage() {
+    return averagePercentage;
+  }
+
+  public float getAverage() {
+    return average;
+  }
+
+  /**
+   * @return the average formatted with {@link #DEFAULT_AVERAGE_FORMAT}
+   */
+  public String getFormattedAverage() {
+    return formattedAverage;
+  }
+
+  public int getLowerBound() {
+    return lowerBound;
+  }
+
+  public int getUpperBound() {
+    return upperBound;
+  }
+
+  public String getBoundsIfNotDefault() {
+    return boundsIfNotDefault;
+  }
+
+  @Override
+  public String toString() {
+    return "BallotTally{" +
+            "voteCounts=" + voteCounts +
+            ", totalVoteCount=" + totalVoteCount +
+            ", average=" + average +
+            '}';
+  }
+}
@@ -15,31 +15,43 @@ import org.apache.commons.lang.StringUtils;
 import org.hivesoft.confluence.utils.SurveyUtils;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 /**
  * A vote object representing an available <code>Choice</code> that can be voted for on a {@link Ballot}.
+ * Voters are kept in the order they voted, membership is tested on their ids in the {@link VoterIdSource} of the
+ * ballot, so adding voters and testing for them takes constant time.
  */
 public class Choice {
 
   private final String description;
-  private final List<User> voters;
+  private final List<User> voters = new ArrayList<User>();
+  private final VoterIdSource voterIdSource;
+  private final BitSet voterIds = new BitSet();
+  private Ballot ballot;
 
   public static Choice emptyChoice(Choice choiceWithVotes) {
-    return new Choice(choiceWithVotes.getDescription(), Collections.<User>emptyList());
+    return new Choice(choiceWithVotes.getDescription(), choiceWithVotes.voterIdSource);
   }
 
   /**
    * @param description the description of the <code>Choice</code>
    */
   public Choice(String description) {
-    this(description, new ArrayList<User>());
+    this(description, new ChoiceVoterIds());
   }
 
-  private Choice(String description, List<User> voters) {
+  /**
+   * @param voterIdSource the ids shared by all choices of a ballot, membership of voters is tested on them
+   */
+  public Choice(String description, VoterIdSource voterIdSource) {
     this.description = description;
-    this.voters = voters;
+    this.voterIdSource = voterIdSource;
   }
 
   /**
@@ -57,21 +69,49 @@ public class Choice {
    * @param voter the username to add to this <code>Choice</code>
    */
   public void voteFor(User voter) {
-    if (!getHasVotedFor(voter)) {
+    final int voterId = voterIdSource.getOrAddId(voter.getName());
+    if (!voterIds.get(voterId)) {
+      voterIds.set(voterId);
       voters.add(voter);
+      if (ballot != null) {
+        ballot.voterAdded(this, voter);
+      }
     }
   }
 
   public void removeVoteFor(User voter) {
-    voters.remove(voter);
+    if (!getHasVotedFor(voter)) {
+      return;
+    }
+    voterIds.clear(voterIdSource.getId(voter.getName()));
+    for (Iterator<User> iterator = voters.iterator(); iterator.hasNext(); ) {
+      if (iterator.next().getName().equals(voter.getName())) {
+        iterator.remove();
+        break; // the voter ids make sure every voter is only contained once
+      }
+    }
+    if (ballot != null) {
+      ballot.voterRemoved(this, voter);
+    }
+  }
+
+  /**
+   * The ballot is notified of every added or removed voter, so it can keep its index of the choice of each voter.
+   */
+  void setBallot(Ballot ballot) {
+    this.ballot = ballot;
   }
 
   public List<User> getVoters() {
-    return voters;
+    return Collections.unmodifiableList(voters);
   }
 
   public boolean getHasVotedFor(User user) {
-    return voters.contains(user);
+    if (user == null) {
+      return false;
+    }
+    final int voterId = voterIdSource.getId(user.getName());
+    return voterId >= 0 && voterIds.get(voterId);
   }
 
   public String getEmailStringOfAllVoters() {
@@ -108,4 +148,27 @@ public class Choice {
             ", voters=" + voters +
             '}';
   }
+
+  /**
+   * Ids for a choice not sharing them with the other choices of its ballot.
+   */
+  private static class ChoiceVoterIds implements VoterIdSource {
+    private final Map<String, Integer> ids = new HashMap<String, Integer>();
+
+    @Override
+    public int getId(String userName) {
+      final Integer id = ids.get(userName);
+      return id == null ? -1 : id;
+    }
+
+    @Override
+    public int getOrAddId(String userName) {
+      Integer id = ids.get(userName);
+      if (id == null) {
+        id = ids.size();
+        ids.put(userName, id);
+      }
+      return id;
+    }
+  }
 }
@@ -17,7 +17,10 @@ import com.atlassian.sal.api.user.UserManager;
 import org.apache.commons.lang3.StringUtils;
 import org.hivesoft.confluence.rest.callbacks.TransactionCallbackGetConfig;
 import org.hivesoft.confluence.rest.callbacks.TransactionCallbackSetConfig;
+import org.hivesoft.confluence.rest.representations.LockStatisticsRepresentation;
 import org.hivesoft.confluence.rest.representations.SurveyConfigRepresentation;
+import org.hivesoft.confluence.storage.BallotLockService;
+import org.hivesoft.confluence.storage.ConfigurableVoteStore;
 
 import javax.ws.rs.*;
 import javax.ws.rs.core.MediaType;
@@ -29,15 +32,27 @@ public class AdminResource {
 
   public final static String SURVEY_PLUGIN_KEY_ICON_SET = "survey-plugin.iconSet";
   public final static String SURVEY_PLUGIN_ICON_SET_DEFAULT = "default";
+  public final static String SURVEY_PLUGIN_KEY_VOTE_STORE = "survey-plugin.voteStore";
+  public final static String SURVEY_PLUGIN_VOTE_STORE_DEFAULT = ConfigurableVoteStore.BACKEND_CONTENT_PROPERTIES;
+  /**
+   * the backend selected before it was switched the first time, ballots not copied since are still kept there
+   */
+  public final static String SURVEY_PLUGIN_KEY_VOTE_STORE_ORIGIN = "survey-plugin.voteStore.origin";
+  public final static String SURVEY_PLUGIN_KEY_WRITE_BEHIND = "survey-plugin.writeBehind";
+  public final static String SURVEY_PLUGIN_KEY_WRITE_BEHIND_FLUSH_INTERVAL = "survey-plugin.writeBehind.flushInterval";
+  public final static String SURVEY_PLUGIN_KEY_WRITE_BEHIND_CAPACITY = "survey-plugin.writeBehind.capacity";
+  public final static String SURVEY_PLUGIN_KEY_WRITE_BEHIND_DURABILITY = "survey-plugin.writeBehind.durability";
 
   private final UserManager userManager;
   private final PluginSettingsFactory pluginSettingsFactory;
   private final TransactionTemplate transactionTemplate;
+  private final BallotLockService ballotLockService;
 
-  public AdminResource(UserManager userManager, PluginSettingsFactory pluginSettingsFactory, TransactionTemplate transactionTemplate) {
+  public AdminResource(UserManager userManager, PluginSettingsFactory pluginSettingsFactory, TransactionTemplate transactionTemplate, BallotLockService ballotLockService) {
     this.userManager = userManager;
     this.pluginSettingsFactory = pluginSettingsFactory;
     this.transactionTemplate = transactionTemplate;
+    this.ballotLockService = ballotLockService;
   }
 
   @GET
@@ -61,6 +76,16 @@ public class AdminResource {
     return Response.status(Response.Status.UNAUTHORIZED).build();
   }
 
+  @GET
+  @Path("/locks")
+  @Produces(MediaType.APPLICATION_JSON)
+  public Response getLockStatistics() {
+    if (isAdmin()) {
+      return Response.ok(new LockStatisticsRepresentation(ballotLockService.getLockWaitStatistics())).build();
+    }
+    return Response.status(Response.Status.UNAUTHORIZED).build();
+  }
+
   private boolean isAdmin() {
     final String remoteUser = userManager.getRemoteUsername();
     return StringUtils.isNotBlank(remoteUser) && userManager.isSystemAdmin(remoteUser);
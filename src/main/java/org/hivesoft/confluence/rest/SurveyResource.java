@@ -18,7 +18,6 @@ import com.atlassian.confluence.pages.AbstractPage;
 import com.atlassian.confluence.pages.Attachment;
 import com.atlassian.confluence.pages.PageManager;
 import com.atlassian.confluence.xhtml.api.MacroDefinition;
-import com.atlassian.confluence.xhtml.api.MacroDefinitionHandler;
 import com.atlassian.confluence.xhtml.api.MacroDefinitionUpdater;
 import com.atlassian.confluence.xhtml.api.XhtmlContent;
 import com.atlassian.extras.common.log.Logger;
@@ -30,6 +29,7 @@ import org.hivesoft.confluence.macros.survey.SurveyMacro;
 import org.hivesoft.confluence.macros.vote.VoteConfig;
 import org.hivesoft.confluence.model.Survey;
 import org.hivesoft.confluence.model.vote.Ballot;
+import org.hivesoft.confluence.model.vote.BallotTally;
 import org.hivesoft.confluence.model.vote.Choice;
 import org.hivesoft.confluence.model.vote.Comment;
 import org.hivesoft.confluence.model.wrapper.InvalidPage;
@@ -39,8 +39,11 @@ import org.hivesoft.confluence.rest.exceptions.MacroReconstructionException;
 import org.hivesoft.confluence.rest.representations.CSVExportRepresentation;
 import org.hivesoft.confluence.rest.representations.LockRepresentation;
 import org.hivesoft.confluence.rest.representations.ResetRepresentation;
+import org.hivesoft.confluence.utils.PageMacroIndex;
+import org.hivesoft.confluence.utils.PageMacroIndex.IndexedMacro;
 import org.hivesoft.confluence.utils.SurveyManager;
 import org.hivesoft.confluence.utils.SurveyUtils;
+import org.hivesoft.confluence.utils.UserRenderer;
 
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
@@ -63,14 +66,16 @@ public class SurveyResource {
   private final TransactionTemplate transactionTemplate;
   private final PageManager pageManager;
   private final XhtmlContent xhtmlContent;
+  private final PageMacroIndex pageMacroIndex;
   private final I18nResolver i18nResolver;
   private final SurveyManager surveyManager;
 
-  public SurveyResource(TransactionTemplate transactionTemplate, PageManager pageManager, XhtmlContent xhtmlContent, I18nResolver i18nResolver, SurveyManager surveyManager) {
+  public SurveyResource(TransactionTemplate transactionTemplate, PageManager pageManager, XhtmlContent xhtmlContent, PageMacroIndex pageMacroIndex, I18nResolver i18nResolver, SurveyManager surveyManager) {
     this.transactionTemplate = transactionTemplate;
     this.pageManager = pageManager;
     this.surveyManager = surveyManager;
     this.xhtmlContent = xhtmlContent;
+    this.pageMacroIndex = pageMacroIndex;
     this.i18nResolver = i18nResolver;
   }
 
@@ -113,11 +118,16 @@ public class SurveyResource {
             i18nResolver.getText("surveyplugin.export.comments")
     });
 
+    List<String> formattedVoters = new ArrayList<String>();
     List<String> comments = new ArrayList<String>();
     for (Ballot ballot : survey.getBallots()) {
+      final BallotTally tally = ballot.getTally();
+      final UserRenderer userRenderer = ballot.getConfig().getUserRenderer();
       for (Choice choice : ballot.getChoices()) {
+        formattedVoters.clear();
         comments.clear();
         for (User voter : choice.getVoters()) {
+          formattedVoters.add(userRenderer.renderForCsv(voter));
           Comment comment = ballot.getCommentForUser(voter);
           if (comment != null) {
             comments.add(comment.getComment());
@@ -128,8 +138,8 @@ public class SurveyResource {
         String[] line = new String[]{
                 ballot.getTitle(),
                 choice.getDescription(),
-                choice.getVoters().size() + " " + i18nResolver.getText("surveyplugin.survey.summary.votes") + ", " + ballot.getPercentageOfVoteForChoice(choice) + "%",
-                getVotersForCsv(ballot, choice),
+                tally.getVoteCount(choice) + " " + i18nResolver.getText("surveyplugin.survey.summary.votes") + ", " + tally.getPercentage(choice) + "%",
+                StringUtils.join(formattedVoters, ","),
                 StringUtils.join(comments, ","),
         };
         // @formatter:on
@@ -171,6 +181,10 @@ public class SurveyResource {
 
     String body;
     try {
+      if (!containsSurveyWithTitle(surveyTitle, page)) {
+        LOG.info("No survey with title " + surveyTitle + " found, page is not updated.");
+        return Response.ok(lockRepresentation).build();
+      }
       body = xhtmlContent.updateMacroDefinitions(page.getBodyAsString(), new DefaultConversionContext(page.toPageContext()), new MacroDefinitionUpdater() {
         @Override
         public MacroDefinition update(MacroDefinition macroDefinition) {
@@ -245,19 +259,12 @@ public class SurveyResource {
   private List<Survey> reconstructSurveysByTitle(final String surveyTitle, final ContentEntityObject contentEntityObject) throws MacroReconstructionException {
     final List<Survey> surveysFound = new ArrayList<Survey>();
     try {
-      xhtmlContent.handleMacroDefinitions(contentEntityObject.getBodyAsString(), new DefaultConversionContext(contentEntityObject.toPageContext()), new MacroDefinitionHandler() {
-        @Override
-        public void handle(MacroDefinition macroDefinition) {
-          if (SurveyMacro.SURVEY_MACRO.equals(macroDefinition.getName())) {
-            final Map<String, String> parameters = macroDefinition.getParameters();
-            Survey survey = surveyManager.reconstructSurveyFromPlainTextMacroBody(macroDefinition.getBodyText(), contentEntityObject, parameters);
-            String currentTitle = survey.getTitle();
-            if (surveyTitle.equalsIgnoreCase(currentTitle)) {
-              surveysFound.add(survey);
-            }
-          }
+      for (IndexedMacro macro : pageMacroIndex.getMacros(contentEntityObject).getSurveys()) {
+        // the title of the macro parameters is the title of the survey, so only matching surveys load their votes
+        if (surveyTitle.equalsIgnoreCase(macro.getTitle())) {
+          surveysFound.add(surveyManager.reconstructSurveyFromPlainTextMacroBody(macro.getBodyText(), contentEntityObject, macro.getParameters()));
         }
-      });
+      }
     } catch (XhtmlException e) {
       final String message = "There was a problem while parsing the Xhtml content: " + e.getMessage() + " for surveyTitle: " + surveyTitle;
       LOG.error(message, e);
@@ -270,12 +277,13 @@ public class SurveyResource {
     return surveysFound;
   }
 
-  private String getVotersForCsv(Ballot ballot, Choice choice) {
-    List<String> formattedVoters = new ArrayList<String>();
-    for (User voter : choice.getVoters()) {
-      formattedVoters.add(ballot.getConfig().getUserRenderer().renderForCsv(voter));
+  private boolean containsSurveyWithTitle(String surveyTitle, ContentEntityObject contentEntityObject) throws XhtmlException {
+    for (IndexedMacro macro : pageMacroIndex.getMacros(contentEntityObject).getSurveys()) {
+      if (surveyTitle.equalsIgnoreCase(macro.getTitle())) {
+        return true;
+      }
     }
-    return StringUtils.join(formattedVoters, ",");
+    return false;
   }
 
   private AbstractPage getPageObjectById(long pageId) {
@@ -10,21 +10,19 @@
  */
 package org.hivesoft.confluence.rest;
 
-import com.atlassian.confluence.content.render.xhtml.DefaultConversionContext;
 import com.atlassian.confluence.content.render.xhtml.XhtmlException;
 import com.atlassian.confluence.core.ContentEntityObject;
 import com.atlassian.confluence.pages.PageManager;
-import com.atlassian.confluence.xhtml.api.MacroDefinition;
-import com.atlassian.confluence.xhtml.api.MacroDefinitionHandler;
-import com.atlassian.confluence.xhtml.api.XhtmlContent;
 import com.atlassian.extras.common.log.Logger;
-import org.hivesoft.confluence.macros.survey.SurveyMacro;
-import org.hivesoft.confluence.macros.vote.VoteMacro;
-import org.hivesoft.confluence.model.Survey;
 import org.hivesoft.confluence.model.enums.VoteAction;
 import org.hivesoft.confluence.model.vote.Ballot;
 import org.hivesoft.confluence.rest.exceptions.MacroReconstructionException;
 import org.hivesoft.confluence.rest.representations.VoteRepresentation;
+import org.hivesoft.confluence.storage.BallotConflictException;
+import org.hivesoft.confluence.utils.PageMacroIndex;
+import org.hivesoft.confluence.utils.PageMacroIndex.BallotTitle;
+import org.hivesoft.confluence.utils.PageMacroIndex.IndexedMacro;
+import org.hivesoft.confluence.utils.PageMacroIndex.PageMacros;
 import org.hivesoft.confluence.utils.SurveyManager;
 
 import javax.ws.rs.*;
@@ -33,21 +31,22 @@ import javax.ws.rs.core.Response;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
 
 @Path("/pages/{pageId}/votes")
 public class VoteResource {
   private static final Logger.Log LOG = Logger.getInstance(VoteResource.class);
 
   private final PageManager pageManager;
-  private final XhtmlContent xhtmlContent;
+  private final PageMacroIndex pageMacroIndex;
   private final SurveyManager surveyManager;
 
-  public VoteResource(PageManager pageManager, XhtmlContent xhtmlContent, SurveyManager surveyManager) {
+  public VoteResource(PageManager pageManager, PageMacroIndex pageMacroIndex, SurveyManager surveyManager) {
     this.pageManager = pageManager;
     this.surveyManager = surveyManager;
-    this.xhtmlContent = xhtmlContent;
+    this.pageMacroIndex = pageMacroIndex;
   }
 
   @POST
@@ -73,31 +72,36 @@ public class VoteResource {
       return Response.ok(new VoteRepresentation(ballotTitle, choiceName, resultVoteAction.name())).build();
     } catch (MacroReconstructionException e) {
       return Response.status(Response.Status.BAD_REQUEST).entity("There was a problem finding the specified ballot: " + e.getMessage()).build();
+    } catch (BallotConflictException e) {
+      LOG.warn(e.getMessage());
+      return Response.status(Response.Status.CONFLICT).entity("The ballot is busy, please vote again: " + e.getMessage()).build();
     }
   }
 
+  /**
+   * Only the survey rows and vote macros carrying the ballot title are reconstructed, all other ballots of the page are not loaded.
+   */
   private Ballot reconstructBallotByTitleFromSurveyOrVote(final String ballotTitle, final ContentEntityObject contentEntityObject) throws MacroReconstructionException {
     final List<Ballot> ballotsFound = new ArrayList<Ballot>();
     try {
-      xhtmlContent.handleMacroDefinitions(contentEntityObject.getBodyAsString(), new DefaultConversionContext(contentEntityObject.toPageContext()), new MacroDefinitionHandler() {
-                @Override
-                public void handle(MacroDefinition macroDefinition) {
-                  final Map<String, String> parameters = macroDefinition.getParameters();
-                  if (SurveyMacro.SURVEY_MACRO.equals(macroDefinition.getName())) {
-                    final Survey survey = surveyManager.reconstructSurveyFromPlainTextMacroBody(macroDefinition.getBodyText(), contentEntityObject, parameters);
-                    final Ballot ballot = survey.getBallot(ballotTitle);
-                    if (null != ballot) {
-                      ballotsFound.add(ballot);
-                    }
-                  } else if (VoteMacro.VOTE_MACRO.equals(macroDefinition.getName())) {
-                    final Ballot ballot = surveyManager.reconstructBallotFromPlainTextMacroBody(parameters, macroDefinition.getBodyText(), contentEntityObject);
-                    if (ballot.getTitle().equals(ballotTitle)) {
-                      ballotsFound.add(ballot);
-                    }
-                  }
-                }
-              }
-      );
+      final PageMacros pageMacros = pageMacroIndex.getMacros(contentEntityObject);
+      final Set<IndexedMacro> surveys = new LinkedHashSet<IndexedMacro>();
+      for (BallotTitle occurrence : pageMacros.getBallotTitles(ballotTitle)) {
+        if (occurrence.isSurveyRow()) {
+          surveys.add(occurrence.getMacro());
+        }
+      }
+      for (IndexedMacro survey : surveys) {
+        final Ballot ballot = surveyManager.reconstructBallotFromPlainTextSurveyMacroBody(ballotTitle, survey.getBodyText(), contentEntityObject, survey.getParameters());
+        if (null != ballot) {
+          ballotsFound.add(ballot);
+        }
+      }
+      for (IndexedMacro vote : pageMacros.getVotes(ballotTitle)) {
+        if (vote.getTitle().equals(ballotTitle)) {
+          ballotsFound.add(surveyManager.reconstructBallotFromPlainTextMacroBody(vote.getParameters(), vote.getBodyText(), contentEntityObject));
+        }
+      }
     } catch (XhtmlException e) {
       final String message = "There was a problem while parsing the Xhtml content: " + e.getMessage() + " for ballotTitle: " + ballotTitle;
       LOG.error(message, e);
@@ -15,6 +15,7 @@ import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
 import org.apache.commons.lang3.StringUtils;
 import org.hivesoft.confluence.rest.AdminResource;
 import org.hivesoft.confluence.rest.representations.SurveyConfigRepresentation;
+import org.hivesoft.confluence.storage.WriteBehindVoteQueue;
 
 public class TransactionCallbackGetConfig implements com.atlassian.sal.api.transaction.TransactionCallback {
 
@@ -35,6 +36,14 @@ public class TransactionCallbackGetConfig implements com.atlassian.sal.api.trans
     if (StringUtils.isBlank(surveyConfigRepresentation.getIconSet())) {
       surveyConfigRepresentation.setIconSet(AdminResource.SURVEY_PLUGIN_ICON_SET_DEFAULT);
     }
+    surveyConfigRepresentation.setVoteStore((String) settings.get(AdminResource.SURVEY_PLUGIN_KEY_VOTE_STORE));
+    if (StringUtils.isBlank(surveyConfigRepresentation.getVoteStore())) {
+      surveyConfigRepresentation.setVoteStore(AdminResource.SURVEY_PLUGIN_VOTE_STORE_DEFAULT);
+    }
+    surveyConfigRepresentation.setWriteBehind(WriteBehindVoteQueue.isEnabled(settings));
+    surveyConfigRepresentation.setWriteBehindFlushInterval(WriteBehindVoteQueue.getFlushInterval(settings));
+    surveyConfigRepresentation.setWriteBehindCapacity(WriteBehindVoteQueue.getCapacity(settings));
+    surveyConfigRepresentation.setWriteBehindDurability(WriteBehindVoteQueue.getDurability(settings));
     return surveyConfigRepresentation;
   }
 }
@@ -16,6 +16,8 @@ import com.atlassian.sal.api.transaction.TransactionCallback;
 import org.apache.commons.lang.StringUtils;
 import org.hivesoft.confluence.rest.AdminResource;
 import org.hivesoft.confluence.rest.representations.SurveyConfigRepresentation;
+import org.hivesoft.confluence.storage.ConfigurableVoteStore;
+import org.hivesoft.confluence.storage.WriteBehindVoteQueue;
 
 public class TransactionCallbackSetConfig implements TransactionCallback {
 
@@ -41,6 +43,38 @@ public class TransactionCallbackSetConfig implements TransactionCallback {
       }
     }
     pluginSettings.put(AdminResource.SURVEY_PLUGIN_KEY_ICON_SET, surveyConfigRepresentation.getIconSet());
+    // the admin page only sends the icon set, so an absent vote store keeps the current selection
+    final String currentVoteStore = (String) pluginSettings.get(AdminResource.SURVEY_PLUGIN_KEY_VOTE_STORE);
+    final String previousVoteStore = ConfigurableVoteStore.isKnownBackend(currentVoteStore) ? currentVoteStore : AdminResource.SURVEY_PLUGIN_VOTE_STORE_DEFAULT;
+    if (ConfigurableVoteStore.isKnownBackend(surveyConfigRepresentation.getVoteStore())) {
+      // ballots not touched since are copied from there the first time they are used (see ConfigurableVoteStore)
+      if (!previousVoteStore.equals(surveyConfigRepresentation.getVoteStore()) && pluginSettings.get(AdminResource.SURVEY_PLUGIN_KEY_VOTE_STORE_ORIGIN) == null) {
+        pluginSettings.put(AdminResource.SURVEY_PLUGIN_KEY_VOTE_STORE_ORIGIN, previousVoteStore);
+      }
+      pluginSettings.put(AdminResource.SURVEY_PLUGIN_KEY_VOTE_STORE, surveyConfigRepresentation.getVoteStore());
+    } else {
+      surveyConfigRepresentation.setVoteStore(previousVoteStore);
+    }
+    if (surveyConfigRepresentation.getWriteBehind() != null) {
+      pluginSettings.put(AdminResource.SURVEY_PLUGIN_KEY_WRITE_BEHIND, surveyConfigRepresentation.getWriteBehind().toString());
+    } else {
+      surveyConfigRepresentation.setWriteBehind(WriteBehindVoteQueue.isEnabled(pluginSettings));
+    }
+    if (surveyConfigRepresentation.getWriteBehindFlushInterval() != null && surveyConfigRepresentation.getWriteBehindFlushInterval() > 0) {
+      pluginSettings.put(AdminResource.SURVEY_PLUGIN_KEY_WRITE_BEHIND_FLUSH_INTERVAL, surveyConfigRepresentation.getWriteBehindFlushInterval().toString());
+    } else {
+      surveyConfigRepresentation.setWriteBehindFlushInterval(WriteBehindVoteQueue.getFlushInterval(pluginSettings));
+    }
+    if (surveyConfigRepresentation.getWriteBehindCapacity() != null && surveyConfigRepresentation.getWriteBehindCapacity() > 0) {
+      pluginSettings.put(AdminResource.SURVEY_PLUGIN_KEY_WRITE_BEHIND_CAPACITY, surveyConfigRepresentation.getWriteBehindCapacity().toString());
+    } else {
+      surveyConfigRepresentation.setWriteBehindCapacity(WriteBehindVoteQueue.getCapacity(pluginSettings));
+    }
+    if (WriteBehindVoteQueue.isKnownDurability(surveyConfigRepresentation.getWriteBehindDurability())) {
+      pluginSettings.put(AdminResource.SURVEY_PLUGIN_KEY_WRITE_BEHIND_DURABILITY, surveyConfigRepresentation.getWriteBehindDurability());
+    } else {
+      surveyConfigRepresentation.setWriteBehindDurability(WriteBehindVoteQueue.getDurability(pluginSettings));
+    }
     return surveyConfigRepresentation;
   }
 }
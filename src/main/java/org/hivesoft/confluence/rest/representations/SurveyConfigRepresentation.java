@@ -10,6 +10,9 @@
  */
 package org.hivesoft.confluence.rest.representations;
 
+import org.apache.commons.lang3.ObjectUtils;
+import org.apache.commons.lang3.StringUtils;
+
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlElement;
@@ -22,6 +25,21 @@ public class SurveyConfigRepresentation {
   @XmlElement
   private String iconSet;
 
+  @XmlElement
+  private String voteStore;
+
+  @XmlElement
+  private Boolean writeBehind;
+
+  @XmlElement
+  private Long writeBehindFlushInterval;
+
+  @XmlElement
+  private Integer writeBehindCapacity;
+
+  @XmlElement
+  private String writeBehindDurability;
+
   public String getIconSet() {
     return iconSet;
   }
@@ -30,10 +48,55 @@ public class SurveyConfigRepresentation {
     this.iconSet = iconSet;
   }
 
+  public String getVoteStore() {
+    return voteStore;
+  }
+
+  public void setVoteStore(String voteStore) {
+    this.voteStore = voteStore;
+  }
+
+  public Boolean getWriteBehind() {
+    return writeBehind;
+  }
+
+  public void setWriteBehind(Boolean writeBehind) {
+    this.writeBehind = writeBehind;
+  }
+
+  public Long getWriteBehindFlushInterval() {
+    return writeBehindFlushInterval;
+  }
+
+  public void setWriteBehindFlushInterval(Long writeBehindFlushInterval) {
+    this.writeBehindFlushInterval = writeBehindFlushInterval;
+  }
+
+  public Integer getWriteBehindCapacity() {
+    return writeBehindCapacity;
+  }
+
+  public void setWriteBehindCapacity(Integer writeBehindCapacity) {
+    this.writeBehindCapacity = writeBehindCapacity;
+  }
+
+  public String getWriteBehindDurability() {
+    return writeBehindDurability;
+  }
+
+  public void setWriteBehindDurability(String writeBehindDurability) {
+    this.writeBehindDurability = writeBehindDurability;
+  }
+
   @Override
   public String toString() {
     return "SurveyConfigRepresentation{" +
             "iconSet='" + iconSet + '\'' +
+            ", voteStore='" + voteStore + '\'' +
+            ", writeBehind=" + writeBehind +
+            ", writeBehindFlushInterval=" + writeBehindFlushInterval +
+            ", writeBehindCapacity=" + writeBehindCapacity +
+            ", writeBehindDurability='" + writeBehindDurability + '\'' +
             '}';
   }
 
@@ -44,6 +107,11 @@ public class SurveyConfigRepresentation {
   public boolean equals(Object obj) {
     if (obj == null || !(obj instanceof SurveyConfigRepresentation))
       return false;
-    return (((SurveyConfigRepresentation) obj).getIconSet().equals(this.iconSet));
+    final SurveyConfigRepresentation other = (SurveyConfigRepresentation) obj;
+    return other.getIconSet().equals(this.iconSet) && StringUtils.equals(other.getVoteStore(), this.voteStore)
+            && ObjectUtils.equals(other.getWriteBehind(), this.writeBehind)
+            && ObjectUtils.equals(other.getWriteBehindFlushInterval(), this.writeBehindFlushInterval)
+            && ObjectUtils.equals(other.getWriteBehindCapacity(), this.writeBehindCapacity)
+            && StringUtils.equals(other.getWriteBehindDurability(), this.writeBehindDurability);
   }
 }
\ No newline at end of file
@@ -0,0 +1,154 @@
+/**
+ * Copyright (c) 2006-2015, Confluence Community
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hivesoft.confluence.storage;
+
+import com.atlassian.activeobjects.external.ActiveObjects;
+import com.atlassian.confluence.core.ContentEntityObject;
+import com.atlassian.sal.api.transaction.TransactionCallback;
+import net.java.ao.DBParam;
+import net.java.ao.Query;
+import org.apache.commons.lang3.StringUtils;
+import org.hivesoft.confluence.storage.ao.CommentEntity;
+import org.hivesoft.confluence.storage.ao.VoteEntity;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * Stores every vote and comment as a row of its own, so a vote touches one row instead of rewriting the whole ballot.
+ * Every write runs in a transaction holding the ballot lock until it commits, so two requests of the same user can not
+ * both find no row and create one each. The tables have no unique constraint over ballot and user, Active Objects only
+ * knows unique single columns.
+ */
+public class ActiveObjectsVoteStore implements VoteStore {
+  // the column names are quoted, otherwise databases folding unquoted names to lower case (e.g. PostgreSQL) miss them
+  private static final String BALLOT_CONDITION = "\"CONTENT_ID\" = ? AND \"BALLOT_TITLE\" = ?";
+  private static final String USER_CONDITION = BALLOT_CONDITION + " AND \"USER_NAME\" = ?";
+  private static final String ORDER_BY_ID = "\"ID\"";
+
+  private final ActiveObjects activeObjects;
+  private final BallotLockService ballotLockService;
+
+  public ActiveObjectsVoteStore(ActiveObjects activeObjects, BallotLockService ballotLockService) {
+    this.activeObjects = activeObjects;
+    this.ballotLockService = ballotLockService;
+  }
+
+  @Override
+  public StoredBallot load(ContentEntityObject contentObject, String ballotTitle, Collection<String> choiceNames) {
+    final StoredBallot storedBallot = new StoredBallot();
+    for (VoteEntity vote : activeObjects.find(VoteEntity.class, Query.select().where(BALLOT_CONDITION, contentObject.getId(), ballotTitle).order(ORDER_BY_ID))) {
+      storedBallot.addVote(vote.getChoiceName(), vote.getUserName());
+    }
+    for (CommentEntity comment : activeObjects.find(CommentEntity.class, Query.select().where(BALLOT_CONDITION, contentObject.getId(), ballotTitle).order(ORDER_BY_ID))) {
+      storedBallot.setComment(comment.getUserName(), comment.getComment());
+    }
+    return storedBallot;
+  }
+
+  @Override
+  public void recordVote(final ContentEntityObject contentObject, final String ballotTitle, final String choiceName, final String userName) {
+    writeBallot(contentObject, ballotTitle, new TransactionCallback<Void>() {
+      @Override
+      public Void doInTransaction() {
+        final VoteEntity[] votes = activeObjects.find(VoteEntity.class, Query.select().where(USER_CONDITION, contentObject.getId(), ballotTitle, userName));
+        if (votes.length == 0) {
+          activeObjects.create(VoteEntity.class,
+                  new DBParam("CONTENT_ID", contentObject.getId()),
+                  new DBParam("BALLOT_TITLE", ballotTitle),
+                  new DBParam("CHOICE_NAME", choiceName),
+                  new DBParam("USER_NAME", userName));
+          return null;
+        }
+        votes[0].setChoiceName(choiceName);
+        votes[0].save();
+        if (votes.length > 1) {
+          activeObjects.delete(Arrays.copyOfRange(votes, 1, votes.length));
+        }
+        return null;
+      }
+    });
+  }
+
+  @Override
+  public void unvote(final ContentEntityObject contentObject, final String ballotTitle, final String userName) {
+    writeBallot(contentObject, ballotTitle, new TransactionCallback<Void>() {
+      @Override
+      public Void doInTransaction() {
+        activeObjects.delete(activeObjects.find(VoteEntity.class, Query.select().where(USER_CONDITION, contentObject.getId(), ballotTitle, userName)));
+        return null;
+      }
+    });
+  }
+
+  @Override
+  public void reset(ContentEntityObject contentObject, String ballotTitle) {
+    resetAll(contentObject, Collections.singleton(ballotTitle));
+  }
+
+  @Override
+  public void resetAll(final ContentEntityObject contentObject, final Collection<String> ballotTitles) {
+    writeBallots(contentObject, ballotTitles, new TransactionCallback<Void>() {
+      @Override
+      public Void doInTransaction() {
+        for (String ballotTitle : ballotTitles) {
+          activeObjects.delete(activeObjects.find(VoteEntity.class, Query.select().where(BALLOT_CONDITION, contentObject.getId(), ballotTitle)));
+          activeObjects.delete(activeObjects.find(CommentEntity.class, Query.select().where(BALLOT_CONDITION, contentObject.getId(), ballotTitle)));
+        }
+        return null;
+      }
+    });
+  }
+
+  @Override
+  public void storeComment(final ContentEntityObject contentObject, final String ballotTitle, final String userName, final String comment) {
+    writeBallot(contentObject, ballotTitle, new TransactionCallback<Void>() {
+      @Override
+      public Void doInTransaction() {
+        final CommentEntity[] comments = activeObjects.find(CommentEntity.class, Query.select().where(USER_CONDITION, contentObject.getId(), ballotTitle, userName));
+        if (StringUtils.isBlank(comment)) {
+          activeObjects.delete(comments);
+        } else if (comments.length == 0) {
+          final CommentEntity commentEntity = activeObjects.create(CommentEntity.class,
+                  new DBParam("CONTENT_ID", contentObject.getId()),
+                  new DBParam("BALLOT_TITLE", ballotTitle),
+                  new DBParam("USER_NAME", userName));
+          commentEntity.setComment(comment);
+          commentEntity.save();
+        } else {
+          comments[0].setComment(comment);
+          comments[0].save();
+        }
+        return null;
+      }
+    });
+  }
+
+  private void writeBallot(ContentEntityObject contentObject, String ballotTitle, TransactionCallback<Void> write) {
+    writeBallots(contentObject, Collections.singleton(ballotTitle), write);
+  }
+
+  private void writeBallots(final ContentEntityObject contentObject, final Collection<String> ballotTitles, final TransactionCallback<Void> write) {
+    activeObjects.executeInTransaction(new TransactionCallback<Void>() {
+      @Override
+      public Void doInTransaction() {
+        // taken inside the transaction, so they are given back once the rows are committed
+        final TransactionBoundLock lock = TransactionBoundLock.lockBallots(ballotLockService, contentObject, ballotTitles);
+        try {
+          return write.doInTransaction();
+        } finally {
+          lock.release();
+        }
+      }
+    });
+  }
+}
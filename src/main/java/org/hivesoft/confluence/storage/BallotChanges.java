@@ -0,0 +1,139 @@
+/**
+ * Copyright (c) 2006-2015, Confluence Community
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hivesoft.confluence.storage;
+
+import com.atlassian.confluence.core.ContentEntityObject;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The writes to one ballot not stored yet, coalesced so that only the latest vote and comment of every user is kept.
+ * A reset drops everything recorded before it.
+ */
+public class BallotChanges {
+  private boolean reset;
+  private final Map<String, String> choicesByUser = new LinkedHashMap<String, String>(); // a null choice is an unvote
+  private final Map<String, String> commentsByUser = new LinkedHashMap<String, String>();
+
+  /**
+   * @return the changes turning any ballot into the given one
+   */
+  public static BallotChanges replacing(StoredBallot storedBallot) {
+    final BallotChanges ballotChanges = new BallotChanges();
+    ballotChanges.reset();
+    for (String choiceName : storedBallot.getChoiceNames()) {
+      for (String voter : storedBallot.getVoters(choiceName)) {
+        ballotChanges.recordVote(choiceName, voter);
+      }
+    }
+    for (Map.Entry<String, String> comment : storedBallot.getComments().entrySet()) {
+      ballotChanges.storeComment(comment.getKey(), comment.getValue());
+    }
+    return ballotChanges;
+  }
+
+  public void recordVote(String choiceName, String userName) {
+    choicesByUser.put(userName, choiceName);
+  }
+
+  public void unvote(String userName) {
+    choicesByUser.put(userName, null);
+  }
+
+  public void reset() {
+    reset = true;
+    choicesByUser.clear();
+    commentsByUser.clear();
+  }
+
+  public void storeComment(String userName, String comment) {
+    commentsByUser.put(userName, comment);
+  }
+
+  /**
+   * Add the changes made after these ones, as if they had been recorded here.
+   */
+  public void addAll(BallotChanges laterChanges) {
+    if (laterChanges.reset) {
+      reset();
+    }
+    choicesByUser.putAll(laterChanges.choicesByUser);
+    commentsByUser.putAll(laterChanges.commentsByUser);
+  }
+
+  /**
+   * @return the choices voted for
+   */
+  public Set<String> getChoiceNames() {
+    final Set<String> choiceNames = new LinkedHashSet<String>(choicesByUser.values());
+    choiceNames.remove(null);
+    return choiceNames;
+  }
+
+  /**
+   * @return the number of changes kept, a reset counts as one
+   */
+  public int size() {
+    return choicesByUser.size() + commentsByUser.size() + (reset ? 1 : 0);
+  }
+
+  /**
+   * Apply the changes to the ballot as read from a store.
+   */
+  public void applyTo(StoredBallot storedBallot) {
+    if (reset) {
+      storedBallot.clear();
+    }
+    for (Map.Entry<String, String> choiceOfUser : choicesByUser.entrySet()) {
+      final String previousChoiceName = storedBallot.getChoiceOfVoter(choiceOfUser.getKey());
+      if (previousChoiceName != null) {
+        storedBallot.removeVote(previousChoiceName, choiceOfUser.getKey());
+      }
+      if (choiceOfUser.getValue() != null) {
+        storedBallot.addVote(choiceOfUser.getValue(), choiceOfUser.getKey());
+      }
+    }
+    for (Map.Entry<String, String> comment : commentsByUser.entrySet()) {
+      storedBallot.setComment(comment.getKey(), comment.getValue());
+    }
+  }
+
+  /**
+   * Write the changes one by one to a store which can not apply them at once.
+   */
+  public void writeTo(VoteStore voteStore, ContentEntityObject contentObject, String ballotTitle) {
+    if (reset) {
+      voteStore.reset(contentObject, ballotTitle);
+    }
+    for (Map.Entry<String, String> choiceOfUser : choicesByUser.entrySet()) {
+      if (choiceOfUser.getValue() == null) {
+        voteStore.unvote(contentObject, ballotTitle, choiceOfUser.getKey());
+      } else {
+        voteStore.recordVote(contentObject, ballotTitle, choiceOfUser.getValue(), choiceOfUser.getKey());
+      }
+    }
+    for (Map.Entry<String, String> comment : commentsByUser.entrySet()) {
+      voteStore.storeComment(contentObject, ballotTitle, comment.getKey(), comment.getValue());
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "BallotChanges{" +
+            "reset=" + reset +
+            ", choicesByUser=" + choicesByUser +
+            ", commentsByUser=" + commentsByUser +
+            '}';
+  }
+}
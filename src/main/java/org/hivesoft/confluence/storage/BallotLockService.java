@@ -0,0 +1,44 @@
+/**
+ * Copyright (c) 2006-2015, Confluence Community
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hivesoft.confluence.storage;
+
+import com.atlassian.confluence.core.ContentEntityObject;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Locks serializing the writes of the vote stores. They are held until the transaction commits, so a transaction
+ * writing several ballots takes all their locks at once, in the order of {@link #getBallotLocks}. A page lock may be
+ * taken while holding ballot locks, never the other way round.
+ */
+public interface BallotLockService {
+
+  /**
+   * @return the lock to hold while reading, changing and writing the given ballot
+   */
+  BallotLock getBallotLock(ContentEntityObject contentObject, String ballotTitle);
+
+  /**
+   * @return the distinct locks of the given ballots in the order every writer takes them
+   */
+  List<BallotLock> getBallotLocks(ContentEntityObject contentObject, Collection<String> ballotTitles);
+
+  /**
+   * @return the lock guarding the data all ballots of the page share, like the {@link UserDictionary}
+   */
+  BallotLock getPageLock(ContentEntityObject contentObject);
+
+  /**
+   * @return how long writers waited for the locks of this service
+   */
+  LockWaitStatistics getLockWaitStatistics();
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright (c) 2006-2015, Confluence Community
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hivesoft.confluence.storage;
+
+import com.atlassian.confluence.cluster.ClusterManager;
+import com.atlassian.confluence.cluster.ClusteredLock;
+import com.atlassian.confluence.core.ContentEntityObject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Uses the cluster wide locks of Confluence when it runs clustered, so votes cast on different nodes do not overwrite
+ * each other. The lock names are striped the same way as the {@link StripedBallotLockService}, which is used as long as
+ * Confluence is not clustered.
+ */
+public class ClusterBallotLockService implements BallotLockService {
+  protected static final String BALLOT_LOCK_PREFIX = "survey-plugin.ballot.";
+  protected static final String PAGE_LOCK_PREFIX = "survey-plugin.page.";
+  protected static final long POLL_INTERVAL = 10L;
+
+  private final ClusterManager clusterManager;
+  private final LockWaitStatistics lockWaitStatistics = new LockWaitStatistics();
+  private final StripedBallotLockService localLockService = new StripedBallotLockService(lockWaitStatistics);
+
+  public ClusterBallotLockService(ClusterManager clusterManager) {
+    this.clusterManager = clusterManager;
+  }
+
+  @Override
+  public BallotLock getBallotLock(ContentEntityObject contentObject, String ballotTitle) {
+    if (!clusterManager.isClustered()) {
+      return localLockService.getBallotLock(contentObject, ballotTitle);
+    }
+    return getClusteredLock(BALLOT_LOCK_PREFIX + StripedBallotLockService.getBallotStripe(contentObject, ballotTitle));
+  }
+
+  @Override
+  public List<BallotLock> getBallotLocks(ContentEntityObject contentObject, Collection<String> ballotTitles) {
+    if (!clusterManager.isClustered()) {
+      return localLockService.getBallotLocks(contentObject, ballotTitles);
+    }
+    final List<BallotLock> locks = new ArrayList<BallotLock>();
+    for (int stripe : StripedBallotLockService.getBallotStripes(contentObject, ballotTitles)) {
+      locks.add(getClusteredLock(BALLOT_LOCK_PREFIX + stripe));
+    }
+    return locks;
+  }
+
+  @Override
+  public BallotLock getPageLock(ContentEntityObject contentObject) {
+    if (!clusterManager.isClustered()) {
+      return localLockService.getPageLock(contentObject);
+    }
+    return getClusteredLock(PAGE_LOCK_PREFIX + StripedBallotLockService.getPageStripe(contentObject));
+  }
+
+  @Override
+  public LockWaitStatistics getLockWaitStatistics() {
+    return lockWaitStatistics;
+  }
+
+  private BallotLock getClusteredLock(String name) {
+    return new TimedLock(new ClusteredBallotLock(name, clusterManager.getClusteredLock(name)), lockWaitStatistics);
+  }
+
+  /**
+   * A clustered lock can only be locked, tried and unlocked, so a timed try polls it until the time is up. Every call
+   * of the service returns a new instance, which is why two of them are equal if they have the same name.
+   */
+  static class ClusteredBallotLock implements BallotLock {
+    private final String name;
+    private final ClusteredLock clusteredLock;
+
+    ClusteredBallotLock(String name, ClusteredLock clusteredLock) {
+      this.name = name;
+      this.clusteredLock = clusteredLock;
+    }
+
+    @Override
+    public void lock() {
+      clusteredLock.lock();
+    }
+
+    @Override
+    public boolean tryLock() {
+      return clusteredLock.tryLock();
+    }
+
+    @Override
+    public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+      final long deadline = System.nanoTime() + unit.toNanos(time);
+      while (!clusteredLock.tryLock()) {
+        final long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          return false;
+        }
+        if (Thread.interrupted()) {
+          throw new InterruptedException();
+        }
+        TimeUnit.NANOSECONDS.sleep(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(POLL_INTERVAL)));
+      }
+      return true;
+    }
+
+    @Override
+    public void unlock() {
+      clusteredLock.unlock();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return this == o || (o instanceof ClusteredBallotLock && name.equals(((ClusteredBallotLock) o).name));
+    }
+
+    @Override
+    public int hashCode() {
+      return name.hashCode();
+    }
+  }
+}
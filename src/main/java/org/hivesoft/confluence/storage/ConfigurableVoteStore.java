@@ -0,0 +1,261 @@
+/**
+ * Copyright (c) 2006-2015, Confluence Community
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hivesoft.confluence.storage;
+
+import com.atlassian.activeobjects.external.ActiveObjects;
+import com.atlassian.confluence.core.ContentEntityObject;
+import com.atlassian.confluence.core.ContentPropertyManager;
+import com.atlassian.extras.common.log.Logger;
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import org.apache.commons.lang3.StringUtils;
+import org.hivesoft.confluence.rest.AdminResource;
+
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * Delegates to the backend selected in the global plugin settings (see {@link AdminResource#SURVEY_PLUGIN_KEY_VOTE_STORE}).
+ * <p/>
+ * Once the backend has been switched, a ballot is copied from the backend it was last written to the next time it is
+ * written, under its lock; until then it is read from there. Every copied ballot is marked with its backend (see
+ * {@link #BALLOT_BACKEND_PREFIX}), ballots without a mark are still in the backend selected before the first switch (see
+ * {@link AdminResource#SURVEY_PLUGIN_KEY_VOTE_STORE_ORIGIN}). So no vote is lost however often the backend changes.
+ * <p/>
+ * With write-behind enabled (see {@link AdminResource#SURVEY_PLUGIN_KEY_WRITE_BEHIND}) the writes go to the
+ * {@link WriteBehindVoteQueue} instead, they are written to the backend selected at the time they are flushed.
+ */
+public class ConfigurableVoteStore implements VoteStore {
+  private static final Logger.Log LOG = Logger.getInstance(ConfigurableVoteStore.class);
+
+  public static final String BACKEND_CONTENT_PROPERTIES = "contentProperties";
+  public static final String BACKEND_ACTIVE_OBJECTS = "activeObjects";
+  public static final String BACKEND_EVENT_LOG = "eventLog";
+  /**
+   * page property naming the backend a ballot has been copied to after the backend was switched
+   */
+  public static final String BALLOT_BACKEND_PREFIX = "survey.voteStore.";
+
+  private final PluginSettingsFactory pluginSettingsFactory;
+  private final PagePropertyCache pagePropertyCache;
+  private final BallotLockService ballotLockService;
+  private final VoteStore contentPropertyVoteStore;
+  private final VoteStore activeObjectsVoteStore;
+  private final VoteStore eventLogVoteStore;
+  private final WriteBehindVoteQueue writeBehindVoteQueue;
+  private final BatchVoteStore selectedVoteStore = new SelectedVoteStore();
+
+  public ConfigurableVoteStore(ContentPropertyManager contentPropertyManager, ActiveObjects activeObjects, PluginSettingsFactory pluginSettingsFactory, VoteLogCompactor voteLogCompactor, BallotLockService ballotLockService, WriteBehindVoteQueue writeBehindVoteQueue) {
+    this.pluginSettingsFactory = pluginSettingsFactory;
+    this.pagePropertyCache = new PagePropertyCache(contentPropertyManager);
+    this.ballotLockService = ballotLockService;
+    this.contentPropertyVoteStore = new ContentPropertyVoteStore(contentPropertyManager, pluginSettingsFactory, ballotLockService);
+    this.activeObjectsVoteStore = new ActiveObjectsVoteStore(activeObjects, ballotLockService);
+    this.eventLogVoteStore = new EventLogVoteStore(contentPropertyManager, pluginSettingsFactory, voteLogCompactor, ballotLockService);
+    this.writeBehindVoteQueue = writeBehindVoteQueue;
+  }
+
+  public static boolean isKnownBackend(String backend) {
+    return BACKEND_CONTENT_PROPERTIES.equals(backend) || BACKEND_ACTIVE_OBJECTS.equals(backend) || BACKEND_EVENT_LOG.equals(backend);
+  }
+
+  /**
+   * Only reads, from the backend the ballot has last been written to.
+   */
+  @Override
+  public StoredBallot load(ContentEntityObject contentObject, String ballotTitle, Collection<String> choiceNames) {
+    return writeBehindVoteQueue.applyPending(contentObject, ballotTitle, selectedVoteStore.load(contentObject, ballotTitle, choiceNames));
+  }
+
+  @Override
+  public void recordVote(ContentEntityObject contentObject, String ballotTitle, String choiceName, String userName) {
+    if (writeBehindVoteQueue.isEnabled()) {
+      writeBehindVoteQueue.recordVote(selectedVoteStore, contentObject, ballotTitle, choiceName, userName);
+      return;
+    }
+    // votes still queued from before write-behind was switched off have to be written first
+    writeBehindVoteQueue.flushAndWait();
+    selectedVoteStore.recordVote(contentObject, ballotTitle, choiceName, userName);
+  }
+
+  @Override
+  public void unvote(ContentEntityObject contentObject, String ballotTitle, String userName) {
+    if (writeBehindVoteQueue.isEnabled()) {
+      writeBehindVoteQueue.unvote(selectedVoteStore, contentObject, ballotTitle, userName);
+      return;
+    }
+    writeBehindVoteQueue.flushAndWait();
+    selectedVoteStore.unvote(contentObject, ballotTitle, userName);
+  }
+
+  @Override
+  public void reset(ContentEntityObject contentObject, String ballotTitle) {
+    if (writeBehindVoteQueue.isEnabled()) {
+      writeBehindVoteQueue.reset(selectedVoteStore, contentObject, ballotTitle);
+      return;
+    }
+    writeBehindVoteQueue.flushAndWait();
+    selectedVoteStore.reset(contentObject, ballotTitle);
+  }
+
+  /**
+   * With write-behind every ballot is reset on its own, in the transaction the queue writes it in.
+   */
+  @Override
+  public void resetAll(ContentEntityObject contentObject, Collection<String> ballotTitles) {
+    if (writeBehindVoteQueue.isEnabled()) {
+      for (String ballotTitle : ballotTitles) {
+        writeBehindVoteQueue.reset(selectedVoteStore, contentObject, ballotTitle);
+      }
+      return;
+    }
+    writeBehindVoteQueue.flushAndWait();
+    selectedVoteStore.resetAll(contentObject, ballotTitles);
+  }
+
+  @Override
+  public void storeComment(ContentEntityObject contentObject, String ballotTitle, String userName, String comment) {
+    if (writeBehindVoteQueue.isEnabled()) {
+      writeBehindVoteQueue.storeComment(selectedVoteStore, contentObject, ballotTitle, userName, comment);
+      return;
+    }
+    writeBehindVoteQueue.flushAndWait();
+    selectedVoteStore.storeComment(contentObject, ballotTitle, userName, comment);
+  }
+
+  protected VoteStore getSelectedVoteStore() {
+    return getVoteStore(getSelectedBackend(pluginSettingsFactory.createGlobalSettings()));
+  }
+
+  /**
+   * @return the backend the ballot has last been written to
+   */
+  private String getBallotBackend(ContentEntityObject contentObject, String ballotTitle) {
+    final PluginSettings pluginSettings = pluginSettingsFactory.createGlobalSettings();
+    final String originBackend = (String) pluginSettings.get(AdminResource.SURVEY_PLUGIN_KEY_VOTE_STORE_ORIGIN);
+    if (originBackend == null) {
+      return getSelectedBackend(pluginSettings); // never switched
+    }
+    return StringUtils.defaultIfBlank(pagePropertyCache.getTextProperty(contentObject, BALLOT_BACKEND_PREFIX + ballotTitle), originBackend);
+  }
+
+  /**
+   * @return the selected backend, after the ballot has been copied there if it is still kept in another one
+   */
+  private VoteStore getBallotVoteStore(ContentEntityObject contentObject, String ballotTitle) {
+    final PluginSettings pluginSettings = pluginSettingsFactory.createGlobalSettings();
+    final String selectedBackend = getSelectedBackend(pluginSettings);
+    final String originBackend = (String) pluginSettings.get(AdminResource.SURVEY_PLUGIN_KEY_VOTE_STORE_ORIGIN);
+    if (originBackend == null) {
+      return getVoteStore(selectedBackend); // never switched
+    }
+    final String ballotBackendKey = BALLOT_BACKEND_PREFIX + ballotTitle;
+    if (selectedBackend.equals(StringUtils.defaultIfBlank(pagePropertyCache.getTextProperty(contentObject, ballotBackendKey), originBackend))) {
+      return getVoteStore(selectedBackend);
+    }
+
+    final TransactionBoundLock lock = TransactionBoundLock.lockBallot(ballotLockService, contentObject, ballotTitle);
+    try {
+      final String ballotBackend = StringUtils.defaultIfBlank(pagePropertyCache.reloadTextProperty(contentObject, ballotBackendKey), originBackend);
+      if (!selectedBackend.equals(ballotBackend)) {
+        copyBallot(contentObject, ballotTitle, getVoteStore(ballotBackend), getVoteStore(selectedBackend));
+        pagePropertyCache.setTextProperty(contentObject, ballotBackendKey, selectedBackend);
+        LOG.debug("Copied ballot " + ballotTitle + " of page " + contentObject.getId() + " from " + ballotBackend + " to " + selectedBackend);
+      }
+    } finally {
+      lock.release();
+    }
+    return getVoteStore(selectedBackend);
+  }
+
+  /**
+   * Replace the ballot in the target backend, whatever it still kept from an earlier switch, by the one of the source.
+   * Changes still queued are not copied, they are written to the target afterwards.
+   */
+  private void copyBallot(ContentEntityObject contentObject, String ballotTitle, VoteStore source, VoteStore target) {
+    apply(target, contentObject, ballotTitle, BallotChanges.replacing(source.load(contentObject, ballotTitle, Collections.<String>emptyList())));
+  }
+
+  private static void apply(VoteStore voteStore, ContentEntityObject contentObject, String ballotTitle, BallotChanges ballotChanges) {
+    if (voteStore instanceof BatchVoteStore) {
+      ((BatchVoteStore) voteStore).apply(contentObject, ballotTitle, ballotChanges);
+    } else {
+      ballotChanges.writeTo(voteStore, contentObject, ballotTitle);
+    }
+  }
+
+  private static String getSelectedBackend(PluginSettings pluginSettings) {
+    final Object backend = pluginSettings.get(AdminResource.SURVEY_PLUGIN_KEY_VOTE_STORE);
+    return isKnownBackend((String) backend) ? (String) backend : AdminResource.SURVEY_PLUGIN_VOTE_STORE_DEFAULT;
+  }
+
+  private VoteStore getVoteStore(String backend) {
+    if (BACKEND_ACTIVE_OBJECTS.equals(backend)) {
+      return activeObjectsVoteStore;
+    }
+    if (BACKEND_EVENT_LOG.equals(backend)) {
+      return eventLogVoteStore;
+    }
+    return contentPropertyVoteStore;
+  }
+
+  /**
+   * Reads a ballot from the backend it has last been written to and writes it to the backend selected at the time of
+   * the write, the one given to the {@link WriteBehindVoteQueue} as well.
+   */
+  private class SelectedVoteStore implements BatchVoteStore {
+
+    @Override
+    public StoredBallot load(ContentEntityObject contentObject, String ballotTitle, Collection<String> choiceNames) {
+      return getVoteStore(getBallotBackend(contentObject, ballotTitle)).load(contentObject, ballotTitle, choiceNames);
+    }
+
+    @Override
+    public void recordVote(ContentEntityObject contentObject, String ballotTitle, String choiceName, String userName) {
+      getBallotVoteStore(contentObject, ballotTitle).recordVote(contentObject, ballotTitle, choiceName, userName);
+    }
+
+    @Override
+    public void unvote(ContentEntityObject contentObject, String ballotTitle, String userName) {
+      getBallotVoteStore(contentObject, ballotTitle).unvote(contentObject, ballotTitle, userName);
+    }
+
+    @Override
+    public void reset(ContentEntityObject contentObject, String ballotTitle) {
+      getBallotVoteStore(contentObject, ballotTitle).reset(contentObject, ballotTitle);
+    }
+
+    /**
+     * The locks of all ballots are taken first, copying a ballot from another backend only takes locks already held.
+     */
+    @Override
+    public void resetAll(ContentEntityObject contentObject, Collection<String> ballotTitles) {
+      final TransactionBoundLock lock = TransactionBoundLock.lockBallots(ballotLockService, contentObject, ballotTitles);
+      try {
+        for (String ballotTitle : ballotTitles) {
+          getBallotVoteStore(contentObject, ballotTitle).reset(contentObject, ballotTitle);
+        }
+      } finally {
+        lock.release();
+      }
+    }
+
+    @Override
+    public void storeComment(ContentEntityObject contentObject, String ballotTitle, String userName, String comment) {
+      getBallotVoteStore(contentObject, ballotTitle).storeComment(contentObject, ballotTitle, userName, comment);
+    }
+
+    @Override
+    public void apply(ContentEntityObject contentObject, String ballotTitle, BallotChanges ballotChanges) {
+      ConfigurableVoteStore.apply(getBallotVoteStore(contentObject, ballotTitle), contentObject, ballotTitle, ballotChanges);
+    }
+  }
+}
@@ -0,0 +1,388 @@
+/**
+ * Copyright (c) 2006-2015, Confluence Community
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hivesoft.confluence.storage;
+
+import com.atlassian.confluence.core.ContentEntityObject;
+import com.atlassian.confluence.core.ContentPropertyManager;
+import com.atlassian.extras.common.log.Logger;
+import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import org.apache.commons.lang3.StringUtils;
+import org.hivesoft.confluence.macros.vote.VoteMacro;
+import org.hivesoft.confluence.utils.SurveyUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringTokenizer;
+
+/**
+ * Stores every ballot as one {@link StoredBallot} document in a content property of the page. Ballots of plugin versions
+ * which used one property per choice and per commenter are converted when they are written the next time.
+ */
+public class ContentPropertyVoteStore implements BatchVoteStore {
+  private static final Logger.Log LOG = Logger.getInstance(ContentPropertyVoteStore.class);
+
+  public static final String BALLOT_STORAGE_PREFIX = "ballot.";
+  public static final String USER_DICTIONARY_KEY = "survey.users";
+  public static final char COMMENTERS_SEPARATOR = '|';
+
+  /**
+   * page property holding the version of the legacy data migrations done for all ballots of the page
+   */
+  public static final String MIGRATION_VERSION_KEY = "survey.migrationVersion";
+  /**
+   * global plugin setting holding the migration version every page has been brought to by the {@link LegacyVoteMigrator}
+   */
+  public static final String MIGRATION_VERSION_SETTING_KEY = "survey-plugin.migrationVersion";
+  /**
+   * version 1: votes of the old (v. 1.1.*) default choice names have been renamed, see CSRVY-21
+   */
+  public static final String MIGRATION_VERSION = "1";
+
+  /**
+   * how many ballots loaded but not converted yet have their choice names remembered
+   */
+  protected static final int MAX_UNMIGRATED_BALLOTS = 1000;
+  private static final String LEGACY_STRING_PROPERTY_PREFIX = "string:";
+
+  // an empty stored ballot also shadows any legacy properties left over
+  private static final BallotUpdate RESET = new BallotUpdate() {
+    @Override
+    public void apply(StoredBallot storedBallot) {
+      storedBallot.clear();
+    }
+  };
+
+  private final PagePropertyCache pagePropertyCache;
+  private final PluginSettingsFactory pluginSettingsFactory;
+  private final BallotLockService ballotLockService;
+  private final Map<String, Collection<String>> unmigratedChoiceNames = Collections.synchronizedMap(new LinkedHashMap<String, Collection<String>>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Collection<String>> eldest) {
+      return size() > MAX_UNMIGRATED_BALLOTS;
+    }
+  });
+
+  public ContentPropertyVoteStore(ContentPropertyManager contentPropertyManager, PluginSettingsFactory pluginSettingsFactory, BallotLockService ballotLockService) {
+    this.pagePropertyCache = new PagePropertyCache(contentPropertyManager);
+    this.pluginSettingsFactory = pluginSettingsFactory;
+    this.ballotLockService = ballotLockService;
+  }
+
+  /**
+   * Only reads: a ballot still kept in the legacy properties is returned as read from them and converted by the first
+   * write to it.
+   */
+  @Override
+  public StoredBallot load(ContentEntityObject contentObject, String ballotTitle, Collection<String> choiceNames) {
+    final StoredBallot storedBallot = loadStoredBallot(contentObject, ballotTitle);
+    if (storedBallot != null) {
+      return storedBallot;
+    }
+    // a load without the choice names (e.g. to copy the ballot to another backend) must not forget the ones known
+    final Collection<String> legacyChoiceNames = getUnmigratedChoiceNames(contentObject, ballotTitle, choiceNames);
+    unmigratedChoiceNames.put(getBallotKey(contentObject, ballotTitle), legacyChoiceNames);
+    return loadLegacyBallot(contentObject, ballotTitle, legacyChoiceNames, new ArrayList<String>());
+  }
+
+  @Override
+  public void recordVote(ContentEntityObject contentObject, String ballotTitle, final String choiceName, final String userName) {
+    updateBallot(contentObject, ballotTitle, Collections.singleton(choiceName), new BallotUpdate() {
+      @Override
+      public void apply(StoredBallot storedBallot) {
+        final String previousChoiceName = storedBallot.getChoiceOfVoter(userName);
+        if (previousChoiceName != null) {
+          storedBallot.removeVote(previousChoiceName, userName);
+        }
+        storedBallot.addVote(choiceName, userName);
+      }
+    });
+  }
+
+  @Override
+  public void unvote(ContentEntityObject contentObject, String ballotTitle, final String userName) {
+    updateBallot(contentObject, ballotTitle, Collections.<String>emptySet(), new BallotUpdate() {
+      @Override
+      public void apply(StoredBallot storedBallot) {
+        final String previousChoiceName = storedBallot.getChoiceOfVoter(userName);
+        if (previousChoiceName != null) {
+          storedBallot.removeVote(previousChoiceName, userName);
+        }
+      }
+    });
+  }
+
+  @Override
+  public void reset(ContentEntityObject contentObject, String ballotTitle) {
+    updateBallot(contentObject, ballotTitle, Collections.<String>emptySet(), RESET);
+  }
+
+  @Override
+  public void resetAll(ContentEntityObject contentObject, Collection<String> ballotTitles) {
+    final TransactionBoundLock lock = TransactionBoundLock.lockBallots(ballotLockService, contentObject, ballotTitles);
+    try {
+      for (String ballotTitle : ballotTitles) {
+        updateHeldBallot(contentObject, ballotTitle, Collections.<String>emptySet(), RESET);
+      }
+    } finally {
+      lock.release();
+    }
+  }
+
+  @Override
+  public void storeComment(ContentEntityObject contentObject, String ballotTitle, final String userName, final String comment) {
+    updateBallot(contentObject, ballotTitle, Collections.<String>emptySet(), new BallotUpdate() {
+      @Override
+      public void apply(StoredBallot storedBallot) {
+        storedBallot.setComment(userName, comment);
+      }
+    });
+  }
+
+  /**
+   * All changes are written with a single update of the ballot.
+   */
+  @Override
+  public void apply(ContentEntityObject contentObject, String ballotTitle, final BallotChanges ballotChanges) {
+    updateBallot(contentObject, ballotTitle, ballotChanges.getChoiceNames(), new BallotUpdate() {
+      @Override
+      public void apply(StoredBallot storedBallot) {
+        ballotChanges.applyTo(storedBallot);
+      }
+    });
+  }
+
+  private void updateBallot(ContentEntityObject contentObject, String ballotTitle, Collection<String> choiceNames, BallotUpdate update) {
+    final TransactionBoundLock lock = TransactionBoundLock.lockBallot(ballotLockService, contentObject, ballotTitle);
+    try {
+      updateHeldBallot(contentObject, ballotTitle, choiceNames, update);
+    } finally {
+      lock.release();
+    }
+  }
+
+  /**
+   * Read, change and write the ballot, the caller holds its lock. The ballot is read bypassing the request cache, and as
+   * the lock is held until the transaction commits, no other writer reads it in between, on this node or, with the
+   * cluster wide locks of {@link ClusterBallotLockService}, on any other. Every write counts the revision up.
+   * <p/>
+   * A ballot not migrated yet starts from its legacy properties, which are removed once the ballot has been written. Its
+   * votes are found for the given choice names and the ones of earlier loads on this node.
+   *
+   * @return the ballot as written
+   */
+  private StoredBallot updateHeldBallot(ContentEntityObject contentObject, String ballotTitle, Collection<String> choiceNames, BallotUpdate update) {
+    final List<String> legacyPropertyKeys = new ArrayList<String>();
+    StoredBallot storedBallot = reloadStoredBallot(contentObject, ballotTitle);
+    if (storedBallot == null) {
+      storedBallot = loadLegacyBallot(contentObject, ballotTitle, getUnmigratedChoiceNames(contentObject, ballotTitle, choiceNames), legacyPropertyKeys);
+    }
+    update.apply(storedBallot);
+    storedBallot.setRevision(storedBallot.getRevision() + 1);
+    storeBallot(contentObject, ballotTitle, storedBallot);
+    if (!legacyPropertyKeys.isEmpty()) {
+      LOG.debug("Migrated ballot " + ballotTitle + " to the stored ballot format version " + StoredBallot.FORMAT_VERSION + ", legacy properties: " + legacyPropertyKeys);
+      for (String legacyPropertyKey : legacyPropertyKeys) {
+        if (legacyPropertyKey.startsWith(LEGACY_STRING_PROPERTY_PREFIX)) {
+          pagePropertyCache.setStringProperty(contentObject, legacyPropertyKey.substring(LEGACY_STRING_PROPERTY_PREFIX.length()), null);
+        } else {
+          pagePropertyCache.setTextProperty(contentObject, legacyPropertyKey, null);
+        }
+      }
+    }
+    unmigratedChoiceNames.remove(getBallotKey(contentObject, ballotTitle));
+    return storedBallot;
+  }
+
+  private interface BallotUpdate {
+    void apply(StoredBallot storedBallot);
+  }
+
+
+  private Collection<String> getUnmigratedChoiceNames(ContentEntityObject contentObject, String ballotTitle, Collection<String> choiceNames) {
+    final Set<String> unmigratedChoices = new LinkedHashSet<String>(choiceNames);
+    final Collection<String> loadedChoiceNames = unmigratedChoiceNames.get(getBallotKey(contentObject, ballotTitle));
+    if (loadedChoiceNames != null) {
+      unmigratedChoices.addAll(loadedChoiceNames);
+    }
+    return unmigratedChoices;
+  }
+
+  private static String getBallotKey(ContentEntityObject contentObject, String ballotTitle) {
+    return contentObject.getId() + ":" + ballotTitle;
+  }
+
+  /**
+   * Read a ballot of the plugin versions which used one property per choice and per commenter. Votes of the old
+   * (v. 1.1.*) default choice names count for the current ones, see CSRVY-21.
+   *
+   * @param legacyPropertyKeys gets the keys of all properties read which have a value, string properties marked with
+   *                           {@link #LEGACY_STRING_PROPERTY_PREFIX}
+   */
+  private StoredBallot loadLegacyBallot(ContentEntityObject contentObject, String ballotTitle, Collection<String> choiceNames, List<String> legacyPropertyKeys) {
+    final StoredBallot storedBallot = new StoredBallot();
+    for (String choiceName : choiceNames) {
+      addLegacyVotes(contentObject, storedBallot, VoteMacro.VOTE_STORAGE_PREFIX + ballotTitle + "." + choiceName, choiceName, legacyPropertyKeys);
+      if (SurveyUtils.DEFAULT_CHOICE_NAMES.contains(choiceName) && !isMigrated(contentObject)) {
+        final String oldChoiceName = SurveyUtils.DEFAULT_OLD_CHOICE_NAMES.get(SurveyUtils.DEFAULT_CHOICE_NAMES.indexOf(choiceName));
+        addLegacyVotes(contentObject, storedBallot, VoteMacro.VOTE_STORAGE_PREFIX + ballotTitle + "." + oldChoiceName, choiceName, legacyPropertyKeys);
+      }
+    }
+
+    final String commentersPropertyKey = "survey." + ballotTitle + ".commenters";
+    String commenters = pagePropertyCache.reloadTextProperty(contentObject, commentersPropertyKey);
+    if (StringUtils.isBlank(commenters)) {
+      // very old versions stored the commenters as string property
+      commenters = pagePropertyCache.getStringProperty(contentObject, commentersPropertyKey);
+      if (StringUtils.isNotBlank(commenters)) {
+        legacyPropertyKeys.add(LEGACY_STRING_PROPERTY_PREFIX + commentersPropertyKey);
+      }
+    } else {
+      legacyPropertyKeys.add(commentersPropertyKey);
+    }
+    if (StringUtils.isNotBlank(commenters)) {
+      for (String commenter : LegacyCommenterIndex.parse(commenters).getCommenters()) {
+        final String commentPropertyKey = "survey." + ballotTitle + ".comment." + commenter;
+        legacyPropertyKeys.add(commentPropertyKey);
+        storedBallot.setComment(commenter, pagePropertyCache.reloadTextProperty(contentObject, commentPropertyKey));
+      }
+    }
+    return storedBallot;
+  }
+
+  private void addLegacyVotes(ContentEntityObject contentObject, StoredBallot storedBallot, String propertyKey, String choiceName, List<String> legacyPropertyKeys) {
+    final String votes = pagePropertyCache.reloadTextProperty(contentObject, propertyKey);
+    if (StringUtils.isNotBlank(votes)) {
+      legacyPropertyKeys.add(propertyKey);
+      for (StringTokenizer voteTokenizer = new StringTokenizer(votes, ","); voteTokenizer.hasMoreTokens(); ) {
+        final String voter = voteTokenizer.nextToken();
+        if (storedBallot.getChoiceOfVoter(voter) == null) {
+          storedBallot.addVote(choiceName, voter);
+        }
+      }
+    }
+  }
+
+  private StoredBallot loadStoredBallot(ContentEntityObject contentObject, String ballotTitle) {
+    final String serializedBallot = pagePropertyCache.getTextProperty(contentObject, BALLOT_STORAGE_PREFIX + ballotTitle);
+    if (StringUtils.isBlank(serializedBallot)) {
+      return null;
+    }
+    return StoredBallot.parse(serializedBallot, pagePropertyCache.getUserDictionary(contentObject, USER_DICTIONARY_KEY));
+  }
+
+  /**
+   * @return the stored ballot as currently persisted without looking at any legacy properties, an empty one if nothing
+   * has been stored yet; needs no lock
+   */
+  StoredBallot loadSnapshot(ContentEntityObject contentObject, String ballotTitle) {
+    final StoredBallot storedBallot = reloadStoredBallot(contentObject, ballotTitle);
+    return storedBallot == null ? new StoredBallot() : storedBallot;
+  }
+
+  /**
+   * Replace the stored ballot, the caller holds its lock.
+   */
+  void storeHeldSnapshot(ContentEntityObject contentObject, String ballotTitle, final StoredBallot storedBallot) {
+    updateHeldBallot(contentObject, ballotTitle, Collections.<String>emptySet(), new BallotUpdate() {
+      @Override
+      public void apply(StoredBallot currentBallot) {
+        currentBallot.clear();
+        for (String choiceName : storedBallot.getChoiceNames()) {
+          for (String voter : storedBallot.getVoters(choiceName)) {
+            currentBallot.addVote(choiceName, voter);
+          }
+        }
+        for (Map.Entry<String, String> comment : storedBallot.getComments().entrySet()) {
+          currentBallot.setComment(comment.getKey(), comment.getValue());
+        }
+      }
+    });
+  }
+
+  private StoredBallot reloadStoredBallot(ContentEntityObject contentObject, String ballotTitle) {
+    final String serializedBallot = pagePropertyCache.reloadTextProperty(contentObject, BALLOT_STORAGE_PREFIX + ballotTitle);
+    if (StringUtils.isBlank(serializedBallot)) {
+      return null;
+    }
+    return StoredBallot.parse(serializedBallot, UserDictionary.parse(pagePropertyCache.reloadTextProperty(contentObject, USER_DICTIONARY_KEY)));
+  }
+
+  private void storeBallot(ContentEntityObject contentObject, String ballotTitle, StoredBallot storedBallot) {
+    // read the dictionary again so users added by other requests in the meantime keep their ids
+    UserDictionary userDictionary = UserDictionary.parse(pagePropertyCache.reloadTextProperty(contentObject, USER_DICTIONARY_KEY));
+    int knownUsers = userDictionary.size();
+    String serializedBallot = storedBallot.serialize(userDictionary);
+    if (userDictionary.size() > knownUsers) {
+      // held until commit as well, otherwise another ballot of the page could hand out the same ids
+      final TransactionBoundLock pageLock = TransactionBoundLock.lockPage(ballotLockService, contentObject);
+      try {
+        // other ballots of the page may have added users since, the new ones have to get the next free ids
+        userDictionary = UserDictionary.parse(pagePropertyCache.reloadTextProperty(contentObject, USER_DICTIONARY_KEY));
+        knownUsers = userDictionary.size();
+        serializedBallot = storedBallot.serialize(userDictionary);
+        if (userDictionary.size() > knownUsers) {
+          pagePropertyCache.setTextProperty(contentObject, USER_DICTIONARY_KEY, userDictionary.serialize());
+        }
+      } finally {
+        pageLock.release();
+      }
+    }
+    pagePropertyCache.setTextProperty(contentObject, BALLOT_STORAGE_PREFIX + ballotTitle, serializedBallot);
+  }
+
+  /**
+   * @return true if the legacy data of all ballots on this page has been migrated already, either by the
+   * {@link LegacyVoteMigrator} walking all pages or by marking this page
+   */
+  public boolean isMigrated(ContentEntityObject contentObject) {
+    return MIGRATION_VERSION.equals(pluginSettingsFactory.createGlobalSettings().get(MIGRATION_VERSION_SETTING_KEY))
+            || MIGRATION_VERSION.equals(pagePropertyCache.getTextProperty(contentObject, MIGRATION_VERSION_KEY));
+  }
+
+  public void markMigrated(ContentEntityObject contentObject) {
+    pagePropertyCache.setTextProperty(contentObject, MIGRATION_VERSION_KEY, MIGRATION_VERSION);
+  }
+
+  /**
+   * Rename the votes of the old default choice names of this ballot, no matter which choices the ballot currently has.
+   */
+  public void migrateOldDefaultVotes(ContentEntityObject contentObject, String ballotTitle) {
+    final TransactionBoundLock lock = TransactionBoundLock.lockBallot(ballotLockService, contentObject, ballotTitle);
+    try {
+      for (String choiceName : SurveyUtils.DEFAULT_CHOICE_NAMES) {
+        migrateOldDefaultVotesIfPresent(contentObject, ballotTitle, choiceName);
+      }
+    } finally {
+      lock.release();
+    }
+  }
+
+  /**
+   * if this ballot is a default one, check whether there are old (v. 1.1.*) default items and convert see CSRVY-21 for details
+   */
+  protected void migrateOldDefaultVotesIfPresent(ContentEntityObject contentObject, String ballotTitle, String choiceName) {
+    if (SurveyUtils.DEFAULT_CHOICE_NAMES.contains(choiceName)) {
+      int defaultIndex = SurveyUtils.DEFAULT_CHOICE_NAMES.indexOf(choiceName);
+
+      final String oldVotes = pagePropertyCache.getTextProperty(contentObject, VoteMacro.VOTE_STORAGE_PREFIX + ballotTitle + "." + SurveyUtils.DEFAULT_OLD_CHOICE_NAMES.get(defaultIndex));
+      if (StringUtils.isNotBlank(oldVotes)) {
+        pagePropertyCache.setTextProperty(contentObject, VoteMacro.VOTE_STORAGE_PREFIX + ballotTitle + "." + SurveyUtils.DEFAULT_CHOICE_NAMES.get(defaultIndex), oldVotes);
+        pagePropertyCache.setTextProperty(contentObject, VoteMacro.VOTE_STORAGE_PREFIX + ballotTitle + "." + SurveyUtils.DEFAULT_OLD_CHOICE_NAMES.get(defaultIndex), null);
+      }
+    }
+  }
+}
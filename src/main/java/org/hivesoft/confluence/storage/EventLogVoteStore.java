@@ -0,0 +1,190 @@
+/**
+ * Copyright (c) 2006-2015, Confluence Community
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hivesoft.confluence.storage;
+
+import com.atlassian.confluence.core.ContentEntityObject;
+import com.atlassian.confluence.core.ContentPropertyManager;
+import com.atlassian.extras.common.log.Logger;
+import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import org.apache.commons.lang3.math.NumberUtils;
+
+import java.util.Collection;
+
+/**
+ * Appends every vote and comment as a small event property of its own instead of rewriting the ballot, so a write costs
+ * the same no matter how many users have voted. The events are folded into the {@link StoredBallot} snapshot of the
+ * {@link ContentPropertyVoteStore} by the {@link VoteLogCompactor}, or by the write that lets the tail of events not
+ * compacted yet grow beyond {@link #MAX_UNCOMPACTED_EVENTS}. Reads only read: they apply that tail on top of the
+ * snapshot.
+ */
+public class EventLogVoteStore implements VoteStore {
+  private static final Logger.Log LOG = Logger.getInstance(EventLogVoteStore.class);
+
+  public static final String EVENT_LOG_STORAGE_PREFIX = "ballotlog.";
+  private static final String HEAD_SUFFIX = ".head";
+  private static final String COMPACTED_SUFFIX = ".compacted";
+
+  /**
+   * writes compact right away when the tail grew that long, e.g. when the background compaction runs on another node;
+   * it bounds the events every read has to read
+   */
+  protected static final int MAX_UNCOMPACTED_EVENTS = 20;
+
+  private final PagePropertyCache pagePropertyCache;
+  private final ContentPropertyVoteStore snapshotStore;
+  private final VoteLogCompactor voteLogCompactor;
+  private final BallotLockService ballotLockService;
+
+  public EventLogVoteStore(ContentPropertyManager contentPropertyManager, PluginSettingsFactory pluginSettingsFactory, VoteLogCompactor voteLogCompactor, BallotLockService ballotLockService) {
+    this.pagePropertyCache = new PagePropertyCache(contentPropertyManager);
+    this.snapshotStore = new ContentPropertyVoteStore(contentPropertyManager, pluginSettingsFactory, ballotLockService);
+    this.voteLogCompactor = voteLogCompactor;
+    this.ballotLockService = ballotLockService;
+  }
+
+  @Override
+  public StoredBallot load(ContentEntityObject contentObject, String ballotTitle, Collection<String> choiceNames) {
+    final StoredBallot storedBallot = snapshotStore.load(contentObject, ballotTitle, choiceNames);
+    final long compacted = getSequence(contentObject, ballotTitle, COMPACTED_SUFFIX);
+    final long head = getSequence(contentObject, ballotTitle, HEAD_SUFFIX);
+    applyEvents(contentObject, ballotTitle, storedBallot, compacted, head);
+    return storedBallot;
+  }
+
+  @Override
+  public void recordVote(ContentEntityObject contentObject, String ballotTitle, String choiceName, String userName) {
+    append(contentObject, ballotTitle, new VoteEvent(VoteEvent.Action.VOTE, userName, choiceName, System.currentTimeMillis()));
+  }
+
+  @Override
+  public void unvote(ContentEntityObject contentObject, String ballotTitle, String userName) {
+    append(contentObject, ballotTitle, new VoteEvent(VoteEvent.Action.UNVOTE, userName, null, System.currentTimeMillis()));
+  }
+
+  @Override
+  public void reset(ContentEntityObject contentObject, String ballotTitle) {
+    final TransactionBoundLock lock = TransactionBoundLock.lockBallot(ballotLockService, contentObject, ballotTitle);
+    try {
+      resetHeld(contentObject, ballotTitle);
+    } finally {
+      lock.release();
+    }
+  }
+
+  @Override
+  public void resetAll(ContentEntityObject contentObject, Collection<String> ballotTitles) {
+    final TransactionBoundLock lock = TransactionBoundLock.lockBallots(ballotLockService, contentObject, ballotTitles);
+    try {
+      for (String ballotTitle : ballotTitles) {
+        resetHeld(contentObject, ballotTitle);
+      }
+    } finally {
+      lock.release();
+    }
+  }
+
+  @Override
+  public void storeComment(ContentEntityObject contentObject, String ballotTitle, String userName, String comment) {
+    append(contentObject, ballotTitle, new VoteEvent(VoteEvent.Action.COMMENT, userName, comment, System.currentTimeMillis()));
+  }
+
+  /**
+   * Fold all events appended so far into the snapshot and remove them.
+   */
+  public void compact(ContentEntityObject contentObject, String ballotTitle) {
+    final TransactionBoundLock lock = TransactionBoundLock.lockBallot(ballotLockService, contentObject, ballotTitle);
+    try {
+      final long compacted = reloadSequence(contentObject, ballotTitle, COMPACTED_SUFFIX);
+      final long head = reloadSequence(contentObject, ballotTitle, HEAD_SUFFIX);
+      if (head > compacted) {
+        compactHeld(contentObject, ballotTitle, compacted, head);
+      }
+    } finally {
+      lock.release();
+    }
+  }
+
+  /**
+   * The next sequence is taken under the ballot lock from the head as currently stored, so concurrent votes never
+   * write the same event. The lock is held until the event is committed.
+   */
+  private void append(ContentEntityObject contentObject, String ballotTitle, VoteEvent voteEvent) {
+    final TransactionBoundLock lock = TransactionBoundLock.lockBallot(ballotLockService, contentObject, ballotTitle);
+    try {
+      final long sequence = reloadSequence(contentObject, ballotTitle, HEAD_SUFFIX) + 1;
+      pagePropertyCache.setTextProperty(contentObject, createEventKey(ballotTitle, sequence), voteEvent.serialize());
+      pagePropertyCache.setTextProperty(contentObject, EVENT_LOG_STORAGE_PREFIX + ballotTitle + HEAD_SUFFIX, String.valueOf(sequence));
+
+      final long compacted = reloadSequence(contentObject, ballotTitle, COMPACTED_SUFFIX);
+      if (sequence - compacted > MAX_UNCOMPACTED_EVENTS) {
+        compactHeld(contentObject, ballotTitle, compacted, sequence);
+        return;
+      }
+    } finally {
+      lock.release();
+    }
+    voteLogCompactor.markForCompaction(this, contentObject, ballotTitle);
+  }
+
+  /**
+   * The caller holds the ballot lock.
+   */
+  private void resetHeld(ContentEntityObject contentObject, String ballotTitle) {
+    final long compacted = reloadSequence(contentObject, ballotTitle, COMPACTED_SUFFIX);
+    final long head = reloadSequence(contentObject, ballotTitle, HEAD_SUFFIX);
+    storeSnapshot(contentObject, ballotTitle, new StoredBallot(), compacted, head);
+  }
+
+  /**
+   * The caller holds the ballot lock.
+   */
+  private void compactHeld(ContentEntityObject contentObject, String ballotTitle, long compacted, long head) {
+    final StoredBallot storedBallot = snapshotStore.loadSnapshot(contentObject, ballotTitle);
+    applyEvents(contentObject, ballotTitle, storedBallot, compacted, head);
+    storeSnapshot(contentObject, ballotTitle, storedBallot, compacted, head);
+  }
+
+
+  private void applyEvents(ContentEntityObject contentObject, String ballotTitle, StoredBallot storedBallot, long compacted, long head) {
+    for (long sequence = compacted + 1; sequence <= head; sequence++) {
+      final VoteEvent voteEvent = VoteEvent.parse(pagePropertyCache.getTextProperty(contentObject, createEventKey(ballotTitle, sequence)));
+      if (voteEvent == null) {
+        LOG.warn("Skipping missing or unreadable vote event " + sequence + " of ballot " + ballotTitle);
+        continue;
+      }
+      voteEvent.applyTo(storedBallot);
+    }
+  }
+
+  /**
+   * The caller holds the ballot lock.
+   */
+  private void storeSnapshot(ContentEntityObject contentObject, String ballotTitle, StoredBallot storedBallot, long compacted, long head) {
+    snapshotStore.storeHeldSnapshot(contentObject, ballotTitle, storedBallot);
+    pagePropertyCache.setTextProperty(contentObject, EVENT_LOG_STORAGE_PREFIX + ballotTitle + COMPACTED_SUFFIX, String.valueOf(head));
+    for (long sequence = compacted + 1; sequence <= head; sequence++) {
+      pagePropertyCache.setTextProperty(contentObject, createEventKey(ballotTitle, sequence), null);
+    }
+    LOG.debug("Compacted " + (head - compacted) + " vote events of ballot " + ballotTitle);
+  }
+
+  private long getSequence(ContentEntityObject contentObject, String ballotTitle, String suffix) {
+    return NumberUtils.toLong(pagePropertyCache.getTextProperty(contentObject, EVENT_LOG_STORAGE_PREFIX + ballotTitle + suffix));
+  }
+
+  private long reloadSequence(ContentEntityObject contentObject, String ballotTitle, String suffix) {
+    return NumberUtils.toLong(pagePropertyCache.reloadTextProperty(contentObject, EVENT_LOG_STORAGE_PREFIX + ballotTitle + suffix));
+  }
+
+  private static String createEventKey(String ballotTitle, long sequence) {
+    return EVENT_LOG_STORAGE_PREFIX + ballotTitle + "." + sequence;
+  }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2006-2015, Confluence Community
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hivesoft.confluence.storage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Encodes a sequence of non-negative ids in their given order as the differences between them, each written as a
+ * variable length number of 5 bit groups. Differences are signed, zig-zag mapped so small steps backwards stay small
+ * (0, -1, 1, -2, ... become 0, 1, 2, 3, ...). Every group is one character of a url safe alphabet: the lower 32
+ * characters end a number, the upper 32 continue it. Ids close to each other therefore mostly take a single character.
+ */
+final class IdSequenceCodec {
+  private static final String ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdef" + "ghijklmnopqrstuvwxyz0123456789-_";
+  private static final int GROUP_BITS = 5;
+  private static final int GROUP_MASK = (1 << GROUP_BITS) - 1;
+  private static final int CONTINUATION = 1 << GROUP_BITS;
+
+  private IdSequenceCodec() {
+  }
+
+  static String encode(Collection<Integer> ids) {
+    final StringBuilder result = new StringBuilder(ids.size());
+    int previous = 0;
+    for (int id : ids) {
+      final int delta = id - previous;
+      previous = id;
+      int zigZag = (delta << 1) ^ (delta >> 31);
+      while ((zigZag & ~GROUP_MASK) != 0) {
+        result.append(ALPHABET.charAt(CONTINUATION | (zigZag & GROUP_MASK)));
+        zigZag >>>= GROUP_BITS;
+      }
+      result.append(ALPHABET.charAt(zigZag));
+    }
+    return result.toString();
+  }
+
+  /**
+   * @throws IllegalArgumentException if the value contains characters outside the alphabet or ends within a number
+   */
+  static List<Integer> decode(String encoded) {
+    final List<Integer> ids = new ArrayList<Integer>();
+    int previous = 0;
+    int delta = 0;
+    int shift = 0;
+    for (int i = 0; i < encoded.length(); i++) {
+      final int group = ALPHABET.indexOf(encoded.charAt(i));
+      if (group < 0) {
+        throw new IllegalArgumentException("Invalid character in id sequence: " + encoded.charAt(i));
+      }
+      delta |= (group & GROUP_MASK) << shift;
+      if ((group & CONTINUATION) != 0) {
+        shift += GROUP_BITS;
+        continue;
+      }
+      previous += (delta >>> 1) ^ -(delta & 1);
+      ids.add(previous);
+      delta = 0;
+      shift = 0;
+    }
+    if (shift != 0) {
+      throw new IllegalArgumentException("Truncated id sequence: " + encoded);
+    }
+    return ids;
+  }
+}
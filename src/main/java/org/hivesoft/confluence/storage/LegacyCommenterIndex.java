@@ -0,0 +1,41 @@
+/**
+ * Copyright (c) 2006-2015, Confluence Community
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hivesoft.confluence.storage;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * The commenters of a ballot as kept by plugin versions before the {@link StoredBallot}: one text property listing every
+ * commenter enclosed in separators, e.g. <code>|alice||bob|</code>. Only read anymore,
+ * to migrate such ballots.
+ */
+final class LegacyCommenterIndex {
+  private final Set<String> commenters = new LinkedHashSet<String>();
+
+  private LegacyCommenterIndex() {
+  }
+
+  static LegacyCommenterIndex parse(String serializedCommenters) {
+    final LegacyCommenterIndex commenterIndex = new LegacyCommenterIndex();
+    for (String commenter : StringUtils.split(StringUtils.defaultString(serializedCommenters), ContentPropertyVoteStore.COMMENTERS_SEPARATOR)) {
+      commenterIndex.commenters.add(commenter);
+    }
+    return commenterIndex;
+  }
+
+  Set<String> getCommenters() {
+    return Collections.unmodifiableSet(commenters);
+  }
+}
@@ -0,0 +1,330 @@
+/**
+ * Copyright (c) 2006-2015, Confluence Community
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hivesoft.confluence.storage;
+
+import com.atlassian.confluence.cluster.ClusterManager;
+import com.atlassian.confluence.cluster.ClusteredLock;
+import com.atlassian.confluence.content.render.xhtml.DefaultConversionContext;
+import com.atlassian.confluence.content.render.xhtml.XhtmlException;
+import com.atlassian.confluence.core.ContentEntityObject;
+import com.atlassian.confluence.core.ContentPropertyManager;
+import com.atlassian.confluence.pages.AbstractPage;
+import com.atlassian.confluence.pages.PageManager;
+import com.atlassian.confluence.spaces.Space;
+import com.atlassian.confluence.spaces.SpaceManager;
+import com.atlassian.confluence.util.RequestCacheThreadLocal;
+import com.atlassian.confluence.xhtml.api.MacroDefinition;
+import com.atlassian.confluence.xhtml.api.MacroDefinitionHandler;
+import com.atlassian.confluence.xhtml.api.XhtmlContent;
+import com.atlassian.extras.common.log.Logger;
+import com.atlassian.sal.api.lifecycle.LifecycleAware;
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import com.atlassian.sal.api.scheduling.PluginJob;
+import com.atlassian.sal.api.scheduling.PluginScheduler;
+import com.atlassian.sal.api.transaction.TransactionCallback;
+import com.atlassian.sal.api.transaction.TransactionTemplate;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.hivesoft.confluence.macros.survey.SurveyMacro;
+import org.hivesoft.confluence.macros.vote.VoteMacro;
+import org.hivesoft.confluence.utils.SurveyUtils;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.util.*;
+
+/**
+ * Walks all pages once in the background and migrates the legacy data of their ballots, marking every page done (see
+ * {@link ContentPropertyVoteStore#MIGRATION_VERSION_KEY}). Once all pages are done the global plugin setting is set and
+ * rendering a ballot no longer looks for legacy properties of the old default choice names.
+ * <p/>
+ * Spaces are walked in the order of their keys and their pages in the order of their ids. Every ballot is migrated in a
+ * transaction of its own, so no more than one ballot lock is held at a time. After every {@link #MIGRATION_BATCH_SIZE}
+ * pages the position up to which all pages are done is saved (see {@link #MIGRATION_CURSOR_SETTING_KEY}), so a run
+ * stopped by a restart or a failure resumes there instead of starting over. A run holds a cluster wide lock (see
+ * {@link #MIGRATION_LOCK_NAME}), only one node migrates at a time.
+ * <p/>
+ * Ballots in comments are skipped, voting within comments is not supported.
+ */
+public class LegacyVoteMigrator implements LifecycleAware, DisposableBean {
+  private static final Logger.Log LOG = Logger.getInstance(LegacyVoteMigrator.class);
+
+  private static final String JOB_KEY = LegacyVoteMigrator.class.getName() + ":job";
+  private static final String JOB_DATA_MIGRATOR = "legacyVoteMigrator";
+  protected static final long MIGRATION_DELAY = 60 * 1000L;
+  /**
+   * a run which failed for some spaces is retried, pages already marked are skipped then
+   */
+  protected static final long MIGRATION_RETRY_INTERVAL = 60 * 60 * 1000L;
+  protected static final int MIGRATION_BATCH_SIZE = 100;
+  /**
+   * the key of the space and the id of the page up to which all pages are migrated, separated by a colon
+   */
+  public static final String MIGRATION_CURSOR_SETTING_KEY = "survey-plugin.migrationCursor";
+  private static final char CURSOR_SEPARATOR = ':';
+  protected static final String MIGRATION_LOCK_NAME = "survey-plugin.legacyVoteMigration";
+
+  private final SpaceManager spaceManager;
+  private final PageManager pageManager;
+  private final XhtmlContent xhtmlContent;
+  private final PluginSettingsFactory pluginSettingsFactory;
+  private final TransactionTemplate transactionTemplate;
+  private final PluginScheduler pluginScheduler;
+  private final ContentPropertyVoteStore contentPropertyVoteStore;
+  private final ClusterManager clusterManager;
+
+  public LegacyVoteMigrator(SpaceManager spaceManager, PageManager pageManager, XhtmlContent xhtmlContent, ContentPropertyManager contentPropertyManager,
+                            PluginSettingsFactory pluginSettingsFactory, TransactionTemplate transactionTemplate, PluginScheduler pluginScheduler,
+                            BallotLockService ballotLockService, ClusterManager clusterManager) {
+    this.spaceManager = spaceManager;
+    this.pageManager = pageManager;
+    this.xhtmlContent = xhtmlContent;
+    this.pluginSettingsFactory = pluginSettingsFactory;
+    this.transactionTemplate = transactionTemplate;
+    this.pluginScheduler = pluginScheduler;
+    this.contentPropertyVoteStore = new ContentPropertyVoteStore(contentPropertyManager, pluginSettingsFactory, ballotLockService);
+    this.clusterManager = clusterManager;
+  }
+
+  @Override
+  public void onStart() {
+    if (isMigrationComplete()) {
+      return;
+    }
+    final Map<String, Object> jobData = new HashMap<String, Object>();
+    jobData.put(JOB_DATA_MIGRATOR, this);
+    pluginScheduler.scheduleJob(JOB_KEY, MigrationJob.class, jobData, new Date(System.currentTimeMillis() + MIGRATION_DELAY), MIGRATION_RETRY_INTERVAL);
+  }
+
+  @Override
+  public void destroy() {
+    try {
+      pluginScheduler.unscheduleJob(JOB_KEY);
+    } catch (IllegalArgumentException e) {
+      LOG.debug("Legacy vote migration was not scheduled");
+    }
+  }
+
+  public boolean isMigrationComplete() {
+    return ContentPropertyVoteStore.MIGRATION_VERSION.equals(pluginSettingsFactory.createGlobalSettings().get(ContentPropertyVoteStore.MIGRATION_VERSION_SETTING_KEY));
+  }
+
+  public void migrate() {
+    if (isMigrationComplete()) {
+      return;
+    }
+    final ClusteredLock migrationLock = clusterManager.getClusteredLock(MIGRATION_LOCK_NAME);
+    if (!migrationLock.tryLock()) {
+      LOG.debug("Legacy votes are being migrated by another node or job");
+      return;
+    }
+    try {
+      final List<String> spaceKeys = inTransaction(new TransactionCallback<List<String>>() {
+        @Override
+        public List<String> doInTransaction() {
+          final List<String> spaceKeys = new ArrayList<String>();
+          for (Object space : spaceManager.getAllSpaces()) {
+            spaceKeys.add(((Space) space).getKey());
+          }
+          return spaceKeys;
+        }
+      });
+      Collections.sort(spaceKeys);
+
+      final String cursor = StringUtils.defaultString((String) pluginSettingsFactory.createGlobalSettings().get(MIGRATION_CURSOR_SETTING_KEY));
+      final int separatorIndex = cursor.lastIndexOf(CURSOR_SEPARATOR);
+      final String cursorSpaceKey = separatorIndex < 0 ? null : cursor.substring(0, separatorIndex);
+      final long cursorPageId = separatorIndex < 0 ? -1 : NumberUtils.toLong(cursor.substring(separatorIndex + 1), -1);
+
+      boolean complete = true;
+      for (final String spaceKey : spaceKeys) {
+        final int position = cursorSpaceKey == null ? 1 : spaceKey.compareTo(cursorSpaceKey);
+        if (position < 0) {
+          continue; // done in an earlier run
+        }
+        // once a batch failed the cursor stays in front of it, later batches are still migrated
+        complete = migrateSpace(spaceKey, position == 0 ? cursorPageId : -1, complete) && complete;
+      }
+
+      if (complete) {
+        final PluginSettings pluginSettings = pluginSettingsFactory.createGlobalSettings();
+        pluginSettings.put(ContentPropertyVoteStore.MIGRATION_VERSION_SETTING_KEY, ContentPropertyVoteStore.MIGRATION_VERSION);
+        pluginSettings.remove(MIGRATION_CURSOR_SETTING_KEY);
+        LOG.info("Migrated the ballots of " + spaceKeys.size() + " spaces to version " + ContentPropertyVoteStore.MIGRATION_VERSION);
+      }
+    } finally {
+      migrationLock.unlock();
+    }
+  }
+
+  /**
+   * @param lastPageId the id of the page up to which the space has been migrated by an earlier run, -1 if none
+   * @param moveCursor whether the cursor may be moved past the migrated batches
+   * @return false if some page failed
+   */
+  private boolean migrateSpace(final String spaceKey, long lastPageId, boolean moveCursor) {
+    final List<Long> pageIds;
+    try {
+      pageIds = inTransaction(new TransactionCallback<List<Long>>() {
+        @Override
+        public List<Long> doInTransaction() {
+          return getPageIds(spaceManager.getSpace(spaceKey));
+        }
+      });
+    } catch (RuntimeException e) {
+      LOG.error("Could not list the pages of space " + spaceKey + ", will try again later", e);
+      return false;
+    }
+
+    int start = 0;
+    while (start < pageIds.size() && pageIds.get(start) <= lastPageId) {
+      start++;
+    }
+    boolean complete = true;
+    for (; start < pageIds.size(); start += MIGRATION_BATCH_SIZE) {
+      final List<Long> batch = pageIds.subList(start, Math.min(start + MIGRATION_BATCH_SIZE, pageIds.size()));
+      for (long pageId : batch) {
+        try {
+          migratePage(pageId);
+        } catch (RuntimeException e) {
+          LOG.error("Could not migrate the ballots of page " + pageId + " of space " + spaceKey + ", will try again later", e);
+          complete = false;
+        }
+      }
+      if (moveCursor && complete) {
+        pluginSettingsFactory.createGlobalSettings().put(MIGRATION_CURSOR_SETTING_KEY, spaceKey + CURSOR_SEPARATOR + batch.get(batch.size() - 1));
+      }
+    }
+    return complete;
+  }
+
+  /**
+   * @return the ids of the current pages and blog posts of the space in ascending order, empty if it has been removed
+   */
+  private List<Long> getPageIds(Space space) {
+    final List<Long> pageIds = new ArrayList<Long>();
+    if (space == null) {
+      return pageIds;
+    }
+    for (Object page : pageManager.getPages(space, true)) {
+      pageIds.add(((AbstractPage) page).getId());
+    }
+    for (Object blogPost : pageManager.getBlogPosts(space, true)) {
+      pageIds.add(((AbstractPage) blogPost).getId());
+    }
+    Collections.sort(pageIds);
+    return pageIds;
+  }
+
+  /**
+   * Migrate every ballot of the page in a transaction of its own, then mark the page.
+   */
+  protected void migratePage(final long pageId) {
+    final Set<String> ballotTitles = inTransaction(new TransactionCallback<Set<String>>() {
+      @Override
+      public Set<String> doInTransaction() {
+        final ContentEntityObject contentObject = pageManager.getById(pageId);
+        return contentObject == null ? null : getUnmigratedBallotTitles(contentObject); // removed in the meantime otherwise
+      }
+    });
+    if (ballotTitles == null) {
+      return;
+    }
+    for (final String ballotTitle : ballotTitles) {
+      inTransaction(new TransactionCallback<Void>() {
+        @Override
+        public Void doInTransaction() {
+          final ContentEntityObject contentObject = pageManager.getById(pageId);
+          if (contentObject != null) {
+            contentPropertyVoteStore.migrateOldDefaultVotes(contentObject, ballotTitle);
+          }
+          return null;
+        }
+      });
+    }
+    inTransaction(new TransactionCallback<Void>() {
+      @Override
+      public Void doInTransaction() {
+        final ContentEntityObject contentObject = pageManager.getById(pageId);
+        if (contentObject != null) {
+          contentPropertyVoteStore.markMigrated(contentObject);
+        }
+        return null;
+      }
+    });
+  }
+
+  /**
+   * @return the titles of the ballots of the page, null if the page needs no migration
+   */
+  private Set<String> getUnmigratedBallotTitles(ContentEntityObject contentObject) {
+    final String body = contentObject.getBodyAsString();
+    if (!StringUtils.contains(body, SurveyMacro.SURVEY_MACRO) && !StringUtils.contains(body, VoteMacro.VOTE_MACRO)) {
+      return null; // nothing to migrate, pages never having had a ballot need no mark
+    }
+    if (contentPropertyVoteStore.isMigrated(contentObject)) {
+      return null;
+    }
+    try {
+      return getBallotTitles(contentObject);
+    } catch (XhtmlException e) {
+      LOG.warn("Could not find the ballots of page " + contentObject.getId() + ", it is left as it is: " + e.getMessage());
+      return null;
+    }
+  }
+
+  private <T> T inTransaction(TransactionCallback<T> transactionCallback) {
+    try {
+      return transactionTemplate.execute(transactionCallback);
+    } finally {
+      RequestCacheThreadLocal.clearRequestCache(); // only cleared after requests otherwise
+    }
+  }
+
+  private Set<String> getBallotTitles(ContentEntityObject contentObject) throws XhtmlException {
+    final Set<String> ballotTitles = new LinkedHashSet<String>();
+    xhtmlContent.handleMacroDefinitions(contentObject.getBodyAsString(), new DefaultConversionContext(contentObject.toPageContext()), new MacroDefinitionHandler() {
+      @Override
+      public void handle(MacroDefinition macroDefinition) {
+        if (SurveyMacro.SURVEY_MACRO.equals(macroDefinition.getName())) {
+          ballotTitles.addAll(getSurveyBallotTitles(macroDefinition.getBodyText()));
+        } else if (VoteMacro.VOTE_MACRO.equals(macroDefinition.getName())) {
+          ballotTitles.add(SurveyUtils.getTitleInMacroParameters(macroDefinition.getParameters()));
+        }
+      }
+    });
+    return ballotTitles;
+  }
+
+  /**
+   * the ballot rows of a survey body, read the same way as SurveyManager#reconstructSurveyFromPlainTextMacroBody does
+   */
+  private static List<String> getSurveyBallotTitles(String plainTextMacroBody) {
+    final List<String> ballotTitles = new ArrayList<String>();
+    if (StringUtils.isBlank(plainTextMacroBody)) {
+      return ballotTitles;
+    }
+    for (StringTokenizer stringTokenizer = new StringTokenizer(plainTextMacroBody, "\r\n"); stringTokenizer.hasMoreTokens(); ) {
+      String line = StringUtils.chomp(stringTokenizer.nextToken().trim());
+      if ((!StringUtils.isBlank(line) && Character.getNumericValue(line.toCharArray()[0]) > -1) || line.length() > 1) {
+        ballotTitles.add(line.split("\\-", -1)[0].trim());
+      }
+    }
+    return ballotTitles;
+  }
+
+  public static class MigrationJob implements PluginJob {
+    @Override
+    public void execute(Map<String, Object> jobDataMap) {
+      ((LegacyVoteMigrator) jobDataMap.get(JOB_DATA_MIGRATOR)).migrate();
+    }
+  }
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright (c) 2006-2015, Confluence Community
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hivesoft.confluence.storage;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the lock acquisitions of a {@link BallotLockService} and the time spent waiting for them.
+ */
+public class LockWaitStatistics {
+  private final AtomicLong acquisitions = new AtomicLong();
+  private final AtomicLong totalWaitNanos = new AtomicLong();
+  private final AtomicLong maxWaitNanos = new AtomicLong();
+
+  public void record(long waitNanos) {
+    acquisitions.incrementAndGet();
+    totalWaitNanos.addAndGet(waitNanos);
+    long max = maxWaitNanos.get();
+    while (waitNanos > max && !maxWaitNanos.compareAndSet(max, waitNanos)) {
+      max = maxWaitNanos.get();
+    }
+  }
+
+  public long getAcquisitions() {
+    return acquisitions.get();
+  }
+
+  public long getTotalWaitMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get());
+  }
+
+  public long getMaxWaitMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+  }
+
+  public double getAverageWaitMillis() {
+    final long count = acquisitions.get();
+    return count == 0 ? 0 : totalWaitNanos.get() / (double) count / TimeUnit.MILLISECONDS.toNanos(1);
+  }
+
+  @Override
+  public String toString() {
+    return "LockWaitStatistics{" +
+            "acquisitions=" + getAcquisitions() +
+            ", totalWaitMillis=" + getTotalWaitMillis() +
+            ", maxWaitMillis=" + getMaxWaitMillis() +
+            '}';
+  }
+}
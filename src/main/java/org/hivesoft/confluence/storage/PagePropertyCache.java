@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) 2006-2015, Confluence Community
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hivesoft.confluence.storage;
+
+import com.atlassian.confluence.core.ContentEntityObject;
+import com.atlassian.confluence.core.ContentPropertyManager;
+import com.atlassian.confluence.util.RequestCacheThreadLocal;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Read-through cache in front of the {@link ContentPropertyManager} which lives as long as the current request.
+ * Several survey and vote macros on one page (and the REST resources reconstructing them) share the properties already
+ * read instead of querying them again. Writes go straight to the {@link ContentPropertyManager} and update the cache.
+ * <p/>
+ * The cache is bound to the page instance handed in, as Confluence uses the same instance throughout one request.
+ * Parsed {@link UserDictionary user dictionaries} are kept as well, every ballot of the page would parse it again.
+ * <p/>
+ * Confluence binds a request cache to every thread, but only clears it after a request. The background jobs of the
+ * plugin therefore clear it after each of their transactions, otherwise they would keep reading what they cached
+ * before (see {@link WriteBehindVoteQueue}, {@link VoteLogCompactor} and {@link LegacyVoteMigrator}).
+ */
+public class PagePropertyCache {
+  private static final String REQUEST_CACHE_KEY = PagePropertyCache.class.getName();
+  private static final String USER_DICTIONARY_CACHE_KEY = REQUEST_CACHE_KEY + ".userDictionaries";
+
+  private final ContentPropertyManager contentPropertyManager;
+
+  public PagePropertyCache(ContentPropertyManager contentPropertyManager) {
+    this.contentPropertyManager = contentPropertyManager;
+  }
+
+  public String getTextProperty(ContentEntityObject contentObject, String key) {
+    final Map<String, String> pageProperties = getPageProperties(contentObject);
+    if (pageProperties.containsKey(key)) {
+      return pageProperties.get(key);
+    }
+    final String value = contentPropertyManager.getTextProperty(contentObject, key);
+    pageProperties.put(key, value);
+    return value;
+  }
+
+  /**
+   * Read the property again, ignoring the value cached for this request.
+   */
+  public String reloadTextProperty(ContentEntityObject contentObject, String key) {
+    final String value = contentPropertyManager.getTextProperty(contentObject, key);
+    getPageProperties(contentObject).put(key, value);
+    this.<UserDictionary>getPageEntries(contentObject, USER_DICTIONARY_CACHE_KEY).remove(key);
+    return value;
+  }
+
+  public void setTextProperty(ContentEntityObject contentObject, String key, String value) {
+    contentPropertyManager.setTextProperty(contentObject, key, value);
+    getPageProperties(contentObject).put(key, value);
+    this.<UserDictionary>getPageEntries(contentObject, USER_DICTIONARY_CACHE_KEY).remove(key);
+  }
+
+  /**
+   * @return the user dictionary stored in the given text property, parsed once per request; it is shared, so it must
+   * only be read, a writer parses its own copy of the property
+   */
+  public UserDictionary getUserDictionary(ContentEntityObject contentObject, String key) {
+    final Map<String, UserDictionary> userDictionaries = getPageEntries(contentObject, USER_DICTIONARY_CACHE_KEY);
+    UserDictionary userDictionary = userDictionaries.get(key);
+    if (userDictionary == null) {
+      userDictionary = UserDictionary.parse(getTextProperty(contentObject, key));
+      userDictionaries.put(key, userDictionary);
+    }
+    return userDictionary;
+  }
+
+  /**
+   * String properties are only used by very old versions of the plugin and therefore not cached.
+   */
+  public String getStringProperty(ContentEntityObject contentObject, String key) {
+    return contentPropertyManager.getStringProperty(contentObject, key);
+  }
+
+  public void setStringProperty(ContentEntityObject contentObject, String key, String value) {
+    contentPropertyManager.setStringProperty(contentObject, key, value);
+  }
+
+  private Map<String, String> getPageProperties(ContentEntityObject contentObject) {
+    return getPageEntries(contentObject, REQUEST_CACHE_KEY);
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T> Map<String, T> getPageEntries(ContentEntityObject contentObject, String cacheKey) {
+    final Map<Object, Object> requestCache = RequestCacheThreadLocal.getRequestCache();
+    Map<ContentEntityObject, Map<String, T>> entriesByPage = (Map<ContentEntityObject, Map<String, T>>) requestCache.get(cacheKey);
+    if (entriesByPage == null) {
+      entriesByPage = new IdentityHashMap<ContentEntityObject, Map<String, T>>();
+      requestCache.put(cacheKey, entriesByPage);
+    }
+    Map<String, T> pageEntries = entriesByPage.get(contentObject);
+    if (pageEntries == null) {
+      pageEntries = new HashMap<String, T>();
+      entriesByPage.put(contentObject, pageEntries);
+    }
+    return pageEntries;
+  }
+}
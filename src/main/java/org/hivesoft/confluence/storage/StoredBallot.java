@@ -0,0 +1,261 @@
+/**
+ * Copyright (c) 2006-2015, Confluence Community
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hivesoft.confluence.storage;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.*;
+
+/**
+ * The persisted state of one ballot: the voters of every choice and all comments, kept in a single serialized document.
+ * This replaces the old layout with one content property per choice and one per commenter. Users are referenced by
+ * their id in the {@link UserDictionary} of the page.
+ */
+public class StoredBallot {
+  public static final String FORMAT_VERSION = "1";
+
+  private static final String HEADER = "#ballot:";
+  private static final String LINE_SEPARATOR = "\n";
+  private static final char FIELD_SEPARATOR = '\t';
+  private static final String TYPE_VOTES = "V";
+  private static final String TYPE_COMMENT = "C";
+  private static final String TYPE_REVISION = "R";
+  private static final String ENCODING = "UTF-8";
+
+  private final Map<String, List<String>> votersByChoice = new LinkedHashMap<String, List<String>>();
+  private final Map<String, String> commentsByUser = new LinkedHashMap<String, String>();
+  private long revision;
+
+  public StoredBallot() {
+  }
+
+  public StoredBallot(StoredBallot other) {
+    for (Map.Entry<String, List<String>> entry : other.votersByChoice.entrySet()) {
+      votersByChoice.put(entry.getKey(), new ArrayList<String>(entry.getValue()));
+    }
+    commentsByUser.putAll(other.commentsByUser);
+    revision = other.revision;
+  }
+
+  /**
+   * @return the number of writes of this ballot, lets a writer notice that the ballot has been changed since it was read
+   */
+  public long getRevision() {
+    return revision;
+  }
+
+  public void setRevision(long revision) {
+    this.revision = revision;
+  }
+
+  public List<String> getVoters(String choiceName) {
+    final List<String> voters = votersByChoice.get(choiceName);
+    if (voters == null) {
+      return Collections.emptyList();
+    }
+    return Collections.unmodifiableList(voters);
+  }
+
+  public Set<String> getChoiceNames() {
+    return Collections.unmodifiableSet(votersByChoice.keySet());
+  }
+
+  /**
+   * @return the name of the choice the user has voted for or <code>null</code> if the user has not voted on this ballot
+   */
+  public String getChoiceOfVoter(String userName) {
+    for (Map.Entry<String, List<String>> entry : votersByChoice.entrySet()) {
+      if (entry.getValue().contains(userName)) {
+        return entry.getKey();
+      }
+    }
+    return null;
+  }
+
+  public void addVote(String choiceName, String userName) {
+    List<String> voters = votersByChoice.get(choiceName);
+    if (voters == null) {
+      voters = new ArrayList<String>();
+      votersByChoice.put(choiceName, voters);
+    }
+    if (!voters.contains(userName)) {
+      voters.add(userName);
+    }
+  }
+
+  public boolean removeVote(String choiceName, String userName) {
+    final List<String> voters = votersByChoice.get(choiceName);
+    if (voters == null || !voters.remove(userName)) {
+      return false;
+    }
+    if (voters.isEmpty()) {
+      votersByChoice.remove(choiceName);
+    }
+    return true;
+  }
+
+  public Map<String, String> getComments() {
+    return Collections.unmodifiableMap(commentsByUser);
+  }
+
+  /**
+   * Stores the comment of the given user, a blank comment removes it.
+   */
+  public void setComment(String userName, String comment) {
+    if (StringUtils.isBlank(comment)) {
+      commentsByUser.remove(userName);
+    } else {
+      commentsByUser.put(userName, comment);
+    }
+  }
+
+  public void clear() {
+    votersByChoice.clear();
+    commentsByUser.clear();
+  }
+
+  public boolean isEmpty() {
+    return votersByChoice.isEmpty() && commentsByUser.isEmpty();
+  }
+
+  /**
+   * Serialize in the current format, voters and commenters are written as ids of the given dictionary. Users not yet
+   * known are added to it, so the dictionary has to be stored as well if it grew.
+   */
+  public String serialize(UserDictionary userDictionary) {
+    StringBuilder result = new StringBuilder(HEADER).append(FORMAT_VERSION);
+    if (revision > 0) {
+      // older plugin versions skip lines of unknown type, so the revision comes first to be found cheaply
+      result.append(LINE_SEPARATOR).append(TYPE_REVISION).append(FIELD_SEPARATOR).append(revision).append(FIELD_SEPARATOR);
+    }
+    for (Map.Entry<String, List<String>> entry : votersByChoice.entrySet()) {
+      List<Integer> voterIds = new ArrayList<Integer>(entry.getValue().size());
+      for (String voter : entry.getValue()) {
+        voterIds.add(userDictionary.getOrAddId(voter));
+      }
+      result.append(LINE_SEPARATOR).append(TYPE_VOTES).append(FIELD_SEPARATOR).append(encode(entry.getKey()))
+              .append(FIELD_SEPARATOR).append(IdSequenceCodec.encode(voterIds));
+    }
+    for (Map.Entry<String, String> entry : commentsByUser.entrySet()) {
+      result.append(LINE_SEPARATOR).append(TYPE_COMMENT).append(FIELD_SEPARATOR).append(userDictionary.getOrAddId(entry.getKey()))
+              .append(FIELD_SEPARATOR).append(encode(entry.getValue()));
+    }
+    return result.toString();
+  }
+
+  /**
+   * A damaged ballot is not read at all rather than without the votes that can not be decoded, which the next write
+   * would lose for good.
+   *
+   * @param userDictionary the dictionary of the page the ballot was stored with
+   * @return the parsed ballot or <code>null</code> if the given value is not a stored ballot
+   * @throws IllegalArgumentException if the stored ballot is of an unknown format version, or if it is damaged
+   */
+  public static StoredBallot parse(String serialized, UserDictionary userDictionary) {
+    if (StringUtils.isBlank(serialized) || !serialized.startsWith(HEADER)) {
+      return null;
+    }
+    final String[] lines = StringUtils.split(serialized, LINE_SEPARATOR);
+    final String formatVersion = lines[0].substring(HEADER.length()).trim();
+    if (!FORMAT_VERSION.equals(formatVersion)) {
+      throw new IllegalArgumentException("Stored ballot of unknown format version " + formatVersion);
+    }
+
+    StoredBallot storedBallot = new StoredBallot();
+    for (int i = 1; i < lines.length; i++) {
+      final String[] fields = StringUtils.splitPreserveAllTokens(lines[i], FIELD_SEPARATOR);
+      if (fields.length != 3) {
+        continue;
+      }
+      if (TYPE_VOTES.equals(fields[0])) {
+        final String choiceName = decode(fields[1]);
+        for (int voterId : IdSequenceCodec.decode(fields[2])) {
+          storedBallot.addVote(choiceName, getUserName(userDictionary, voterId));
+        }
+      } else if (TYPE_REVISION.equals(fields[0])) {
+        storedBallot.revision = NumberUtils.toLong(fields[1]);
+      } else if (TYPE_COMMENT.equals(fields[0])) {
+        storedBallot.setComment(getUserName(userDictionary, NumberUtils.toInt(fields[1], -1)), decode(fields[2]));
+      }
+    }
+    return storedBallot;
+  }
+
+  /**
+   * @return the revision of the serialized ballot without parsing it, 0 if it has none
+   */
+  public static long parseRevision(String serialized) {
+    final String marker = LINE_SEPARATOR + TYPE_REVISION + FIELD_SEPARATOR;
+    final int start = serialized == null ? -1 : serialized.indexOf(marker);
+    if (start < 0) {
+      return 0;
+    }
+    final int end = serialized.indexOf(FIELD_SEPARATOR, start + marker.length());
+    return NumberUtils.toLong(end < 0 ? serialized.substring(start + marker.length()) : serialized.substring(start + marker.length(), end));
+  }
+
+  private static String getUserName(UserDictionary userDictionary, int userId) {
+    final String userName = userDictionary.getName(userId);
+    if (userName == null) {
+      throw new IllegalArgumentException("Stored ballot refers to the unknown user id " + userId);
+    }
+    return userName;
+  }
+
+  static String encode(String value) {
+    try {
+      return URLEncoder.encode(value, ENCODING);
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  static String decode(String value) {
+    try {
+      return URLDecoder.decode(value, ENCODING);
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * @return true if the other ballot has the same voters in the same order and the same comments, whatever its revision
+   */
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    final StoredBallot that = (StoredBallot) o;
+    return votersByChoice.equals(that.votersByChoice) && commentsByUser.equals(that.commentsByUser);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * votersByChoice.hashCode() + commentsByUser.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return "StoredBallot{" +
+            "votersByChoice=" + votersByChoice +
+            ", commentsByUser=" + commentsByUser +
+            ", revision=" + revision +
+            '}';
+  }
+}
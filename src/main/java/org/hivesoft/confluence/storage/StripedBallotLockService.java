@@ -0,0 +1,138 @@
+/**
+ * Copyright (c) 2006-2015, Confluence Community
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hivesoft.confluence.storage;
+
+import com.atlassian.confluence.core.ContentEntityObject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Striped locks of this node only: the writes to one ballot are serialized, while votes on other ballots of the same
+ * page go on in parallel. Enough as long as Confluence is not clustered.
+ */
+public class StripedBallotLockService implements BallotLockService {
+  protected static final int STRIPES = 64;
+
+  private final LockWaitStatistics lockWaitStatistics;
+  private final BallotLock[] ballotLocks;
+  private final BallotLock[] pageLocks;
+
+  public StripedBallotLockService() {
+    this(new LockWaitStatistics());
+  }
+
+  StripedBallotLockService(LockWaitStatistics lockWaitStatistics) {
+    this.lockWaitStatistics = lockWaitStatistics;
+    this.ballotLocks = createLocks(lockWaitStatistics);
+    this.pageLocks = createLocks(lockWaitStatistics);
+  }
+
+  @Override
+  public BallotLock getBallotLock(ContentEntityObject contentObject, String ballotTitle) {
+    return ballotLocks[getBallotStripe(contentObject, ballotTitle)];
+  }
+
+  @Override
+  public List<BallotLock> getBallotLocks(ContentEntityObject contentObject, Collection<String> ballotTitles) {
+    final List<BallotLock> locks = new ArrayList<BallotLock>();
+    for (int stripe : getBallotStripes(contentObject, ballotTitles)) {
+      locks.add(ballotLocks[stripe]);
+    }
+    return locks;
+  }
+
+  @Override
+  public BallotLock getPageLock(ContentEntityObject contentObject) {
+    return pageLocks[getPageStripe(contentObject)];
+  }
+
+  @Override
+  public LockWaitStatistics getLockWaitStatistics() {
+    return lockWaitStatistics;
+  }
+
+  static int getBallotStripe(ContentEntityObject contentObject, String ballotTitle) {
+    return stripe(31 * hash(contentObject.getId()) + ballotTitle.hashCode());
+  }
+
+  /**
+   * @return the stripes of the ballots in ascending order, the order their locks are taken in
+   */
+  static SortedSet<Integer> getBallotStripes(ContentEntityObject contentObject, Collection<String> ballotTitles) {
+    final SortedSet<Integer> stripes = new TreeSet<Integer>();
+    for (String ballotTitle : ballotTitles) {
+      stripes.add(getBallotStripe(contentObject, ballotTitle));
+    }
+    return stripes;
+  }
+
+  static int getPageStripe(ContentEntityObject contentObject) {
+    return stripe(hash(contentObject.getId()));
+  }
+
+  private static int hash(long contentId) {
+    return (int) (contentId ^ (contentId >>> 32));
+  }
+
+  private static int stripe(int hash) {
+    return (hash ^ (hash >>> 16)) & (STRIPES - 1);
+  }
+
+  private static BallotLock[] createLocks(LockWaitStatistics lockWaitStatistics) {
+    final BallotLock[] locks = new BallotLock[STRIPES];
+    for (int i = 0; i < STRIPES; i++) {
+      locks[i] = new TimedLock(new LocalLock(), lockWaitStatistics);
+    }
+    return locks;
+  }
+
+  /**
+   * A lock of this node that refuses to be locked again by the thread holding it, like the clustered locks would.
+   */
+  static class LocalLock implements BallotLock {
+    private final ReentrantLock lock = new ReentrantLock();
+
+    @Override
+    public void lock() {
+      checkNotHeld();
+      lock.lock();
+    }
+
+    @Override
+    public boolean tryLock() {
+      checkNotHeld();
+      return lock.tryLock();
+    }
+
+    @Override
+    public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+      checkNotHeld();
+      return lock.tryLock(time, unit);
+    }
+
+    @Override
+    public void unlock() {
+      lock.unlock();
+    }
+
+    private void checkNotHeld() {
+      if (lock.isHeldByCurrentThread()) {
+        throw new IllegalStateException("A ballot lock must not be locked again by the thread holding it");
+      }
+    }
+  }
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright (c) 2006-2015, Confluence Community
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hivesoft.confluence.storage;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the time waited for every acquisition of the wrapped lock.
+ */
+class TimedLock implements BallotLock {
+  private final BallotLock lock;
+  private final LockWaitStatistics statistics;
+
+  TimedLock(BallotLock lock, LockWaitStatistics statistics) {
+    this.lock = lock;
+    this.statistics = statistics;
+  }
+
+  @Override
+  public void lock() {
+    final long start = System.nanoTime();
+    lock.lock();
+    statistics.record(System.nanoTime() - start);
+  }
+
+  @Override
+  public boolean tryLock() {
+    final boolean acquired = lock.tryLock();
+    if (acquired) {
+      statistics.record(0);
+    }
+    return acquired;
+  }
+
+  @Override
+  public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+    final long start = System.nanoTime();
+    final boolean acquired = lock.tryLock(time, unit);
+    if (acquired) {
+      statistics.record(System.nanoTime() - start);
+    }
+    return acquired;
+  }
+
+  @Override
+  public void unlock() {
+    lock.unlock();
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return this == o || (o instanceof TimedLock && lock.equals(((TimedLock) o).lock));
+  }
+
+  @Override
+  public int hashCode() {
+    return lock.hashCode();
+  }
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright (c) 2006-2015, Confluence Community
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hivesoft.confluence.storage;
+
+import com.atlassian.confluence.core.ContentEntityObject;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ballot or page locks held until the transaction of the current thread has completed. Releasing them right after the
+ * write would let the next writer read the ballot before the change is committed and write over it. Without a
+ * transaction every write commits on its own, then the locks are given back by {@link #release()}.
+ * <p/>
+ * As the locks are held that long, the order they are taken in is enforced: all ballot locks of a transaction at once,
+ * in the order of {@link BallotLockService#getBallotLocks}, and page locks only while holding ballot locks. Locks this
+ * thread already holds are not taken again, so one transaction can write its ballots more than once. Waiting for a lock
+ * is still limited to {@link #LOCK_TIMEOUT}.
+ */
+final class TransactionBoundLock {
+  protected static final long LOCK_TIMEOUT = 10000L;
+
+  private static final ThreadLocal<Set<BallotLock>> heldBallotLocks = new HeldLocks();
+  private static final ThreadLocal<Set<BallotLock>> heldPageLocks = new HeldLocks();
+
+  private final Set<BallotLock> heldLocks;
+  private final List<BallotLock> locks;
+
+  private TransactionBoundLock(Set<BallotLock> heldLocks, List<BallotLock> locks) {
+    this.heldLocks = heldLocks;
+    this.locks = locks;
+  }
+
+  static TransactionBoundLock lockBallot(BallotLockService ballotLockService, ContentEntityObject contentObject, String ballotTitle) {
+    return lockBallots(ballotLockService, contentObject, Collections.singleton(ballotTitle));
+  }
+
+  /**
+   * Take the locks of all ballots the transaction is going to write.
+   *
+   * @throws IllegalStateException if this thread already holds other ballot locks or a page lock, taking more could
+   *                               deadlock with a writer taking them in the right order
+   */
+  static TransactionBoundLock lockBallots(BallotLockService ballotLockService, ContentEntityObject contentObject, Collection<String> ballotTitles) {
+    final List<BallotLock> locks = ballotLockService.getBallotLocks(contentObject, ballotTitles);
+    final Set<BallotLock> held = heldBallotLocks.get();
+    if (held.containsAll(locks)) {
+      return new TransactionBoundLock(held, Collections.<BallotLock>emptyList());
+    }
+    if (!held.isEmpty() || !heldPageLocks.get().isEmpty()) {
+      throw new IllegalStateException("The ballot locks of a transaction have to be taken at once, before any page lock; ballots "
+              + ballotTitles + " of page " + contentObject.getId());
+    }
+    return acquire(held, locks, "ballots " + ballotTitles);
+  }
+
+  /**
+   * @throws IllegalStateException if this thread holds no ballot lock
+   */
+  static TransactionBoundLock lockPage(BallotLockService ballotLockService, ContentEntityObject contentObject) {
+    final BallotLock lock = ballotLockService.getPageLock(contentObject);
+    final Set<BallotLock> held = heldPageLocks.get();
+    if (held.contains(lock)) {
+      return new TransactionBoundLock(held, Collections.<BallotLock>emptyList());
+    }
+    if (heldBallotLocks.get().isEmpty()) {
+      throw new IllegalStateException("A page lock may only be taken while holding a ballot lock; page " + contentObject.getId());
+    }
+    return acquire(held, Collections.singletonList(lock), "the users of page " + contentObject.getId());
+  }
+
+  /**
+   * @param name what the locks guard, for the message of the {@link BallotConflictException} thrown if they can not be
+   *             acquired in time
+   */
+  private static TransactionBoundLock acquire(final Set<BallotLock> held, List<BallotLock> locks, String name) {
+    final List<BallotLock> acquired = new ArrayList<BallotLock>();
+    try {
+      for (BallotLock lock : locks) {
+        if (!lock.tryLock(LOCK_TIMEOUT, TimeUnit.MILLISECONDS)) {
+          unlock(held, acquired);
+          throw new BallotConflictException("Gave up waiting for the lock of " + name + " after " + LOCK_TIMEOUT + " ms.");
+        }
+        acquired.add(lock);
+        held.add(lock);
+      }
+    } catch (InterruptedException e) {
+      unlock(held, acquired);
+      Thread.currentThread().interrupt();
+      throw new BallotConflictException("Interrupted while waiting for the lock of " + name + ".");
+    }
+
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      return new TransactionBoundLock(held, acquired);
+    }
+    try {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+        @Override
+        public void afterCompletion(int status) {
+          unlock(held, acquired);
+        }
+      });
+    } catch (RuntimeException e) {
+      unlock(held, acquired);
+      throw e;
+    }
+    return new TransactionBoundLock(held, Collections.<BallotLock>emptyList());
+  }
+
+  /**
+   * Give the locks back unless a transaction is going to do so when it has completed.
+   */
+  void release() {
+    unlock(heldLocks, locks);
+  }
+
+  private static void unlock(Set<BallotLock> held, List<BallotLock> locks) {
+    for (int i = locks.size() - 1; i >= 0; i--) {
+      held.remove(locks.get(i));
+      locks.get(i).unlock();
+    }
+  }
+
+  private static class HeldLocks extends ThreadLocal<Set<BallotLock>> {
+    @Override
+    protected Set<BallotLock> initialValue() {
+      return new HashSet<BallotLock>();
+    }
+  }
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright (c) 2006-2015, Confluence Community
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hivesoft.confluence.storage;
+
+import org.apache.commons.lang3.StringUtils;
+import org.hivesoft.confluence.model.vote.VoterIdSource;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps user names to small integer ids, so stored ballots of a page only contain every user name once. Ids are assigned
+ * in the order users are added and never change.
+ */
+public class UserDictionary implements VoterIdSource {
+  private static final String HEADER = "#users:1";
+  private static final String LINE_SEPARATOR = "\n";
+
+  private final List<String> names = new ArrayList<String>();
+  private final Map<String, Integer> ids = new HashMap<String, Integer>();
+
+  @Override
+  public int getId(String userName) {
+    final Integer id = ids.get(userName);
+    return id == null ? -1 : id;
+  }
+
+  @Override
+  public int getOrAddId(String userName) {
+    Integer id = ids.get(userName);
+    if (id == null) {
+      id = names.size();
+      names.add(userName);
+      ids.put(userName, id);
+    }
+    return id;
+  }
+
+  /**
+   * @return the name of the user with the given id or <code>null</code> if the id is unknown
+   */
+  public String getName(int id) {
+    return id >= 0 && id < names.size() ? names.get(id) : null;
+  }
+
+  public int size() {
+    return names.size();
+  }
+
+  public String serialize() {
+    StringBuilder result = new StringBuilder(HEADER);
+    for (String name : names) {
+      result.append(LINE_SEPARATOR).append(StoredBallot.encode(name));
+    }
+    return result.toString();
+  }
+
+  /**
+   * A value that is not a dictionary is never taken for an empty one: the next write would hand out the ids the stored
+   * ballots refer to again, to other users.
+   *
+   * @return the parsed dictionary, an empty one if the value is blank
+   * @throws IllegalArgumentException if the value is not a dictionary of a known format
+   */
+  public static UserDictionary parse(String serialized) {
+    final UserDictionary userDictionary = new UserDictionary();
+    if (StringUtils.isBlank(serialized)) {
+      return userDictionary;
+    }
+    if (!serialized.equals(HEADER) && !serialized.startsWith(HEADER + LINE_SEPARATOR)) {
+      throw new IllegalArgumentException("Not a user dictionary of a known format: " + StringUtils.abbreviate(serialized, 40));
+    }
+    final String[] lines = StringUtils.split(serialized, LINE_SEPARATOR);
+    for (int i = 1; i < lines.length; i++) {
+      userDictionary.getOrAddId(StoredBallot.decode(lines[i]));
+    }
+    return userDictionary;
+  }
+
+  @Override
+  public String toString() {
+    return "UserDictionary{" +
+            "names=" + names +
+            '}';
+  }
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright (c) 2006-2015, Confluence Community
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hivesoft.confluence.storage;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * A single change to a ballot as appended to the vote event log of the {@link EventLogVoteStore}.
+ */
+public class VoteEvent {
+  private static final char FIELD_SEPARATOR = '\t';
+
+  public enum Action {
+    VOTE, UNVOTE, COMMENT
+  }
+
+  private final Action action;
+  private final String userName;
+  private final String value;
+  private final long timestamp;
+
+  /**
+   * @param value the choice name for {@link Action#VOTE}, the comment for {@link Action#COMMENT}
+   */
+  public VoteEvent(Action action, String userName, String value, long timestamp) {
+    this.action = action;
+    this.userName = userName;
+    this.value = value;
+    this.timestamp = timestamp;
+  }
+
+  public Action getAction() {
+    return action;
+  }
+
+  public String getUserName() {
+    return userName;
+  }
+
+  public String getValue() {
+    return value;
+  }
+
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  public void applyTo(StoredBallot storedBallot) {
+    switch (action) {
+      case VOTE:
+      case UNVOTE:
+        final String previousChoiceName = storedBallot.getChoiceOfVoter(userName);
+        if (previousChoiceName != null) {
+          storedBallot.removeVote(previousChoiceName, userName);
+        }
+        if (action == Action.VOTE) {
+          storedBallot.addVote(value, userName);
+        }
+        break;
+      case COMMENT:
+        storedBallot.setComment(userName, value);
+        break;
+    }
+  }
+
+  public String serialize() {
+    return action.name() + FIELD_SEPARATOR + StoredBallot.encode(userName) + FIELD_SEPARATOR
+            + StoredBallot.encode(StringUtils.defaultString(value)) + FIELD_SEPARATOR + timestamp;
+  }
+
+  /**
+   * @return the parsed event or <code>null</code> if the value is blank or malformed
+   */
+  public static VoteEvent parse(String serialized) {
+    if (StringUtils.isBlank(serialized)) {
+      return null;
+    }
+    final String[] fields = StringUtils.splitPreserveAllTokens(serialized, FIELD_SEPARATOR);
+    if (fields.length != 4) {
+      return null;
+    }
+    try {
+      return new VoteEvent(Action.valueOf(fields[0]), StoredBallot.decode(fields[1]), StoredBallot.decode(fields[2]), Long.parseLong(fields[3]));
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "VoteEvent{" +
+            "action=" + action +
+            ", userName='" + userName + '\'' +
+            ", value='" + value + '\'' +
+            ", timestamp=" + timestamp +
+            '}';
+  }
+}
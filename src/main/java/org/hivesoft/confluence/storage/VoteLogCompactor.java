@@ -0,0 +1,117 @@
+/**
+ * Copyright (c) 2006-2015, Confluence Community
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hivesoft.confluence.storage;
+
+import com.atlassian.confluence.core.ContentEntityObject;
+import com.atlassian.confluence.pages.PageManager;
+import com.atlassian.confluence.util.RequestCacheThreadLocal;
+import com.atlassian.extras.common.log.Logger;
+import com.atlassian.sal.api.lifecycle.LifecycleAware;
+import com.atlassian.sal.api.scheduling.PluginJob;
+import com.atlassian.sal.api.scheduling.PluginScheduler;
+import com.atlassian.sal.api.transaction.TransactionCallback;
+import com.atlassian.sal.api.transaction.TransactionTemplate;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Periodically folds the vote events appended by the {@link EventLogVoteStore} on this node into the ballot snapshots,
+ * each ballot in a transaction of its own. Ballots voted on other nodes are compacted by those nodes, and at the latest
+ * by the write that lets their tail of events grow too long.
+ */
+public class VoteLogCompactor implements LifecycleAware, DisposableBean {
+  private static final Logger.Log LOG = Logger.getInstance(VoteLogCompactor.class);
+
+  private static final String JOB_KEY = VoteLogCompactor.class.getName() + ":job";
+  private static final String JOB_DATA_COMPACTOR = "voteLogCompactor";
+  protected static final long COMPACTION_INTERVAL = 5 * 60 * 1000L;
+
+  private final PageManager pageManager;
+  private final TransactionTemplate transactionTemplate;
+  private final PluginScheduler pluginScheduler;
+
+  private final ConcurrentMap<String, PendingBallot> pendingBallots = new ConcurrentHashMap<String, PendingBallot>();
+
+  public VoteLogCompactor(PageManager pageManager, TransactionTemplate transactionTemplate, PluginScheduler pluginScheduler) {
+    this.pageManager = pageManager;
+    this.transactionTemplate = transactionTemplate;
+    this.pluginScheduler = pluginScheduler;
+  }
+
+  @Override
+  public void onStart() {
+    final Map<String, Object> jobData = new HashMap<String, Object>();
+    jobData.put(JOB_DATA_COMPACTOR, this);
+    pluginScheduler.scheduleJob(JOB_KEY, CompactionJob.class, jobData, new Date(System.currentTimeMillis() + COMPACTION_INTERVAL), COMPACTION_INTERVAL);
+  }
+
+  @Override
+  public void destroy() {
+    try {
+      pluginScheduler.unscheduleJob(JOB_KEY);
+    } catch (IllegalArgumentException e) {
+      LOG.debug("Vote log compaction was not scheduled");
+    }
+  }
+
+  public void markForCompaction(EventLogVoteStore eventLogVoteStore, ContentEntityObject contentObject, String ballotTitle) {
+    pendingBallots.putIfAbsent(contentObject.getId() + ":" + ballotTitle, new PendingBallot(eventLogVoteStore, contentObject.getId(), ballotTitle));
+  }
+
+  public int getPendingCount() {
+    return pendingBallots.size();
+  }
+
+  public void compactPending() {
+    for (Iterator<PendingBallot> iterator = pendingBallots.values().iterator(); iterator.hasNext(); ) {
+      final PendingBallot pendingBallot = iterator.next();
+      iterator.remove();
+      try {
+        transactionTemplate.execute(new TransactionCallback<Void>() {
+          @Override
+          public Void doInTransaction() {
+            final ContentEntityObject contentObject = pageManager.getById(pendingBallot.contentId);
+            if (contentObject != null) {
+              pendingBallot.eventLogVoteStore.compact(contentObject, pendingBallot.ballotTitle);
+            }
+            return null;
+          }
+        });
+      } catch (RuntimeException e) {
+        LOG.error("Could not compact the vote events of ballot " + pendingBallot.ballotTitle + " on page " + pendingBallot.contentId, e);
+      } finally {
+        RequestCacheThreadLocal.clearRequestCache(); // only cleared after requests otherwise
+      }
+    }
+  }
+
+  private static class PendingBallot {
+    private final EventLogVoteStore eventLogVoteStore;
+    private final long contentId;
+    private final String ballotTitle;
+
+    private PendingBallot(EventLogVoteStore eventLogVoteStore, long contentId, String ballotTitle) {
+      this.eventLogVoteStore = eventLogVoteStore;
+      this.contentId = contentId;
+      this.ballotTitle = ballotTitle;
+    }
+  }
+
+  public static class CompactionJob implements PluginJob {
+    @Override
+    public void execute(Map<String, Object> jobDataMap) {
+      ((VoteLogCompactor) jobDataMap.get(JOB_DATA_COMPACTOR)).compactPending();
+    }
+  }
+}
@@ -0,0 +1,52 @@
+/**
+ * Copyright (c) 2006-2015, Confluence Community
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hivesoft.confluence.storage;
+
+import com.atlassian.confluence.core.ContentEntityObject;
+
+import java.util.Collection;
+
+/**
+ * Persistence of the votes and comments of ballots. A user has at most one vote per ballot.
+ * <p/>
+ * Writes expect the ballot to have been loaded with {@link #load(ContentEntityObject, String, Collection)} before, as
+ * loading converts data of older storage formats.
+ */
+public interface VoteStore {
+
+  /**
+   * @param choiceNames the choices of the ballot as currently defined in the macro body
+   * @return the votes and comments of the ballot, never <code>null</code>
+   */
+  StoredBallot load(ContentEntityObject contentObject, String ballotTitle, Collection<String> choiceNames);
+
+  /**
+   * Record the vote of the user for the given choice, replacing any vote the user cast on this ballot before.
+   */
+  void recordVote(ContentEntityObject contentObject, String ballotTitle, String choiceName, String userName);
+
+  void unvote(ContentEntityObject contentObject, String ballotTitle, String userName);
+
+  /**
+   * Remove all votes and comments of the ballot.
+   */
+  void reset(ContentEntityObject contentObject, String ballotTitle);
+
+  /**
+   * Remove all votes and comments of the given ballots of the page, holding the locks of all of them at once.
+   */
+  void resetAll(ContentEntityObject contentObject, Collection<String> ballotTitles);
+
+  /**
+   * Store the comment of the user, a blank comment removes it.
+   */
+  void storeComment(ContentEntityObject contentObject, String ballotTitle, String userName, String comment);
+}
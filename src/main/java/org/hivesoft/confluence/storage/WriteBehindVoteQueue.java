@@ -0,0 +1,444 @@
+/**
+ * Copyright (c) 2006-2015, Confluence Community
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hivesoft.confluence.storage;
+
+import com.atlassian.confluence.core.ContentEntityObject;
+import com.atlassian.confluence.pages.PageManager;
+import com.atlassian.confluence.util.RequestCacheThreadLocal;
+import com.atlassian.extras.common.log.Logger;
+import com.atlassian.sal.api.lifecycle.LifecycleAware;
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import com.atlassian.sal.api.transaction.TransactionCallback;
+import com.atlassian.sal.api.transaction.TransactionTemplate;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.hivesoft.confluence.rest.AdminResource;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Optional write-behind of the vote store writes (see {@link AdminResource#SURVEY_PLUGIN_KEY_WRITE_BEHIND}). Writes are
+ * kept in memory of this node, coalesced per page and ballot, and written every flush interval, each ballot in a
+ * transaction of its own. Loads on this node see the pending writes right away, other nodes only once they are flushed.
+ * <p/>
+ * Failures: the changes of a ballot which could not be written are queued again in front of the ones made since, and
+ * are dropped after {@link #MAX_FLUSH_ATTEMPTS} flushes failed for them.
+ * <p/>
+ * Durability (see {@link AdminResource#SURVEY_PLUGIN_KEY_WRITE_BEHIND_DURABILITY}): with {@link #DURABILITY_MEMORY}
+ * pending writes are flushed on shutdown, but a crash of the node loses up to one flush interval of them. With
+ * {@link #DURABILITY_FLUSH_BEFORE_ACKNOWLEDGE} a write only returns once it has been written, the writes of concurrent
+ * requests still go into one flush, and a write dropped after failing throws a {@link BallotConflictException}.
+ * <p/>
+ * Backpressure: once the capacity of pending changes is reached, the writing request waits for the queue to be
+ * flushed.
+ * <p/>
+ * Requests never flush on their own thread, they wait for the flush thread instead (see {@link #flushAndWait()}): the
+ * transaction of each ballot has to be a new one, not the one the request may be running in.
+ */
+public class WriteBehindVoteQueue implements LifecycleAware, DisposableBean {
+  private static final Logger.Log LOG = Logger.getInstance(WriteBehindVoteQueue.class);
+
+  public static final long FLUSH_INTERVAL_DEFAULT = 250L;
+  public static final int CAPACITY_DEFAULT = 1000;
+  public static final String DURABILITY_MEMORY = "memory";
+  public static final String DURABILITY_FLUSH_BEFORE_ACKNOWLEDGE = "flushBeforeAcknowledge";
+  public static final String DURABILITY_DEFAULT = DURABILITY_MEMORY;
+  protected static final int MAX_FLUSH_ATTEMPTS = 3;
+  private static final String KEY_SEPARATOR = ":";
+  private static final String FLUSH_THREAD_NAME = "survey-plugin-write-behind";
+
+  private final PageManager pageManager;
+  private final TransactionTemplate transactionTemplate;
+  private final PluginSettingsFactory pluginSettingsFactory;
+
+  private final Lock flushLock = new ReentrantLock();
+  // the pending and flushing ballots and their count are guarded by pendingBallots
+  private final Map<String, PendingBallot> pendingBallots = new LinkedHashMap<String, PendingBallot>();
+  private Map<String, PendingBallot> flushingBallots = Collections.emptyMap();
+  private int pendingCount;
+
+  private ScheduledExecutorService executor;
+  private ScheduledFuture<?> scheduledFlush;
+  private final Runnable flushTask = new Runnable() {
+    @Override
+    public void run() {
+      try {
+        flush();
+      } finally {
+        RequestCacheThreadLocal.clearRequestCache();
+      }
+    }
+  };
+
+  public WriteBehindVoteQueue(PageManager pageManager, TransactionTemplate transactionTemplate, PluginSettingsFactory pluginSettingsFactory) {
+    this.pageManager = pageManager;
+    this.transactionTemplate = transactionTemplate;
+    this.pluginSettingsFactory = pluginSettingsFactory;
+  }
+
+  @Override
+  public synchronized void onStart() {
+    executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        final Thread thread = new Thread(runnable, FLUSH_THREAD_NAME);
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    scheduleFlush();
+  }
+
+  @Override
+  public void destroy() {
+    synchronized (this) {
+      if (executor != null) {
+        scheduledFlush.cancel(false);
+        executor.shutdown();
+        executor = null;
+      }
+    }
+    // ballots failing to be written are queued again until they are dropped
+    while (getPendingCount() > 0) {
+      flush();
+    }
+  }
+
+  public boolean isEnabled() {
+    return isEnabled(pluginSettingsFactory.createGlobalSettings());
+  }
+
+  public static boolean isEnabled(PluginSettings pluginSettings) {
+    return Boolean.parseBoolean((String) pluginSettings.get(AdminResource.SURVEY_PLUGIN_KEY_WRITE_BEHIND));
+  }
+
+  public static long getFlushInterval(PluginSettings pluginSettings) {
+    final long flushInterval = NumberUtils.toLong((String) pluginSettings.get(AdminResource.SURVEY_PLUGIN_KEY_WRITE_BEHIND_FLUSH_INTERVAL));
+    return flushInterval > 0 ? flushInterval : FLUSH_INTERVAL_DEFAULT;
+  }
+
+  public static int getCapacity(PluginSettings pluginSettings) {
+    final int capacity = NumberUtils.toInt((String) pluginSettings.get(AdminResource.SURVEY_PLUGIN_KEY_WRITE_BEHIND_CAPACITY));
+    return capacity > 0 ? capacity : CAPACITY_DEFAULT;
+  }
+
+  public static boolean isKnownDurability(String durability) {
+    return DURABILITY_MEMORY.equals(durability) || DURABILITY_FLUSH_BEFORE_ACKNOWLEDGE.equals(durability);
+  }
+
+  public static String getDurability(PluginSettings pluginSettings) {
+    final String durability = (String) pluginSettings.get(AdminResource.SURVEY_PLUGIN_KEY_WRITE_BEHIND_DURABILITY);
+    return isKnownDurability(durability) ? durability : DURABILITY_DEFAULT;
+  }
+
+  public void recordVote(VoteStore voteStore, ContentEntityObject contentObject, String ballotTitle, String choiceName, String userName) {
+    makeRoom();
+    final PendingBallot pendingBallot;
+    synchronized (pendingBallots) {
+      pendingBallot = getPendingBallot(voteStore, contentObject, ballotTitle);
+      final BallotChanges ballotChanges = pendingBallot.ballotChanges;
+      final int size = ballotChanges.size();
+      ballotChanges.recordVote(choiceName, userName);
+      pendingCount += ballotChanges.size() - size;
+    }
+    acknowledge(pendingBallot);
+  }
+
+  public void unvote(VoteStore voteStore, ContentEntityObject contentObject, String ballotTitle, String userName) {
+    makeRoom();
+    final PendingBallot pendingBallot;
+    synchronized (pendingBallots) {
+      pendingBallot = getPendingBallot(voteStore, contentObject, ballotTitle);
+      final BallotChanges ballotChanges = pendingBallot.ballotChanges;
+      final int size = ballotChanges.size();
+      ballotChanges.unvote(userName);
+      pendingCount += ballotChanges.size() - size;
+    }
+    acknowledge(pendingBallot);
+  }
+
+  public void reset(VoteStore voteStore, ContentEntityObject contentObject, String ballotTitle) {
+    makeRoom();
+    final PendingBallot pendingBallot;
+    synchronized (pendingBallots) {
+      pendingBallot = getPendingBallot(voteStore, contentObject, ballotTitle);
+      final BallotChanges ballotChanges = pendingBallot.ballotChanges;
+      final int size = ballotChanges.size();
+      ballotChanges.reset();
+      pendingCount += ballotChanges.size() - size;
+    }
+    acknowledge(pendingBallot);
+  }
+
+  public void storeComment(VoteStore voteStore, ContentEntityObject contentObject, String ballotTitle, String userName, String comment) {
+    makeRoom();
+    final PendingBallot pendingBallot;
+    synchronized (pendingBallots) {
+      pendingBallot = getPendingBallot(voteStore, contentObject, ballotTitle);
+      final BallotChanges ballotChanges = pendingBallot.ballotChanges;
+      final int size = ballotChanges.size();
+      ballotChanges.storeComment(userName, comment);
+      pendingCount += ballotChanges.size() - size;
+    }
+    acknowledge(pendingBallot);
+  }
+
+  /**
+   * Apply the changes of the ballot which are not stored yet, the ones being flushed right now included.
+   *
+   * @return the given ballot
+   */
+  public StoredBallot applyPending(ContentEntityObject contentObject, String ballotTitle, StoredBallot storedBallot) {
+    final String key = createKey(contentObject, ballotTitle);
+    synchronized (pendingBallots) {
+      final PendingBallot flushingBallot = flushingBallots.get(key);
+      if (flushingBallot != null) {
+        flushingBallot.ballotChanges.applyTo(storedBallot);
+      }
+      final PendingBallot pendingBallot = pendingBallots.get(key);
+      if (pendingBallot != null) {
+        pendingBallot.ballotChanges.applyTo(storedBallot);
+      }
+    }
+    return storedBallot;
+  }
+
+  public int getPendingCount() {
+    synchronized (pendingBallots) {
+      return pendingCount;
+    }
+  }
+
+  /**
+   * Flush the queue on the flush thread and wait until it is done, unless nothing is queued. Before the queue has been
+   * started and after it has been stopped, a thread of its own flushes it: the calling thread may hold ballot locks or
+   * run in a transaction, which must not take the locks of the other ballots queued.
+   */
+  public void flushAndWait() {
+    synchronized (pendingBallots) {
+      if (pendingBallots.isEmpty() && flushingBallots.isEmpty()) {
+        return;
+      }
+    }
+    final ScheduledExecutorService flushExecutor;
+    synchronized (this) {
+      flushExecutor = executor;
+    }
+    Future<?> flushed = null;
+    if (flushExecutor != null) {
+      try {
+        flushed = flushExecutor.submit(flushTask);
+      } catch (RejectedExecutionException e) {
+        // stopped in the meantime
+      }
+    }
+    if (flushed == null) {
+      final FutureTask<Void> flushOnce = new FutureTask<Void>(flushTask, null);
+      new Thread(flushOnce, FLUSH_THREAD_NAME).start();
+      flushed = flushOnce;
+    }
+    try {
+      flushed.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new BallotConflictException("Interrupted while waiting for the write-behind queue to be flushed.");
+    } catch (ExecutionException e) {
+      throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new IllegalStateException(e.getCause());
+    }
+  }
+
+  /**
+   * Write all pending changes, each ballot in a transaction of its own. Ballots which could not be written are queued
+   * again. Runs in the calling thread, requests use {@link #flushAndWait()}.
+   */
+  public void flush() {
+    flushLock.lock();
+    try {
+      synchronized (pendingBallots) {
+        if (pendingBallots.isEmpty()) {
+          return;
+        }
+        flushingBallots = new LinkedHashMap<String, PendingBallot>(pendingBallots);
+        pendingBallots.clear();
+        pendingCount = 0;
+      }
+      final List<PendingBallot> writtenBallots = new ArrayList<PendingBallot>();
+      final List<PendingBallot> failedBallots = new ArrayList<PendingBallot>();
+      for (final PendingBallot pendingBallot : flushingBallots.values()) {
+        try {
+          transactionTemplate.execute(new TransactionCallback<Void>() {
+            @Override
+            public Void doInTransaction() {
+              writeBallot(pendingBallot);
+              return null;
+            }
+          });
+          writtenBallots.add(pendingBallot);
+        } catch (RuntimeException e) {
+          LOG.warn("Could not write the pending votes of ballot " + pendingBallot.ballotTitle + " on page " + pendingBallot.contentId
+                  + " (attempt " + (pendingBallot.attempts + 1) + " of " + MAX_FLUSH_ATTEMPTS + ")", e);
+          failedBallots.add(pendingBallot);
+        }
+      }
+      synchronized (pendingBallots) {
+        for (PendingBallot writtenBallot : writtenBallots) {
+          writtenBallot.state = FlushState.WRITTEN;
+        }
+        for (PendingBallot failedBallot : failedBallots) {
+          requeue(failedBallot);
+        }
+        flushingBallots = Collections.emptyMap();
+      }
+    } finally {
+      flushLock.unlock();
+    }
+  }
+
+  private void writeBallot(PendingBallot pendingBallot) {
+    final ContentEntityObject contentObject = pageManager.getById(pendingBallot.contentId);
+    if (contentObject == null) {
+      LOG.warn("Dropping the pending votes of ballot " + pendingBallot.ballotTitle + ", page " + pendingBallot.contentId + " does not exist anymore");
+      return;
+    }
+    if (pendingBallot.voteStore instanceof BatchVoteStore) {
+      ((BatchVoteStore) pendingBallot.voteStore).apply(contentObject, pendingBallot.ballotTitle, pendingBallot.ballotChanges);
+    } else {
+      pendingBallot.ballotChanges.writeTo(pendingBallot.voteStore, contentObject, pendingBallot.ballotTitle);
+    }
+  }
+
+  /**
+   * Queue the changes of a ballot which could not be written in front of the ones made to it since, or drop them once
+   * they failed too often. Called holding the monitor of the pending ballots.
+   */
+  private void requeue(PendingBallot failedBallot) {
+    if (failedBallot.attempts + 1 >= MAX_FLUSH_ATTEMPTS) {
+      LOG.error("Dropping the pending votes of ballot " + failedBallot.ballotTitle + " on page " + failedBallot.contentId + " after "
+              + MAX_FLUSH_ATTEMPTS + " failed attempts: " + failedBallot.ballotChanges);
+      failedBallot.state = FlushState.DROPPED;
+      return;
+    }
+    final String key = failedBallot.contentId + KEY_SEPARATOR + failedBallot.ballotTitle;
+    final PendingBallot laterBallot = pendingBallots.get(key);
+    final PendingBallot requeuedBallot = new PendingBallot(laterBallot == null ? failedBallot.voteStore : laterBallot.voteStore,
+            failedBallot.contentId, failedBallot.ballotTitle, failedBallot.attempts + 1);
+    requeuedBallot.ballotChanges.addAll(failedBallot.ballotChanges);
+    failedBallot.requeuedAs = requeuedBallot;
+    if (laterBallot != null) {
+      requeuedBallot.ballotChanges.addAll(laterBallot.ballotChanges);
+      laterBallot.requeuedAs = requeuedBallot;
+      pendingCount -= laterBallot.ballotChanges.size();
+    }
+    pendingBallots.put(key, requeuedBallot);
+    pendingCount += requeuedBallot.ballotChanges.size();
+  }
+
+  /**
+   * Wait until the changes have been written if writes must not be acknowledged before, flushing the queue unless the
+   * flush of another request has written them in the meantime.
+   *
+   * @throws BallotConflictException if the changes have been dropped after failing to be written
+   */
+  private void acknowledge(PendingBallot pendingBallot) {
+    if (!DURABILITY_FLUSH_BEFORE_ACKNOWLEDGE.equals(getDurability(pluginSettingsFactory.createGlobalSettings()))) {
+      return;
+    }
+    while (true) {
+      synchronized (pendingBallots) {
+        while (pendingBallot.requeuedAs != null) {
+          pendingBallot = pendingBallot.requeuedAs;
+        }
+        if (pendingBallot.state == FlushState.WRITTEN) {
+          return;
+        }
+        if (pendingBallot.state == FlushState.DROPPED) {
+          throw new BallotConflictException("The votes of ballot " + pendingBallot.ballotTitle + " on page " + pendingBallot.contentId + " could not be written");
+        }
+      }
+      flushAndWait();
+    }
+  }
+
+  private void makeRoom() {
+    if (getPendingCount() >= getCapacity(pluginSettingsFactory.createGlobalSettings())) {
+      LOG.debug("Write-behind queue is full, waiting for it to be flushed");
+      flushAndWait();
+    }
+  }
+
+  private PendingBallot getPendingBallot(VoteStore voteStore, ContentEntityObject contentObject, String ballotTitle) {
+    final String key = createKey(contentObject, ballotTitle);
+    PendingBallot pendingBallot = pendingBallots.get(key);
+    if (pendingBallot == null) {
+      pendingBallot = new PendingBallot(voteStore, contentObject.getId(), ballotTitle, 0);
+      pendingBallots.put(key, pendingBallot);
+    }
+    return pendingBallot;
+  }
+
+  private synchronized void scheduleFlush() {
+    if (executor == null) {
+      return;
+    }
+    scheduledFlush = executor.schedule(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          flushTask.run();
+        } catch (RuntimeException e) {
+          LOG.error("Could not flush the write-behind queue", e);
+        } finally {
+          scheduleFlush();
+        }
+      }
+    }, getFlushInterval(pluginSettingsFactory.createGlobalSettings()), TimeUnit.MILLISECONDS);
+  }
+
+  private static String createKey(ContentEntityObject contentObject, String ballotTitle) {
+    return contentObject.getId() + KEY_SEPARATOR + ballotTitle;
+  }
+
+  private enum FlushState {
+    PENDING, WRITTEN, DROPPED
+  }
+
+  /**
+   * The changes to one ballot, the state and the ballot they were queued again in are guarded by the pending ballots.
+   */
+  private static class PendingBallot {
+    private final VoteStore voteStore;
+    private final long contentId;
+    private final String ballotTitle;
+    private final int attempts;
+    private final BallotChanges ballotChanges = new BallotChanges();
+    private FlushState state = FlushState.PENDING;
+    private PendingBallot requeuedAs;
+
+    private PendingBallot(VoteStore voteStore, long contentId, String ballotTitle, int attempts) {
+      this.voteStore = voteStore;
+      this.contentId = contentId;
+      this.ballotTitle = ballotTitle;
+      this.attempts = attempts;
+    }
+  }
+}
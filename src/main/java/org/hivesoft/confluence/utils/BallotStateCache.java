@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) 2006-2015, Confluence Community
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hivesoft.confluence.utils;
+
+import com.atlassian.confluence.core.ContentEntityObject;
+import com.atlassian.user.User;
+import org.hivesoft.confluence.model.vote.Comment;
+import org.hivesoft.confluence.storage.StoredBallot;
+import org.hivesoft.confluence.storage.WriteBehindVoteQueue;
+
+import java.util.*;
+
+/**
+ * Node local cache of the user independent state of reconstructed ballots: the voters of every choice and the comments,
+ * resolved to users. Entries are keyed by the content id, the ballot and its choices, and are only served for the very
+ * {@link StoredBallot} they were built from. The stored ballot is loaded for every render anyway and comparing it is
+ * cheap next to resolving its users, so no write has to invalidate anything: votes of other nodes, of every vote store
+ * and still pending in the {@link WriteBehindVoteQueue} are all seen in the stored ballot loaded.
+ */
+public class BallotStateCache {
+  protected static final int MAX_CACHED_BALLOTS = 1000;
+
+  private final Map<String, CachedBallotState> ballotStates = Collections.synchronizedMap(new LinkedHashMap<String, CachedBallotState>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, CachedBallotState> eldest) {
+      return size() > MAX_CACHED_BALLOTS;
+    }
+  });
+
+  /**
+   * @return the key to cache the state of the given ballot under, <code>null</code> if the content is not persisted
+   */
+  public String getKey(ContentEntityObject contentObject, String ballotTitle, List<String> choiceNames) {
+    if (contentObject == null || contentObject.getId() == 0) {
+      return null;
+    }
+    return contentObject.getId() + ":" + ballotTitle + ":" + choiceNames;
+  }
+
+  /**
+   * @param storedBallot the ballot as just loaded
+   * @return the cached state if it was built from a stored ballot with the same votes and comments
+   */
+  public BallotState get(String key, StoredBallot storedBallot) {
+    final CachedBallotState cachedBallotState = key == null ? null : ballotStates.get(key);
+    if (cachedBallotState == null || !cachedBallotState.storedBallot.equals(storedBallot)) {
+      return null;
+    }
+    return cachedBallotState.ballotState;
+  }
+
+  public void put(String key, StoredBallot storedBallot, BallotState ballotState) {
+    if (key != null) {
+      ballotStates.put(key, new CachedBallotState(new StoredBallot(storedBallot), ballotState));
+    }
+  }
+
+  public int size() {
+    return ballotStates.size();
+  }
+
+  private static class CachedBallotState {
+    private final StoredBallot storedBallot;
+    private final BallotState ballotState;
+
+    private CachedBallotState(StoredBallot storedBallot, BallotState ballotState) {
+      this.storedBallot = storedBallot;
+      this.ballotState = ballotState;
+    }
+  }
+
+  /**
+   * The voters and comments of one ballot, not to be modified once cached.
+   */
+  public static class BallotState {
+    private final Map<String, List<User>> votersByChoice;
+    private final List<Comment> comments;
+
+    public BallotState(Map<String, List<User>> votersByChoice, List<Comment> comments) {
+      this.votersByChoice = Collections.unmodifiableMap(new HashMap<String, List<User>>(votersByChoice));
+      this.comments = Collections.unmodifiableList(new ArrayList<Comment>(comments));
+    }
+
+    public List<User> getVoters(String choiceName) {
+      final List<User> voters = votersByChoice.get(choiceName);
+      return voters == null ? Collections.<User>emptyList() : voters;
+    }
+
+    public List<Comment> getComments() {
+      return comments;
+    }
+  }
+}
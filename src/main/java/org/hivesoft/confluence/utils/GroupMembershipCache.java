@@ -0,0 +1,218 @@
+/**
+ * Copyright (c) 2006-2015, Confluence Community
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hivesoft.confluence.utils;
+
+import com.atlassian.confluence.user.UserAccessor;
+import com.atlassian.confluence.util.RequestCacheThreadLocal;
+import com.atlassian.crowd.event.group.GroupDeletedEvent;
+import com.atlassian.crowd.event.group.GroupMembershipCreatedEvent;
+import com.atlassian.crowd.event.group.GroupMembershipDeletedEvent;
+import com.atlassian.crowd.event.user.UserDeletedEvent;
+import com.atlassian.crowd.event.user.UserEditedEvent;
+import com.atlassian.event.api.EventListener;
+import com.atlassian.event.api.EventPublisher;
+import com.atlassian.user.Group;
+import com.atlassian.user.User;
+import org.hivesoft.confluence.model.wrapper.SurveyUser;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Node local cache of the active users of a configured voter (a group or a single user). Expanding a large group means
+ * a lookup and a deactivation check for every member, so the result is kept for {@link #TIME_TO_LIVE}. Every membership
+ * or user change seen on this node drops all entries, as a group may contain nested groups; changes that happen without
+ * an event (e.g. a directory synchronisation on another node) are picked up once the entries expire.
+ * <p/>
+ * Permission checks are answered from the group names of the user, which are only read once per request, and the
+ * decisions are kept for {@link #DECISION_TIME_TO_LIVE} across requests. Background jobs clear the request cache
+ * themselves, see {@link org.hivesoft.confluence.storage.PagePropertyCache}.
+ */
+public class GroupMembershipCache implements InitializingBean, DisposableBean {
+  protected static final long TIME_TO_LIVE = 10 * 60 * 1000L;
+  protected static final long DECISION_TIME_TO_LIVE = 60 * 1000L;
+  protected static final int MAX_CACHED_DECISIONS = 10000;
+
+  private static final String REQUEST_CACHE_KEY = GroupMembershipCache.class.getName();
+
+  private final UserAccessor userAccessor;
+  private final EventPublisher eventPublisher;
+
+  private final ConcurrentMap<String, CachedUsers> activeUsers = new ConcurrentHashMap<String, CachedUsers>();
+  private final ConcurrentMap<String, CachedDecision> decisions = new ConcurrentHashMap<String, CachedDecision>();
+
+  public GroupMembershipCache(UserAccessor userAccessor, EventPublisher eventPublisher) {
+    this.userAccessor = userAccessor;
+    this.eventPublisher = eventPublisher;
+  }
+
+  @Override
+  public void afterPropertiesSet() {
+    eventPublisher.register(this);
+  }
+
+  @Override
+  public void destroy() {
+    eventPublisher.unregister(this);
+  }
+
+  /**
+   * @return the active users of the given group, or the given user if it is active. Never {@code null}, not modifiable.
+   */
+  public List<User> getActiveUsers(String userOrGroupName) {
+    return getCachedUsers(userOrGroupName).users;
+  }
+
+  /**
+   * @return the names of {@link #getActiveUsers(String)}, kept with them, so counting does not touch the users. Never
+   * {@code null}, not modifiable.
+   */
+  public Set<String> getActiveUserNames(String userOrGroupName) {
+    return getCachedUsers(userOrGroupName).names;
+  }
+
+  /**
+   * @return true if the given user is a member of at least one of the given groups (entries are trimmed)
+   */
+  public boolean isMemberOfAny(String userName, List<String> groupNames) {
+    final String key = userName + "|" + groupNames;
+    final CachedDecision cachedDecision = decisions.get(key);
+    if (cachedDecision != null && cachedDecision.expires > currentTimeMillis()) {
+      return cachedDecision.member;
+    }
+    final Set<String> groupsOfUser = getGroupNamesOfUser(userName);
+    boolean member = false;
+    for (String groupName : groupNames) {
+      if (groupsOfUser.contains(groupName.trim())) {
+        member = true;
+        break;
+      }
+    }
+    if (decisions.size() >= MAX_CACHED_DECISIONS) {
+      decisions.clear();
+    }
+    decisions.put(key, new CachedDecision(member, currentTimeMillis() + DECISION_TIME_TO_LIVE));
+    return member;
+  }
+
+  public void invalidateAll() {
+    activeUsers.clear();
+    decisions.clear();
+  }
+
+  public int size() {
+    return activeUsers.size();
+  }
+
+  @EventListener
+  public void onGroupMembershipCreated(GroupMembershipCreatedEvent event) {
+    invalidateAll();
+  }
+
+  @EventListener
+  public void onGroupMembershipDeleted(GroupMembershipDeletedEvent event) {
+    invalidateAll();
+  }
+
+  @EventListener
+  public void onGroupDeleted(GroupDeletedEvent event) {
+    invalidateAll();
+  }
+
+  @EventListener
+  public void onUserEdited(UserEditedEvent event) {
+    invalidateAll();
+  }
+
+  @EventListener
+  public void onUserDeleted(UserDeletedEvent event) {
+    invalidateAll();
+  }
+
+  protected long currentTimeMillis() {
+    return System.currentTimeMillis();
+  }
+
+  private CachedUsers getCachedUsers(String userOrGroupName) {
+    final CachedUsers cachedUsers = activeUsers.get(userOrGroupName);
+    if (cachedUsers != null && cachedUsers.expires > currentTimeMillis()) {
+      return cachedUsers;
+    }
+    final List<User> users = loadActiveUsers(userOrGroupName);
+    final Set<String> names = new LinkedHashSet<String>();
+    for (User user : users) {
+      names.add(user.getName());
+    }
+    final CachedUsers loadedUsers = new CachedUsers(Collections.unmodifiableList(users), Collections.unmodifiableSet(names), currentTimeMillis() + TIME_TO_LIVE);
+    activeUsers.put(userOrGroupName, loadedUsers);
+    return loadedUsers;
+  }
+
+  private List<User> loadActiveUsers(String userOrGroupName) {
+    List<User> users = new ArrayList<User>();
+    Group group = userAccessor.getGroup(userOrGroupName);
+    if (group == null) {
+      final User user = userAccessor.getUser(userOrGroupName);
+      if (user != null && !userAccessor.isDeactivated(user)) {
+        users.add(new SurveyUser(user));
+      }
+    } else {
+      for (String userName : userAccessor.getMemberNamesAsList(group)) {
+        final User user = userAccessor.getUser(userName);
+        if (!userAccessor.isDeactivated(user)) {
+          users.add(new SurveyUser(user));
+        }
+      }
+    }
+    return users;
+  }
+
+  @SuppressWarnings("unchecked")
+  private Set<String> getGroupNamesOfUser(String userName) {
+    final Map<Object, Object> requestCache = RequestCacheThreadLocal.getRequestCache();
+    Map<String, Set<String>> groupNamesByUser = (Map<String, Set<String>>) requestCache.get(REQUEST_CACHE_KEY);
+    if (groupNamesByUser == null) {
+      groupNamesByUser = new HashMap<String, Set<String>>();
+      requestCache.put(REQUEST_CACHE_KEY, groupNamesByUser);
+    }
+    Set<String> groupNames = groupNamesByUser.get(userName);
+    if (groupNames == null) {
+      groupNames = new HashSet<String>(userAccessor.getGroupNamesForUserName(userName));
+      groupNamesByUser.put(userName, groupNames);
+    }
+    return groupNames;
+  }
+
+  private static class CachedDecision {
+    private final boolean member;
+    private final long expires;
+
+    private CachedDecision(boolean member, long expires) {
+      this.member = member;
+      this.expires = expires;
+    }
+  }
+
+  private static class CachedUsers {
+    private final List<User> users;
+    private final Set<String> names;
+    private final long expires;
+
+    private CachedUsers(List<User> users, Set<String> names, long expires) {
+      this.users = users;
+      this.names = names;
+      this.expires = expires;
+    }
+  }
+}
@@ -0,0 +1,241 @@
+/**
+ * Copyright (c) 2006-2015, Confluence Community
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hivesoft.confluence.utils;
+
+import com.atlassian.confluence.content.render.xhtml.DefaultConversionContext;
+import com.atlassian.confluence.content.render.xhtml.XhtmlException;
+import com.atlassian.confluence.core.ContentEntityObject;
+import com.atlassian.confluence.xhtml.api.MacroDefinition;
+import com.atlassian.confluence.xhtml.api.MacroDefinitionHandler;
+import com.atlassian.confluence.xhtml.api.XhtmlContent;
+import org.apache.commons.lang3.StringUtils;
+import org.hivesoft.confluence.macros.survey.SurveyMacro;
+import org.hivesoft.confluence.macros.vote.VoteConfig;
+import org.hivesoft.confluence.macros.vote.VoteMacro;
+
+import java.util.*;
+
+/**
+ * Node local index of the survey and vote macros of a page, so the page body is parsed once per page version instead of
+ * once per macro and request. Entries are keyed by the content id, the version and the body itself (previews render an
+ * unsaved body under the version of the page), an edited page therefore simply gets a new entry.
+ */
+public class PageMacroIndex {
+  protected static final int MAX_CACHED_PAGES = 200;
+
+  private final XhtmlContent xhtmlContent;
+
+  private final Map<String, PageMacros> pageMacros = Collections.synchronizedMap(new LinkedHashMap<String, PageMacros>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, PageMacros> eldest) {
+      return size() > MAX_CACHED_PAGES;
+    }
+  });
+
+  public PageMacroIndex(XhtmlContent xhtmlContent) {
+    this.xhtmlContent = xhtmlContent;
+  }
+
+  /**
+   * @return the survey and vote macros of the current body of the given content
+   */
+  public PageMacros getMacros(ContentEntityObject contentObject) throws XhtmlException {
+    final String body = StringUtils.defaultString(contentObject.getBodyAsString());
+    final String key = contentObject.getId() == 0 ? null : contentObject.getId() + ":" + contentObject.getVersion() + ":" + body.length() + ":" + body.hashCode();
+    PageMacros macros = key == null ? null : pageMacros.get(key);
+    if (macros == null) {
+      macros = parse(contentObject, body);
+      if (key != null) {
+        pageMacros.put(key, macros);
+      }
+    }
+    return macros;
+  }
+
+  public int size() {
+    return pageMacros.size();
+  }
+
+  private PageMacros parse(ContentEntityObject contentObject, String body) throws XhtmlException {
+    final List<IndexedMacro> macros = new ArrayList<IndexedMacro>();
+    xhtmlContent.handleMacroDefinitions(body, new DefaultConversionContext(contentObject.toPageContext()), new MacroDefinitionHandler() {
+      @Override
+      public void handle(MacroDefinition macroDefinition) {
+        if (SurveyMacro.SURVEY_MACRO.equals(macroDefinition.getName()) || VoteMacro.VOTE_MACRO.equals(macroDefinition.getName())) {
+          macros.add(new IndexedMacro(macroDefinition.getName(), macroDefinition.getParameters(), macroDefinition.getBodyText(), macros.size()));
+        }
+      }
+    });
+    return new PageMacros(macros);
+  }
+
+  private static String toKey(String title) {
+    return title.toLowerCase(Locale.ENGLISH);
+  }
+
+  private static <T> void addTo(Map<String, List<T>> map, String title, T value) {
+    List<T> values = map.get(toKey(title));
+    if (values == null) {
+      values = new ArrayList<T>();
+      map.put(toKey(title), values);
+    }
+    values.add(value);
+  }
+
+  private static <T> List<T> getFrom(Map<String, List<T>> map, String title) {
+    final List<T> values = map.get(toKey(title));
+    return values == null ? Collections.<T>emptyList() : Collections.unmodifiableList(values);
+  }
+
+  /**
+   * The survey and vote macros of one page body, in page order.
+   */
+  public static class PageMacros {
+    private final List<IndexedMacro> macros;
+    private final List<IndexedMacro> surveys = new ArrayList<IndexedMacro>();
+    private final List<IndexedMacro> votes = new ArrayList<IndexedMacro>();
+    private final Map<String, List<IndexedMacro>> surveysByTitle = new HashMap<String, List<IndexedMacro>>();
+    private final Map<String, List<IndexedMacro>> votesByTitle = new HashMap<String, List<IndexedMacro>>();
+    private final Map<String, List<BallotTitle>> ballotTitles = new HashMap<String, List<BallotTitle>>();
+
+    PageMacros(List<IndexedMacro> macros) {
+      this.macros = Collections.unmodifiableList(macros);
+      for (IndexedMacro macro : macros) {
+        if (VoteMacro.VOTE_MACRO.equals(macro.getName())) {
+          votes.add(macro);
+          addTo(votesByTitle, macro.getTitle(), macro);
+          final String rawTitle = StringUtils.defaultString(macro.parameters.get(VoteConfig.KEY_TITLE)).trim();
+          addTo(ballotTitles, rawTitle, new BallotTitle(rawTitle, macro, false));
+        } else {
+          surveys.add(macro);
+          addTo(surveysByTitle, macro.getTitle(), macro);
+          for (String line : macro.getBodyText().split("\n")) {
+            if (StringUtils.isNotBlank(line)) {
+              final String ballotTitle = line.split("\\-")[0].trim();
+              addTo(ballotTitles, ballotTitle, new BallotTitle(ballotTitle, macro, true));
+            }
+          }
+        }
+      }
+    }
+
+    public List<IndexedMacro> getMacros() {
+      return macros;
+    }
+
+    public List<IndexedMacro> getSurveys() {
+      return Collections.unmodifiableList(surveys);
+    }
+
+    public List<IndexedMacro> getVotes() {
+      return Collections.unmodifiableList(votes);
+    }
+
+    /**
+     * @return the survey macros with the given title, ignoring case
+     */
+    public List<IndexedMacro> getSurveys(String title) {
+      return getFrom(surveysByTitle, title);
+    }
+
+    /**
+     * @return the vote macros with the given title, ignoring case
+     */
+    public List<IndexedMacro> getVotes(String title) {
+      return getFrom(votesByTitle, title);
+    }
+
+    /**
+     * @return every occurrence of a ballot with the given title (ignoring case) as vote macro or survey row, in page order
+     */
+    public List<BallotTitle> getBallotTitles(String title) {
+      return getFrom(ballotTitles, title);
+    }
+  }
+
+  /**
+   * A survey or vote macro of a page, the parameters handed out are a copy.
+   */
+  public static class IndexedMacro {
+    private final String name;
+    private final Map<String, String> parameters;
+    private final String bodyText;
+    private final String title;
+    private final int position;
+
+    IndexedMacro(String name, Map<String, String> parameters, String bodyText, int position) {
+      this.name = name;
+      this.parameters = parameters == null ? new HashMap<String, String>() : new HashMap<String, String>(parameters);
+      this.bodyText = StringUtils.defaultString(bodyText);
+      this.title = SurveyUtils.getTitleInMacroParameters(this.parameters);
+      this.position = position;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public Map<String, String> getParameters() {
+      return new HashMap<String, String>(parameters);
+    }
+
+    public String getBodyText() {
+      return bodyText;
+    }
+
+    public String getTitle() {
+      return title;
+    }
+
+    /**
+     * @return the position of the macro amongst the survey and vote macros of the page
+     */
+    public int getPosition() {
+      return position;
+    }
+
+    @Override
+    public String toString() {
+      return "IndexedMacro{" +
+              "name='" + name + '\'' +
+              ", title='" + title + '\'' +
+              ", position=" + position +
+              '}';
+    }
+  }
+
+  /**
+   * A ballot title as written in a vote macro or a survey row.
+   */
+  public static class BallotTitle {
+    private final String title;
+    private final IndexedMacro macro;
+    private final boolean surveyRow;
+
+    BallotTitle(String title, IndexedMacro macro, boolean surveyRow) {
+      this.title = title;
+      this.macro = macro;
+      this.surveyRow = surveyRow;
+    }
+
+    public String getTitle() {
+      return title;
+    }
+
+    public IndexedMacro getMacro() {
+      return macro;
+    }
+
+    public boolean isSurveyRow() {
+      return surveyRow;
+    }
+  }
+}
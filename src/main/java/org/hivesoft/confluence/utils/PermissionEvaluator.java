@@ -14,6 +14,7 @@ import com.atlassian.confluence.core.ContentEntityObject;
 import com.atlassian.user.User;
 
 import java.util.List;
+import java.util.Set;
 
 public interface PermissionEvaluator {
   User getRemoteUser();
@@ -31,4 +32,6 @@ public interface PermissionEvaluator {
   boolean canSeeVoters(String visibleVoters, boolean canSeeResults);
 
   List<User> getActiveUsersForGroupOrUser(String userOrGroupName);
+
+  Set<String> getActiveUserNamesForGroupOrUser(String userOrGroupName);
 }
@@ -14,27 +14,25 @@ import com.atlassian.confluence.core.ContentEntityObject;
 import com.atlassian.confluence.pages.Attachment;
 import com.atlassian.confluence.security.Permission;
 import com.atlassian.confluence.security.PermissionManager;
-import com.atlassian.confluence.user.UserAccessor;
 import com.atlassian.sal.api.user.UserManager;
-import com.atlassian.user.Group;
 import com.atlassian.user.User;
 import org.apache.commons.lang3.StringUtils;
-import org.hivesoft.confluence.model.wrapper.AnonymousUser;
-import org.hivesoft.confluence.model.wrapper.SurveyUser;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 
 public class PermissionEvaluatorImpl implements PermissionEvaluator {
 
-  private final UserAccessor userAccessor;
   private final UserManager userManager;
   private final PermissionManager permissionManager;
+  private final GroupMembershipCache groupMembershipCache;
+  private final ResolvedUserCache resolvedUserCache;
 
-  public PermissionEvaluatorImpl(UserAccessor userAccessor, UserManager userManager, PermissionManager permissionManager) {
-    this.userAccessor = userAccessor;
+  public PermissionEvaluatorImpl(UserManager userManager, PermissionManager permissionManager, GroupMembershipCache groupMembershipCache, ResolvedUserCache resolvedUserCache) {
     this.userManager = userManager;
     this.permissionManager = permissionManager;
+    this.groupMembershipCache = groupMembershipCache;
+    this.resolvedUserCache = resolvedUserCache;
   }
 
   @Override
@@ -51,18 +49,11 @@ public class PermissionEvaluatorImpl implements PermissionEvaluator {
   }
 
   /**
-   * Always return a useful user object!
+   * Always return a useful user object! Every name is only looked up once per request.
    */
   @Override
   public User getUserByName(String userName) {
-    final User user = userAccessor.getUser(userName);
-    if (null == user) {
-      if (userName == null) {
-        return new AnonymousUser();
-      }
-      return new SurveyUser(userName);
-    }
-    return new SurveyUser(user);
+    return resolvedUserCache.getUser(userName);
   }
 
   @Override
@@ -85,12 +76,7 @@ public class PermissionEvaluatorImpl implements PermissionEvaluator {
       return true;
     }
 
-    for (String permittedElement : listOfUsersOrGroups) {
-      if (userAccessor.hasMembership(permittedElement.trim(), user.getName())) {
-        return true;
-      }
-    }
-    return false;
+    return groupMembershipCache.isMemberOfAny(user.getName(), listOfUsersOrGroups);
   }
 
   @Override
@@ -100,21 +86,11 @@ public class PermissionEvaluatorImpl implements PermissionEvaluator {
 
   @Override
   public List<User> getActiveUsersForGroupOrUser(String userOrGroupName) {
-    List<User> users = new ArrayList<User>();
-    Group group = userAccessor.getGroup(userOrGroupName);
-    if (group == null) {
-      final User user = userAccessor.getUser(userOrGroupName);
-      if (user != null && !userAccessor.isDeactivated(user)) {
-        users.add(new SurveyUser(user));
-      }
-    } else {
-      for (String userName : userAccessor.getMemberNamesAsList(group)) {
-        final User user = userAccessor.getUser(userName);
-        if (!userAccessor.isDeactivated(user)) {
-          users.add(new SurveyUser(user));
-        }
-      }
-    }
-    return users;
+    return groupMembershipCache.getActiveUsers(userOrGroupName);
+  }
+
+  @Override
+  public Set<String> getActiveUserNamesForGroupOrUser(String userOrGroupName) {
+    return groupMembershipCache.getActiveUserNames(userOrGroupName);
   }
 }
@@ -0,0 +1,130 @@
+/**
+ * Copyright (c) 2006-2015, Confluence Community
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hivesoft.confluence.utils;
+
+import com.atlassian.confluence.user.UserAccessor;
+import com.atlassian.confluence.util.RequestCacheThreadLocal;
+import com.atlassian.crowd.event.user.UserDeletedEvent;
+import com.atlassian.crowd.event.user.UserEditedEvent;
+import com.atlassian.event.api.EventListener;
+import com.atlassian.event.api.EventPublisher;
+import com.atlassian.user.User;
+import org.hivesoft.confluence.model.wrapper.AnonymousUser;
+import org.hivesoft.confluence.model.wrapper.SurveyUser;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import java.util.*;
+
+/**
+ * Resolves user names to {@link SurveyUser}s, looking every name up at most once per request. Users which exist are
+ * additionally kept in a node local LRU of {@link #MAX_SIZE_PROPERTY} entries (default {@link #DEFAULT_MAX_SIZE}, 0 turns
+ * it off) which is cleared whenever a user is changed or deleted. Background jobs clear the request cache themselves,
+ * see {@link org.hivesoft.confluence.storage.PagePropertyCache}.
+ */
+public class ResolvedUserCache implements InitializingBean, DisposableBean {
+  public static final String MAX_SIZE_PROPERTY = "survey-plugin.userCacheSize";
+  protected static final int DEFAULT_MAX_SIZE = 2000;
+
+  private static final String REQUEST_CACHE_KEY = ResolvedUserCache.class.getName();
+
+  private final UserAccessor userAccessor;
+  private final EventPublisher eventPublisher;
+  private final Map<String, User> knownUsers;
+
+  public ResolvedUserCache(UserAccessor userAccessor, EventPublisher eventPublisher) {
+    this(userAccessor, eventPublisher, Integer.getInteger(MAX_SIZE_PROPERTY, DEFAULT_MAX_SIZE));
+  }
+
+  protected ResolvedUserCache(UserAccessor userAccessor, EventPublisher eventPublisher, final int maxSize) {
+    this.userAccessor = userAccessor;
+    this.eventPublisher = eventPublisher;
+    this.knownUsers = maxSize > 0 ? Collections.synchronizedMap(new LinkedHashMap<String, User>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, User> eldest) {
+        return size() > maxSize;
+      }
+    }) : null;
+  }
+
+  @Override
+  public void afterPropertiesSet() {
+    eventPublisher.register(this);
+  }
+
+  @Override
+  public void destroy() {
+    eventPublisher.unregister(this);
+  }
+
+  /**
+   * @return the user with the given name, a plain {@link SurveyUser} if there is no such user or an {@link AnonymousUser}
+   * if the name is <code>null</code>. Never <code>null</code>.
+   */
+  public User getUser(String userName) {
+    if (userName == null) {
+      return new AnonymousUser();
+    }
+    final Map<String, User> requestUsers = getRequestUsers();
+    User user = requestUsers.get(userName);
+    if (user == null) {
+      user = knownUsers != null ? knownUsers.get(userName) : null;
+      if (user == null) {
+        user = loadUser(userName);
+      }
+      requestUsers.put(userName, user);
+    }
+    return user;
+  }
+
+  public void invalidateAll() {
+    if (knownUsers != null) {
+      knownUsers.clear();
+    }
+  }
+
+  public int size() {
+    return knownUsers != null ? knownUsers.size() : 0;
+  }
+
+  @EventListener
+  public void onUserEdited(UserEditedEvent event) {
+    invalidateAll();
+  }
+
+  @EventListener
+  public void onUserDeleted(UserDeletedEvent event) {
+    invalidateAll();
+  }
+
+  private User loadUser(String userName) {
+    final User user = userAccessor.getUser(userName);
+    if (user == null) {
+      return new SurveyUser(userName);
+    }
+    final User surveyUser = new SurveyUser(user);
+    if (knownUsers != null) {
+      knownUsers.put(userName, surveyUser);
+    }
+    return surveyUser;
+  }
+
+  @SuppressWarnings("unchecked")
+  private Map<String, User> getRequestUsers() {
+    final Map<Object, Object> requestCache = RequestCacheThreadLocal.getRequestCache();
+    Map<String, User> requestUsers = (Map<String, User>) requestCache.get(REQUEST_CACHE_KEY);
+    if (requestUsers == null) {
+      requestUsers = new HashMap<String, User>();
+      requestCache.put(REQUEST_CACHE_KEY, requestUsers);
+    }
+    return requestUsers;
+  }
+}
@@ -12,19 +12,20 @@ package org.hivesoft.confluence.utils;
 
 import com.atlassian.confluence.content.render.xhtml.ConversionContext;
 import com.atlassian.confluence.core.ContentEntityObject;
-import com.atlassian.confluence.core.ContentPropertyManager;
 import com.atlassian.extras.common.log.Logger;
 import com.atlassian.user.User;
-import com.opensymphony.util.TextUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.hivesoft.confluence.macros.survey.SurveyConfig;
 import org.hivesoft.confluence.macros.vote.VoteConfig;
-import org.hivesoft.confluence.macros.vote.VoteMacro;
 import org.hivesoft.confluence.model.Survey;
 import org.hivesoft.confluence.model.enums.VoteAction;
 import org.hivesoft.confluence.model.vote.Ballot;
 import org.hivesoft.confluence.model.vote.Choice;
 import org.hivesoft.confluence.model.vote.Comment;
+import org.hivesoft.confluence.storage.StoredBallot;
+import org.hivesoft.confluence.storage.UserDictionary;
+import org.hivesoft.confluence.storage.VoteStore;
+import org.hivesoft.confluence.utils.BallotStateCache.BallotState;
 
 import java.util.*;
 
@@ -36,13 +37,14 @@ public class SurveyManager {
   private final static int SURVEY_BALLOT_INDEX_START_INLINE_CHOICES = 2;
 
   private final static int MINIMUM_CHOICES_COUNT = 2;
-  protected static final char COMMENTERS_SEPARATOR = '|';
 
-  private final ContentPropertyManager contentPropertyManager;
+  private final VoteStore voteStore;
+  private final BallotStateCache ballotStateCache;
   private final PermissionEvaluator permissionEvaluator;
 
-  public SurveyManager(ContentPropertyManager contentPropertyManager, PermissionEvaluator permissionEvaluator) {
-    this.contentPropertyManager = contentPropertyManager;
+  public SurveyManager(VoteStore voteStore, BallotStateCache ballotStateCache, PermissionEvaluator permissionEvaluator) {
+    this.voteStore = voteStore;
+    this.ballotStateCache = ballotStateCache;
     this.permissionEvaluator = permissionEvaluator;
   }
 
@@ -52,29 +54,19 @@ public class SurveyManager {
    */
   public Ballot reconstructBallotFromPlainTextMacroBody(Map<String, String> parameters, String plainTextMacroBody, ContentEntityObject contentObject) {
     final String ballotTitle = SurveyUtils.getTitleInMacroParameters(parameters);
-    List<Choice> choices = new ArrayList<Choice>();
+    List<String> choiceNames = new ArrayList<String>();
 
     for (StringTokenizer stringTokenizer = new StringTokenizer(plainTextMacroBody, "\r\n"); stringTokenizer.hasMoreTokens(); ) {
       String line = StringUtils.chomp(stringTokenizer.nextToken().trim());
 
       if (!StringUtils.isBlank(line) && ((line.length() == 1 && Character.getNumericValue(line.toCharArray()[0]) > -1) || line.length() > 1)) {
-        Choice choice = new Choice(line);
-
-        String votes = contentPropertyManager.getTextProperty(contentObject, VoteMacro.VOTE_STORAGE_PREFIX + ballotTitle + "." + line);
-
-        if (StringUtils.isNotBlank(votes)) {
-          for (StringTokenizer voteTokenizer = new StringTokenizer(votes, ","); voteTokenizer.hasMoreTokens(); ) {
-            final User voter = permissionEvaluator.getUserByName(voteTokenizer.nextToken());
-            choice.voteFor(voter);
-          }
-        }
-
-        choices.add(choice);
+        choiceNames.add(line);
       }
     }
-    final List<Comment> comments = loadCommentsForBallot(contentObject, ballotTitle);
 
-    return new Ballot(ballotTitle, "", new VoteConfig(permissionEvaluator, parameters), choices, comments);
+    final BallotState ballotState = loadBallotState(contentObject, ballotTitle, choiceNames);
+
+    return new Ballot(ballotTitle, "", new VoteConfig(permissionEvaluator, parameters), createChoices(choiceNames, ballotState), new ArrayList<Comment>(ballotState.getComments()));
   }
 
   /**
@@ -90,7 +82,7 @@ public class SurveyManager {
     for (StringTokenizer stringTokenizer = new StringTokenizer(plainTextMacroBody, "\r\n"); stringTokenizer.hasMoreTokens(); ) {
       String line = StringUtils.chomp(stringTokenizer.nextToken().trim());
 
-      if ((!StringUtils.isBlank(line) && Character.getNumericValue(line.toCharArray()[0]) > -1) || line.length() > 1) {
+      if (isSurveyRow(line)) {
         Ballot ballot = reconstructBallotFromSurveyRow(contentObject, survey, line.split("\\-", -1));
         survey.addBallot(ballot);
       }
@@ -99,10 +91,36 @@ public class SurveyManager {
     return survey;
   }
 
+  /**
+   * Create only the ballot with the given title out of the survey macro body, so just its votes and comments are loaded.
+   *
+   * @return the ballot of the first survey row with the given title or null if there is none
+   */
+  public Ballot reconstructBallotFromPlainTextSurveyMacroBody(String ballotTitle, String plainTextMacroBody, ContentEntityObject contentObject, Map<String, String> parameters) {
+    if (StringUtils.isBlank(plainTextMacroBody)) {
+      return null;
+    }
+
+    for (StringTokenizer stringTokenizer = new StringTokenizer(plainTextMacroBody, "\r\n"); stringTokenizer.hasMoreTokens(); ) {
+      String line = StringUtils.chomp(stringTokenizer.nextToken().trim());
+
+      if (isSurveyRow(line)) {
+        final String[] lineElements = line.split("\\-", -1);
+        if (lineElements[SURVEY_BALLOT_INDEX_TITLE].trim().equals(ballotTitle)) {
+          return reconstructBallotFromSurveyRow(contentObject, new Survey(new SurveyConfig(permissionEvaluator, parameters)), lineElements);
+        }
+      }
+    }
+    return null;
+  }
+
+  private static boolean isSurveyRow(String line) {
+    return (!StringUtils.isBlank(line) && Character.getNumericValue(line.toCharArray()[0]) > -1) || line.length() > 1;
+  }
+
   private Ballot reconstructBallotFromSurveyRow(ContentEntityObject contentObject, Survey survey, String[] lineElements) {
     final String ballotTitle = lineElements[SURVEY_BALLOT_INDEX_TITLE].trim();
     final VoteConfig config = new VoteConfig(survey.getConfig());
-    final ArrayList<Choice> choices = new ArrayList<Choice>();
 
     List<String> inlineChoiceNames = new ArrayList<String>();
     if (!config.isShowCondensed()) { // only count inline elements if its not condensed!
@@ -118,73 +136,56 @@ public class SurveyManager {
       choiceNames = SurveyUtils.DEFAULT_CHOICE_NAMES;
     }
 
-    for (String choiceName : choiceNames) {
-      Choice choice = new Choice(choiceName);
-
-      migrateOldDefaultVotesIfPresent(contentObject, ballotTitle, choiceName);
-
-      String votes = contentPropertyManager.getTextProperty(contentObject, VoteMacro.VOTE_STORAGE_PREFIX + ballotTitle + "." + choice.getDescription());
-      if (StringUtils.isNotBlank(votes)) {
-        for (StringTokenizer voteTokenizer = new StringTokenizer(votes, ","); voteTokenizer.hasMoreTokens(); ) {
-          final User voter = permissionEvaluator.getUserByName(voteTokenizer.nextToken());
-          choice.voteFor(voter);
-        }
-      }
-      choices.add(choice);
-    }
-
-    final List<Comment> comments = loadCommentsForBallot(contentObject, ballotTitle);
+    final BallotState ballotState = loadBallotState(contentObject, ballotTitle, choiceNames);
 
     String description = "";
     if (lineElements.length > SURVEY_BALLOT_INDEX_SUB_TITLE) {
       description = lineElements[SURVEY_BALLOT_INDEX_SUB_TITLE].trim();
     }
 
-    return new Ballot(ballotTitle, description, config, choices, comments);
+    return new Ballot(ballotTitle, description, config, createChoices(choiceNames, ballotState), new ArrayList<Comment>(ballotState.getComments()));
   }
 
   /**
-   * if this ballot is a default one, check whether there are old (v. 1.1.*) default items and convert see CSRVY-21 for details
+   * The voters and comments of the ballot, from the {@link BallotStateCache} if they did not change since.
    */
-  protected void migrateOldDefaultVotesIfPresent(ContentEntityObject contentObject, String ballotTitle, String choiceName) {
-    if (SurveyUtils.DEFAULT_CHOICE_NAMES.contains(choiceName)) {
-      int defaultIndex = SurveyUtils.DEFAULT_CHOICE_NAMES.indexOf(choiceName);
-
-      final String oldVotes = contentPropertyManager.getTextProperty(contentObject, VoteMacro.VOTE_STORAGE_PREFIX + ballotTitle + "." + SurveyUtils.DEFAULT_OLD_CHOICE_NAMES.get(defaultIndex));
-      if (StringUtils.isNotBlank(oldVotes)) {
-        contentPropertyManager.setTextProperty(contentObject, VoteMacro.VOTE_STORAGE_PREFIX + ballotTitle + "." + SurveyUtils.DEFAULT_CHOICE_NAMES.get(defaultIndex), oldVotes);
-        contentPropertyManager.setTextProperty(contentObject, VoteMacro.VOTE_STORAGE_PREFIX + ballotTitle + "." + SurveyUtils.DEFAULT_OLD_CHOICE_NAMES.get(defaultIndex), null);
-      }
+  private BallotState loadBallotState(ContentEntityObject contentObject, String ballotTitle, List<String> choiceNames) {
+    final StoredBallot storedBallot = voteStore.load(contentObject, ballotTitle, choiceNames);
+    final String cacheKey = ballotStateCache.getKey(contentObject, ballotTitle, choiceNames);
+    BallotState ballotState = ballotStateCache.get(cacheKey, storedBallot);
+    if (ballotState != null) {
+      return ballotState;
     }
-  }
-
-  private List<Comment> loadCommentsForBallot(ContentEntityObject contentObject, String ballotTitle) {
-    List<Comment> comments = new ArrayList<Comment>();
-    final String commenters = contentPropertyManager.getTextProperty(contentObject, "survey." + ballotTitle + ".commenters");
 
-    if (StringUtils.isNotBlank(commenters)) {
-      for (String commenter : StringUtils.split(commenters, COMMENTERS_SEPARATOR)) {
-        String comment = contentPropertyManager.getTextProperty(contentObject, "survey." + ballotTitle + ".comment." + commenter);
-        comments.add(new Comment(permissionEvaluator.getUserByName(commenter), comment));
+    final Map<String, List<User>> votersByChoice = new HashMap<String, List<User>>();
+    for (String choiceName : choiceNames) {
+      final List<User> voters = new ArrayList<User>();
+      for (String voterName : storedBallot.getVoters(choiceName)) {
+        voters.add(permissionEvaluator.getUserByName(voterName));
       }
+      votersByChoice.put(choiceName, voters);
+    }
+    final List<Comment> comments = new ArrayList<Comment>();
+    for (Map.Entry<String, String> comment : storedBallot.getComments().entrySet()) {
+      comments.add(new Comment(permissionEvaluator.getUserByName(comment.getKey()), comment.getValue()));
     }
-    return comments;
-  }
 
-  private void storeVotersForChoice(Choice choice, String ballotTitle, ContentEntityObject contentObject) {
-    String propertyKey = VoteMacro.VOTE_STORAGE_PREFIX + ballotTitle + "." + choice.getDescription();
+    ballotState = new BallotState(votersByChoice, comments);
+    ballotStateCache.put(cacheKey, storedBallot, ballotState);
+    return ballotState;
+  }
 
-    if (choice.getVoters().size() == 0) {
-      contentPropertyManager.setTextProperty(contentObject, propertyKey, null);
-    } else {
-      Collection<User> voters = choice.getVoters();
-      List<String> voterNames = new ArrayList<String>();
-      for (User voter : voters) {
-        voterNames.add(voter.getName());
+  private List<Choice> createChoices(List<String> choiceNames, BallotState ballotState) {
+    final List<Choice> choices = new ArrayList<Choice>();
+    final UserDictionary userDictionary = new UserDictionary();
+    for (String choiceName : choiceNames) {
+      Choice choice = new Choice(choiceName, userDictionary);
+      for (User voter : ballotState.getVoters(choiceName)) {
+        choice.voteFor(voter);
       }
-      String propertyValue = StringUtils.join(voterNames, ",");
-      contentPropertyManager.setTextProperty(contentObject, propertyKey, propertyValue);
+      choices.add(choice);
     }
+    return choices;
   }
 
   public VoteAction recordVote(Ballot ballot, ContentEntityObject contentObject, String requestChoice, VoteAction voteAction) {
@@ -194,12 +195,13 @@ public class SurveyManager {
 
     // If there is a choice, make sure this user can vote
     if (requestChoice != null && ballot.canVote(remoteUser)) {
+      boolean unvoted = false;
 
       // If this is a re-vote situation, then unvote first
       Choice previousChoice = ballot.getChoiceForUser(remoteUser);
       if (previousChoice != null && ballot.getConfig().isChangeableVotes()) {
         previousChoice.removeVoteFor(remoteUser);
-        storeVotersForChoice(previousChoice, ballot.getTitle(), contentObject);
+        unvoted = true;
         voteRecorded--;
       }
 
@@ -208,8 +210,10 @@ public class SurveyManager {
       if (choice != null && voteAction == VoteAction.VOTE) {
         LOG.debug("recordVote: found choice in requestChoice: " + choice.getDescription());
         choice.voteFor(remoteUser);
-        storeVotersForChoice(choice, ballot.getTitle(), contentObject);
+        voteStore.recordVote(contentObject, ballot.getTitle(), choice.getDescription(), remoteUser.getName());
         voteRecorded++;
+      } else if (unvoted) {
+        voteStore.unvote(contentObject, ballot.getTitle(), remoteUser.getName());
       }
     }
     return VoteAction.fromChange(voteRecorded);
@@ -230,50 +234,15 @@ public class SurveyManager {
   }
 
   public void resetVotes(Survey survey, ContentEntityObject contentEntityObject) {
+    final List<String> ballotTitles = new ArrayList<String>();
     for (Ballot ballot : survey.getBallots()) {
-      final Collection<Choice> choices = ballot.getChoices();
-      for (Choice choice : choices) {
-        storeVotersForChoice(Choice.emptyChoice(choice), ballot.getTitle(), contentEntityObject);
-      }
-      for (Comment comment : loadCommentsForBallot(contentEntityObject, ballot.getTitle())) {
-        storeComment(ballot.getTitle(), null, comment.getUser(), contentEntityObject);
-      }
+      ballotTitles.add(ballot.getTitle());
     }
+    voteStore.resetAll(contentEntityObject, ballotTitles);
   }
 
   public void storeComment(String ballotTitle, String comment, User user, ContentEntityObject contentEntityObject) {
-    String username = user.getName();
-    String commentersPropertyName = "survey." + ballotTitle + ".commenters";
-    String commentPropertyName = "survey." + ballotTitle + ".comment." + username;
-
-    String usernameRegex = "\\|" + username + "\\|";
-
-    String commenters = contentPropertyManager.getStringProperty(contentEntityObject, commentersPropertyName);
-    //safely store string stored items into text
-    if (StringUtils.isNotBlank(commenters)) {
-      if (StringUtils.isBlank(contentPropertyManager.getTextProperty(contentEntityObject, commentersPropertyName))) {
-        contentPropertyManager.setTextProperty(contentEntityObject, commentersPropertyName, commenters);
-        contentPropertyManager.setStringProperty(contentEntityObject, commentersPropertyName, null);
-      }
-    } else {
-      commenters = contentPropertyManager.getTextProperty(contentEntityObject, commentersPropertyName);
-    }
-
-    if (StringUtils.isNotBlank(comment)) {
-      if (StringUtils.isBlank(commenters)) {
-        commenters = "|" + username + "|";
-      } else {
-        if (!commenters.matches(".*" + usernameRegex + ".*")) {
-          commenters += "|" + username + "|";
-        }
-      }
-      contentPropertyManager.setTextProperty(contentEntityObject, commentPropertyName, comment);
-    } else if (TextUtils.stringSet(commenters) && commenters.matches(".*" + usernameRegex + ".*")) {
-      commenters = commenters.replaceAll(usernameRegex, "");
-      contentPropertyManager.setTextProperty(contentEntityObject, commentPropertyName, null);
-    }
-
-    contentPropertyManager.setTextProperty(contentEntityObject, commentersPropertyName, commenters);
+    voteStore.storeComment(contentEntityObject, ballotTitle, user.getName(), comment);
   }
 
   public User getCurrentUser() {
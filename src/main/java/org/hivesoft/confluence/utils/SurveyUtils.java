@@ -19,6 +19,7 @@ import org.hivesoft.confluence.macros.vote.VoteMacro;
 import org.hivesoft.confluence.model.enums.UserVisualization;
 import org.hivesoft.confluence.model.vote.Choice;
 import org.hivesoft.confluence.rest.AdminResource;
+import org.hivesoft.confluence.storage.UserDictionary;
 
 import java.util.*;
 import java.util.regex.Matcher;
@@ -27,12 +28,21 @@ import java.util.regex.Pattern;
 import static org.apache.commons.lang3.StringEscapeUtils.escapeHtml4;
 
 public class SurveyUtils {
-  final static List<String> DEFAULT_OLD_CHOICE_NAMES = new ArrayList<String>(Arrays.asList("5 - Outstanding", "4 - More Than Satisfactory", "3 - Satisfactory", "2 - Less Than Satisfactory", "1 - Unsatisfactory"));
-  final static List<String> DEFAULT_CHOICE_NAMES = new ArrayList<String>(Arrays.asList("5-Outstanding", "4-More Than Satisfactory", "3-Satisfactory", "2-Less Than Satisfactory", "1-Unsatisfactory"));
+  public final static List<String> DEFAULT_OLD_CHOICE_NAMES = new ArrayList<String>(Arrays.asList("5 - Outstanding", "4 - More Than Satisfactory", "3 - Satisfactory", "2 - Less Than Satisfactory", "1 - Unsatisfactory"));
+  public final static List<String> DEFAULT_CHOICE_NAMES = new ArrayList<String>(Arrays.asList("5-Outstanding", "4-More Than Satisfactory", "3-Satisfactory", "2-Less Than Satisfactory", "1-Unsatisfactory"));
 
   private static final String REGEX_COMMA_SEPARATED_STRINGS = "\\s*,[,\\s]*";
   protected static final int MAX_STORABLE_KEY_LENGTH = 200;
 
+  private static final Pattern URL_PATTERN = Pattern.compile("(https?://[\\da-z\\.-]+\\.[a-z\\.]{2,6}[/\\w\\.-;=]*/?\\??[a-z0-9=&]*)");
+  protected static final int MAX_ENRICHED_STRINGS = 2000;
+  private static final Map<String, String> ENRICHED_STRINGS = Collections.synchronizedMap(new LinkedHashMap<String, String>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+      return size() > MAX_ENRICHED_STRINGS;
+    }
+  });
+
   private SurveyUtils() {
   }
 
@@ -101,24 +111,48 @@ public class SurveyUtils {
 
   public static List<Choice> getDefaultChoices() {
     List<Choice> choices = new ArrayList<Choice>();
+    final UserDictionary userDictionary = new UserDictionary();
     for (String choiceName : DEFAULT_CHOICE_NAMES) {
-      choices.add(new Choice(choiceName));
+      choices.add(new Choice(choiceName, userDictionary));
     }
     return choices;
   }
 
+  /**
+   * Escapes the given text and renders the contained http(s) urls as links. Titles and descriptions only change on page
+   * edit, so the results of the most recently used texts are kept instead of matching them on every view.
+   */
   public static String enrichStringWithHttpPattern(String stringToEnrich) {
-    final String encodedString = escapeHtml4(stringToEnrich);
-
-    final Pattern urlPattern = Pattern.compile("(https?://[\\da-z\\.-]+\\.[a-z\\.]{2,6}[/\\w\\.-;=]*/?\\??[a-z0-9=&]*)");
-    final Matcher matcher = urlPattern.matcher(encodedString);
+    if (stringToEnrich == null) {
+      return null;
+    }
+    String result = ENRICHED_STRINGS.get(stringToEnrich);
+    if (result == null) {
+      result = renderLinks(escapeHtml4(stringToEnrich));
+      ENRICHED_STRINGS.put(stringToEnrich, result);
+    }
+    return result;
+  }
 
-    StringBuffer result = new StringBuffer();
+  private static String renderLinks(String encodedString) {
+    if (!encodedString.contains("http")) {
+      return encodedString;
+    }
+    final Matcher matcher = URL_PATTERN.matcher(encodedString);
+    StringBuilder result = null;
+    int lastEnd = 0;
     while (matcher.find()) {
-      matcher.appendReplacement(result, "<a href=\"" + matcher.group() + "\" target=\"_blank\">" + matcher.group() + "</a>");
+      if (result == null) {
+        result = new StringBuilder(encodedString.length() + 64);
+      }
+      final String url = matcher.group();
+      result.append(encodedString, lastEnd, matcher.start()).append("<a href=\"").append(url).append("\" target=\"_blank\">").append(url).append("</a>");
+      lastEnd = matcher.end();
+    }
+    if (result == null) {
+      return encodedString;
     }
-    matcher.appendTail(result);
-    return result.toString();
+    return result.append(encodedString, lastEnd, encodedString.length()).toString();
   }
 
   public static UserVisualization getUserVisualizationFromString(String propertyValue, UserVisualization defaultValue) {
@@ -17,6 +17,7 @@ import com.atlassian.confluence.xhtml.api.MacroDefinition;
 import com.atlassian.confluence.xhtml.api.XhtmlContent;
 import com.atlassian.event.api.EventPublisher;
 import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import com.atlassian.sal.api.transaction.TransactionCallback;
 import com.atlassian.sal.api.transaction.TransactionTemplate;
 import com.atlassian.templaterenderer.TemplateRenderer;
 import com.opensymphony.webwork.views.velocity.VelocityManager;
@@ -26,7 +27,9 @@ import org.hivesoft.confluence.model.Survey;
 import org.hivesoft.confluence.model.vote.Ballot;
 import org.hivesoft.confluence.model.vote.Comment;
 import org.hivesoft.confluence.model.wrapper.TestTemplateRenderer;
+import org.hivesoft.confluence.rest.callbacks.TransactionCallbackStorePage;
 import org.hivesoft.confluence.rest.callbacks.delegation.SurveyPluginSettings;
+import org.hivesoft.confluence.utils.PageMacroIndex;
 import org.hivesoft.confluence.utils.SurveyManager;
 import org.hivesoft.confluence.utils.SurveyUtils;
 import org.hivesoft.confluence.utils.TestPermissionEvaluator;
@@ -43,8 +46,7 @@ import java.util.Map;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.mockito.Matchers.*;
-import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.*;
 
 public class SurveyMacroTest extends ConfluenceTestBase {
 
@@ -73,7 +75,7 @@ public class SurveyMacroTest extends ConfluenceTestBase {
 
     AuthenticatedUserThreadLocal.setUser(SOME_USER1);
 
-    classUnderTest = new SurveyMacro(mockPluginSettingsFactory, mockSurveyManager, testTemplateRenderer, xhtmlContent, mockVelocityAbstractionHelper, mockPageManager, transactionTemplate);
+    classUnderTest = new SurveyMacro(mockPluginSettingsFactory, mockSurveyManager, testTemplateRenderer, xhtmlContent, mockVelocityAbstractionHelper, mockPageManager, transactionTemplate, new PageMacroIndex(xhtmlContent));
   }
 
   @After
@@ -108,6 +110,32 @@ public class SurveyMacroTest extends ConfluenceTestBase {
     final String result = classUnderTest.execute(parameters, StringUtils.join(ballotTitles, "\n"), mockConversionContext);
 
     assertThat(result, is("templates/macros/survey/surveymacro.vm"));
+    verify(transactionTemplate, never()).execute(any(TransactionCallback.class));
+  }
+
+  @Test
+  public void test_execute_oldParameters_pageUpgraded_success() throws Exception {
+    final HashMap<String, String> parameters = new HashMap<String, String>();
+    parameters.put(SurveyConfig.KEY_TITLE, SOME_SURVEY_TITLE);
+
+    final String[] ballotTitles = {"Should this be exported?"};
+
+    ContentEntityObject somePage = new Page();
+    somePage.setBodyAsString("<ac:macro ac:name=\"survey\"><ac:parameter ac:name=\"title\">" + SOME_SURVEY_TITLE + "</ac:parameter>"
+            + "<ac:parameter ac:name=\"" + SurveyConfig.KEY_SHOW_LAST + "\">true</ac:parameter><ac:plain-text-body>"
+            + "<![CDATA["
+            + StringUtils.join(ballotTitles, "\n")
+            + "]]></ac:plain-text-body></ac:macro>");
+    final PageContext pageContext = new PageContext(somePage);
+
+    when(mockConversionContext.getEntity()).thenReturn(somePage);
+    when(mockConversionContext.getPageContext()).thenReturn(pageContext);
+    when(mockPluginSettingsFactory.createGlobalSettings()).thenReturn(new SurveyPluginSettings());
+    when(mockSurveyManager.reconstructSurveyFromPlainTextMacroBody(anyString(), any(ContentEntityObject.class), eq(parameters))).thenReturn(surveyWithBallots(parameters, ballotTitles));
+
+    classUnderTest.execute(parameters, StringUtils.join(ballotTitles, "\n"), mockConversionContext);
+
+    verify(transactionTemplate).execute(any(TransactionCallbackStorePage.class));
   }
 
   @Test(expected = MacroExecutionException.class)
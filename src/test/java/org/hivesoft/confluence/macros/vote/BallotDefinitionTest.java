@@ -0,0 +1,51 @@
+package org.hivesoft.confluence.macros.vote;
+
+import org.hivesoft.confluence.model.enums.UserVisualization;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class BallotDefinitionTest {
+
+  @Test
+  public void test_createWithParameters_success() {
+    Map<String, String> parameters = new HashMap<String, String>();
+    parameters.put(VoteConfig.KEY_TITLE, "someTitle");
+    parameters.put(VoteConfig.KEY_VOTERS, "someUser, someGroup");
+    parameters.put(VoteConfig.KEY_VISIBLE_VOTERS, "true");
+    parameters.put(VoteConfig.KEY_VISIBLE_VOTERS_WIKI, "true");
+
+    final BallotDefinition classUnderTest = new BallotDefinition(parameters);
+
+    assertThat(classUnderTest.getTitle(), is("someTitle"));
+    assertThat(classUnderTest.getVoters().size(), is(2));
+    assertThat(classUnderTest.getVisibleVoters(), is("true"));
+    assertThat(classUnderTest.getVisiblePendingVoters(), is(nullValue()));
+    assertThat(classUnderTest.getRenderTitleLevel(), is(3));
+    assertThat(classUnderTest.getUserRenderer().getUserVisualization(), is(UserVisualization.LINKED_LOGIN));
+  }
+
+  @Test
+  public void test_createForSurveyRow_titleLevelBelowSurvey_success() {
+    Map<String, String> parameters = new HashMap<String, String>();
+    parameters.put(VoteConfig.KEY_RENDER_TITLE_LEVEL, "2");
+    parameters.put(VoteConfig.KEY_LOCKED, "true");
+
+    final BallotDefinition classUnderTest = new BallotDefinition(new BallotDefinition(parameters));
+
+    assertThat(classUnderTest.getRenderTitleLevel(), is(3));
+    assertThat(classUnderTest.isLocked(), is(true));
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void test_getVoters_unmodifiable_failure() {
+    Map<String, String> parameters = new HashMap<String, String>();
+    parameters.put(VoteConfig.KEY_VOTERS, "someUser");
+
+    new BallotDefinition(parameters).getVoters().set(0, "otherUser");
+  }
+}
@@ -0,0 +1,45 @@
+package org.hivesoft.confluence.macros.vote;
+
+import org.hivesoft.confluence.model.wrapper.AnonymousUser;
+import org.hivesoft.confluence.model.wrapper.SurveyUser;
+import org.hivesoft.confluence.utils.TestPermissionEvaluator;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ViewerContextTest {
+
+  @Test
+  public void test_sameDefinitionDifferentViewers_success() {
+    Map<String, String> parameters = new HashMap<String, String>();
+    parameters.put(VoteConfig.KEY_VOTERS, "spock");
+    parameters.put(VoteConfig.KEY_MANAGERS, "spock");
+    parameters.put(VoteConfig.KEY_VISIBLE_VOTERS, "true");
+    final BallotDefinition definition = new BallotDefinition(parameters);
+
+    final ViewerContext spock = new ViewerContext(new TestPermissionEvaluator.Builder(new SurveyUser("spock")).build(), definition);
+    final ViewerContext kirk = new ViewerContext(new TestPermissionEvaluator.Builder(new SurveyUser("kirk")).build(), definition);
+
+    assertThat(spock.isCanTakeSurvey(), is(true));
+    assertThat(spock.isCanManageSurvey(), is(true));
+    assertThat(spock.isVisibleVoters(), is(true));
+    assertThat(kirk.isCanTakeSurvey(), is(false));
+    assertThat(kirk.isCanManageSurvey(), is(false));
+    assertThat(kirk.isVisibleVoters(), is(false));
+  }
+
+  @Test
+  public void test_anonymousViewer_success() {
+    final BallotDefinition definition = new BallotDefinition(new HashMap<String, String>());
+
+    final ViewerContext classUnderTest = new ViewerContext(new TestPermissionEvaluator.Builder(new AnonymousUser()).build(), definition);
+
+    assertThat(classUnderTest.isCanSeeResults(), is(true));
+    assertThat(classUnderTest.isCanTakeSurvey(), is(false));
+    assertThat(classUnderTest.isCanManageSurvey(), is(false));
+  }
+}
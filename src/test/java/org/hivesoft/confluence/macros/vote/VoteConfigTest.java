@@ -1,5 +1,7 @@
 package org.hivesoft.confluence.macros.vote;
 
+import com.atlassian.user.User;
+import com.google.common.collect.Sets;
 import org.hivesoft.confluence.macros.survey.SurveyConfig;
 import org.hivesoft.confluence.model.enums.UserVisualization;
 import org.hivesoft.confluence.model.wrapper.AnonymousUser;
@@ -8,11 +10,14 @@ import org.hivesoft.confluence.utils.PermissionEvaluator;
 import org.hivesoft.confluence.utils.TestPermissionEvaluator;
 import org.junit.Test;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 import static org.hamcrest.CoreMatchers.*;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.mockito.Mockito.*;
 
 public class VoteConfigTest {
   private final static String CURRENT_USER_NAME = "spock";
@@ -182,4 +187,48 @@ public class VoteConfigTest {
 
     assertThat(classUnderTest.getUserRenderer().getUserVisualization(), is(UserVisualization.LINKED_FULL));
   }
+
+  @Test
+  public void test_getAllPossibleVoters_expandedOnlyOnFirstCall_success() {
+    final PermissionEvaluator mockPermissionEvaluator = mock(PermissionEvaluator.class);
+    when(mockPermissionEvaluator.getActiveUsersForGroupOrUser("someGroup")).thenReturn(Arrays.<User>asList(new SurveyUser("someUser")));
+    Map<String, String> parameters = new HashMap<String, String>();
+    parameters.put(VoteConfig.KEY_VOTERS, "someGroup");
+
+    classUnderTest = new VoteConfig(mockPermissionEvaluator, parameters);
+
+    verify(mockPermissionEvaluator, never()).getActiveUsersForGroupOrUser(anyString());
+    assertThat(classUnderTest.getAllPossibleVoters().size(), is(1));
+    assertThat(classUnderTest.getAllPossibleVoters().size(), is(1));
+    verify(mockPermissionEvaluator, times(1)).getActiveUsersForGroupOrUser("someGroup");
+  }
+
+  @Test
+  public void test_getAllPossibleVoters_ballotOfSurveySharesExpansion_success() {
+    final PermissionEvaluator mockPermissionEvaluator = mock(PermissionEvaluator.class);
+    when(mockPermissionEvaluator.getActiveUsersForGroupOrUser("someGroup")).thenReturn(Arrays.<User>asList(new SurveyUser("someUser")));
+    Map<String, String> parameters = new HashMap<String, String>();
+    parameters.put(VoteConfig.KEY_VOTERS, "someGroup");
+    final SurveyConfig surveyConfig = new SurveyConfig(mockPermissionEvaluator, parameters);
+
+    final VoteConfig firstBallotConfig = new VoteConfig(surveyConfig);
+    final VoteConfig secondBallotConfig = new VoteConfig(surveyConfig);
+
+    assertThat(firstBallotConfig.getAllPossibleVoters(), is(sameInstance(secondBallotConfig.getAllPossibleVoters())));
+    verify(mockPermissionEvaluator, times(1)).getActiveUsersForGroupOrUser("someGroup");
+  }
+
+  @Test
+  public void test_getAllPossibleVoterNames_usersNotResolved_success() {
+    final PermissionEvaluator mockPermissionEvaluator = mock(PermissionEvaluator.class);
+    when(mockPermissionEvaluator.getActiveUserNamesForGroupOrUser("someGroup")).thenReturn(Sets.newHashSet("someUser", "otherUser"));
+    when(mockPermissionEvaluator.getActiveUserNamesForGroupOrUser("someUser")).thenReturn(Sets.newHashSet("someUser"));
+    Map<String, String> parameters = new HashMap<String, String>();
+    parameters.put(VoteConfig.KEY_VOTERS, "someGroup, someUser");
+
+    classUnderTest = new VoteConfig(mockPermissionEvaluator, parameters);
+
+    assertThat(classUnderTest.getAllPossibleVoterNames(), containsInAnyOrder("someUser", "otherUser"));
+    verify(mockPermissionEvaluator, never()).getActiveUsersForGroupOrUser(anyString());
+  }
 }
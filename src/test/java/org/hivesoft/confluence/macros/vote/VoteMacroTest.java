@@ -26,6 +26,7 @@ import org.hivesoft.confluence.model.vote.Choice;
 import org.hivesoft.confluence.model.vote.Comment;
 import org.hivesoft.confluence.model.wrapper.TestTemplateRenderer;
 import org.hivesoft.confluence.rest.callbacks.delegation.SurveyPluginSettings;
+import org.hivesoft.confluence.utils.PageMacroIndex;
 import org.hivesoft.confluence.utils.PermissionEvaluator;
 import org.hivesoft.confluence.utils.SurveyManager;
 import org.hivesoft.confluence.utils.VelocityAbstractionHelper;
@@ -68,7 +69,7 @@ public class VoteMacroTest extends ConfluenceTestBase {
     final DefaultContentTransformerFactory contentTransformerFactory = new DefaultContentTransformerFactory(macroDefinitionUnmarshaller, macroDefinitionMarshaller, xmlEventReaderFactory, xmlOutputFactory, mockEventPublisher);
     final XhtmlContent xhtmlContent = new DefaultXhtmlContent(null, null, null, null, null, null, null, null, null, null, contentTransformerFactory, null);
 
-    classUnderTest = new VoteMacro(mockSurveyManager, testTemplateRenderer, xhtmlContent, mockPluginSettingsFactory, mockVelocityAbstractionHelper);
+    classUnderTest = new VoteMacro(mockSurveyManager, testTemplateRenderer, new PageMacroIndex(xhtmlContent), mockPluginSettingsFactory, mockVelocityAbstractionHelper);
   }
 
   @After
@@ -0,0 +1,63 @@
+package org.hivesoft.confluence.model.vote;
+
+import com.atlassian.user.impl.DefaultUser;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class BallotTallyTest {
+
+  @Test
+  public void test_create_noVotes_success() {
+    final Choice someChoice = new Choice("someChoice");
+
+    final BallotTally classUnderTest = new BallotTally(Arrays.asList(someChoice, new Choice("otherChoice")), 1, 1);
+
+    assertThat(classUnderTest.getTotalVoteCount(), is(0));
+    assertThat(classUnderTest.getPercentage(someChoice), is(0));
+    assertThat(classUnderTest.getAveragePercentage(), is(0));
+    assertThat(classUnderTest.getAverage(), is(0.0f));
+    assertThat(classUnderTest.getBoundsIfNotDefault(), is(""));
+  }
+
+  @Test
+  public void test_create_withVotes_success() {
+    final Choice someChoice = new Choice("someChoice");
+    final Choice otherChoice = new Choice("otherChoice");
+    final Choice thirdChoice = new Choice("thirdChoice");
+    someChoice.voteFor(new DefaultUser("user1"));
+    someChoice.voteFor(new DefaultUser("user2"));
+    someChoice.voteFor(new DefaultUser("user3"));
+    thirdChoice.voteFor(new DefaultUser("user4"));
+
+    final BallotTally classUnderTest = new BallotTally(Arrays.asList(someChoice, otherChoice, thirdChoice), 1, 1);
+
+    assertThat(classUnderTest.getTotalVoteCount(), is(4));
+    assertThat(classUnderTest.getVoteCount(someChoice), is(3));
+    assertThat(classUnderTest.getPercentage(someChoice), is(75));
+    assertThat(classUnderTest.getPercentage(otherChoice), is(0));
+    assertThat(classUnderTest.getAveragePercentage(), is(75));
+    assertThat(classUnderTest.getAverage(), is(2.5f));
+    assertThat(classUnderTest.getFormattedAverage(), is(new java.text.DecimalFormat(BallotTally.DEFAULT_AVERAGE_FORMAT).format(2.5d)));
+  }
+
+  @Test
+  public void test_create_customBounds_success() {
+    final BallotTally classUnderTest = new BallotTally(Arrays.asList(new Choice("someChoice"), new Choice("otherChoice"), new Choice("thirdChoice")), 10, -5);
+
+    assertThat(classUnderTest.getLowerBound(), is(0));
+    assertThat(classUnderTest.getUpperBound(), is(10));
+    assertThat(classUnderTest.getBoundsIfNotDefault(), is("(10-0)"));
+  }
+
+  @Test
+  public void test_getVoteCount_unknownChoice_success() {
+    final BallotTally classUnderTest = new BallotTally(Collections.singletonList(new Choice("someChoice")), 1, 1);
+
+    assertThat(classUnderTest.getVoteCount(new Choice("unknownChoice")), is(0));
+  }
+}
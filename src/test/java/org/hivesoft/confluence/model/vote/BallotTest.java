@@ -19,7 +19,9 @@ import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.hamcrest.collection.IsIterableContainingInAnyOrder.containsInAnyOrder;
 import static org.hamcrest.core.Is.is;
 
@@ -68,6 +70,53 @@ public class BallotTest extends ConfluenceTestBase {
     assertThat(classUnderTest.getHasVoted(SOME_USER1), is(true));
   }
 
+  @Test
+  public void test_getChoiceForUser_votedAfterCreation_success() {
+    classUnderTest = new BallotBuilder().title(SOME_BALLOT_TITLE).build();
+    final Choice someChoice = classUnderTest.getChoices().iterator().next();
+
+    someChoice.voteFor(SOME_USER1);
+
+    assertThat(classUnderTest.getChoiceForUser(SOME_USER1), is(someChoice));
+  }
+
+  @Test
+  public void test_getChoiceForUser_voteRemoved_success() {
+    Choice someChoice = new Choice(SOME_CHOICE_DESCRIPTION);
+    someChoice.voteFor(SOME_USER1);
+    classUnderTest = new BallotBuilder().title(SOME_BALLOT_TITLE).choices(Collections.singletonList(someChoice)).build();
+
+    someChoice.removeVoteFor(SOME_USER1);
+
+    assertThat(classUnderTest.getChoiceForUser(SOME_USER1), is(nullValue()));
+    assertThat(classUnderTest.getHasVoted(SOME_USER1), is(false));
+  }
+
+  @Test
+  public void test_getChoiceForUser_votedOnTwoChoices_firstChoice_success() {
+    Choice someChoice = new Choice(SOME_CHOICE_DESCRIPTION);
+    Choice someChoiceTwo = new Choice(SOME_CHOICE_DESCRIPTION + "2");
+    someChoiceTwo.voteFor(SOME_USER1);
+    classUnderTest = new BallotBuilder().title(SOME_BALLOT_TITLE).choices(Arrays.asList(someChoice, someChoiceTwo)).build();
+
+    someChoice.voteFor(SOME_USER1);
+    assertThat(classUnderTest.getChoiceForUser(SOME_USER1), is(someChoice));
+
+    someChoice.removeVoteFor(SOME_USER1);
+    assertThat(classUnderTest.getChoiceForUser(SOME_USER1), is(someChoiceTwo));
+  }
+
+  @Test
+  public void test_getTally_recomputedAfterVote_success() {
+    classUnderTest = new BallotBuilder().title(SOME_BALLOT_TITLE).build();
+    final BallotTally tallyBeforeVote = classUnderTest.getTally();
+
+    classUnderTest.getChoices().iterator().next().voteFor(SOME_USER1);
+
+    assertThat(classUnderTest.getTally(), is(not(sameInstance(tallyBeforeVote))));
+    assertThat(classUnderTest.getTotalVoteCount(), is(1));
+  }
+
   @Test
   public void test_getVoteForNotExistingUser_success() {
     classUnderTest = new BallotBuilder().title(SOME_BALLOT_TITLE).build();
@@ -160,6 +209,26 @@ public class BallotTest extends ConfluenceTestBase {
     assertThat(someComment.getComment(), is(commentString));
   }
 
+  @Test
+  public void test_getCommentForUser_manyComments_success() {
+    final List<Comment> comments = new ArrayList<Comment>();
+    for (int i = 0; i < 100; i++) {
+      comments.add(new Comment(new SurveyUser("someUser" + i), "someComment" + i));
+    }
+
+    classUnderTest = new BallotBuilder().title(SOME_BALLOT_TITLE).comments(comments).build();
+
+    assertThat(classUnderTest.getCommentForUser(new SurveyUser("someUser42")).getComment(), is("someComment42"));
+    assertThat(classUnderTest.getCommentForUser(null), is(nullValue()));
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void test_getComments_notModifiable_failure() {
+    classUnderTest = new BallotBuilder().title(SOME_BALLOT_TITLE).build();
+
+    classUnderTest.getComments().add(new Comment(SOME_USER1, "someComment"));
+  }
+
   @Test
   public void test_getCommentForUser_noComment_success() {
     classUnderTest = new BallotBuilder().title("someBallot").build();
@@ -455,6 +524,27 @@ public class BallotTest extends ConfluenceTestBase {
     assertThat(result, containsInAnyOrder(user13, user22, user31));
   }
 
+  @Test
+  public void test_getPendingVoterCount_recomputedAfterVote_success() {
+    final HashMap<String, String> parameters = new HashMap<String, String>();
+    parameters.put(VoteConfig.KEY_TITLE, "someTitle");
+    parameters.put(VoteConfig.KEY_VOTERS, "group1");
+
+    HashMap<String, List<User>> groupsWithUsers = new HashMap<String, List<User>>();
+    groupsWithUsers.put("group1", Arrays.asList(SOME_USER1, SOME_USER2));
+    PermissionEvaluator permissionEvaluator = new TestPermissionEvaluator.Builder(SOME_USER1).groupsWithUsers(groupsWithUsers).build();
+
+    classUnderTest = new BallotBuilder().parameters(parameters).permissionEvaluator(permissionEvaluator).choices(createChoicesWithoutVotes(2)).build();
+
+    assertThat(classUnderTest.getPendingVoterCount(), is(2));
+    assertThat(classUnderTest.getAllPendingVoters(), hasSize(2));
+
+    classUnderTest.getChoices().iterator().next().voteFor(SOME_USER1);
+
+    assertThat(classUnderTest.getPendingVoterCount(), is(1));
+    assertThat(classUnderTest.getAllPendingVoters(), containsInAnyOrder(SOME_USER2));
+  }
+
   @Test
   public void test_getEmailStringOfPendingVoters_success() {
     final HashMap<String, String> parameters = new HashMap<String, String>();
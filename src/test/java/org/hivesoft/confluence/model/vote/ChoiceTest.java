@@ -2,9 +2,13 @@ package org.hivesoft.confluence.model.vote;
 
 import com.atlassian.user.User;
 import com.atlassian.user.impl.DefaultUser;
+import org.hivesoft.confluence.storage.UserDictionary;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import static org.hamcrest.core.Is.is;
 import static org.hamcrest.core.StringContains.containsString;
 import static org.junit.Assert.*;
@@ -77,6 +81,41 @@ public class ChoiceTest {
 
     final boolean hasVotedFor = classUnderTest.getHasVotedFor(SOME_USER_ONE);
     assertThat(hasVotedFor, is(true));
+    assertThat(classUnderTest.getVoters().size(), is(1));
+  }
+
+  @Test
+  public void test_getVoters_keepsVotingOrder_success() {
+    final List<User> users = new ArrayList<User>();
+    for (int i = 0; i < 1000; i++) {
+      users.add(new DefaultUser("user" + i));
+    }
+    for (User user : users) {
+      classUnderTest.voteFor(user);
+    }
+    classUnderTest.removeVoteFor(users.get(500));
+    classUnderTest.voteFor(users.get(500));
+
+    final List<User> expectedVoters = new ArrayList<User>(users);
+    expectedVoters.add(expectedVoters.remove(500));
+    assertThat(classUnderTest.getVoters(), is(expectedVoters));
+  }
+
+  @Test
+  public void test_removeVoteFor_sharedDictionary_success() {
+    final UserDictionary userDictionary = new UserDictionary();
+    final Choice someChoice = new Choice("someChoice", userDictionary);
+    final Choice otherChoice = new Choice("otherChoice", userDictionary);
+    someChoice.voteFor(SOME_USER_ONE);
+    otherChoice.voteFor(SOME_USER_TWO);
+
+    someChoice.removeVoteFor(SOME_USER_ONE);
+
+    assertThat(someChoice.getHasVotedFor(SOME_USER_ONE), is(false));
+    assertThat(someChoice.getVoters().size(), is(0));
+    assertThat(otherChoice.getHasVotedFor(SOME_USER_ONE), is(false));
+    assertThat(otherChoice.getHasVotedFor(SOME_USER_TWO), is(true));
+    assertThat(userDictionary.size(), is(2));
   }
 
   @Test
@@ -3,6 +3,8 @@ package org.hivesoft.confluence.rest;
 import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
 import com.atlassian.sal.api.transaction.TransactionTemplate;
 import com.atlassian.sal.api.user.UserManager;
+import org.hivesoft.confluence.rest.representations.LockStatisticsRepresentation;
+import org.hivesoft.confluence.storage.TestBallotLockService;
 import org.junit.Test;
 
 import javax.ws.rs.core.Response;
@@ -16,10 +18,11 @@ public class AdminResourceTest {
   private final UserManager mockUserManager = mock(UserManager.class);
   private final PluginSettingsFactory mockPluginSettingsFactory = mock(PluginSettingsFactory.class);
   private final TransactionTemplate mockTransactionTemplate = mock(TransactionTemplate.class);
+  private final TestBallotLockService ballotLockService = new TestBallotLockService();
 
   private static final String TEST_USERNAME = "someUserName";
 
-  private final AdminResource classUnderTest = new AdminResource(mockUserManager, mockPluginSettingsFactory, mockTransactionTemplate);
+  private final AdminResource classUnderTest = new AdminResource(mockUserManager, mockPluginSettingsFactory, mockTransactionTemplate, ballotLockService);
 
   @Test
   public void test_getConfig_default_success() {
@@ -77,4 +80,26 @@ public class AdminResourceTest {
 
     assertEquals(response.getStatus(), Response.Status.UNAUTHORIZED.getStatusCode());
   }
+
+  @Test
+  public void test_getLockStatistics_default_success() {
+    when(mockUserManager.getRemoteUsername()).thenReturn(TEST_USERNAME);
+    when(mockUserManager.isSystemAdmin(TEST_USERNAME)).thenReturn(true);
+    ballotLockService.getLockWaitStatistics().record(0);
+
+    final Response response = classUnderTest.getLockStatistics();
+
+    assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+    assertEquals(1L, ((LockStatisticsRepresentation) response.getEntity()).getAcquisitions());
+  }
+
+  @Test
+  public void test_getLockStatistics_userNotAnAdmin_failure() {
+    when(mockUserManager.getRemoteUsername()).thenReturn(TEST_USERNAME);
+    when(mockUserManager.isSystemAdmin(TEST_USERNAME)).thenReturn(false);
+
+    final Response response = classUnderTest.getLockStatistics();
+
+    assertEquals(response.getStatus(), Response.Status.UNAUTHORIZED.getStatusCode());
+  }
 }
@@ -23,6 +23,7 @@ import org.hivesoft.confluence.model.vote.Comment;
 import org.hivesoft.confluence.rest.representations.CSVExportRepresentation;
 import org.hivesoft.confluence.rest.representations.LockRepresentation;
 import org.hivesoft.confluence.rest.representations.ResetRepresentation;
+import org.hivesoft.confluence.utils.PageMacroIndex;
 import org.hivesoft.confluence.utils.SurveyManager;
 import org.hivesoft.confluence.utils.SurveyUtils;
 import org.junit.Before;
@@ -40,8 +41,7 @@ import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.mockito.Matchers.*;
-import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.*;
 
 public class SurveyResourceTest extends ConfluenceTestBase {
 
@@ -64,7 +64,7 @@ public class SurveyResourceTest extends ConfluenceTestBase {
     final DefaultContentTransformerFactory contentTransformerFactory = new DefaultContentTransformerFactory(macroDefinitionUnmarshaller, macroDefinitionMarshaller, xmlEventReaderFactory, xmlOutputFactory, mockEventPublisher);
     final XhtmlContent xhtmlContent = new DefaultXhtmlContent(null, null, null, null, null, null, null, null, null, null, contentTransformerFactory, null);
 
-    classUnderTest = new SurveyResource(mockTransactionTemplate, mockPageManager, xhtmlContent, mockI18nResolver, mockSurveyManager);
+    classUnderTest = new SurveyResource(mockTransactionTemplate, mockPageManager, xhtmlContent, new PageMacroIndex(xhtmlContent), mockI18nResolver, mockSurveyManager);
   }
 
   @Test
@@ -181,6 +181,7 @@ public class SurveyResourceTest extends ConfluenceTestBase {
     assertThat(response.getStatus(), is(Response.Status.OK.getStatusCode()));
     assertThat(((LockRepresentation) response.getEntity()).isLocked(), is(false));
     assertThat(((LockRepresentation) response.getEntity()).getTitle(), is(SOME_SURVEY_TITLE));
+    verify(mockTransactionTemplate, never()).execute(any(TransactionCallback.class));
   }
 
   @Test
@@ -231,6 +232,29 @@ public class SurveyResourceTest extends ConfluenceTestBase {
     final Response response = classUnderTest.resetVotes(SOME_PAGE_ID, new ResetRepresentation(SOME_SURVEY_TITLE, true));
 
     assertThat(response.getStatus(), is(Response.Status.BAD_REQUEST.getStatusCode()));
+    verify(mockSurveyManager, never()).reconstructSurveyFromPlainTextMacroBody(anyString(), eq(somePage), any(Map.class));
+  }
+
+  @Test
+  public void test_resetVotes_onlyMatchingSurveyReconstructed_success() throws UnsupportedEncodingException, XhtmlException {
+    Page somePage = new Page();
+    somePage.setId(SOME_PAGE_ID);
+    somePage.setBodyAsString("<ac:macro ac:name=\"survey\"><ac:parameter ac:name=\"title\">notThisSurvey</ac:parameter><ac:plain-text-body><![CDATA[Some other ballot]]></ac:plain-text-body></ac:macro>" +
+            "<ac:macro ac:name=\"survey\"><ac:parameter ac:name=\"title\">" + SOME_SURVEY_TITLE + "</ac:parameter><ac:plain-text-body><![CDATA[Should this be exported?]]></ac:plain-text-body></ac:macro>");
+
+    final HashMap<String, String> parameters = new HashMap<String, String>();
+    parameters.put(SurveyConfig.KEY_TITLE, SOME_SURVEY_TITLE);
+    Survey someSurvey = new SurveyBuilder().parameters(parameters).build();
+
+    when(mockPageManager.getById(SOME_PAGE_ID)).thenReturn(somePage);
+    when(mockSurveyManager.reconstructSurveyFromPlainTextMacroBody(eq("Should this be exported?"), eq(somePage), any(Map.class))).thenReturn(someSurvey);
+    when(mockSurveyManager.canResetSurvey(someSurvey)).thenReturn(true);
+
+    final Response response = classUnderTest.resetVotes(SOME_PAGE_ID, new ResetRepresentation(SOME_SURVEY_TITLE.toUpperCase(), true));
+
+    assertThat(response.getStatus(), is(Response.Status.OK.getStatusCode()));
+    verify(mockSurveyManager, times(1)).reconstructSurveyFromPlainTextMacroBody(anyString(), eq(somePage), any(Map.class));
+    verify(mockSurveyManager).resetVotes(someSurvey, somePage);
   }
 
   @Test
@@ -17,6 +17,8 @@ import org.hivesoft.confluence.model.enums.VoteAction;
 import org.hivesoft.confluence.model.vote.Ballot;
 import org.hivesoft.confluence.model.vote.Comment;
 import org.hivesoft.confluence.rest.representations.VoteRepresentation;
+import org.hivesoft.confluence.storage.BallotConflictException;
+import org.hivesoft.confluence.utils.PageMacroIndex;
 import org.hivesoft.confluence.utils.SurveyManager;
 import org.hivesoft.confluence.utils.SurveyUtils;
 import org.junit.Before;
@@ -31,8 +33,7 @@ import static org.hamcrest.CoreMatchers.*;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.*;
-import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.*;
 
 public class VoteResourceTest extends ConfluenceTestBase {
 
@@ -53,7 +54,7 @@ public class VoteResourceTest extends ConfluenceTestBase {
     final DefaultContentTransformerFactory contentTransformerFactory = new DefaultContentTransformerFactory(macroDefinitionUnmarshaller, macroDefinitionMarshaller, xmlEventReaderFactory, xmlOutputFactory, mockEventPublisher);
     final XhtmlContent xhtmlContent = new DefaultXhtmlContent(null, null, null, null, null, null, null, null, null, null, contentTransformerFactory, null);
 
-    classUnderTest = new VoteResource(mockPageManager, xhtmlContent, mockSurveyManager);
+    classUnderTest = new VoteResource(mockPageManager, new PageMacroIndex(xhtmlContent), mockSurveyManager);
   }
 
   @Test
@@ -90,13 +91,7 @@ public class VoteResourceTest extends ConfluenceTestBase {
     somePage.setBodyAsString("<ac:macro ac:name=\"survey\"><ac:parameter ac:name=\"title\">" + SOME_SURVEY_TITLE + "</ac:parameter><ac:plain-text-body><![CDATA[Should this be exported?\n" +
             "How do you like the modern iconSet?]]></ac:plain-text-body></ac:macro>");
 
-    Survey someSurvey = new SurveyBuilder().build();
-    final Ballot someBallot = new Ballot("Should this be exported?", "", someSurvey.getConfig(), SurveyUtils.getDefaultChoices(), new ArrayList<Comment>());
-    someSurvey.addBallot(someBallot);
-    someSurvey.addBallot(new Ballot("How do you like the modern iconSet?", "", someSurvey.getConfig(), SurveyUtils.getDefaultChoices(), new ArrayList<Comment>()));
-
     when(mockPageManager.getById(SOME_PAGE_ID)).thenReturn(somePage);
-    when(mockSurveyManager.reconstructSurveyFromPlainTextMacroBody(anyString(), eq(somePage), any(Map.class))).thenReturn(someSurvey);
 
     VoteRepresentation voteRepresentation = new VoteRepresentation("This is not the ballot you are looking for!", "someChoice", VoteAction.VOTE.name());
 
@@ -104,6 +99,7 @@ public class VoteResourceTest extends ConfluenceTestBase {
 
     assertThat(response.getStatus(), is(Response.Status.BAD_REQUEST.getStatusCode()));
     assertThat(((String) response.getEntity()), containsString("problem"));
+    verifyZeroInteractions(mockSurveyManager);
   }
 
   @Test
@@ -115,19 +111,15 @@ public class VoteResourceTest extends ConfluenceTestBase {
 
     somePage.setBodyAsString("<ac:macro ac:name=\"survey\"><ac:parameter ac:name=\"title\">" + SOME_SURVEY_TITLE +
             "</ac:parameter><ac:plain-text-body><![CDATA[" + StringUtils.join(ballots, '\n') + "]]>" +
-            "</ac:plain-text-body></ac:macro><ac:macro ac:name=\"vote\"><ac:parameter ac:name=\"title\">" + SOME_BALLOT_TITLE + "</ac:parameter><ac:plain-text-body><![CDATA[Choice1\n" +
+            "</ac:plain-text-body></ac:macro><ac:macro ac:name=\"vote\"><ac:parameter ac:name=\"title\">" + ballots.get(1) + "</ac:parameter><ac:plain-text-body><![CDATA[Choice1\n" +
             "Choice2]]></ac:plain-text-body></ac:macro>");
 
     Survey someSurvey = new SurveyBuilder().build();
-
-    for (String ballotTitle : ballots) {
-      someSurvey.addBallot(new Ballot(ballotTitle, "", someSurvey.getConfig(), SurveyUtils.getDefaultChoices(), new ArrayList<Comment>()));
-    }
-
+    final Ballot someSurveyBallot = new Ballot(ballots.get(1), "", someSurvey.getConfig(), SurveyUtils.getDefaultChoices(), new ArrayList<Comment>());
     Ballot someBallot = new Ballot(ballots.get(1), "bla", someSurvey.getConfig(), SurveyUtils.getDefaultChoices(), new ArrayList<Comment>());
 
     when(mockPageManager.getById(SOME_PAGE_ID)).thenReturn(somePage);
-    when(mockSurveyManager.reconstructSurveyFromPlainTextMacroBody(anyString(), eq(somePage), any(Map.class))).thenReturn(someSurvey);
+    when(mockSurveyManager.reconstructBallotFromPlainTextSurveyMacroBody(eq(ballots.get(1)), anyString(), eq(somePage), any(Map.class))).thenReturn(someSurveyBallot);
     when(mockSurveyManager.reconstructBallotFromPlainTextMacroBody(any(Map.class), anyString(), eq(somePage))).thenReturn(someBallot);
 
     VoteRepresentation voteRepresentation = new VoteRepresentation("How do you like the modern iconSet?", "someChoice", VoteAction.VOTE.name());
@@ -146,11 +138,9 @@ public class VoteResourceTest extends ConfluenceTestBase {
             "How do you like the modern iconSet?]]></ac:plain-text-body></ac:macro>");
     Survey someSurvey = new SurveyBuilder().build();
     final Ballot someBallot = new Ballot("Should this be exported?", "", someSurvey.getConfig(), SurveyUtils.getDefaultChoices(), new ArrayList<Comment>());
-    someSurvey.addBallot(someBallot);
-    someSurvey.addBallot(new Ballot("How do you like the modern iconSet?", "", someSurvey.getConfig(), SurveyUtils.getDefaultChoices(), new ArrayList<Comment>()));
 
     when(mockPageManager.getById(SOME_PAGE_ID)).thenReturn(somePage);
-    when(mockSurveyManager.reconstructSurveyFromPlainTextMacroBody(anyString(), eq(somePage), any(Map.class))).thenReturn(someSurvey);
+    when(mockSurveyManager.reconstructBallotFromPlainTextSurveyMacroBody(eq("Should this be exported?"), anyString(), eq(somePage), any(Map.class))).thenReturn(someBallot);
     final String choiceName = SurveyUtils.getDefaultChoices().get(0).getDescription();
     when(mockSurveyManager.recordVote(someBallot, somePage, choiceName, VoteAction.VOTE)).thenReturn(VoteAction.CHANGEVOTE);
 
@@ -160,6 +150,28 @@ public class VoteResourceTest extends ConfluenceTestBase {
 
     assertThat(response.getStatus(), is(Response.Status.OK.getStatusCode()));
     assertThat(((VoteRepresentation) response.getEntity()).getVoteAction(), is(VoteAction.CHANGEVOTE.name()));
+    verify(mockSurveyManager, never()).reconstructSurveyFromPlainTextMacroBody(anyString(), eq(somePage), any(Map.class));
+  }
+
+  @Test
+  public void test_castVote_otherBallotsOfPageNotReconstructed_success() throws UnsupportedEncodingException {
+    Page somePage = new Page();
+    somePage.setId(SOME_PAGE_ID);
+    somePage.setBodyAsString("<ac:macro ac:name=\"survey\"><ac:parameter ac:name=\"title\">" + SOME_SURVEY_TITLE + "</ac:parameter><ac:plain-text-body><![CDATA[Should this be exported?\n" +
+            "How do you like the modern iconSet?]]></ac:plain-text-body></ac:macro><ac:macro ac:name=\"vote\"><ac:parameter ac:name=\"title\">" + SOME_BALLOT_TITLE + "</ac:parameter><ac:plain-text-body><![CDATA[Choice1\n" +
+            "Choice2]]></ac:plain-text-body></ac:macro>");
+
+    Ballot someBallot = new BallotBuilder().title(SOME_BALLOT_TITLE).build();
+
+    when(mockPageManager.getById(SOME_PAGE_ID)).thenReturn(somePage);
+    when(mockSurveyManager.reconstructBallotFromPlainTextMacroBody(any(Map.class), anyString(), eq(somePage))).thenReturn(someBallot);
+    when(mockSurveyManager.recordVote(someBallot, somePage, "Choice2", VoteAction.VOTE)).thenReturn(VoteAction.VOTE);
+
+    final Response response = classUnderTest.castVote(SOME_PAGE_ID, new VoteRepresentation(SOME_BALLOT_TITLE, "Choice2", VoteAction.VOTE.name()));
+
+    assertThat(response.getStatus(), is(Response.Status.OK.getStatusCode()));
+    verify(mockSurveyManager, never()).reconstructBallotFromPlainTextSurveyMacroBody(anyString(), anyString(), eq(somePage), any(Map.class));
+    verify(mockSurveyManager, never()).reconstructSurveyFromPlainTextMacroBody(anyString(), eq(somePage), any(Map.class));
   }
 
   @Test
@@ -182,4 +194,22 @@ public class VoteResourceTest extends ConfluenceTestBase {
     assertThat(response.getStatus(), is(Response.Status.OK.getStatusCode()));
     assertThat(((VoteRepresentation) response.getEntity()).getVoteAction(), is(VoteAction.VOTE.name()));
   }
+
+  @Test
+  public void test_castVote_ballotConflict_success() throws UnsupportedEncodingException {
+    Page somePage = new Page();
+    somePage.setId(SOME_PAGE_ID);
+    somePage.setBodyAsString("<ac:macro ac:name=\"vote\"><ac:parameter ac:name=\"title\">" + SOME_BALLOT_TITLE + "</ac:parameter><ac:plain-text-body><![CDATA[Choice1\n" +
+            "Choice2]]></ac:plain-text-body></ac:macro>");
+
+    Ballot someBallot = new BallotBuilder().title(SOME_BALLOT_TITLE).build();
+
+    when(mockPageManager.getById(SOME_PAGE_ID)).thenReturn(somePage);
+    when(mockSurveyManager.reconstructBallotFromPlainTextMacroBody(any(Map.class), anyString(), eq(somePage))).thenReturn(someBallot);
+    when(mockSurveyManager.recordVote(someBallot, somePage, "Choice2", VoteAction.VOTE)).thenThrow(new BallotConflictException("someMessage"));
+
+    final Response response = classUnderTest.castVote(SOME_PAGE_ID, new VoteRepresentation(SOME_BALLOT_TITLE, "Choice2", VoteAction.VOTE.name()));
+
+    assertThat(response.getStatus(), is(Response.Status.CONFLICT.getStatusCode()));
+  }
 }
@@ -4,6 +4,8 @@ import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
 import org.hivesoft.confluence.rest.AdminResource;
 import org.hivesoft.confluence.rest.callbacks.delegation.SurveyPluginSettings;
 import org.hivesoft.confluence.rest.representations.SurveyConfigRepresentation;
+import org.hivesoft.confluence.storage.ConfigurableVoteStore;
+import org.hivesoft.confluence.storage.WriteBehindVoteQueue;
 import org.junit.Test;
 
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -25,6 +27,11 @@ public class TransactionCallbackGetConfigTest {
 
     SurveyConfigRepresentation expectedSurveyConfigRepresentation = new SurveyConfigRepresentation();
     expectedSurveyConfigRepresentation.setIconSet(AdminResource.SURVEY_PLUGIN_ICON_SET_DEFAULT);
+    expectedSurveyConfigRepresentation.setVoteStore(AdminResource.SURVEY_PLUGIN_VOTE_STORE_DEFAULT);
+    expectedSurveyConfigRepresentation.setWriteBehind(false);
+    expectedSurveyConfigRepresentation.setWriteBehindFlushInterval(WriteBehindVoteQueue.FLUSH_INTERVAL_DEFAULT);
+    expectedSurveyConfigRepresentation.setWriteBehindCapacity(WriteBehindVoteQueue.CAPACITY_DEFAULT);
+    expectedSurveyConfigRepresentation.setWriteBehindDurability(WriteBehindVoteQueue.DURABILITY_DEFAULT);
 
     final SurveyConfigRepresentation surveyConfigRepresentation = classUnderTest.doInTransaction();
 
@@ -36,6 +43,11 @@ public class TransactionCallbackGetConfigTest {
   public void test_doInTransaction_existentPluginSettings_success() {
     final SurveyPluginSettings surveyPluginSettings = new SurveyPluginSettings();
     surveyPluginSettings.put(AdminResource.SURVEY_PLUGIN_KEY_ICON_SET, "someIconSet");
+    surveyPluginSettings.put(AdminResource.SURVEY_PLUGIN_KEY_VOTE_STORE, ConfigurableVoteStore.BACKEND_ACTIVE_OBJECTS);
+    surveyPluginSettings.put(AdminResource.SURVEY_PLUGIN_KEY_WRITE_BEHIND, "true");
+    surveyPluginSettings.put(AdminResource.SURVEY_PLUGIN_KEY_WRITE_BEHIND_FLUSH_INTERVAL, "500");
+    surveyPluginSettings.put(AdminResource.SURVEY_PLUGIN_KEY_WRITE_BEHIND_CAPACITY, "5000");
+    surveyPluginSettings.put(AdminResource.SURVEY_PLUGIN_KEY_WRITE_BEHIND_DURABILITY, WriteBehindVoteQueue.DURABILITY_FLUSH_BEFORE_ACKNOWLEDGE);
     when(mockPluginsSettingsFactory.createGlobalSettings()).thenReturn(surveyPluginSettings);
 
     classUnderTest = new TransactionCallbackGetConfig(mockPluginsSettingsFactory);
@@ -44,6 +56,11 @@ public class TransactionCallbackGetConfigTest {
 
     SurveyConfigRepresentation expectedSurveyConfigRepresentation = new SurveyConfigRepresentation();
     expectedSurveyConfigRepresentation.setIconSet("someIconSet");
+    expectedSurveyConfigRepresentation.setVoteStore(ConfigurableVoteStore.BACKEND_ACTIVE_OBJECTS);
+    expectedSurveyConfigRepresentation.setWriteBehind(true);
+    expectedSurveyConfigRepresentation.setWriteBehindFlushInterval(500L);
+    expectedSurveyConfigRepresentation.setWriteBehindCapacity(5000);
+    expectedSurveyConfigRepresentation.setWriteBehindDurability(WriteBehindVoteQueue.DURABILITY_FLUSH_BEFORE_ACKNOWLEDGE);
 
     assertThat(expectedSurveyConfigRepresentation, is(surveyConfigRepresentation));
   }
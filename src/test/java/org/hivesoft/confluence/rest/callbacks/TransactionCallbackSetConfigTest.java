@@ -4,10 +4,13 @@ import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
 import org.hivesoft.confluence.rest.AdminResource;
 import org.hivesoft.confluence.rest.callbacks.delegation.SurveyPluginSettings;
 import org.hivesoft.confluence.rest.representations.SurveyConfigRepresentation;
+import org.hivesoft.confluence.storage.ConfigurableVoteStore;
+import org.hivesoft.confluence.storage.WriteBehindVoteQueue;
 import org.junit.Test;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -56,4 +59,90 @@ public class TransactionCallbackSetConfigTest {
 
     assertThat(surveyConfigRepresentation, is(resultSurveyConfigRepresentation));
   }
+
+  @Test
+  public void test_doInTransaction_voteStore_success() {
+    final SurveyPluginSettings surveyPluginSettings = new SurveyPluginSettings();
+    when(mockPluginsSettingsFactory.createGlobalSettings()).thenReturn(surveyPluginSettings);
+
+    SurveyConfigRepresentation surveyConfigRepresentation = new SurveyConfigRepresentation();
+    surveyConfigRepresentation.setVoteStore(ConfigurableVoteStore.BACKEND_ACTIVE_OBJECTS);
+
+    classUnderTest = new TransactionCallbackSetConfig(mockPluginsSettingsFactory, surveyConfigRepresentation);
+
+    final SurveyConfigRepresentation resultSurveyConfigRepresentation = classUnderTest.doInTransaction();
+
+    assertThat(resultSurveyConfigRepresentation.getVoteStore(), is(ConfigurableVoteStore.BACKEND_ACTIVE_OBJECTS));
+    assertThat((String) surveyPluginSettings.get(AdminResource.SURVEY_PLUGIN_KEY_VOTE_STORE), is(ConfigurableVoteStore.BACKEND_ACTIVE_OBJECTS));
+    assertThat((String) surveyPluginSettings.get(AdminResource.SURVEY_PLUGIN_KEY_VOTE_STORE_ORIGIN), is(ConfigurableVoteStore.BACKEND_CONTENT_PROPERTIES));
+  }
+
+  @Test
+  public void test_doInTransaction_voteStoreSwitchedAgain_originKept_success() {
+    final SurveyPluginSettings surveyPluginSettings = new SurveyPluginSettings();
+    surveyPluginSettings.put(AdminResource.SURVEY_PLUGIN_KEY_VOTE_STORE, ConfigurableVoteStore.BACKEND_ACTIVE_OBJECTS);
+    surveyPluginSettings.put(AdminResource.SURVEY_PLUGIN_KEY_VOTE_STORE_ORIGIN, ConfigurableVoteStore.BACKEND_CONTENT_PROPERTIES);
+    when(mockPluginsSettingsFactory.createGlobalSettings()).thenReturn(surveyPluginSettings);
+
+    SurveyConfigRepresentation surveyConfigRepresentation = new SurveyConfigRepresentation();
+    surveyConfigRepresentation.setVoteStore(ConfigurableVoteStore.BACKEND_EVENT_LOG);
+
+    classUnderTest = new TransactionCallbackSetConfig(mockPluginsSettingsFactory, surveyConfigRepresentation);
+    classUnderTest.doInTransaction();
+
+    assertThat((String) surveyPluginSettings.get(AdminResource.SURVEY_PLUGIN_KEY_VOTE_STORE), is(ConfigurableVoteStore.BACKEND_EVENT_LOG));
+    assertThat((String) surveyPluginSettings.get(AdminResource.SURVEY_PLUGIN_KEY_VOTE_STORE_ORIGIN), is(ConfigurableVoteStore.BACKEND_CONTENT_PROPERTIES));
+  }
+
+  @Test
+  public void test_doInTransaction_noVoteStoreKeepsCurrent_success() {
+    final SurveyPluginSettings surveyPluginSettings = new SurveyPluginSettings();
+    surveyPluginSettings.put(AdminResource.SURVEY_PLUGIN_KEY_VOTE_STORE, ConfigurableVoteStore.BACKEND_ACTIVE_OBJECTS);
+    when(mockPluginsSettingsFactory.createGlobalSettings()).thenReturn(surveyPluginSettings);
+
+    classUnderTest = new TransactionCallbackSetConfig(mockPluginsSettingsFactory, new SurveyConfigRepresentation());
+
+    final SurveyConfigRepresentation resultSurveyConfigRepresentation = classUnderTest.doInTransaction();
+
+    assertThat(resultSurveyConfigRepresentation.getVoteStore(), is(ConfigurableVoteStore.BACKEND_ACTIVE_OBJECTS));
+    assertThat((String) surveyPluginSettings.get(AdminResource.SURVEY_PLUGIN_KEY_VOTE_STORE), is(ConfigurableVoteStore.BACKEND_ACTIVE_OBJECTS));
+    assertThat(surveyPluginSettings.get(AdminResource.SURVEY_PLUGIN_KEY_VOTE_STORE_ORIGIN), is(nullValue()));
+  }
+
+  @Test
+  public void test_doInTransaction_writeBehind_success() {
+    final SurveyPluginSettings surveyPluginSettings = new SurveyPluginSettings();
+    surveyPluginSettings.put(AdminResource.SURVEY_PLUGIN_KEY_WRITE_BEHIND_CAPACITY, "5000");
+    when(mockPluginsSettingsFactory.createGlobalSettings()).thenReturn(surveyPluginSettings);
+
+    SurveyConfigRepresentation surveyConfigRepresentation = new SurveyConfigRepresentation();
+    surveyConfigRepresentation.setWriteBehind(true);
+    surveyConfigRepresentation.setWriteBehindFlushInterval(500L);
+    surveyConfigRepresentation.setWriteBehindDurability(WriteBehindVoteQueue.DURABILITY_FLUSH_BEFORE_ACKNOWLEDGE);
+
+    classUnderTest = new TransactionCallbackSetConfig(mockPluginsSettingsFactory, surveyConfigRepresentation);
+
+    final SurveyConfigRepresentation resultSurveyConfigRepresentation = classUnderTest.doInTransaction();
+
+    assertThat(resultSurveyConfigRepresentation.getWriteBehindCapacity(), is(5000));
+    assertThat((String) surveyPluginSettings.get(AdminResource.SURVEY_PLUGIN_KEY_WRITE_BEHIND), is("true"));
+    assertThat((String) surveyPluginSettings.get(AdminResource.SURVEY_PLUGIN_KEY_WRITE_BEHIND_FLUSH_INTERVAL), is("500"));
+    assertThat((String) surveyPluginSettings.get(AdminResource.SURVEY_PLUGIN_KEY_WRITE_BEHIND_DURABILITY), is(WriteBehindVoteQueue.DURABILITY_FLUSH_BEFORE_ACKNOWLEDGE));
+  }
+
+  @Test
+  public void test_doInTransaction_unknownDurabilityKeepsCurrent_success() {
+    final SurveyPluginSettings surveyPluginSettings = new SurveyPluginSettings();
+    when(mockPluginsSettingsFactory.createGlobalSettings()).thenReturn(surveyPluginSettings);
+
+    SurveyConfigRepresentation surveyConfigRepresentation = new SurveyConfigRepresentation();
+    surveyConfigRepresentation.setWriteBehindDurability("someDurability");
+
+    classUnderTest = new TransactionCallbackSetConfig(mockPluginsSettingsFactory, surveyConfigRepresentation);
+
+    final SurveyConfigRepresentation resultSurveyConfigRepresentation = classUnderTest.doInTransaction();
+
+    assertThat(resultSurveyConfigRepresentation.getWriteBehindDurability(), is(WriteBehindVoteQueue.DURABILITY_DEFAULT));
+    assertThat(surveyPluginSettings.get(AdminResource.SURVEY_PLUGIN_KEY_WRITE_BEHIND_DURABILITY), is(nullValue()));
+  }
 }
@@ -0,0 +1,26 @@
+package org.hivesoft.confluence.rest.representations;
+
+import org.hivesoft.confluence.storage.LockWaitStatistics;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class LockStatisticsRepresentationTest {
+
+  @Test
+  public void test_getters_success() {
+    final LockWaitStatistics lockWaitStatistics = new LockWaitStatistics();
+    lockWaitStatistics.record(TimeUnit.MILLISECONDS.toNanos(2));
+    lockWaitStatistics.record(TimeUnit.MILLISECONDS.toNanos(6));
+
+    LockStatisticsRepresentation classUnderTest = new LockStatisticsRepresentation(lockWaitStatistics);
+
+    assertThat(classUnderTest.getAcquisitions(), is(2L));
+    assertThat(classUnderTest.getTotalWaitMillis(), is(8L));
+    assertThat(classUnderTest.getMaxWaitMillis(), is(6L));
+    assertThat(classUnderTest.getAverageWaitMillis(), is(4d));
+  }
+}
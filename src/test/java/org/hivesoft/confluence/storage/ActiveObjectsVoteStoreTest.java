@@ -0,0 +1,104 @@
+package org.hivesoft.confluence.storage;
+
+import com.atlassian.activeobjects.external.ActiveObjects;
+import com.atlassian.confluence.pages.Page;
+import com.atlassian.sal.api.transaction.TransactionCallback;
+import net.java.ao.DBParam;
+import net.java.ao.Query;
+import org.hivesoft.confluence.storage.ao.CommentEntity;
+import org.hivesoft.confluence.storage.ao.VoteEntity;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.Collections;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.*;
+
+public class ActiveObjectsVoteStoreTest {
+  private static final String SOME_BALLOT_TITLE = "someBallot";
+
+  private final ActiveObjects mockActiveObjects = mock(ActiveObjects.class);
+  private final TestBallotLockService ballotLockService = new TestBallotLockService();
+
+  private ActiveObjectsVoteStore classUnderTest;
+
+  @Before
+  public void setup() {
+    when(mockActiveObjects.executeInTransaction(any(TransactionCallback.class))).thenAnswer(new Answer<Object>() {
+      @Override
+      public Object answer(InvocationOnMock invocation) throws Throwable {
+        return ((TransactionCallback) invocation.getArguments()[0]).doInTransaction();
+      }
+    });
+
+    classUnderTest = new ActiveObjectsVoteStore(mockActiveObjects, ballotLockService);
+  }
+
+  @Test
+  public void test_load_success() {
+    final VoteEntity someVote = mock(VoteEntity.class);
+    when(someVote.getChoiceName()).thenReturn("someChoice");
+    when(someVote.getUserName()).thenReturn("someUser");
+    final CommentEntity someComment = mock(CommentEntity.class);
+    when(someComment.getUserName()).thenReturn("someUser");
+    when(someComment.getComment()).thenReturn("someComment");
+    when(mockActiveObjects.find(eq(VoteEntity.class), any(Query.class))).thenReturn(new VoteEntity[]{someVote});
+    when(mockActiveObjects.find(eq(CommentEntity.class), any(Query.class))).thenReturn(new CommentEntity[]{someComment});
+
+    final StoredBallot result = classUnderTest.load(new Page(), SOME_BALLOT_TITLE, Collections.<String>emptyList());
+
+    assertThat(result.getVoters("someChoice"), contains("someUser"));
+    assertThat(result.getComments().get("someUser"), is("someComment"));
+  }
+
+  @Test
+  public void test_recordVote_freshVote_success() {
+    when(mockActiveObjects.find(eq(VoteEntity.class), any(Query.class))).thenReturn(new VoteEntity[0]);
+
+    classUnderTest.recordVote(new Page(), SOME_BALLOT_TITLE, "someChoice", "someUser");
+
+    verify(mockActiveObjects).create(eq(VoteEntity.class), (DBParam[]) anyVararg());
+    assertThat(ballotLockService.getAcquiredLocks(), contains("ballot.0." + SOME_BALLOT_TITLE));
+    assertThat(ballotLockService.getHeldLocks(), is(0));
+  }
+
+  @Test
+  public void test_recordVote_changeVote_success() {
+    final VoteEntity previousVote = mock(VoteEntity.class);
+    when(mockActiveObjects.find(eq(VoteEntity.class), any(Query.class))).thenReturn(new VoteEntity[]{previousVote});
+
+    classUnderTest.recordVote(new Page(), SOME_BALLOT_TITLE, "otherChoice", "someUser");
+
+    verify(previousVote).setChoiceName("otherChoice");
+    verify(previousVote).save();
+    verify(mockActiveObjects, never()).create(eq(VoteEntity.class), (DBParam[]) anyVararg());
+  }
+
+  @Test
+  public void test_storeComment_blankRemoves_success() {
+    final CommentEntity previousComment = mock(CommentEntity.class);
+    when(mockActiveObjects.find(eq(CommentEntity.class), any(Query.class))).thenReturn(new CommentEntity[]{previousComment});
+
+    classUnderTest.storeComment(new Page(), SOME_BALLOT_TITLE, "someUser", "");
+
+    verify(mockActiveObjects).delete(previousComment);
+  }
+
+  @Test
+  public void test_unvote_inTransactionUnderLock_success() {
+    final VoteEntity previousVote = mock(VoteEntity.class);
+    when(mockActiveObjects.find(eq(VoteEntity.class), any(Query.class))).thenReturn(new VoteEntity[]{previousVote});
+
+    classUnderTest.unvote(new Page(), SOME_BALLOT_TITLE, "someUser");
+
+    verify(mockActiveObjects).executeInTransaction(any(TransactionCallback.class));
+    verify(mockActiveObjects).delete(previousVote);
+    assertThat(ballotLockService.getAcquiredLocks(), contains("ballot.0." + SOME_BALLOT_TITLE));
+    assertThat(ballotLockService.getHeldLocks(), is(0));
+  }
+}
@@ -0,0 +1,115 @@
+package org.hivesoft.confluence.storage;
+
+import com.atlassian.confluence.pages.Page;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.Mockito.*;
+
+public class BallotChangesTest {
+  private static final String SOME_BALLOT_TITLE = "someBallot";
+
+  private final BallotChanges classUnderTest = new BallotChanges();
+
+  @Test
+  public void test_recordVote_coalescedPerUser_success() {
+    classUnderTest.recordVote("someChoice", "someUser");
+    classUnderTest.recordVote("otherChoice", "someUser");
+    classUnderTest.unvote("otherUser");
+    classUnderTest.storeComment("someUser", "someComment");
+    classUnderTest.storeComment("someUser", "otherComment");
+
+    assertThat(classUnderTest.size(), is(3));
+
+    final StoredBallot storedBallot = new StoredBallot();
+    storedBallot.addVote("someChoice", "otherUser");
+    classUnderTest.applyTo(storedBallot);
+
+    assertThat(storedBallot.getVoters("otherChoice"), contains("someUser"));
+    assertThat(storedBallot.getVoters("someChoice").isEmpty(), is(true));
+    assertThat(storedBallot.getComments().get("someUser"), is("otherComment"));
+  }
+
+  @Test
+  public void test_reset_dropsEarlierChanges_success() {
+    classUnderTest.recordVote("someChoice", "someUser");
+    classUnderTest.storeComment("someUser", "someComment");
+    classUnderTest.reset();
+    classUnderTest.recordVote("someChoice", "otherUser");
+
+    assertThat(classUnderTest.size(), is(2));
+
+    final StoredBallot storedBallot = new StoredBallot();
+    storedBallot.addVote("otherChoice", "thirdUser");
+    storedBallot.setComment("thirdUser", "thirdComment");
+    classUnderTest.applyTo(storedBallot);
+
+    assertThat(storedBallot.getVoters("someChoice"), contains("otherUser"));
+    assertThat(storedBallot.getVoters("otherChoice").isEmpty(), is(true));
+    assertThat(storedBallot.getComments().get("thirdUser"), is(nullValue()));
+  }
+
+  @Test
+  public void test_addAll_laterChangesWin_success() {
+    classUnderTest.recordVote("someChoice", "someUser");
+    classUnderTest.recordVote("someChoice", "otherUser");
+    classUnderTest.storeComment("someUser", "someComment");
+    final BallotChanges laterChanges = new BallotChanges();
+    laterChanges.unvote("otherUser");
+    laterChanges.storeComment("someUser", "otherComment");
+
+    classUnderTest.addAll(laterChanges);
+
+    final StoredBallot storedBallot = new StoredBallot();
+    classUnderTest.applyTo(storedBallot);
+    assertThat(storedBallot.getVoters("someChoice"), contains("someUser"));
+    assertThat(storedBallot.getComments().get("someUser"), is("otherComment"));
+  }
+
+  @Test
+  public void test_replacing_success() {
+    final StoredBallot sourceBallot = new StoredBallot();
+    sourceBallot.addVote("someChoice", "someUser");
+    sourceBallot.setComment("someUser", "someComment");
+    final StoredBallot targetBallot = new StoredBallot();
+    targetBallot.addVote("someChoice", "otherUser");
+    targetBallot.setComment("otherUser", "otherComment");
+
+    BallotChanges.replacing(sourceBallot).applyTo(targetBallot);
+
+    assertThat(targetBallot.getVoters("someChoice"), contains("someUser"));
+    assertThat(targetBallot.getComments().get("someUser"), is("someComment"));
+    assertThat(targetBallot.getComments().get("otherUser"), is(nullValue()));
+  }
+
+  @Test
+  public void test_writeTo_success() {
+    final VoteStore mockVoteStore = mock(VoteStore.class);
+    final Page somePage = new Page();
+    classUnderTest.reset();
+    classUnderTest.recordVote("someChoice", "someUser");
+    classUnderTest.unvote("otherUser");
+    classUnderTest.storeComment("someUser", "someComment");
+
+    classUnderTest.writeTo(mockVoteStore, somePage, SOME_BALLOT_TITLE);
+
+    final InOrder inOrder = inOrder(mockVoteStore);
+    inOrder.verify(mockVoteStore).reset(somePage, SOME_BALLOT_TITLE);
+    inOrder.verify(mockVoteStore).recordVote(somePage, SOME_BALLOT_TITLE, "someChoice", "someUser");
+    inOrder.verify(mockVoteStore).unvote(somePage, SOME_BALLOT_TITLE, "otherUser");
+    inOrder.verify(mockVoteStore).storeComment(somePage, SOME_BALLOT_TITLE, "someUser", "someComment");
+  }
+
+  @Test
+  public void test_getChoiceNames_unvotesSkipped_success() {
+    classUnderTest.recordVote("someChoice", "someUser");
+    classUnderTest.recordVote("otherChoice", "otherUser");
+    classUnderTest.unvote("thirdUser");
+
+    assertThat(classUnderTest.getChoiceNames(), contains("someChoice", "otherChoice"));
+  }
+}
@@ -0,0 +1,134 @@
+package org.hivesoft.confluence.storage;
+
+import com.atlassian.confluence.cluster.ClusterManager;
+import com.atlassian.confluence.cluster.ClusteredLock;
+import com.atlassian.confluence.pages.Page;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.mockito.Mockito.*;
+
+public class ClusterBallotLockServiceTest {
+
+  private final ClusterManager mockClusterManager = mock(ClusterManager.class);
+  private final ClusteredLock mockClusteredLock = mock(ClusteredLock.class);
+
+  private ClusterBallotLockService classUnderTest;
+
+  @Before
+  public void setup() {
+    when(mockClusterManager.getClusteredLock(anyString())).thenReturn(mockClusteredLock);
+
+    classUnderTest = new ClusterBallotLockService(mockClusterManager);
+  }
+
+  @Test
+  public void test_getBallotLock_notClustered_localLock_success() {
+    final Page somePage = new Page();
+    when(mockClusterManager.isClustered()).thenReturn(false);
+
+    final BallotLock lock = classUnderTest.getBallotLock(somePage, "someBallot");
+    lock.lock();
+    lock.unlock();
+
+    assertThat(lock, is(sameInstance(classUnderTest.getBallotLock(somePage, "someBallot"))));
+    assertThat(classUnderTest.getLockWaitStatistics().getAcquisitions(), is(1L));
+    verify(mockClusterManager, never()).getClusteredLock(anyString());
+  }
+
+  @Test
+  public void test_getBallotLock_clustered_clusteredLock_success() {
+    final Page somePage = new Page();
+    when(mockClusterManager.isClustered()).thenReturn(true);
+
+    final BallotLock lock = classUnderTest.getBallotLock(somePage, "someBallot");
+    lock.lock();
+    lock.unlock();
+
+    verify(mockClusterManager).getClusteredLock(ClusterBallotLockService.BALLOT_LOCK_PREFIX + StripedBallotLockService.getBallotStripe(somePage, "someBallot"));
+    verify(mockClusteredLock).lock();
+    verify(mockClusteredLock).unlock();
+    assertThat(classUnderTest.getLockWaitStatistics().getAcquisitions(), is(1L));
+  }
+
+  @Test
+  public void test_getPageLock_clustered_clusteredLock_success() {
+    final Page somePage = new Page();
+    when(mockClusterManager.isClustered()).thenReturn(true);
+
+    final BallotLock lock = classUnderTest.getPageLock(somePage);
+
+    assertThat(lock.tryLock(), is(false));
+    verify(mockClusterManager).getClusteredLock(ClusterBallotLockService.PAGE_LOCK_PREFIX + StripedBallotLockService.getPageStripe(somePage));
+    assertThat(classUnderTest.getLockWaitStatistics().getAcquisitions(), is(0L));
+  }
+
+  @Test
+  public void test_getBallotLock_clusteredTimedTry_pollsUntilAcquired_success() throws Exception {
+    final Page somePage = new Page();
+    when(mockClusterManager.isClustered()).thenReturn(true);
+    when(mockClusteredLock.tryLock()).thenReturn(false, false, true);
+
+    final BallotLock lock = classUnderTest.getBallotLock(somePage, "someBallot");
+
+    assertThat(lock.tryLock(1, TimeUnit.SECONDS), is(true));
+    verify(mockClusteredLock, times(3)).tryLock();
+    assertThat(classUnderTest.getLockWaitStatistics().getAcquisitions(), is(1L));
+  }
+
+  @Test
+  public void test_getBallotLock_clusteredTimedTry_timeout_success() throws Exception {
+    final Page somePage = new Page();
+    when(mockClusterManager.isClustered()).thenReturn(true);
+    when(mockClusteredLock.tryLock()).thenReturn(false);
+
+    final BallotLock lock = classUnderTest.getBallotLock(somePage, "someBallot");
+
+    assertThat(lock.tryLock(3 * ClusterBallotLockService.POLL_INTERVAL, TimeUnit.MILLISECONDS), is(false));
+    assertThat(classUnderTest.getLockWaitStatistics().getAcquisitions(), is(0L));
+  }
+
+  @Test(expected = InterruptedException.class)
+  public void test_getBallotLock_clusteredTimedTry_interrupted_failure() throws Exception {
+    final Page somePage = new Page();
+    when(mockClusterManager.isClustered()).thenReturn(true);
+    when(mockClusteredLock.tryLock()).thenReturn(false);
+
+    final BallotLock lock = classUnderTest.getBallotLock(somePage, "someBallot");
+
+    Thread.currentThread().interrupt();
+    try {
+      lock.tryLock(1, TimeUnit.SECONDS);
+    } finally {
+      Thread.interrupted();
+    }
+  }
+
+  @Test
+  public void test_getBallotLock_clustered_equalByName_success() {
+    final Page somePage = new Page();
+    when(mockClusterManager.isClustered()).thenReturn(true);
+
+    final BallotLock lock = classUnderTest.getBallotLock(somePage, "someBallot");
+
+    assertThat(lock, is(equalTo(classUnderTest.getBallotLock(somePage, "someBallot"))));
+    assertThat(lock, is(not(equalTo(classUnderTest.getPageLock(somePage)))));
+  }
+
+  @Test
+  public void test_getBallotLocks_clustered_orderedByStripe_success() {
+    final Page somePage = new Page();
+    when(mockClusterManager.isClustered()).thenReturn(true);
+
+    final List<BallotLock> locks = classUnderTest.getBallotLocks(somePage, newArrayList("someBallot", "otherBallot"));
+
+    // the stripe of otherBallot is the lower one
+    assertThat(locks, contains(classUnderTest.getBallotLock(somePage, "otherBallot"), classUnderTest.getBallotLock(somePage, "someBallot")));
+  }
+}
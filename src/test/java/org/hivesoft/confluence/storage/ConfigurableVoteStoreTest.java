@@ -0,0 +1,157 @@
+package org.hivesoft.confluence.storage;
+
+import com.atlassian.activeobjects.external.ActiveObjects;
+import com.atlassian.confluence.core.ContentPropertyManager;
+import com.atlassian.confluence.pages.Page;
+import com.atlassian.confluence.pages.PageManager;
+import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import com.atlassian.sal.api.transaction.TransactionCallback;
+import com.atlassian.sal.api.transaction.TransactionTemplate;
+import org.hivesoft.confluence.rest.AdminResource;
+import org.hivesoft.confluence.rest.callbacks.delegation.SurveyPluginSettings;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class ConfigurableVoteStoreTest {
+  private final PluginSettingsFactory mockPluginSettingsFactory = mock(PluginSettingsFactory.class);
+  private final SurveyPluginSettings surveyPluginSettings = new SurveyPluginSettings();
+  private final ContentPropertyManager mockContentPropertyManager = mock(ContentPropertyManager.class);
+  private final Map<String, String> properties = new HashMap<String, String>();
+  private final TransactionTemplate mockTransactionTemplate = mock(TransactionTemplate.class);
+  private final PageManager mockPageManager = mock(PageManager.class);
+  private final WriteBehindVoteQueue writeBehindVoteQueue = new WriteBehindVoteQueue(mockPageManager, mockTransactionTemplate, mockPluginSettingsFactory);
+
+  private ConfigurableVoteStore classUnderTest;
+
+  @Before
+  public void setup() {
+    when(mockPluginSettingsFactory.createGlobalSettings()).thenReturn(surveyPluginSettings);
+    when(mockContentPropertyManager.getTextProperty(any(Page.class), anyString())).thenAnswer(new Answer<String>() {
+      @Override
+      public String answer(InvocationOnMock invocation) throws Throwable {
+        return properties.get((String) invocation.getArguments()[1]);
+      }
+    });
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        properties.put((String) invocation.getArguments()[1], (String) invocation.getArguments()[2]);
+        return null;
+      }
+    }).when(mockContentPropertyManager).setTextProperty(any(Page.class), anyString(), anyString());
+
+    when(mockTransactionTemplate.execute(any(TransactionCallback.class))).thenAnswer(new Answer<Object>() {
+      @Override
+      public Object answer(InvocationOnMock invocation) throws Throwable {
+        return ((TransactionCallback) invocation.getArguments()[0]).doInTransaction();
+      }
+    });
+
+    classUnderTest = new ConfigurableVoteStore(mockContentPropertyManager, mock(ActiveObjects.class), mockPluginSettingsFactory, mock(VoteLogCompactor.class), new StripedBallotLockService(), writeBehindVoteQueue);
+  }
+
+  @Test
+  public void test_getSelectedVoteStore_default_success() {
+    assertThat(classUnderTest.getSelectedVoteStore(), instanceOf(ContentPropertyVoteStore.class));
+  }
+
+  @Test
+  public void test_getSelectedVoteStore_activeObjects_success() {
+    surveyPluginSettings.put(AdminResource.SURVEY_PLUGIN_KEY_VOTE_STORE, ConfigurableVoteStore.BACKEND_ACTIVE_OBJECTS);
+
+    assertThat(classUnderTest.getSelectedVoteStore(), instanceOf(ActiveObjectsVoteStore.class));
+  }
+
+  @Test
+  public void test_getSelectedVoteStore_eventLog_success() {
+    surveyPluginSettings.put(AdminResource.SURVEY_PLUGIN_KEY_VOTE_STORE, ConfigurableVoteStore.BACKEND_EVENT_LOG);
+
+    assertThat(classUnderTest.getSelectedVoteStore(), instanceOf(EventLogVoteStore.class));
+  }
+
+  @Test
+  public void test_recordVote_writeBehind_queuedAndLoaded_success() {
+    surveyPluginSettings.put(AdminResource.SURVEY_PLUGIN_KEY_VOTE_STORE, ConfigurableVoteStore.BACKEND_EVENT_LOG);
+    surveyPluginSettings.put(AdminResource.SURVEY_PLUGIN_KEY_WRITE_BEHIND, "true");
+    final Page somePage = new Page();
+
+    classUnderTest.recordVote(somePage, "someBallot", "someChoice", "someUser");
+
+    assertThat(writeBehindVoteQueue.getPendingCount(), is(1));
+    assertThat(classUnderTest.load(somePage, "someBallot", Arrays.asList("someChoice")).getVoters("someChoice"), contains("someUser"));
+    verify(mockTransactionTemplate, never()).execute(any(TransactionCallback.class));
+  }
+
+  @Test
+  public void test_load_backendSwitched_readFromOriginWithoutCopy_success() {
+    final Page somePage = new Page();
+    classUnderTest.recordVote(somePage, "someBallot", "someChoice", "someUser");
+
+    surveyPluginSettings.put(AdminResource.SURVEY_PLUGIN_KEY_VOTE_STORE_ORIGIN, ConfigurableVoteStore.BACKEND_CONTENT_PROPERTIES);
+    surveyPluginSettings.put(AdminResource.SURVEY_PLUGIN_KEY_VOTE_STORE, ConfigurableVoteStore.BACKEND_EVENT_LOG);
+
+    assertThat(classUnderTest.load(somePage, "someBallot", Arrays.asList("someChoice")).getVoters("someChoice"), contains("someUser"));
+    assertThat(properties.containsKey(ConfigurableVoteStore.BALLOT_BACKEND_PREFIX + "someBallot"), is(false));
+  }
+
+  @Test
+  public void test_recordVote_backendSwitched_copiedFromOrigin_success() {
+    final Page somePage = new Page();
+    classUnderTest.recordVote(somePage, "someBallot", "someChoice", "someUser");
+    surveyPluginSettings.put(AdminResource.SURVEY_PLUGIN_KEY_VOTE_STORE_ORIGIN, ConfigurableVoteStore.BACKEND_CONTENT_PROPERTIES);
+    surveyPluginSettings.put(AdminResource.SURVEY_PLUGIN_KEY_VOTE_STORE, ConfigurableVoteStore.BACKEND_EVENT_LOG);
+
+    classUnderTest.recordVote(somePage, "someBallot", "someChoice", "otherUser");
+
+    assertThat(properties.get(ConfigurableVoteStore.BALLOT_BACKEND_PREFIX + "someBallot"), is(ConfigurableVoteStore.BACKEND_EVENT_LOG));
+    assertThat(classUnderTest.load(somePage, "someBallot", Arrays.asList("someChoice")).getVoters("someChoice"), containsInAnyOrder("someUser", "otherUser"));
+  }
+
+  @Test
+  public void test_recordVote_writeBehind_backendSelectedWhenFlushed_success() {
+    final Page somePage = new Page();
+    somePage.setId(1L);
+    when(mockPageManager.getById(1L)).thenReturn(somePage);
+    classUnderTest.recordVote(somePage, "someBallot", "someChoice", "someUser");
+    surveyPluginSettings.put(AdminResource.SURVEY_PLUGIN_KEY_WRITE_BEHIND, "true");
+    classUnderTest.recordVote(somePage, "someBallot", "someChoice", "otherUser");
+
+    surveyPluginSettings.put(AdminResource.SURVEY_PLUGIN_KEY_VOTE_STORE_ORIGIN, ConfigurableVoteStore.BACKEND_CONTENT_PROPERTIES);
+    surveyPluginSettings.put(AdminResource.SURVEY_PLUGIN_KEY_VOTE_STORE, ConfigurableVoteStore.BACKEND_EVENT_LOG);
+    writeBehindVoteQueue.flush();
+
+    assertThat(properties.get(ConfigurableVoteStore.BALLOT_BACKEND_PREFIX + "someBallot"), is(ConfigurableVoteStore.BACKEND_EVENT_LOG));
+    assertThat(classUnderTest.load(somePage, "someBallot", Arrays.asList("someChoice")).getVoters("someChoice"), containsInAnyOrder("someUser", "otherUser"));
+  }
+
+  @Test
+  public void test_recordVote_backendSwitchedTwice_noVoteLost_success() {
+    final Page somePage = new Page();
+    classUnderTest.recordVote(somePage, "someBallot", "someChoice", "someUser");
+    surveyPluginSettings.put(AdminResource.SURVEY_PLUGIN_KEY_VOTE_STORE_ORIGIN, ConfigurableVoteStore.BACKEND_CONTENT_PROPERTIES);
+    surveyPluginSettings.put(AdminResource.SURVEY_PLUGIN_KEY_VOTE_STORE, ConfigurableVoteStore.BACKEND_EVENT_LOG);
+    classUnderTest.recordVote(somePage, "someBallot", "someChoice", "otherUser");
+
+    surveyPluginSettings.put(AdminResource.SURVEY_PLUGIN_KEY_VOTE_STORE, ConfigurableVoteStore.BACKEND_CONTENT_PROPERTIES);
+    classUnderTest.unvote(somePage, "someBallot", "someUser");
+    classUnderTest.recordVote(somePage, "someBallot", "someChoice", "thirdUser");
+
+    assertThat(classUnderTest.load(somePage, "someBallot", Arrays.asList("someChoice")).getVoters("someChoice"), containsInAnyOrder("otherUser", "thirdUser"));
+    assertThat(properties.get(ConfigurableVoteStore.BALLOT_BACKEND_PREFIX + "someBallot"), is(ConfigurableVoteStore.BACKEND_CONTENT_PROPERTIES));
+  }
+}
@@ -0,0 +1,308 @@
+package org.hivesoft.confluence.storage;
+
+import com.atlassian.confluence.core.ContentPropertyManager;
+import com.atlassian.confluence.pages.Page;
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import org.hivesoft.confluence.macros.vote.VoteMacro;
+import org.hivesoft.confluence.utils.SurveyUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.*;
+
+public class ContentPropertyVoteStoreTest {
+  private static final String SOME_BALLOT_TITLE = "someBallot";
+  private static final String BALLOT_KEY = ContentPropertyVoteStore.BALLOT_STORAGE_PREFIX + SOME_BALLOT_TITLE;
+
+  private final ContentPropertyManager mockContentPropertyManager = mock(ContentPropertyManager.class);
+  private final PluginSettingsFactory mockPluginSettingsFactory = mock(PluginSettingsFactory.class);
+  private final PluginSettings mockPluginSettings = mock(PluginSettings.class);
+  private final TestBallotLockService ballotLockService = new TestBallotLockService();
+
+  private ContentPropertyVoteStore classUnderTest;
+
+  @Before
+  public void setup() {
+    when(mockPluginSettingsFactory.createGlobalSettings()).thenReturn(mockPluginSettings);
+
+    classUnderTest = new ContentPropertyVoteStore(mockContentPropertyManager, mockPluginSettingsFactory, ballotLockService);
+  }
+
+  @Test
+  public void test_load_storedBallot_success() {
+    final Page somePage = new Page();
+    final StoredBallot storedBallot = new StoredBallot();
+    storedBallot.addVote("someChoice", "someUser");
+    stubStoredBallot(somePage, storedBallot);
+
+    final StoredBallot result = classUnderTest.load(somePage, SOME_BALLOT_TITLE, Arrays.asList("someChoice"));
+
+    assertThat(result.getVoters("someChoice"), contains("someUser"));
+    verify(mockContentPropertyManager, never()).setTextProperty(any(Page.class), anyString(), anyString());
+  }
+
+  @Test
+  public void test_load_legacyVotesAndComments_readOnly_success() {
+    final Page somePage = new Page();
+    final String votesKey = VoteMacro.VOTE_STORAGE_PREFIX + SOME_BALLOT_TITLE + ".someChoice";
+    final String commentersKey = "survey." + SOME_BALLOT_TITLE + ".commenters";
+    final String commentKey = "survey." + SOME_BALLOT_TITLE + ".comment.someUser";
+    when(mockContentPropertyManager.getTextProperty(somePage, votesKey)).thenReturn("someUser,otherUser");
+    when(mockContentPropertyManager.getTextProperty(somePage, commentersKey)).thenReturn("|someUser|");
+    when(mockContentPropertyManager.getTextProperty(somePage, commentKey)).thenReturn("someComment");
+
+    final StoredBallot result = classUnderTest.load(somePage, SOME_BALLOT_TITLE, Arrays.asList("someChoice"));
+
+    assertThat(result.getVoters("someChoice"), contains("someUser", "otherUser"));
+    assertThat(result.getComments().get("someUser"), is("someComment"));
+    verify(mockContentPropertyManager, never()).setTextProperty(any(Page.class), anyString(), anyString());
+    assertThat(ballotLockService.getAcquiredLocks(), is(empty()));
+  }
+
+  @Test
+  public void test_recordVote_replacesPreviousVote_success() {
+    final Page somePage = new Page();
+    final StoredBallot storedBallot = new StoredBallot();
+    storedBallot.addVote("someChoice", "someUser");
+    final UserDictionary userDictionary = stubStoredBallot(somePage, storedBallot);
+
+    classUnderTest.recordVote(somePage, SOME_BALLOT_TITLE, "otherChoice", "someUser");
+
+    final StoredBallot expectedStoredBallot = new StoredBallot();
+    expectedStoredBallot.addVote("otherChoice", "someUser");
+    expectedStoredBallot.setRevision(1);
+    verify(mockContentPropertyManager).setTextProperty(somePage, BALLOT_KEY, expectedStoredBallot.serialize(userDictionary));
+    verify(mockContentPropertyManager, never()).setTextProperty(eq(somePage), eq(ContentPropertyVoteStore.USER_DICTIONARY_KEY), anyString());
+    assertThat(ballotLockService.getAcquiredLocks(), contains("ballot.0." + SOME_BALLOT_TITLE));
+    assertThat(ballotLockService.getHeldLocks(), is(0));
+  }
+
+  @Test
+  public void test_unvote_success() {
+    final Page somePage = new Page();
+    final StoredBallot storedBallot = new StoredBallot();
+    storedBallot.addVote("someChoice", "someUser");
+    final UserDictionary userDictionary = stubStoredBallot(somePage, storedBallot);
+
+    classUnderTest.unvote(somePage, SOME_BALLOT_TITLE, "someUser");
+
+    final StoredBallot expectedStoredBallot = new StoredBallot();
+    expectedStoredBallot.setRevision(1);
+    verify(mockContentPropertyManager).setTextProperty(somePage, BALLOT_KEY, expectedStoredBallot.serialize(userDictionary));
+  }
+
+  @Test
+  public void test_storeComment_legacyBallot_userNameWithPatternCharacters_migrated_success() {
+    final Page somePage = new Page();
+    final String commentersKey = "survey." + SOME_BALLOT_TITLE + ".commenters";
+    final String commentKey = "survey." + SOME_BALLOT_TITLE + ".comment.some.User";
+    final String otherCommentKey = "survey." + SOME_BALLOT_TITLE + ".comment.otherUser";
+    when(mockContentPropertyManager.getTextProperty(somePage, commentersKey)).thenReturn("|some.User||otherUser|");
+    when(mockContentPropertyManager.getTextProperty(somePage, commentKey)).thenReturn("someComment");
+    when(mockContentPropertyManager.getTextProperty(somePage, otherCommentKey)).thenReturn("otherComment");
+
+    classUnderTest.storeComment(somePage, SOME_BALLOT_TITLE, "some.User", "");
+
+    final StoredBallot expectedStoredBallot = new StoredBallot();
+    expectedStoredBallot.setComment("otherUser", "otherComment");
+    expectedStoredBallot.setRevision(1);
+    verify(mockContentPropertyManager).setTextProperty(somePage, BALLOT_KEY, expectedStoredBallot.serialize(new UserDictionary()));
+    verify(mockContentPropertyManager).setTextProperty(somePage, commentersKey, null);
+    verify(mockContentPropertyManager).setTextProperty(somePage, commentKey, null);
+    verify(mockContentPropertyManager).setTextProperty(somePage, otherCommentKey, null);
+  }
+
+  @Test
+  public void test_recordVote_legacyBallot_legacyVotesKept_success() {
+    final Page somePage = new Page();
+    final String someVotesKey = VoteMacro.VOTE_STORAGE_PREFIX + SOME_BALLOT_TITLE + ".someChoice";
+    final String otherVotesKey = VoteMacro.VOTE_STORAGE_PREFIX + SOME_BALLOT_TITLE + ".otherChoice";
+    when(mockContentPropertyManager.getTextProperty(somePage, someVotesKey)).thenReturn("someUser");
+    when(mockContentPropertyManager.getTextProperty(somePage, otherVotesKey)).thenReturn("otherUser");
+    // the ballot was loaded on this node before, which does not convert it
+    final StoredBallot loadedBallot = classUnderTest.load(somePage, SOME_BALLOT_TITLE, Arrays.asList("someChoice", "otherChoice"));
+    assertThat(loadedBallot.getVoters("otherChoice"), contains("otherUser"));
+
+    classUnderTest.recordVote(somePage, SOME_BALLOT_TITLE, "thirdChoice", "thirdUser");
+
+    final ArgumentCaptor<String> ballotCaptor = ArgumentCaptor.forClass(String.class);
+    verify(mockContentPropertyManager).setTextProperty(eq(somePage), eq(BALLOT_KEY), ballotCaptor.capture());
+    final StoredBallot storedBallot = StoredBallot.parse(ballotCaptor.getValue(), UserDictionary.parse(getStoredUserDictionary(somePage)));
+    assertThat(storedBallot.getVoters("someChoice"), contains("someUser"));
+    assertThat(storedBallot.getVoters("otherChoice"), contains("otherUser"));
+    assertThat(storedBallot.getVoters("thirdChoice"), contains("thirdUser"));
+    verify(mockContentPropertyManager).setTextProperty(somePage, someVotesKey, null);
+    verify(mockContentPropertyManager).setTextProperty(somePage, otherVotesKey, null);
+  }
+
+  @Test
+  public void test_recordVote_inTransaction_lockHeldUntilCompletion_success() {
+    final Page somePage = new Page();
+    stubStoredBallot(somePage, new StoredBallot());
+
+    TransactionSynchronizationManager.initSynchronization();
+    try {
+      classUnderTest.recordVote(somePage, SOME_BALLOT_TITLE, "someChoice", "someUser");
+      classUnderTest.recordVote(somePage, SOME_BALLOT_TITLE, "someChoice", "otherUser");
+
+      assertThat(ballotLockService.getHeldLocks(), is(2));
+      assertThat(ballotLockService.getAcquiredLocks(), contains("ballot.0." + SOME_BALLOT_TITLE, "page.0"));
+
+      for (Object synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+        ((TransactionSynchronization) synchronization).afterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+      }
+    } finally {
+      TransactionSynchronizationManager.clearSynchronization();
+    }
+    assertThat(ballotLockService.getHeldLocks(), is(0));
+  }
+
+  @Test
+  public void test_resetAll_inTransaction_allLocksTakenFirst_success() {
+    final Page somePage = new Page();
+
+    TransactionSynchronizationManager.initSynchronization();
+    try {
+      classUnderTest.resetAll(somePage, Arrays.asList(SOME_BALLOT_TITLE, "otherBallot"));
+
+      assertThat(ballotLockService.getAcquiredLocks(), contains("ballot.0.otherBallot", "ballot.0." + SOME_BALLOT_TITLE));
+      verify(mockContentPropertyManager).setTextProperty(eq(somePage), eq(BALLOT_KEY), anyString());
+      verify(mockContentPropertyManager).setTextProperty(eq(somePage), eq(ContentPropertyVoteStore.BALLOT_STORAGE_PREFIX + "otherBallot"), anyString());
+      try {
+        classUnderTest.recordVote(somePage, "thirdBallot", "someChoice", "someUser");
+        fail();
+      } catch (IllegalStateException e) {
+        // the lock of another ballot can not be taken later in the same transaction
+      }
+
+      for (Object synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+        ((TransactionSynchronization) synchronization).afterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+      }
+    } finally {
+      TransactionSynchronizationManager.clearSynchronization();
+    }
+    assertThat(ballotLockService.getHeldLocks(), is(0));
+  }
+
+  @Test
+  public void test_migrateOldDefaultVotesIfPresent_success() {
+    Page contentObject = new Page();
+
+    String oldChoiceName = SurveyUtils.DEFAULT_OLD_CHOICE_NAMES.get(0);
+    String newChoiceName = SurveyUtils.DEFAULT_CHOICE_NAMES.get(0);
+
+    String oldKey = VoteMacro.VOTE_STORAGE_PREFIX + SOME_BALLOT_TITLE + "." + oldChoiceName;
+    String newKey = VoteMacro.VOTE_STORAGE_PREFIX + SOME_BALLOT_TITLE + "." + newChoiceName;
+
+    when(mockContentPropertyManager.getTextProperty(contentObject, oldKey)).thenReturn("user1,user2");
+
+    classUnderTest.migrateOldDefaultVotesIfPresent(contentObject, SOME_BALLOT_TITLE, newChoiceName);
+
+    verify(mockContentPropertyManager).setTextProperty(contentObject, newKey, "user1,user2");
+    verify(mockContentPropertyManager).setTextProperty(contentObject, oldKey, null);
+  }
+
+  @Test
+  public void test_load_pageMigrated_noOldDefaultReads_success() {
+    final Page somePage = new Page();
+    final String oldKey = VoteMacro.VOTE_STORAGE_PREFIX + SOME_BALLOT_TITLE + "." + SurveyUtils.DEFAULT_OLD_CHOICE_NAMES.get(0);
+    when(mockContentPropertyManager.getTextProperty(somePage, ContentPropertyVoteStore.MIGRATION_VERSION_KEY)).thenReturn(ContentPropertyVoteStore.MIGRATION_VERSION);
+
+    classUnderTest.load(somePage, SOME_BALLOT_TITLE, SurveyUtils.DEFAULT_CHOICE_NAMES);
+
+    verify(mockContentPropertyManager, never()).getTextProperty(somePage, oldKey);
+  }
+
+  @Test
+  public void test_load_allPagesMigrated_noOldDefaultReads_success() {
+    final Page somePage = new Page();
+    final String oldKey = VoteMacro.VOTE_STORAGE_PREFIX + SOME_BALLOT_TITLE + "." + SurveyUtils.DEFAULT_OLD_CHOICE_NAMES.get(0);
+    when(mockPluginSettings.get(ContentPropertyVoteStore.MIGRATION_VERSION_SETTING_KEY)).thenReturn(ContentPropertyVoteStore.MIGRATION_VERSION);
+
+    classUnderTest.load(somePage, SOME_BALLOT_TITLE, SurveyUtils.DEFAULT_CHOICE_NAMES);
+
+    verify(mockContentPropertyManager, never()).getTextProperty(somePage, oldKey);
+    verify(mockContentPropertyManager, never()).getTextProperty(somePage, ContentPropertyVoteStore.MIGRATION_VERSION_KEY);
+  }
+
+  @Test
+  public void test_load_pageNotMigrated_oldDefaultVotesMigrated_success() {
+    final Page somePage = new Page();
+    final String oldKey = VoteMacro.VOTE_STORAGE_PREFIX + SOME_BALLOT_TITLE + "." + SurveyUtils.DEFAULT_OLD_CHOICE_NAMES.get(0);
+    when(mockContentPropertyManager.getTextProperty(somePage, oldKey)).thenReturn("someUser");
+
+    final StoredBallot result = classUnderTest.load(somePage, SOME_BALLOT_TITLE, SurveyUtils.DEFAULT_CHOICE_NAMES);
+
+    assertThat(result.getVoters(SurveyUtils.DEFAULT_CHOICE_NAMES.get(0)), contains("someUser"));
+    verify(mockContentPropertyManager).setTextProperty(somePage, oldKey, null);
+  }
+
+  @Test
+  public void test_markMigrated_success() {
+    final Page somePage = new Page();
+
+    classUnderTest.markMigrated(somePage);
+
+    verify(mockContentPropertyManager).setTextProperty(somePage, ContentPropertyVoteStore.MIGRATION_VERSION_KEY, ContentPropertyVoteStore.MIGRATION_VERSION);
+  }
+
+  @Test
+  public void test_recordVote_voterOrderSurvivesReload_success() {
+    final Page somePage = new Page();
+    final Map<String, String> properties = new HashMap<String, String>();
+    when(mockContentPropertyManager.getTextProperty(any(Page.class), anyString())).thenAnswer(new Answer<String>() {
+      @Override
+      public String answer(InvocationOnMock invocation) throws Throwable {
+        return properties.get((String) invocation.getArguments()[1]);
+      }
+    });
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        properties.put((String) invocation.getArguments()[1], (String) invocation.getArguments()[2]);
+        return null;
+      }
+    }).when(mockContentPropertyManager).setTextProperty(any(Page.class), anyString(), anyString());
+    // the users got their ids in another order on another ballot of the page
+    final UserDictionary userDictionary = new UserDictionary();
+    for (String user : Arrays.asList("userA", "userB", "userC", "userD")) {
+      userDictionary.getOrAddId(user);
+    }
+    properties.put(ContentPropertyVoteStore.USER_DICTIONARY_KEY, userDictionary.serialize());
+
+    for (String user : Arrays.asList("userC", "userA", "userD", "userB")) {
+      classUnderTest.recordVote(somePage, SOME_BALLOT_TITLE, "someChoice", user);
+    }
+
+    final ContentPropertyVoteStore reloadingVoteStore = new ContentPropertyVoteStore(mockContentPropertyManager, mockPluginSettingsFactory, ballotLockService);
+    assertThat(reloadingVoteStore.load(new Page(), SOME_BALLOT_TITLE, Arrays.asList("someChoice")).getVoters("someChoice"), contains("userC", "userA", "userD", "userB"));
+  }
+
+  private UserDictionary stubStoredBallot(Page page, StoredBallot storedBallot) {
+    final UserDictionary userDictionary = new UserDictionary();
+    when(mockContentPropertyManager.getTextProperty(page, BALLOT_KEY)).thenReturn(storedBallot.serialize(userDictionary));
+    when(mockContentPropertyManager.getTextProperty(page, ContentPropertyVoteStore.USER_DICTIONARY_KEY)).thenReturn(userDictionary.serialize());
+    return userDictionary;
+  }
+
+  private String getStoredUserDictionary(Page page) {
+    final ArgumentCaptor<String> userDictionaryCaptor = ArgumentCaptor.forClass(String.class);
+    verify(mockContentPropertyManager).setTextProperty(eq(page), eq(ContentPropertyVoteStore.USER_DICTIONARY_KEY), userDictionaryCaptor.capture());
+    return userDictionaryCaptor.getValue();
+  }
+}
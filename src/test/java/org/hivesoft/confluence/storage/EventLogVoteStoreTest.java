@@ -0,0 +1,142 @@
+package org.hivesoft.confluence.storage;
+
+import com.atlassian.confluence.core.ContentPropertyManager;
+import com.atlassian.confluence.pages.Page;
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class EventLogVoteStoreTest {
+  private static final String SOME_BALLOT_TITLE = "someBallot";
+  private static final String LOG_PREFIX = EventLogVoteStore.EVENT_LOG_STORAGE_PREFIX + SOME_BALLOT_TITLE;
+
+  private final ContentPropertyManager mockContentPropertyManager = mock(ContentPropertyManager.class);
+  private final PluginSettingsFactory mockPluginSettingsFactory = mock(PluginSettingsFactory.class);
+  private final VoteLogCompactor mockVoteLogCompactor = mock(VoteLogCompactor.class);
+  private final Map<String, String> properties = new HashMap<String, String>();
+  private final Page somePage = new Page();
+  private final TestBallotLockService ballotLockService = new TestBallotLockService();
+
+  private EventLogVoteStore classUnderTest;
+
+  @Before
+  public void setup() {
+    when(mockContentPropertyManager.getTextProperty(any(Page.class), anyString())).thenAnswer(new Answer<String>() {
+      @Override
+      public String answer(InvocationOnMock invocation) throws Throwable {
+        return properties.get((String) invocation.getArguments()[1]);
+      }
+    });
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        properties.put((String) invocation.getArguments()[1], (String) invocation.getArguments()[2]);
+        return null;
+      }
+    }).when(mockContentPropertyManager).setTextProperty(any(Page.class), anyString(), anyString());
+
+    when(mockPluginSettingsFactory.createGlobalSettings()).thenReturn(mock(PluginSettings.class));
+
+    classUnderTest = new EventLogVoteStore(mockContentPropertyManager, mockPluginSettingsFactory, mockVoteLogCompactor, ballotLockService);
+  }
+
+  @Test
+  public void test_recordVote_appendsEvent_success() {
+    classUnderTest.recordVote(somePage, SOME_BALLOT_TITLE, "someChoice", "someUser");
+    classUnderTest.recordVote(somePage, SOME_BALLOT_TITLE, "otherChoice", "otherUser");
+
+    assertThat(properties.get(LOG_PREFIX + ".head"), is("2"));
+    assertThat(VoteEvent.parse(properties.get(LOG_PREFIX + ".2")).getUserName(), is("otherUser"));
+    assertThat(properties.get(ContentPropertyVoteStore.BALLOT_STORAGE_PREFIX + SOME_BALLOT_TITLE), is(nullValue()));
+    verify(mockVoteLogCompactor, times(2)).markForCompaction(classUnderTest, somePage, SOME_BALLOT_TITLE);
+    assertThat(ballotLockService.getAcquiredLocks(), contains("ballot.0." + SOME_BALLOT_TITLE, "ballot.0." + SOME_BALLOT_TITLE));
+    assertThat(ballotLockService.getHeldLocks(), is(0));
+  }
+
+  @Test
+  public void test_load_snapshotPlusTail_success() {
+    classUnderTest.recordVote(somePage, SOME_BALLOT_TITLE, "someChoice", "someUser");
+    classUnderTest.storeComment(somePage, SOME_BALLOT_TITLE, "someUser", "someComment");
+    classUnderTest.recordVote(somePage, SOME_BALLOT_TITLE, "otherChoice", "someUser");
+
+    final StoredBallot result = classUnderTest.load(somePage, SOME_BALLOT_TITLE, Arrays.asList("someChoice", "otherChoice"));
+
+    assertThat(result.getVoters("otherChoice"), contains("someUser"));
+    assertThat(result.getVoters("someChoice").isEmpty(), is(true));
+    assertThat(result.getComments().get("someUser"), is("someComment"));
+  }
+
+  @Test
+  public void test_compact_foldsEventsIntoSnapshot_success() {
+    classUnderTest.recordVote(somePage, SOME_BALLOT_TITLE, "someChoice", "someUser");
+    classUnderTest.recordVote(somePage, SOME_BALLOT_TITLE, "someChoice", "otherUser");
+    classUnderTest.unvote(somePage, SOME_BALLOT_TITLE, "otherUser");
+
+    classUnderTest.compact(somePage, SOME_BALLOT_TITLE);
+
+    final StoredBallot snapshot = StoredBallot.parse(properties.get(ContentPropertyVoteStore.BALLOT_STORAGE_PREFIX + SOME_BALLOT_TITLE),
+            UserDictionary.parse(properties.get(ContentPropertyVoteStore.USER_DICTIONARY_KEY)));
+    assertThat(snapshot.getVoters("someChoice"), contains("someUser"));
+    assertThat(properties.get(LOG_PREFIX + ".compacted"), is("3"));
+    assertThat(properties.get(LOG_PREFIX + ".1"), is(nullValue()));
+    assertThat(properties.get(LOG_PREFIX + ".3"), is(nullValue()));
+    final String ballotLock = "ballot.0." + SOME_BALLOT_TITLE;
+    assertThat(ballotLockService.getAcquiredLocks(), contains(ballotLock, ballotLock, ballotLock, ballotLock, "page.0"));
+    assertThat(ballotLockService.getHeldLocks(), is(0));
+    assertThat(classUnderTest.load(somePage, SOME_BALLOT_TITLE, Arrays.asList("someChoice")).getVoters("someChoice"), contains("someUser"));
+  }
+
+  @Test
+  public void test_reset_dropsSnapshotAndEvents_success() {
+    classUnderTest.recordVote(somePage, SOME_BALLOT_TITLE, "someChoice", "someUser");
+    classUnderTest.compact(somePage, SOME_BALLOT_TITLE);
+    classUnderTest.recordVote(somePage, SOME_BALLOT_TITLE, "someChoice", "otherUser");
+
+    classUnderTest.reset(somePage, SOME_BALLOT_TITLE);
+
+    assertThat(classUnderTest.load(somePage, SOME_BALLOT_TITLE, Arrays.asList("someChoice")).isEmpty(), is(true));
+    assertThat(properties.get(LOG_PREFIX + ".2"), is(nullValue()));
+  }
+
+  @Test
+  public void test_recordVote_longTailCompacted_success() {
+    for (int i = 0; i < EventLogVoteStore.MAX_UNCOMPACTED_EVENTS; i++) {
+      classUnderTest.recordVote(somePage, SOME_BALLOT_TITLE, "someChoice", "someUser" + i);
+    }
+    assertThat(properties.get(LOG_PREFIX + ".compacted"), is(nullValue()));
+
+    classUnderTest.recordVote(somePage, SOME_BALLOT_TITLE, "someChoice", "lastUser");
+
+    assertThat(properties.get(LOG_PREFIX + ".compacted"), is(String.valueOf(EventLogVoteStore.MAX_UNCOMPACTED_EVENTS + 1)));
+    assertThat(properties.get(LOG_PREFIX + ".1"), is(nullValue()));
+    verify(mockVoteLogCompactor, times(EventLogVoteStore.MAX_UNCOMPACTED_EVENTS)).markForCompaction(classUnderTest, somePage, SOME_BALLOT_TITLE);
+    assertThat(classUnderTest.load(somePage, SOME_BALLOT_TITLE, Arrays.asList("someChoice")).getVoters("someChoice").size(), is(EventLogVoteStore.MAX_UNCOMPACTED_EVENTS + 1));
+  }
+
+  @Test
+  public void test_load_readOnly_success() {
+    classUnderTest.recordVote(somePage, SOME_BALLOT_TITLE, "someChoice", "someUser");
+    final Map<String, String> propertiesBefore = new HashMap<String, String>(properties);
+    final int locksBefore = ballotLockService.getAcquiredLocks().size();
+
+    classUnderTest.load(somePage, SOME_BALLOT_TITLE, Arrays.asList("someChoice"));
+
+    assertThat(properties, is(propertiesBefore));
+    assertThat(ballotLockService.getAcquiredLocks().size(), is(locksBefore));
+  }
+}
@@ -0,0 +1,53 @@
+package org.hivesoft.confluence.storage;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+
+public class IdSequenceCodecTest {
+
+  @Test
+  public void test_encodeAndDecode_orderKept_success() {
+    final String encoded = IdSequenceCodec.encode(Arrays.asList(1000, 3, 0, 31, 32, 100000, 7, Integer.MAX_VALUE, 0));
+
+    assertThat(IdSequenceCodec.decode(encoded), contains(1000, 3, 0, 31, 32, 100000, 7, Integer.MAX_VALUE, 0));
+  }
+
+  @Test
+  public void test_encode_smallStepsBackwardsOneCharacterEach_success() {
+    assertThat(IdSequenceCodec.encode(Arrays.asList(15, 0, 5, 4, 3)).length(), is(5));
+  }
+
+  @Test
+  public void test_encode_consecutiveIdsOneCharacterEach_success() {
+    final List<Integer> ids = new ArrayList<Integer>();
+    for (int i = 0; i < 2000; i++) {
+      ids.add(i);
+    }
+
+    assertThat(IdSequenceCodec.encode(ids).length(), is(2000));
+  }
+
+  @Test
+  public void test_encode_empty_success() {
+    assertThat(IdSequenceCodec.encode(Collections.<Integer>emptyList()), is(""));
+    assertThat(IdSequenceCodec.decode("").isEmpty(), is(true));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void test_decode_truncated_exception() {
+    IdSequenceCodec.decode("g");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void test_decode_invalidCharacter_exception() {
+    IdSequenceCodec.decode("A,B");
+  }
+}
@@ -0,0 +1,30 @@
+package org.hivesoft.confluence.storage;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+
+public class LegacyCommenterIndexTest {
+
+  @Test
+  public void test_parse_enclosedCommenters_success() {
+    final LegacyCommenterIndex classUnderTest = LegacyCommenterIndex.parse("|someUser||otherUser|");
+
+    assertThat(classUnderTest.getCommenters(), contains("someUser", "otherUser"));
+  }
+
+  @Test
+  public void test_parse_separatedCommenters_success() {
+    final LegacyCommenterIndex classUnderTest = LegacyCommenterIndex.parse("someUser|otherUser");
+
+    assertThat(classUnderTest.getCommenters(), contains("someUser", "otherUser"));
+  }
+
+  @Test
+  public void test_parse_null_success() {
+    assertThat(LegacyCommenterIndex.parse(null).getCommenters(), is(empty()));
+  }
+}
@@ -0,0 +1,266 @@
+package org.hivesoft.confluence.storage;
+
+import com.atlassian.confluence.cluster.ClusterManager;
+import com.atlassian.confluence.cluster.ClusteredLock;
+import com.atlassian.confluence.content.render.xhtml.ConversionContext;
+import com.atlassian.confluence.core.ContentPropertyManager;
+import com.atlassian.confluence.pages.Page;
+import com.atlassian.confluence.pages.PageManager;
+import com.atlassian.confluence.spaces.Space;
+import com.atlassian.confluence.spaces.SpaceManager;
+import com.atlassian.confluence.xhtml.api.MacroDefinition;
+import com.atlassian.confluence.xhtml.api.MacroDefinitionHandler;
+import com.atlassian.confluence.xhtml.api.XhtmlContent;
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import com.atlassian.sal.api.scheduling.PluginScheduler;
+import com.atlassian.sal.api.transaction.TransactionCallback;
+import com.atlassian.sal.api.transaction.TransactionTemplate;
+import org.hivesoft.confluence.macros.vote.VoteMacro;
+import org.hivesoft.confluence.utils.SurveyUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+public class LegacyVoteMigratorTest {
+  private static final String SOME_BALLOT_TITLE = "someBallot";
+
+  private final SpaceManager mockSpaceManager = mock(SpaceManager.class);
+  private final PageManager mockPageManager = mock(PageManager.class);
+  private final XhtmlContent mockXhtmlContent = mock(XhtmlContent.class);
+  private final ContentPropertyManager mockContentPropertyManager = mock(ContentPropertyManager.class);
+  private final PluginSettingsFactory mockPluginSettingsFactory = mock(PluginSettingsFactory.class);
+  private final PluginSettings mockPluginSettings = mock(PluginSettings.class);
+  private final TransactionTemplate mockTransactionTemplate = mock(TransactionTemplate.class);
+  private final PluginScheduler mockPluginScheduler = mock(PluginScheduler.class);
+  private final ClusterManager mockClusterManager = mock(ClusterManager.class);
+  private final ClusteredLock mockMigrationLock = mock(ClusteredLock.class);
+
+  private LegacyVoteMigrator classUnderTest;
+
+  @Before
+  public void setup() {
+    when(mockPluginSettingsFactory.createGlobalSettings()).thenReturn(mockPluginSettings);
+    when(mockTransactionTemplate.execute(any(TransactionCallback.class))).thenAnswer(new Answer<Object>() {
+      @Override
+      public Object answer(InvocationOnMock invocation) throws Throwable {
+        return ((TransactionCallback) invocation.getArguments()[0]).doInTransaction();
+      }
+    });
+
+    when(mockClusterManager.getClusteredLock(LegacyVoteMigrator.MIGRATION_LOCK_NAME)).thenReturn(mockMigrationLock);
+    when(mockMigrationLock.tryLock()).thenReturn(true);
+
+    classUnderTest = new LegacyVoteMigrator(mockSpaceManager, mockPageManager, mockXhtmlContent, mockContentPropertyManager, mockPluginSettingsFactory,
+            mockTransactionTemplate, mockPluginScheduler, new TestBallotLockService(), mockClusterManager);
+  }
+
+  @Test
+  public void test_onStart_notMigrated_schedulesJob_success() {
+    classUnderTest.onStart();
+
+    verify(mockPluginScheduler).scheduleJob(anyString(), eq(LegacyVoteMigrator.MigrationJob.class), anyMap(), any(Date.class), eq(LegacyVoteMigrator.MIGRATION_RETRY_INTERVAL));
+  }
+
+  @Test
+  public void test_onStart_migrated_noJob_success() {
+    when(mockPluginSettings.get(ContentPropertyVoteStore.MIGRATION_VERSION_SETTING_KEY)).thenReturn(ContentPropertyVoteStore.MIGRATION_VERSION);
+
+    classUnderTest.onStart();
+
+    verify(mockPluginScheduler, never()).scheduleJob(anyString(), any(Class.class), anyMap(), any(Date.class), anyLong());
+  }
+
+  @Test
+  public void test_migrate_pageWithoutBallots_success() {
+    final Space someSpace = new Space("SOME");
+    final Page somePage = new Page();
+    somePage.setBodyAsString("<p>nothing to see</p>");
+    when(mockSpaceManager.getAllSpaces()).thenReturn(Arrays.asList(someSpace));
+    when(mockSpaceManager.getSpace(anyString())).thenReturn(someSpace);
+    when(mockPageManager.getPages(someSpace, true)).thenReturn(Arrays.asList(somePage));
+    when(mockPageManager.getBlogPosts(someSpace, true)).thenReturn(Collections.emptyList());
+    when(mockPageManager.getById(somePage.getId())).thenReturn(somePage);
+
+    classUnderTest.migrate();
+
+    verify(mockContentPropertyManager, never()).setTextProperty(eq(somePage), anyString(), anyString());
+    verify(mockPluginSettings).put(ContentPropertyVoteStore.MIGRATION_VERSION_SETTING_KEY, ContentPropertyVoteStore.MIGRATION_VERSION);
+    verify(mockPluginSettings).remove(LegacyVoteMigrator.MIGRATION_CURSOR_SETTING_KEY);
+  }
+
+  @Test
+  public void test_migrate_cursorMovedPerBatch_success() {
+    final Space someSpace = new Space("SOME");
+    final List<Page> pages = createPages(LegacyVoteMigrator.MIGRATION_BATCH_SIZE + 1);
+    when(mockSpaceManager.getAllSpaces()).thenReturn(Arrays.asList(someSpace));
+    when(mockSpaceManager.getSpace("SOME")).thenReturn(someSpace);
+    when(mockPageManager.getPages(someSpace, true)).thenReturn(pages);
+    when(mockPageManager.getBlogPosts(someSpace, true)).thenReturn(Collections.emptyList());
+
+    classUnderTest.migrate();
+
+    // listing the spaces, listing the pages and looking at every page
+    verify(mockTransactionTemplate, times(LegacyVoteMigrator.MIGRATION_BATCH_SIZE + 3)).execute(any(TransactionCallback.class));
+    verify(mockPluginSettings).put(LegacyVoteMigrator.MIGRATION_CURSOR_SETTING_KEY, "SOME:" + (LegacyVoteMigrator.MIGRATION_BATCH_SIZE - 1));
+    verify(mockPluginSettings).put(LegacyVoteMigrator.MIGRATION_CURSOR_SETTING_KEY, "SOME:" + LegacyVoteMigrator.MIGRATION_BATCH_SIZE);
+    verify(mockPluginSettings).put(ContentPropertyVoteStore.MIGRATION_VERSION_SETTING_KEY, ContentPropertyVoteStore.MIGRATION_VERSION);
+  }
+
+  @Test
+  public void test_migrate_resumesAtCursor_success() {
+    final Space someSpace = new Space("SOME");
+    final Space otherSpace = new Space("OTHER");
+    final List<Page> pages = createPages(3);
+    when(mockPluginSettings.get(LegacyVoteMigrator.MIGRATION_CURSOR_SETTING_KEY)).thenReturn("SOME:1");
+    when(mockSpaceManager.getAllSpaces()).thenReturn(Arrays.asList(someSpace, otherSpace));
+    when(mockSpaceManager.getSpace("SOME")).thenReturn(someSpace);
+    when(mockPageManager.getPages(someSpace, true)).thenReturn(pages);
+    when(mockPageManager.getBlogPosts(someSpace, true)).thenReturn(Collections.emptyList());
+
+    classUnderTest.migrate();
+
+    verify(mockSpaceManager, never()).getSpace("OTHER");
+    verify(mockPageManager, never()).getById(0L);
+    verify(mockPageManager, never()).getById(1L);
+    verify(mockPageManager).getById(2L);
+    verify(mockPluginSettings).put(LegacyVoteMigrator.MIGRATION_CURSOR_SETTING_KEY, "SOME:2");
+    verify(mockPluginSettings).put(ContentPropertyVoteStore.MIGRATION_VERSION_SETTING_KEY, ContentPropertyVoteStore.MIGRATION_VERSION);
+  }
+
+  @Test
+  public void test_migrate_failedBatch_cursorKeptInFront_success() {
+    final Space someSpace = new Space("SOME");
+    final List<Page> pages = createPages(2 * LegacyVoteMigrator.MIGRATION_BATCH_SIZE + 1);
+    when(mockSpaceManager.getAllSpaces()).thenReturn(Arrays.asList(someSpace));
+    when(mockSpaceManager.getSpace("SOME")).thenReturn(someSpace);
+    when(mockPageManager.getPages(someSpace, true)).thenReturn(pages);
+    when(mockPageManager.getBlogPosts(someSpace, true)).thenReturn(Collections.emptyList());
+    when(mockPageManager.getById(LegacyVoteMigrator.MIGRATION_BATCH_SIZE)).thenThrow(new IllegalStateException("someFailure"));
+
+    classUnderTest.migrate();
+
+    verify(mockPageManager).getById(2L * LegacyVoteMigrator.MIGRATION_BATCH_SIZE);
+    verify(mockPluginSettings).put(LegacyVoteMigrator.MIGRATION_CURSOR_SETTING_KEY, "SOME:" + (LegacyVoteMigrator.MIGRATION_BATCH_SIZE - 1));
+    verify(mockPluginSettings, times(1)).put(eq(LegacyVoteMigrator.MIGRATION_CURSOR_SETTING_KEY), any());
+    verify(mockPluginSettings, never()).put(eq(ContentPropertyVoteStore.MIGRATION_VERSION_SETTING_KEY), any());
+  }
+
+  @Test
+  public void test_migrate_runningOnOtherNode_skipped_success() {
+    when(mockMigrationLock.tryLock()).thenReturn(false);
+
+    classUnderTest.migrate();
+
+    verifyZeroInteractions(mockSpaceManager, mockPageManager, mockTransactionTemplate);
+    verify(mockMigrationLock, never()).unlock();
+  }
+
+  @Test
+  public void test_migrate_lockReleased_success() {
+    when(mockSpaceManager.getAllSpaces()).thenReturn(Collections.emptyList());
+
+    classUnderTest.migrate();
+
+    verify(mockMigrationLock).unlock();
+  }
+
+  @Test
+  public void test_migrate_alreadyComplete_success() {
+    when(mockPluginSettings.get(ContentPropertyVoteStore.MIGRATION_VERSION_SETTING_KEY)).thenReturn(ContentPropertyVoteStore.MIGRATION_VERSION);
+
+    classUnderTest.migrate();
+
+    verifyZeroInteractions(mockSpaceManager, mockPageManager);
+  }
+
+  @Test
+  public void test_migratePage_oldDefaultVotes_success() throws Exception {
+    final Page somePage = new Page();
+    somePage.setId(1L);
+    when(mockPageManager.getById(1L)).thenReturn(somePage);
+    somePage.setBodyAsString("<ac:macro ac:name=\"vote\"><ac:parameter ac:name=\"title\">" + SOME_BALLOT_TITLE + "</ac:parameter></ac:macro>");
+    final String oldKey = VoteMacro.VOTE_STORAGE_PREFIX + SOME_BALLOT_TITLE + "." + SurveyUtils.DEFAULT_OLD_CHOICE_NAMES.get(0);
+    final String newKey = VoteMacro.VOTE_STORAGE_PREFIX + SOME_BALLOT_TITLE + "." + SurveyUtils.DEFAULT_CHOICE_NAMES.get(0);
+    when(mockContentPropertyManager.getTextProperty(somePage, oldKey)).thenReturn("someUser");
+    final Map<String, String> parameters = new HashMap<String, String>();
+    parameters.put("title", SOME_BALLOT_TITLE);
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        ((MacroDefinitionHandler) invocation.getArguments()[2]).handle(new MacroDefinition(VoteMacro.VOTE_MACRO, null, null, parameters));
+        return null;
+      }
+    }).when(mockXhtmlContent).handleMacroDefinitions(anyString(), any(ConversionContext.class), any(MacroDefinitionHandler.class));
+
+    classUnderTest.migratePage(somePage.getId());
+
+    verify(mockContentPropertyManager).setTextProperty(somePage, newKey, "someUser");
+    verify(mockContentPropertyManager).setTextProperty(somePage, oldKey, null);
+    verify(mockContentPropertyManager).setTextProperty(somePage, ContentPropertyVoteStore.MIGRATION_VERSION_KEY, ContentPropertyVoteStore.MIGRATION_VERSION);
+  }
+
+  @Test
+  public void test_migratePage_oneTransactionPerBallot_success() throws Exception {
+    final Page somePage = new Page();
+    somePage.setId(1L);
+    when(mockPageManager.getById(1L)).thenReturn(somePage);
+    somePage.setBodyAsString("<ac:macro ac:name=\"vote\"></ac:macro><ac:macro ac:name=\"vote\"></ac:macro>");
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        final MacroDefinitionHandler macroDefinitionHandler = (MacroDefinitionHandler) invocation.getArguments()[2];
+        macroDefinitionHandler.handle(new MacroDefinition(VoteMacro.VOTE_MACRO, null, null, Collections.singletonMap("title", SOME_BALLOT_TITLE)));
+        macroDefinitionHandler.handle(new MacroDefinition(VoteMacro.VOTE_MACRO, null, null, Collections.singletonMap("title", "otherBallot")));
+        return null;
+      }
+    }).when(mockXhtmlContent).handleMacroDefinitions(anyString(), any(ConversionContext.class), any(MacroDefinitionHandler.class));
+
+    classUnderTest.migratePage(somePage.getId());
+
+    // finding the ballots, one per ballot and marking the page
+    verify(mockTransactionTemplate, times(4)).execute(any(TransactionCallback.class));
+    verify(mockContentPropertyManager).setTextProperty(somePage, ContentPropertyVoteStore.MIGRATION_VERSION_KEY, ContentPropertyVoteStore.MIGRATION_VERSION);
+  }
+
+  @Test
+  public void test_migrationJob_success() {
+    final LegacyVoteMigrator mockLegacyVoteMigrator = mock(LegacyVoteMigrator.class);
+    final Map<String, Object> jobData = new HashMap<String, Object>();
+    jobData.put("legacyVoteMigrator", mockLegacyVoteMigrator);
+
+    new LegacyVoteMigrator.MigrationJob().execute(jobData);
+
+    verify(mockLegacyVoteMigrator).migrate();
+  }
+
+  /**
+   * @return pages without ballots, with the ids 0 to count - 1 in reverse order
+   */
+  private List<Page> createPages(int count) {
+    final List<Page> pages = new ArrayList<Page>();
+    for (int id = count - 1; id >= 0; id--) {
+      final Page page = new Page();
+      page.setId(id);
+      page.setBodyAsString("<p>nothing to see</p>");
+      when(mockPageManager.getById(id)).thenReturn(page);
+      pages.add(page);
+    }
+    return pages;
+  }
+}
@@ -0,0 +1,31 @@
+package org.hivesoft.confluence.storage;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class LockWaitStatisticsTest {
+
+  private final LockWaitStatistics classUnderTest = new LockWaitStatistics();
+
+  @Test
+  public void test_record_noWaits_success() {
+    assertThat(classUnderTest.getAcquisitions(), is(0L));
+    assertThat(classUnderTest.getAverageWaitMillis(), is(0d));
+  }
+
+  @Test
+  public void test_record_waits_success() {
+    classUnderTest.record(TimeUnit.MILLISECONDS.toNanos(10));
+    classUnderTest.record(TimeUnit.MILLISECONDS.toNanos(30));
+    classUnderTest.record(TimeUnit.MILLISECONDS.toNanos(20));
+
+    assertThat(classUnderTest.getAcquisitions(), is(3L));
+    assertThat(classUnderTest.getTotalWaitMillis(), is(60L));
+    assertThat(classUnderTest.getMaxWaitMillis(), is(30L));
+    assertThat(classUnderTest.getAverageWaitMillis(), is(20d));
+  }
+}
@@ -0,0 +1,105 @@
+package org.hivesoft.confluence.storage;
+
+import com.atlassian.confluence.core.ContentPropertyManager;
+import com.atlassian.confluence.pages.Page;
+import com.atlassian.confluence.util.RequestCacheThreadLocal;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.Mockito.*;
+
+public class PagePropertyCacheTest {
+  private static final String SOME_KEY = "ballot.someBallot";
+  private static final String USER_DICTIONARY_KEY = "survey.users";
+
+  private final ContentPropertyManager mockContentPropertyManager = mock(ContentPropertyManager.class);
+
+  private PagePropertyCache classUnderTest;
+
+  @Before
+  public void setup() {
+    classUnderTest = new PagePropertyCache(mockContentPropertyManager);
+  }
+
+  @After
+  public void tearDown() {
+    RequestCacheThreadLocal.clearRequestCache(); // the request cache is bound to the thread running all tests
+  }
+
+  @Test
+  public void test_getTextProperty_readOncePerPage_success() {
+    final Page somePage = new Page();
+    when(mockContentPropertyManager.getTextProperty(somePage, SOME_KEY)).thenReturn("someValue");
+
+    assertThat(classUnderTest.getTextProperty(somePage, SOME_KEY), is("someValue"));
+    assertThat(classUnderTest.getTextProperty(somePage, SOME_KEY), is("someValue"));
+
+    verify(mockContentPropertyManager, times(1)).getTextProperty(somePage, SOME_KEY);
+  }
+
+  @Test
+  public void test_getTextProperty_missingValueCached_success() {
+    final Page somePage = new Page();
+
+    assertThat(classUnderTest.getTextProperty(somePage, SOME_KEY), is(nullValue()));
+    assertThat(classUnderTest.getTextProperty(somePage, SOME_KEY), is(nullValue()));
+
+    verify(mockContentPropertyManager, times(1)).getTextProperty(somePage, SOME_KEY);
+  }
+
+  @Test
+  public void test_getTextProperty_differentPages_notShared() {
+    final Page somePage = new Page();
+    final Page otherPage = new Page();
+
+    classUnderTest.getTextProperty(somePage, SOME_KEY);
+    classUnderTest.getTextProperty(otherPage, SOME_KEY);
+
+    verify(mockContentPropertyManager).getTextProperty(somePage, SOME_KEY);
+    verify(mockContentPropertyManager).getTextProperty(otherPage, SOME_KEY);
+  }
+
+  @Test
+  public void test_setTextProperty_writeThrough_success() {
+    final Page somePage = new Page();
+    when(mockContentPropertyManager.getTextProperty(somePage, SOME_KEY)).thenReturn("oldValue");
+    classUnderTest.getTextProperty(somePage, SOME_KEY);
+
+    classUnderTest.setTextProperty(somePage, SOME_KEY, "newValue");
+
+    assertThat(classUnderTest.getTextProperty(somePage, SOME_KEY), is("newValue"));
+    verify(mockContentPropertyManager).setTextProperty(somePage, SOME_KEY, "newValue");
+    verify(mockContentPropertyManager, times(1)).getTextProperty(somePage, SOME_KEY);
+  }
+
+  @Test
+  public void test_getUserDictionary_parsedOncePerPage_success() {
+    final Page somePage = new Page();
+    when(mockContentPropertyManager.getTextProperty(somePage, USER_DICTIONARY_KEY)).thenReturn("#users:1\nuser1");
+
+    final UserDictionary userDictionary = classUnderTest.getUserDictionary(somePage, USER_DICTIONARY_KEY);
+
+    assertThat(userDictionary.getName(0), is("user1"));
+    assertThat(classUnderTest.getUserDictionary(somePage, USER_DICTIONARY_KEY), is(sameInstance(userDictionary)));
+    verify(mockContentPropertyManager, times(1)).getTextProperty(somePage, USER_DICTIONARY_KEY);
+  }
+
+  @Test
+  public void test_getUserDictionary_droppedOnWrite_success() {
+    final Page somePage = new Page();
+    when(mockContentPropertyManager.getTextProperty(somePage, USER_DICTIONARY_KEY)).thenReturn("#users:1\nuser1");
+    final UserDictionary userDictionary = classUnderTest.getUserDictionary(somePage, USER_DICTIONARY_KEY);
+
+    classUnderTest.setTextProperty(somePage, USER_DICTIONARY_KEY, "#users:1\nuser1\nuser2");
+
+    final UserDictionary result = classUnderTest.getUserDictionary(somePage, USER_DICTIONARY_KEY);
+    assertThat(result, is(not(sameInstance(userDictionary))));
+    assertThat(result.getName(1), is("user2"));
+  }
+}
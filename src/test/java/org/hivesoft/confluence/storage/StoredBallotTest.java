@@ -0,0 +1,175 @@
+package org.hivesoft.confluence.storage;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class StoredBallotTest {
+
+  private static final String SOME_CHOICE = "some choice, with\ttabs and\nnewlines";
+  private static final String SOME_OTHER_CHOICE = "someOtherChoice";
+
+  @Test
+  public void test_serializeAndParse_roundTrip_success() {
+    StoredBallot classUnderTest = new StoredBallot();
+    classUnderTest.addVote(SOME_CHOICE, "user1");
+    classUnderTest.addVote(SOME_CHOICE, "user,2");
+    classUnderTest.addVote(SOME_OTHER_CHOICE, "user3");
+    classUnderTest.setComment("user1", "some comment\nwith | special % characters");
+
+    final UserDictionary userDictionary = new UserDictionary();
+    final String serialized = classUnderTest.serialize(userDictionary);
+    final StoredBallot parsed = StoredBallot.parse(serialized, UserDictionary.parse(userDictionary.serialize()));
+
+    assertThat(parsed, is(notNullValue()));
+    assertThat(parsed.getVoters(SOME_CHOICE), is(equalTo(Arrays.asList("user1", "user,2"))));
+    assertThat(parsed.getVoters(SOME_OTHER_CHOICE), contains("user3"));
+    assertThat(parsed.getComments().get("user1"), is("some comment\nwith | special % characters"));
+    assertThat(parsed.serialize(userDictionary), is(equalTo(serialized)));
+    assertThat(userDictionary.size(), is(3));
+  }
+
+  @Test
+  public void test_parse_emptyBallot_success() {
+    final StoredBallot parsed = StoredBallot.parse(new StoredBallot().serialize(new UserDictionary()), new UserDictionary());
+
+    assertThat(parsed, is(notNullValue()));
+    assertThat(parsed.isEmpty(), is(true));
+  }
+
+  @Test
+  public void test_serializeAndParse_revision_success() {
+    StoredBallot classUnderTest = new StoredBallot();
+    classUnderTest.addVote(SOME_CHOICE, "user1");
+    classUnderTest.setRevision(42);
+
+    final UserDictionary userDictionary = new UserDictionary();
+    final String serialized = classUnderTest.serialize(userDictionary);
+
+    assertThat(StoredBallot.parse(serialized, userDictionary).getRevision(), is(42L));
+    assertThat(StoredBallot.parse(serialized, userDictionary).getVoters(SOME_CHOICE), contains("user1"));
+    assertThat(StoredBallot.parseRevision(serialized), is(42L));
+    assertThat(new StoredBallot(classUnderTest).getRevision(), is(42L));
+  }
+
+  @Test
+  public void test_parseRevision_noRevision_success() {
+    assertThat(StoredBallot.parseRevision(new StoredBallot().serialize(new UserDictionary())), is(0L));
+    assertThat(StoredBallot.parseRevision(null), is(0L));
+  }
+
+  @Test
+  public void test_parse_legacyValue_returnsNull() {
+    assertThat(StoredBallot.parse(null, new UserDictionary()), is(nullValue()));
+    assertThat(StoredBallot.parse("user1,user2", new UserDictionary()), is(nullValue()));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void test_parse_unknownFormatVersion_exception() {
+    StoredBallot.parse("#ballot:999", new UserDictionary());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void test_parse_damagedVoterIds_exception() {
+    final UserDictionary userDictionary = new UserDictionary();
+    userDictionary.getOrAddId("user1");
+
+    StoredBallot.parse("#ballot:1\nV\tsomeChoice\tA,B", userDictionary);
+  }
+
+  @Test
+  public void test_serializeAndParse_voterOrderKept_success() {
+    final UserDictionary userDictionary = new UserDictionary();
+    userDictionary.getOrAddId("user1");
+    userDictionary.getOrAddId("user2");
+    userDictionary.getOrAddId("user3");
+    StoredBallot classUnderTest = new StoredBallot();
+    classUnderTest.addVote(SOME_CHOICE, "user3");
+    classUnderTest.addVote(SOME_CHOICE, "user1");
+    classUnderTest.addVote(SOME_CHOICE, "user2");
+
+    final String serialized = classUnderTest.serialize(userDictionary);
+
+    assertThat(StoredBallot.parse(serialized, userDictionary).getVoters(SOME_CHOICE), contains("user3", "user1", "user2"));
+  }
+
+  @Test
+  public void test_serialize_usersStoredOncePerPage_success() {
+    final UserDictionary userDictionary = new UserDictionary();
+    StoredBallot classUnderTest = new StoredBallot();
+    for (int i = 0; i < 100; i++) {
+      classUnderTest.addVote(SOME_CHOICE, "someRatherLongUserName" + i);
+    }
+
+    final String serialized = classUnderTest.serialize(userDictionary);
+
+    assertThat(serialized, not(containsString("someRatherLongUserName")));
+    assertThat(userDictionary.size(), is(100));
+    assertThat(StoredBallot.parse(serialized, userDictionary).getVoters(SOME_CHOICE), hasSize(100));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void test_parse_unknownUserIds_exception() {
+    final UserDictionary userDictionary = new UserDictionary();
+    StoredBallot classUnderTest = new StoredBallot();
+    classUnderTest.addVote(SOME_CHOICE, "user1");
+    classUnderTest.addVote(SOME_CHOICE, "user2");
+    final String serialized = classUnderTest.serialize(userDictionary);
+
+    final UserDictionary incompleteDictionary = new UserDictionary();
+    incompleteDictionary.getOrAddId("user1");
+
+    StoredBallot.parse(serialized, incompleteDictionary);
+  }
+
+  @Test
+  public void test_equals_votesAndCommentsNotRevision_success() {
+    StoredBallot classUnderTest = new StoredBallot();
+    classUnderTest.addVote(SOME_CHOICE, "user1");
+    classUnderTest.addVote(SOME_CHOICE, "user2");
+    final StoredBallot copy = new StoredBallot(classUnderTest);
+    copy.setRevision(42);
+
+    assertThat(copy, is(equalTo(classUnderTest)));
+    assertThat(copy.hashCode(), is(classUnderTest.hashCode()));
+    copy.setComment("user1", "someComment");
+    assertThat(copy, is(not(equalTo(classUnderTest))));
+    final StoredBallot otherOrder = new StoredBallot();
+    otherOrder.addVote(SOME_CHOICE, "user2");
+    otherOrder.addVote(SOME_CHOICE, "user1");
+    assertThat(otherOrder, is(not(equalTo(classUnderTest))));
+  }
+
+  @Test
+  public void test_addVote_twice_countedOnce() {
+    StoredBallot classUnderTest = new StoredBallot();
+    classUnderTest.addVote(SOME_CHOICE, "user1");
+    classUnderTest.addVote(SOME_CHOICE, "user1");
+
+    assertThat(classUnderTest.getVoters(SOME_CHOICE), hasSize(1));
+    assertThat(classUnderTest.getChoiceOfVoter("user1"), is(SOME_CHOICE));
+  }
+
+  @Test
+  public void test_removeVote_lastVoter_choiceRemoved() {
+    StoredBallot classUnderTest = new StoredBallot();
+    classUnderTest.addVote(SOME_CHOICE, "user1");
+
+    assertThat(classUnderTest.removeVote(SOME_CHOICE, "user1"), is(true));
+    assertThat(classUnderTest.removeVote(SOME_CHOICE, "user1"), is(false));
+    assertThat(classUnderTest.getVoters(SOME_CHOICE), is(empty()));
+    assertThat(classUnderTest.isEmpty(), is(true));
+  }
+
+  @Test
+  public void test_setComment_blankRemoves_success() {
+    StoredBallot classUnderTest = new StoredBallot();
+    classUnderTest.setComment("user1", "someComment");
+    classUnderTest.setComment("user1", " ");
+
+    assertThat(classUnderTest.getComments().isEmpty(), is(true));
+  }
+}
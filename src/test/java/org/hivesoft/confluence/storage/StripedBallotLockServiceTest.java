@@ -0,0 +1,79 @@
+package org.hivesoft.confluence.storage;
+
+import com.atlassian.confluence.pages.Page;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class StripedBallotLockServiceTest {
+
+  private final StripedBallotLockService classUnderTest = new StripedBallotLockService();
+
+  @Test
+  public void test_getBallotLock_sameBallot_sameLock_success() {
+    final Page somePage = new Page();
+
+    assertThat(classUnderTest.getBallotLock(somePage, "someBallot"), is(sameInstance(classUnderTest.getBallotLock(somePage, "someBallot"))));
+    assertThat(classUnderTest.getPageLock(somePage), is(sameInstance(classUnderTest.getPageLock(somePage))));
+  }
+
+  @Test
+  public void test_getBallotLock_ballotsSpreadOverStripes_success() {
+    final Page somePage = new Page();
+    final Set<BallotLock> locks = new HashSet<BallotLock>();
+    for (int i = 0; i < 1000; i++) {
+      locks.add(classUnderTest.getBallotLock(somePage, "someBallot" + i));
+    }
+
+    assertThat(locks.size(), is(StripedBallotLockService.STRIPES));
+    assertThat(locks, not(hasItem(classUnderTest.getPageLock(somePage))));
+  }
+
+  @Test
+  public void test_getBallotLocks_distinctInFixedOrder_success() {
+    final Page somePage = new Page();
+    final List<String> ballotTitles = new ArrayList<String>();
+    for (int i = 0; i < 1000; i++) {
+      ballotTitles.add("someBallot" + i);
+    }
+
+    final List<BallotLock> locks = classUnderTest.getBallotLocks(somePage, ballotTitles);
+    Collections.reverse(ballotTitles);
+
+    assertThat(locks.size(), is(StripedBallotLockService.STRIPES));
+    assertThat(classUnderTest.getBallotLocks(somePage, ballotTitles), is(locks));
+    assertThat(locks, hasItem(classUnderTest.getBallotLock(somePage, "someBallot42")));
+  }
+
+  @Test
+  public void test_getBallotLock_waitsRecorded_success() {
+    final Page somePage = new Page();
+    final BallotLock lock = classUnderTest.getBallotLock(somePage, "someBallot");
+
+    lock.lock();
+    lock.unlock();
+    assertThat(lock.tryLock(), is(true));
+    lock.unlock();
+
+    assertThat(classUnderTest.getLockWaitStatistics().getAcquisitions(), is(2L));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void test_getBallotLock_lockedAgainByHolder_failure() {
+    final BallotLock lock = classUnderTest.getBallotLock(new Page(), "someBallot");
+
+    lock.lock();
+    try {
+      lock.lock();
+    } finally {
+      lock.unlock();
+    }
+  }
+}
@@ -0,0 +1,125 @@
+package org.hivesoft.confluence.storage;
+
+import com.atlassian.confluence.core.ContentEntityObject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One lock per ballot and page of this process, remembering which locks were taken and whether they were released. Like
+ * the real locks they fail if the thread holding them locks them again.
+ */
+public class TestBallotLockService implements BallotLockService {
+
+  private final LockWaitStatistics lockWaitStatistics = new LockWaitStatistics();
+  private final Map<String, BallotLock> locks = new HashMap<String, BallotLock>();
+  private final List<String> acquiredLocks = new ArrayList<String>();
+  private int heldLocks;
+
+  @Override
+  public synchronized BallotLock getBallotLock(ContentEntityObject contentObject, String ballotTitle) {
+    return getLock("ballot." + contentObject.getId() + "." + ballotTitle);
+  }
+
+  /**
+   * @return the locks in the order of the ballot titles
+   */
+  @Override
+  public synchronized List<BallotLock> getBallotLocks(ContentEntityObject contentObject, Collection<String> ballotTitles) {
+    final List<BallotLock> ballotLocks = new ArrayList<BallotLock>();
+    for (String ballotTitle : new TreeSet<String>(ballotTitles)) {
+      ballotLocks.add(getBallotLock(contentObject, ballotTitle));
+    }
+    return ballotLocks;
+  }
+
+  @Override
+  public synchronized BallotLock getPageLock(ContentEntityObject contentObject) {
+    return getLock("page." + contentObject.getId());
+  }
+
+  @Override
+  public LockWaitStatistics getLockWaitStatistics() {
+    return lockWaitStatistics;
+  }
+
+  public synchronized List<String> getAcquiredLocks() {
+    return new ArrayList<String>(acquiredLocks);
+  }
+
+  public synchronized int getHeldLocks() {
+    return heldLocks;
+  }
+
+  private BallotLock getLock(String name) {
+    BallotLock lock = locks.get(name);
+    if (lock == null) {
+      lock = new RecordingLock(name);
+      locks.put(name, lock);
+    }
+    return lock;
+  }
+
+  private synchronized void acquired(String name) {
+    acquiredLocks.add(name);
+    heldLocks++;
+  }
+
+  private synchronized void released() {
+    heldLocks--;
+  }
+
+  private class RecordingLock implements BallotLock {
+    private final String name;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private RecordingLock(String name) {
+      this.name = name;
+    }
+
+    @Override
+    public void lock() {
+      checkNotHeld();
+      lock.lock();
+      acquired(name);
+    }
+
+    @Override
+    public boolean tryLock() {
+      checkNotHeld();
+      final boolean locked = lock.tryLock();
+      if (locked) {
+        acquired(name);
+      }
+      return locked;
+    }
+
+    @Override
+    public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+      checkNotHeld();
+      final boolean locked = lock.tryLock(time, unit);
+      if (locked) {
+        acquired(name);
+      }
+      return locked;
+    }
+
+    @Override
+    public void unlock() {
+      lock.unlock();
+      released();
+    }
+
+    private void checkNotHeld() {
+      if (lock.isHeldByCurrentThread()) {
+        throw new IllegalStateException(name + " is already held by this thread");
+      }
+    }
+  }
+}
@@ -0,0 +1,149 @@
+package org.hivesoft.confluence.storage;
+
+import com.atlassian.confluence.core.ContentEntityObject;
+import com.atlassian.confluence.pages.Page;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.*;
+
+public class TransactionBoundLockTest {
+  private static final ContentEntityObject SOME_PAGE = new Page();
+  private static final Collection<String> BOTH_BALLOTS = newArrayList("someBallot", "otherBallot");
+
+  private final BallotLock mockLock = mock(BallotLock.class);
+  private final BallotLock mockOtherLock = mock(BallotLock.class);
+  private final BallotLock mockPageLock = mock(BallotLock.class);
+  private final BallotLockService mockBallotLockService = mock(BallotLockService.class);
+
+  @Before
+  public void setup() throws Exception {
+    when(mockLock.tryLock(anyLong(), any(TimeUnit.class))).thenReturn(true);
+    when(mockOtherLock.tryLock(anyLong(), any(TimeUnit.class))).thenReturn(true);
+    when(mockPageLock.tryLock(anyLong(), any(TimeUnit.class))).thenReturn(true);
+    when(mockBallotLockService.getBallotLocks(SOME_PAGE, Collections.singleton("someBallot"))).thenReturn(newArrayList(mockLock));
+    when(mockBallotLockService.getBallotLocks(SOME_PAGE, Collections.singleton("otherBallot"))).thenReturn(newArrayList(mockOtherLock));
+    when(mockBallotLockService.getBallotLocks(SOME_PAGE, BOTH_BALLOTS)).thenReturn(newArrayList(mockOtherLock, mockLock));
+    when(mockBallotLockService.getPageLock(SOME_PAGE)).thenReturn(mockPageLock);
+  }
+
+  @After
+  public void tearDown() {
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.clearSynchronization();
+    }
+  }
+
+  @Test
+  public void test_lockBallot_noTransaction_releasedByRelease_success() throws Exception {
+    final TransactionBoundLock lock = TransactionBoundLock.lockBallot(mockBallotLockService, SOME_PAGE, "someBallot");
+
+    verify(mockLock).tryLock(TransactionBoundLock.LOCK_TIMEOUT, TimeUnit.MILLISECONDS);
+    verify(mockLock, never()).unlock();
+    lock.release();
+    verify(mockLock).unlock();
+  }
+
+  @Test
+  public void test_lockBallot_inTransaction_releasedAfterCompletion_success() {
+    TransactionSynchronizationManager.initSynchronization();
+
+    final TransactionBoundLock lock = TransactionBoundLock.lockBallot(mockBallotLockService, SOME_PAGE, "someBallot");
+    lock.release();
+    verify(mockLock, never()).unlock();
+
+    completeTransaction();
+    verify(mockLock).unlock();
+  }
+
+  @Test
+  public void test_lockBallot_alreadyHeld_notLockedAgain_success() throws Exception {
+    final TransactionBoundLock outerLock = TransactionBoundLock.lockBallot(mockBallotLockService, SOME_PAGE, "someBallot");
+    final TransactionBoundLock innerLock = TransactionBoundLock.lockBallot(mockBallotLockService, SOME_PAGE, "someBallot");
+
+    verify(mockLock, times(1)).tryLock(anyLong(), any(TimeUnit.class));
+    innerLock.release();
+    verify(mockLock, never()).unlock();
+    outerLock.release();
+    verify(mockLock).unlock();
+  }
+
+  @Test(expected = BallotConflictException.class)
+  public void test_lockBallot_timeout_exception() throws Exception {
+    when(mockLock.tryLock(anyLong(), any(TimeUnit.class))).thenReturn(false);
+
+    TransactionBoundLock.lockBallot(mockBallotLockService, SOME_PAGE, "someBallot");
+  }
+
+  @Test
+  public void test_lockBallots_inServiceOrder_success() throws Exception {
+    TransactionSynchronizationManager.initSynchronization();
+
+    TransactionBoundLock.lockBallots(mockBallotLockService, SOME_PAGE, BOTH_BALLOTS);
+    TransactionBoundLock.lockBallot(mockBallotLockService, SOME_PAGE, "someBallot").release();
+    completeTransaction();
+
+    final InOrder inOrder = inOrder(mockOtherLock, mockLock);
+    inOrder.verify(mockOtherLock).tryLock(anyLong(), any(TimeUnit.class));
+    inOrder.verify(mockLock).tryLock(anyLong(), any(TimeUnit.class));
+    inOrder.verify(mockLock).unlock();
+    inOrder.verify(mockOtherLock).unlock();
+  }
+
+  @Test
+  public void test_lockBallots_timeout_acquiredReleased_exception() throws Exception {
+    when(mockLock.tryLock(anyLong(), any(TimeUnit.class))).thenReturn(false);
+
+    try {
+      TransactionBoundLock.lockBallots(mockBallotLockService, SOME_PAGE, BOTH_BALLOTS);
+      fail();
+    } catch (BallotConflictException e) {
+      verify(mockOtherLock).unlock();
+    }
+    TransactionBoundLock.lockBallot(mockBallotLockService, SOME_PAGE, "otherBallot").release();
+  }
+
+  @Test
+  public void test_lockBallot_otherBallotHeld_exception() throws Exception {
+    final TransactionBoundLock lock = TransactionBoundLock.lockBallot(mockBallotLockService, SOME_PAGE, "someBallot");
+    try {
+      TransactionBoundLock.lockBallot(mockBallotLockService, SOME_PAGE, "otherBallot");
+      fail();
+    } catch (IllegalStateException e) {
+      verify(mockOtherLock, never()).tryLock(anyLong(), any(TimeUnit.class));
+    } finally {
+      lock.release();
+    }
+  }
+
+  @Test
+  public void test_lockPage_ballotHeld_success() throws Exception {
+    final TransactionBoundLock lock = TransactionBoundLock.lockBallot(mockBallotLockService, SOME_PAGE, "someBallot");
+    TransactionBoundLock.lockPage(mockBallotLockService, SOME_PAGE).release();
+    lock.release();
+
+    verify(mockPageLock).tryLock(anyLong(), any(TimeUnit.class));
+    verify(mockPageLock).unlock();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void test_lockPage_noBallotHeld_exception() throws Exception {
+    TransactionBoundLock.lockPage(mockBallotLockService, SOME_PAGE);
+  }
+
+  private static void completeTransaction() {
+    for (Object synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+      ((TransactionSynchronization) synchronization).afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK);
+    }
+  }
+}
@@ -0,0 +1,45 @@
+package org.hivesoft.confluence.storage;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class UserDictionaryTest {
+
+  @Test
+  public void test_getOrAddId_stableIds_success() {
+    UserDictionary classUnderTest = new UserDictionary();
+
+    assertThat(classUnderTest.getOrAddId("user1"), is(0));
+    assertThat(classUnderTest.getOrAddId("user2"), is(1));
+    assertThat(classUnderTest.getOrAddId("user1"), is(0));
+    assertThat(classUnderTest.getId("unknownUser"), is(-1));
+    assertThat(classUnderTest.getName(1), is("user2"));
+    assertThat(classUnderTest.getName(2), is(nullValue()));
+  }
+
+  @Test
+  public void test_serializeAndParse_success() {
+    UserDictionary classUnderTest = new UserDictionary();
+    classUnderTest.getOrAddId("user1");
+    classUnderTest.getOrAddId("user with\nnewline");
+
+    final UserDictionary parsed = UserDictionary.parse(classUnderTest.serialize());
+
+    assertThat(parsed.size(), is(2));
+    assertThat(parsed.getId("user with\nnewline"), is(1));
+  }
+
+  @Test
+  public void test_parse_blankOrEmpty_success() {
+    assertThat(UserDictionary.parse(null).size(), is(0));
+    assertThat(UserDictionary.parse(new UserDictionary().serialize()).size(), is(0));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void test_parse_unknownFormat_exception() {
+    UserDictionary.parse("user1\nuser2");
+  }
+}
@@ -0,0 +1,45 @@
+package org.hivesoft.confluence.storage;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class VoteEventTest {
+
+  @Test
+  public void test_serializeAndParse_success() {
+    final VoteEvent voteEvent = new VoteEvent(VoteEvent.Action.COMMENT, "some\tUser", "some comment\nwith lines", 42L);
+
+    final VoteEvent result = VoteEvent.parse(voteEvent.serialize());
+
+    assertThat(result.getAction(), is(VoteEvent.Action.COMMENT));
+    assertThat(result.getUserName(), is("some\tUser"));
+    assertThat(result.getValue(), is("some comment\nwith lines"));
+    assertThat(result.getTimestamp(), is(42L));
+  }
+
+  @Test
+  public void test_parse_malformed_success() {
+    assertThat(VoteEvent.parse(null), is(nullValue()));
+    assertThat(VoteEvent.parse("UNKNOWN\tuser\t\t1"), is(nullValue()));
+    assertThat(VoteEvent.parse("VOTE\tuser"), is(nullValue()));
+  }
+
+  @Test
+  public void test_applyTo_voteAndUnvote_success() {
+    final StoredBallot storedBallot = new StoredBallot();
+
+    new VoteEvent(VoteEvent.Action.VOTE, "someUser", "someChoice", 1L).applyTo(storedBallot);
+    new VoteEvent(VoteEvent.Action.VOTE, "someUser", "otherChoice", 2L).applyTo(storedBallot);
+
+    assertThat(storedBallot.getVoters("otherChoice"), contains("someUser"));
+    assertThat(storedBallot.getVoters("someChoice").isEmpty(), is(true));
+
+    new VoteEvent(VoteEvent.Action.UNVOTE, "someUser", null, 3L).applyTo(storedBallot);
+
+    assertThat(storedBallot.getChoiceOfVoter("someUser"), is(nullValue()));
+  }
+}
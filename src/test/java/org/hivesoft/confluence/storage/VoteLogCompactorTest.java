@@ -0,0 +1,95 @@
+package org.hivesoft.confluence.storage;
+
+import com.atlassian.confluence.pages.Page;
+import com.atlassian.confluence.pages.PageManager;
+import com.atlassian.confluence.util.RequestCacheThreadLocal;
+import com.atlassian.sal.api.scheduling.PluginScheduler;
+import com.atlassian.sal.api.transaction.TransactionCallback;
+import com.atlassian.sal.api.transaction.TransactionTemplate;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+public class VoteLogCompactorTest {
+  private static final String SOME_BALLOT_TITLE = "someBallot";
+
+  private final PageManager mockPageManager = mock(PageManager.class);
+  private final TransactionTemplate mockTransactionTemplate = mock(TransactionTemplate.class);
+  private final PluginScheduler mockPluginScheduler = mock(PluginScheduler.class);
+  private final EventLogVoteStore mockEventLogVoteStore = mock(EventLogVoteStore.class);
+
+  private VoteLogCompactor classUnderTest;
+
+  @Before
+  public void setup() {
+    when(mockTransactionTemplate.execute(any(TransactionCallback.class))).thenAnswer(new Answer<Object>() {
+      @Override
+      public Object answer(InvocationOnMock invocation) throws Throwable {
+        return ((TransactionCallback) invocation.getArguments()[0]).doInTransaction();
+      }
+    });
+
+    classUnderTest = new VoteLogCompactor(mockPageManager, mockTransactionTemplate, mockPluginScheduler);
+  }
+
+  @Test
+  public void test_onStart_schedulesJob_success() {
+    classUnderTest.onStart();
+
+    verify(mockPluginScheduler).scheduleJob(anyString(), eq(VoteLogCompactor.CompactionJob.class), anyMap(), any(Date.class), eq(VoteLogCompactor.COMPACTION_INTERVAL));
+  }
+
+  @Test
+  public void test_compactPending_success() {
+    final Page somePage = new Page();
+    somePage.setId(1L);
+    when(mockPageManager.getById(1L)).thenReturn(somePage);
+
+    classUnderTest.markForCompaction(mockEventLogVoteStore, somePage, SOME_BALLOT_TITLE);
+    classUnderTest.markForCompaction(mockEventLogVoteStore, somePage, SOME_BALLOT_TITLE);
+    assertThat(classUnderTest.getPendingCount(), is(1));
+
+    classUnderTest.compactPending();
+
+    verify(mockEventLogVoteStore, times(1)).compact(somePage, SOME_BALLOT_TITLE);
+    assertThat(classUnderTest.getPendingCount(), is(0));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void test_compactPending_requestCacheCleared_success() {
+    final Page somePage = new Page();
+    somePage.setId(1L);
+    when(mockPageManager.getById(1L)).thenReturn(somePage);
+    RequestCacheThreadLocal.getRequestCache().put("someKey", "someValue");
+
+    classUnderTest.markForCompaction(mockEventLogVoteStore, somePage, SOME_BALLOT_TITLE);
+    classUnderTest.compactPending();
+
+    assertThat(RequestCacheThreadLocal.getRequestCache().isEmpty(), is(true));
+  }
+
+  @Test
+  public void test_compactionJob_success() {
+    final VoteLogCompactor mockVoteLogCompactor = mock(VoteLogCompactor.class);
+    final Map<String, Object> jobData = new HashMap<String, Object>();
+    jobData.put("voteLogCompactor", mockVoteLogCompactor);
+
+    new VoteLogCompactor.CompactionJob().execute(jobData);
+
+    verify(mockVoteLogCompactor).compactPending();
+  }
+}
@@ -0,0 +1,238 @@
+package org.hivesoft.confluence.storage;
+
+import com.atlassian.confluence.pages.Page;
+import com.atlassian.confluence.pages.PageManager;
+import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import com.atlassian.sal.api.transaction.TransactionCallback;
+import com.atlassian.sal.api.transaction.TransactionTemplate;
+import org.hivesoft.confluence.rest.AdminResource;
+import org.hivesoft.confluence.rest.callbacks.delegation.SurveyPluginSettings;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+public class WriteBehindVoteQueueTest {
+  private static final String SOME_BALLOT_TITLE = "someBallot";
+
+  private final PageManager mockPageManager = mock(PageManager.class);
+  private final TransactionTemplate mockTransactionTemplate = mock(TransactionTemplate.class);
+  private final PluginSettingsFactory mockPluginSettingsFactory = mock(PluginSettingsFactory.class);
+  private final BatchVoteStore mockBatchVoteStore = mock(BatchVoteStore.class);
+  private final VoteStore mockVoteStore = mock(VoteStore.class);
+  private final SurveyPluginSettings surveyPluginSettings = new SurveyPluginSettings();
+  private final Page somePage = new Page();
+
+  private WriteBehindVoteQueue classUnderTest;
+
+  @Before
+  public void setup() {
+    when(mockTransactionTemplate.execute(any(TransactionCallback.class))).thenAnswer(new Answer<Object>() {
+      @Override
+      public Object answer(InvocationOnMock invocation) throws Throwable {
+        return ((TransactionCallback) invocation.getArguments()[0]).doInTransaction();
+      }
+    });
+    when(mockPluginSettingsFactory.createGlobalSettings()).thenReturn(surveyPluginSettings);
+    somePage.setId(1L);
+    when(mockPageManager.getById(1L)).thenReturn(somePage);
+
+    classUnderTest = new WriteBehindVoteQueue(mockPageManager, mockTransactionTemplate, mockPluginSettingsFactory);
+  }
+
+  @Test
+  public void test_settings_defaults_success() {
+    assertThat(classUnderTest.isEnabled(), is(false));
+    assertThat(WriteBehindVoteQueue.getFlushInterval(surveyPluginSettings), is(WriteBehindVoteQueue.FLUSH_INTERVAL_DEFAULT));
+    assertThat(WriteBehindVoteQueue.getCapacity(surveyPluginSettings), is(WriteBehindVoteQueue.CAPACITY_DEFAULT));
+    assertThat(WriteBehindVoteQueue.getDurability(surveyPluginSettings), is(WriteBehindVoteQueue.DURABILITY_MEMORY));
+
+    surveyPluginSettings.put(AdminResource.SURVEY_PLUGIN_KEY_WRITE_BEHIND, "true");
+    surveyPluginSettings.put(AdminResource.SURVEY_PLUGIN_KEY_WRITE_BEHIND_FLUSH_INTERVAL, "100");
+    surveyPluginSettings.put(AdminResource.SURVEY_PLUGIN_KEY_WRITE_BEHIND_CAPACITY, "notANumber");
+    surveyPluginSettings.put(AdminResource.SURVEY_PLUGIN_KEY_WRITE_BEHIND_DURABILITY, "someDurability");
+
+    assertThat(classUnderTest.isEnabled(), is(true));
+    assertThat(WriteBehindVoteQueue.getDurability(surveyPluginSettings), is(WriteBehindVoteQueue.DURABILITY_MEMORY));
+    assertThat(WriteBehindVoteQueue.getFlushInterval(surveyPluginSettings), is(100L));
+    assertThat(WriteBehindVoteQueue.getCapacity(surveyPluginSettings), is(WriteBehindVoteQueue.CAPACITY_DEFAULT));
+  }
+
+  @Test
+  public void test_recordVote_pendingSeenByLoad_success() {
+    classUnderTest.recordVote(mockBatchVoteStore, somePage, SOME_BALLOT_TITLE, "someChoice", "someUser");
+    classUnderTest.recordVote(mockBatchVoteStore, somePage, SOME_BALLOT_TITLE, "otherChoice", "someUser");
+
+    final StoredBallot result = classUnderTest.applyPending(somePage, SOME_BALLOT_TITLE, new StoredBallot());
+
+    assertThat(result.getVoters("otherChoice"), contains("someUser"));
+    assertThat(result.getVoters("someChoice").isEmpty(), is(true));
+    assertThat(classUnderTest.getPendingCount(), is(1));
+    verifyZeroInteractions(mockBatchVoteStore, mockTransactionTemplate);
+  }
+
+  @Test
+  public void test_flush_oneTransactionPerBallot_success() {
+    final Page otherPage = new Page();
+    otherPage.setId(2L);
+    when(mockPageManager.getById(2L)).thenReturn(otherPage);
+    classUnderTest.recordVote(mockBatchVoteStore, somePage, SOME_BALLOT_TITLE, "someChoice", "someUser");
+    classUnderTest.recordVote(mockBatchVoteStore, somePage, SOME_BALLOT_TITLE, "someChoice", "otherUser");
+    classUnderTest.storeComment(mockVoteStore, otherPage, SOME_BALLOT_TITLE, "someUser", "someComment");
+
+    classUnderTest.flush();
+
+    verify(mockTransactionTemplate, times(2)).execute(any(TransactionCallback.class));
+    final ArgumentCaptor<BallotChanges> ballotChangesCaptor = ArgumentCaptor.forClass(BallotChanges.class);
+    verify(mockBatchVoteStore).apply(eq(somePage), eq(SOME_BALLOT_TITLE), ballotChangesCaptor.capture());
+    assertThat(ballotChangesCaptor.getValue().size(), is(2));
+    verify(mockVoteStore).storeComment(otherPage, SOME_BALLOT_TITLE, "someUser", "someComment");
+    assertThat(classUnderTest.getPendingCount(), is(0));
+    assertThat(classUnderTest.applyPending(somePage, SOME_BALLOT_TITLE, new StoredBallot()).isEmpty(), is(true));
+  }
+
+  @Test
+  public void test_flush_nothingPending_success() {
+    classUnderTest.flush();
+
+    verifyZeroInteractions(mockTransactionTemplate);
+  }
+
+  @Test
+  public void test_flush_conflict_requeuedOtherBallotsWritten_success() {
+    classUnderTest.recordVote(mockBatchVoteStore, somePage, SOME_BALLOT_TITLE, "someChoice", "someUser");
+    classUnderTest.recordVote(mockVoteStore, somePage, "otherBallot", "someChoice", "someUser");
+    doThrow(new BallotConflictException("someConflict")).when(mockBatchVoteStore).apply(eq(somePage), eq(SOME_BALLOT_TITLE), any(BallotChanges.class));
+
+    classUnderTest.flush();
+
+    verify(mockVoteStore).recordVote(somePage, "otherBallot", "someChoice", "someUser");
+    assertThat(classUnderTest.getPendingCount(), is(1));
+    assertThat(classUnderTest.applyPending(somePage, SOME_BALLOT_TITLE, new StoredBallot()).getVoters("someChoice"), contains("someUser"));
+  }
+
+  @Test
+  public void test_flush_requeuedAheadOfLaterChanges_success() {
+    classUnderTest.recordVote(mockBatchVoteStore, somePage, SOME_BALLOT_TITLE, "someChoice", "someUser");
+    classUnderTest.recordVote(mockBatchVoteStore, somePage, SOME_BALLOT_TITLE, "someChoice", "otherUser");
+    doThrow(new BallotConflictException("someConflict")).doNothing().when(mockBatchVoteStore).apply(eq(somePage), eq(SOME_BALLOT_TITLE), any(BallotChanges.class));
+    classUnderTest.flush();
+
+    classUnderTest.recordVote(mockBatchVoteStore, somePage, SOME_BALLOT_TITLE, "otherChoice", "otherUser");
+    classUnderTest.recordVote(mockBatchVoteStore, somePage, SOME_BALLOT_TITLE, "someChoice", "thirdUser");
+    assertThat(classUnderTest.getPendingCount(), is(3));
+    classUnderTest.flush();
+
+    final ArgumentCaptor<BallotChanges> ballotChangesCaptor = ArgumentCaptor.forClass(BallotChanges.class);
+    verify(mockBatchVoteStore, times(2)).apply(eq(somePage), eq(SOME_BALLOT_TITLE), ballotChangesCaptor.capture());
+    final StoredBallot storedBallot = new StoredBallot();
+    ballotChangesCaptor.getValue().applyTo(storedBallot);
+    assertThat(storedBallot.getVoters("someChoice"), contains("someUser", "thirdUser"));
+    assertThat(storedBallot.getVoters("otherChoice"), contains("otherUser"));
+    assertThat(classUnderTest.getPendingCount(), is(0));
+  }
+
+  @Test
+  public void test_flush_failingTooOften_dropped_success() {
+    classUnderTest.recordVote(mockBatchVoteStore, somePage, SOME_BALLOT_TITLE, "someChoice", "someUser");
+    doThrow(new IllegalStateException("someFailure")).when(mockBatchVoteStore).apply(eq(somePage), eq(SOME_BALLOT_TITLE), any(BallotChanges.class));
+
+    for (int i = 0; i < WriteBehindVoteQueue.MAX_FLUSH_ATTEMPTS + 1; i++) {
+      classUnderTest.flush();
+    }
+
+    verify(mockBatchVoteStore, times(WriteBehindVoteQueue.MAX_FLUSH_ATTEMPTS)).apply(eq(somePage), eq(SOME_BALLOT_TITLE), any(BallotChanges.class));
+    assertThat(classUnderTest.getPendingCount(), is(0));
+  }
+
+  @Test
+  public void test_recordVote_flushBeforeAcknowledge_writtenOnReturn_success() {
+    surveyPluginSettings.put(AdminResource.SURVEY_PLUGIN_KEY_WRITE_BEHIND_DURABILITY, WriteBehindVoteQueue.DURABILITY_FLUSH_BEFORE_ACKNOWLEDGE);
+
+    classUnderTest.recordVote(mockBatchVoteStore, somePage, SOME_BALLOT_TITLE, "someChoice", "someUser");
+
+    verify(mockBatchVoteStore).apply(eq(somePage), eq(SOME_BALLOT_TITLE), any(BallotChanges.class));
+    assertThat(classUnderTest.getPendingCount(), is(0));
+  }
+
+  @Test
+  public void test_recordVote_flushBeforeAcknowledgeStarted_writtenByFlushThread_success() {
+    surveyPluginSettings.put(AdminResource.SURVEY_PLUGIN_KEY_WRITE_BEHIND_DURABILITY, WriteBehindVoteQueue.DURABILITY_FLUSH_BEFORE_ACKNOWLEDGE);
+    final List<String> writingThreads = new ArrayList<String>();
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        writingThreads.add(Thread.currentThread().getName());
+        return null;
+      }
+    }).when(mockBatchVoteStore).apply(eq(somePage), eq(SOME_BALLOT_TITLE), any(BallotChanges.class));
+    classUnderTest.onStart();
+    try {
+      classUnderTest.recordVote(mockBatchVoteStore, somePage, SOME_BALLOT_TITLE, "someChoice", "someUser");
+    } finally {
+      classUnderTest.destroy();
+    }
+
+    assertThat(writingThreads, contains("survey-plugin-write-behind"));
+  }
+
+  @Test
+  public void test_recordVote_flushBeforeAcknowledgeNotStarted_writtenByOwnThread_success() {
+    surveyPluginSettings.put(AdminResource.SURVEY_PLUGIN_KEY_WRITE_BEHIND_DURABILITY, WriteBehindVoteQueue.DURABILITY_FLUSH_BEFORE_ACKNOWLEDGE);
+    final List<String> writingThreads = new ArrayList<String>();
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        writingThreads.add(Thread.currentThread().getName());
+        return null;
+      }
+    }).when(mockBatchVoteStore).apply(eq(somePage), eq(SOME_BALLOT_TITLE), any(BallotChanges.class));
+
+    classUnderTest.recordVote(mockBatchVoteStore, somePage, SOME_BALLOT_TITLE, "someChoice", "someUser");
+
+    assertThat(writingThreads, contains("survey-plugin-write-behind"));
+  }
+
+  @Test(expected = BallotConflictException.class)
+  public void test_recordVote_flushBeforeAcknowledge_dropped_exception() {
+    surveyPluginSettings.put(AdminResource.SURVEY_PLUGIN_KEY_WRITE_BEHIND_DURABILITY, WriteBehindVoteQueue.DURABILITY_FLUSH_BEFORE_ACKNOWLEDGE);
+    doThrow(new IllegalStateException("someFailure")).when(mockBatchVoteStore).apply(eq(somePage), eq(SOME_BALLOT_TITLE), any(BallotChanges.class));
+
+    classUnderTest.recordVote(mockBatchVoteStore, somePage, SOME_BALLOT_TITLE, "someChoice", "someUser");
+  }
+
+  @Test
+  public void test_recordVote_capacityReached_flushedFirst_success() {
+    surveyPluginSettings.put(AdminResource.SURVEY_PLUGIN_KEY_WRITE_BEHIND_CAPACITY, "2");
+    classUnderTest.recordVote(mockBatchVoteStore, somePage, SOME_BALLOT_TITLE, "someChoice", "someUser");
+    classUnderTest.recordVote(mockBatchVoteStore, somePage, SOME_BALLOT_TITLE, "someChoice", "otherUser");
+    verifyZeroInteractions(mockTransactionTemplate);
+
+    classUnderTest.recordVote(mockBatchVoteStore, somePage, SOME_BALLOT_TITLE, "someChoice", "thirdUser");
+
+    verify(mockBatchVoteStore).apply(eq(somePage), eq(SOME_BALLOT_TITLE), any(BallotChanges.class));
+    assertThat(classUnderTest.getPendingCount(), is(1));
+  }
+
+  @Test
+  public void test_destroy_flushesPending_success() {
+    classUnderTest.onStart();
+    classUnderTest.reset(mockVoteStore, somePage, SOME_BALLOT_TITLE);
+
+    classUnderTest.destroy();
+
+    verify(mockVoteStore).reset(somePage, SOME_BALLOT_TITLE);
+    assertThat(classUnderTest.getPendingCount(), is(0));
+  }
+}
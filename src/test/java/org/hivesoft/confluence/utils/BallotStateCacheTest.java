@@ -0,0 +1,88 @@
+package org.hivesoft.confluence.utils;
+
+import com.atlassian.confluence.pages.Page;
+import com.atlassian.user.User;
+import org.hivesoft.confluence.macros.ConfluenceTestBase;
+import org.hivesoft.confluence.model.vote.Comment;
+import org.hivesoft.confluence.storage.StoredBallot;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class BallotStateCacheTest extends ConfluenceTestBase {
+  private static final List<String> SOME_CHOICE_NAMES = Arrays.asList("someChoice", "otherChoice");
+
+  private final BallotStateCache classUnderTest = new BallotStateCache();
+
+  @Test
+  public void test_getKey_unsavedContent_success() {
+    assertThat(classUnderTest.getKey(new Page(), SOME_BALLOT_TITLE, SOME_CHOICE_NAMES), is(nullValue()));
+
+    classUnderTest.put(null, someStoredBallot(), someBallotState());
+    assertThat(classUnderTest.size(), is(0));
+  }
+
+  @Test
+  public void test_getAndPut_success() {
+    final Page somePage = new Page();
+    somePage.setId(SOME_PAGE_ID);
+    final BallotStateCache.BallotState ballotState = someBallotState();
+
+    final String key = classUnderTest.getKey(somePage, SOME_BALLOT_TITLE, SOME_CHOICE_NAMES);
+    classUnderTest.put(key, someStoredBallot(), ballotState);
+
+    assertThat(classUnderTest.get(classUnderTest.getKey(somePage, SOME_BALLOT_TITLE, SOME_CHOICE_NAMES), someStoredBallot()), is(sameInstance(ballotState)));
+    assertThat(classUnderTest.get(classUnderTest.getKey(somePage, SOME_BALLOT_TITLE, Arrays.asList("someChoice")), someStoredBallot()), is(nullValue()));
+    assertThat(classUnderTest.get(classUnderTest.getKey(somePage, "otherBallot", SOME_CHOICE_NAMES), someStoredBallot()), is(nullValue()));
+  }
+
+  @Test
+  public void test_get_storedBallotChanged_success() {
+    final StoredBallot storedBallot = someStoredBallot();
+    classUnderTest.put("someKey", storedBallot, someBallotState());
+    storedBallot.addVote("someChoice", SOME_USER2.getName());
+
+    assertThat(classUnderTest.get("someKey", storedBallot), is(nullValue()));
+    final StoredBallot otherComment = someStoredBallot();
+    otherComment.setComment(SOME_USER2.getName(), "otherComment");
+    assertThat(classUnderTest.get("someKey", otherComment), is(nullValue()));
+    final StoredBallot newerRevision = someStoredBallot();
+    newerRevision.setRevision(42);
+    assertThat(classUnderTest.get("someKey", newerRevision), is(notNullValue()));
+  }
+
+  @Test
+  public void test_put_evictsEldest_success() {
+    for (int i = 0; i <= BallotStateCache.MAX_CACHED_BALLOTS; i++) {
+      classUnderTest.put("key" + i, someStoredBallot(), someBallotState());
+    }
+
+    assertThat(classUnderTest.size(), is(BallotStateCache.MAX_CACHED_BALLOTS));
+    assertThat(classUnderTest.get("key0", someStoredBallot()), is(nullValue()));
+  }
+
+  @Test
+  public void test_ballotState_getVoters_success() {
+    final BallotStateCache.BallotState ballotState = someBallotState();
+
+    assertThat(ballotState.getVoters("someChoice"), contains(SOME_USER1));
+    assertThat(ballotState.getVoters("unknownChoice"), is(empty()));
+    assertThat(ballotState.getComments(), hasSize(1));
+  }
+
+  private static StoredBallot someStoredBallot() {
+    final StoredBallot storedBallot = new StoredBallot();
+    storedBallot.addVote("someChoice", SOME_USER1.getName());
+    storedBallot.setComment(SOME_USER2.getName(), "someComment");
+    return storedBallot;
+  }
+
+  private static BallotStateCache.BallotState someBallotState() {
+    final Map<String, List<User>> votersByChoice = new HashMap<String, List<User>>();
+    votersByChoice.put("someChoice", Arrays.asList(SOME_USER1));
+    return new BallotStateCache.BallotState(votersByChoice, Arrays.asList(new Comment(SOME_USER2, "someComment")));
+  }
+}
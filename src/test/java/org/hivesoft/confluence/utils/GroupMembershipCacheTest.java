@@ -0,0 +1,145 @@
+package org.hivesoft.confluence.utils;
+
+import com.atlassian.confluence.user.UserAccessor;
+import com.atlassian.confluence.util.RequestCacheThreadLocal;
+import com.atlassian.crowd.event.group.GroupMembershipCreatedEvent;
+import com.atlassian.crowd.event.group.GroupMembershipDeletedEvent;
+import com.atlassian.event.api.EventPublisher;
+import com.atlassian.user.User;
+import com.atlassian.user.impl.DefaultGroup;
+import org.hivesoft.confluence.macros.ConfluenceTestBase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.*;
+
+public class GroupMembershipCacheTest extends ConfluenceTestBase {
+  private static final DefaultGroup SOME_GROUP = new DefaultGroup("someGroup");
+
+  private final UserAccessor mockUserAccessor = mock(UserAccessor.class);
+  private final EventPublisher mockEventPublisher = mock(EventPublisher.class);
+
+  private long now = 1000L;
+  private GroupMembershipCache classUnderTest;
+
+  @Before
+  public void setup() {
+    when(mockUserAccessor.getGroup(SOME_GROUP.getName())).thenReturn(SOME_GROUP);
+    when(mockUserAccessor.getMemberNamesAsList(SOME_GROUP)).thenReturn(newArrayList(SOME_USER1.getName(), SOME_USER2.getName()));
+    when(mockUserAccessor.getUser(SOME_USER1.getName())).thenReturn(SOME_USER1);
+    when(mockUserAccessor.getUser(SOME_USER2.getName())).thenReturn(SOME_USER2);
+
+    classUnderTest = new GroupMembershipCache(mockUserAccessor, mockEventPublisher) {
+      @Override
+      protected long currentTimeMillis() {
+        return now;
+      }
+    };
+  }
+
+  @After
+  public void tearDown() {
+    RequestCacheThreadLocal.clearRequestCache(); // the request cache is bound to the thread running all tests
+  }
+
+  @Test
+  public void test_afterPropertiesSetAndDestroy_registersListener_success() {
+    classUnderTest.afterPropertiesSet();
+    classUnderTest.destroy();
+
+    verify(mockEventPublisher).register(classUnderTest);
+    verify(mockEventPublisher).unregister(classUnderTest);
+  }
+
+  @Test
+  public void test_getActiveUsers_secondCallFromCache_success() {
+    classUnderTest.getActiveUsers(SOME_GROUP.getName());
+    final List<User> result = classUnderTest.getActiveUsers(SOME_GROUP.getName());
+
+    assertThat(result, containsInAnyOrder((User) SOME_USER1, SOME_USER2));
+    verify(mockUserAccessor, times(1)).getMemberNamesAsList(SOME_GROUP);
+  }
+
+  @Test
+  public void test_getActiveUsers_expired_success() {
+    classUnderTest.getActiveUsers(SOME_GROUP.getName());
+    now += GroupMembershipCache.TIME_TO_LIVE;
+
+    classUnderTest.getActiveUsers(SOME_GROUP.getName());
+
+    verify(mockUserAccessor, times(2)).getMemberNamesAsList(SOME_GROUP);
+  }
+
+  @Test
+  public void test_onGroupMembershipCreated_invalidates_success() {
+    classUnderTest.getActiveUsers(SOME_GROUP.getName());
+
+    classUnderTest.onGroupMembershipCreated(mock(GroupMembershipCreatedEvent.class));
+
+    assertThat(classUnderTest.size(), is(0));
+    classUnderTest.getActiveUsers(SOME_GROUP.getName());
+    verify(mockUserAccessor, times(2)).getMemberNamesAsList(SOME_GROUP);
+  }
+
+  @Test
+  public void test_getActiveUserNames_sharesCachedUsers_success() {
+    classUnderTest.getActiveUsers(SOME_GROUP.getName());
+
+    assertThat(classUnderTest.getActiveUserNames(SOME_GROUP.getName()), containsInAnyOrder(SOME_USER1.getName(), SOME_USER2.getName()));
+    verify(mockUserAccessor, times(1)).getMemberNamesAsList(SOME_GROUP);
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void test_getActiveUsers_notModifiable_failure() {
+    classUnderTest.getActiveUsers(SOME_GROUP.getName()).clear();
+  }
+
+  @Test
+  public void test_isMemberOfAny_trimmedGroupName_success() {
+    when(mockUserAccessor.getGroupNamesForUserName(SOME_USER1.getName())).thenReturn(newArrayList(SOME_GROUP.getName()));
+
+    assertThat(classUnderTest.isMemberOfAny(SOME_USER1.getName(), newArrayList("otherGroup", " someGroup ")), is(true));
+    assertThat(classUnderTest.isMemberOfAny(SOME_USER1.getName(), newArrayList("otherGroup")), is(false));
+  }
+
+  @Test
+  public void test_isMemberOfAny_secondTimeFromCache_success() {
+    when(mockUserAccessor.getGroupNamesForUserName(SOME_USER1.getName())).thenReturn(newArrayList(SOME_GROUP.getName()));
+
+    classUnderTest.isMemberOfAny(SOME_USER1.getName(), newArrayList(SOME_GROUP.getName()));
+    final boolean result = classUnderTest.isMemberOfAny(SOME_USER1.getName(), newArrayList(SOME_GROUP.getName()));
+
+    assertThat(result, is(true));
+    verify(mockUserAccessor, times(1)).getGroupNamesForUserName(SOME_USER1.getName());
+  }
+
+  @Test
+  public void test_isMemberOfAny_decisionExpired_success() {
+    when(mockUserAccessor.getGroupNamesForUserName(SOME_USER1.getName())).thenReturn(newArrayList(SOME_GROUP.getName()));
+    classUnderTest.isMemberOfAny(SOME_USER1.getName(), newArrayList(SOME_GROUP.getName()));
+    when(mockUserAccessor.getGroupNamesForUserName(SOME_USER1.getName())).thenReturn(newArrayList("otherGroup"));
+    now += GroupMembershipCache.DECISION_TIME_TO_LIVE;
+
+    final boolean result = classUnderTest.isMemberOfAny(SOME_USER1.getName(), newArrayList(SOME_GROUP.getName()));
+
+    assertThat(result, is(false));
+  }
+
+  @Test
+  public void test_onGroupMembershipDeleted_decisionInvalidated_success() {
+    when(mockUserAccessor.getGroupNamesForUserName(SOME_USER1.getName())).thenReturn(newArrayList(SOME_GROUP.getName()));
+    classUnderTest.isMemberOfAny(SOME_USER1.getName(), newArrayList(SOME_GROUP.getName()));
+    when(mockUserAccessor.getGroupNamesForUserName(SOME_USER1.getName())).thenReturn(newArrayList("otherGroup"));
+
+    classUnderTest.onGroupMembershipDeleted(mock(GroupMembershipDeletedEvent.class));
+
+    assertThat(classUnderTest.isMemberOfAny(SOME_USER1.getName(), newArrayList(SOME_GROUP.getName())), is(false));
+  }
+}
@@ -0,0 +1,140 @@
+package org.hivesoft.confluence.utils;
+
+import com.atlassian.confluence.content.render.xhtml.ConversionContext;
+import com.atlassian.confluence.pages.Page;
+import com.atlassian.confluence.xhtml.api.MacroDefinition;
+import com.atlassian.confluence.xhtml.api.MacroDefinitionHandler;
+import com.atlassian.confluence.xhtml.api.XhtmlContent;
+import org.hivesoft.confluence.macros.survey.SurveyMacro;
+import org.hivesoft.confluence.macros.vote.VoteMacro;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class PageMacroIndexTest {
+  private static final String SOME_SURVEY_TITLE = "someSurvey";
+  private static final String SOME_VOTE_TITLE = "someVote";
+
+  private final XhtmlContent mockXhtmlContent = mock(XhtmlContent.class);
+
+  private PageMacroIndex classUnderTest;
+
+  @Before
+  public void setup() throws Exception {
+    final MacroDefinition surveyDefinition = mockMacroDefinition(SurveyMacro.SURVEY_MACRO, SOME_SURVEY_TITLE, "firstBallot - some description\n\n" + SOME_VOTE_TITLE + "\n");
+    final MacroDefinition voteDefinition = mockMacroDefinition(VoteMacro.VOTE_MACRO, SOME_VOTE_TITLE, "choice1\nchoice2");
+    final MacroDefinition otherDefinition = mockMacroDefinition("someOtherMacro", SOME_VOTE_TITLE, "");
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        final MacroDefinitionHandler handler = (MacroDefinitionHandler) invocation.getArguments()[2];
+        handler.handle(surveyDefinition);
+        handler.handle(otherDefinition);
+        handler.handle(voteDefinition);
+        return null;
+      }
+    }).when(mockXhtmlContent).handleMacroDefinitions(anyString(), any(ConversionContext.class), any(MacroDefinitionHandler.class));
+
+    classUnderTest = new PageMacroIndex(mockXhtmlContent);
+  }
+
+  @Test
+  public void test_getMacros_onlySurveysAndVotesInPageOrder_success() throws Exception {
+    final PageMacroIndex.PageMacros result = classUnderTest.getMacros(createPage(1L, "someBody"));
+
+    assertThat(result.getMacros().size(), is(2));
+    assertThat(result.getMacros().get(0).getName(), is(SurveyMacro.SURVEY_MACRO));
+    assertThat(result.getMacros().get(1).getName(), is(VoteMacro.VOTE_MACRO));
+    assertThat(result.getMacros().get(1).getPosition(), is(1));
+    assertThat(result.getSurveys().size(), is(1));
+    assertThat(result.getVotes().size(), is(1));
+  }
+
+  @Test
+  public void test_getMacros_samePageVersion_parsedOnce_success() throws Exception {
+    final PageMacroIndex.PageMacros first = classUnderTest.getMacros(createPage(1L, "someBody"));
+    final PageMacroIndex.PageMacros second = classUnderTest.getMacros(createPage(1L, "someBody"));
+
+    assertThat(second, is(sameInstance(first)));
+    assertThat(classUnderTest.size(), is(1));
+    verify(mockXhtmlContent, times(1)).handleMacroDefinitions(anyString(), any(ConversionContext.class), any(MacroDefinitionHandler.class));
+  }
+
+  @Test
+  public void test_getMacros_changedBody_parsedAgain_success() throws Exception {
+    final PageMacroIndex.PageMacros first = classUnderTest.getMacros(createPage(1L, "someBody"));
+    final PageMacroIndex.PageMacros second = classUnderTest.getMacros(createPage(1L, "someChangedBody"));
+
+    assertThat(second, is(not(sameInstance(first))));
+    verify(mockXhtmlContent, times(2)).handleMacroDefinitions(anyString(), any(ConversionContext.class), any(MacroDefinitionHandler.class));
+  }
+
+  @Test
+  public void test_getMacros_unsavedContent_notCached_success() throws Exception {
+    classUnderTest.getMacros(createPage(0L, "someBody"));
+    classUnderTest.getMacros(createPage(0L, "someBody"));
+
+    assertThat(classUnderTest.size(), is(0));
+    verify(mockXhtmlContent, times(2)).handleMacroDefinitions(anyString(), any(ConversionContext.class), any(MacroDefinitionHandler.class));
+  }
+
+  @Test
+  public void test_getSurveysAndVotes_byTitleIgnoringCase_success() throws Exception {
+    final PageMacroIndex.PageMacros result = classUnderTest.getMacros(createPage(1L, "someBody"));
+
+    assertThat(result.getSurveys(SOME_SURVEY_TITLE.toUpperCase()).size(), is(1));
+    assertThat(result.getVotes(SOME_VOTE_TITLE.toUpperCase()).size(), is(1));
+    assertThat(result.getSurveys("notExisting").size(), is(0));
+  }
+
+  @Test
+  public void test_getBallotTitles_voteAndSurveyRow_success() throws Exception {
+    final PageMacroIndex.PageMacros result = classUnderTest.getMacros(createPage(1L, "someBody"));
+
+    final List<PageMacroIndex.BallotTitle> ballotTitles = result.getBallotTitles(SOME_VOTE_TITLE.toLowerCase());
+
+    assertThat(ballotTitles.size(), is(2));
+    assertThat(ballotTitles.get(0).isSurveyRow(), is(true));
+    assertThat(ballotTitles.get(0).getMacro().getName(), is(SurveyMacro.SURVEY_MACRO));
+    assertThat(ballotTitles.get(1).isSurveyRow(), is(false));
+    assertThat(ballotTitles.get(1).getTitle(), is(SOME_VOTE_TITLE));
+    assertThat(result.getBallotTitles("firstBallot").size(), is(1));
+  }
+
+  @Test
+  public void test_getParameters_isCopy_success() throws Exception {
+    final PageMacroIndex.IndexedMacro vote = classUnderTest.getMacros(createPage(1L, "someBody")).getVotes().get(0);
+
+    vote.getParameters().put("title", "changed");
+
+    assertThat(vote.getParameters().get("title"), is(SOME_VOTE_TITLE));
+  }
+
+  private Page createPage(long id, String body) {
+    final Page page = mock(Page.class);
+    when(page.getId()).thenReturn(id);
+    when(page.getBodyAsString()).thenReturn(body);
+    return page;
+  }
+
+  private MacroDefinition mockMacroDefinition(String name, String title, String bodyText) {
+    final Map<String, String> parameters = new HashMap<String, String>();
+    parameters.put("title", title);
+    final MacroDefinition macroDefinition = mock(MacroDefinition.class);
+    when(macroDefinition.getName()).thenReturn(name);
+    when(macroDefinition.getParameters()).thenReturn(parameters);
+    when(macroDefinition.getBodyText()).thenReturn(bodyText);
+    return macroDefinition;
+  }
+}
@@ -6,6 +6,7 @@ import com.atlassian.confluence.pages.Page;
 import com.atlassian.confluence.security.Permission;
 import com.atlassian.confluence.security.PermissionManager;
 import com.atlassian.confluence.user.UserAccessor;
+import com.atlassian.event.api.EventPublisher;
 import com.atlassian.sal.api.user.UserManager;
 import com.atlassian.user.User;
 import com.atlassian.user.impl.DefaultGroup;
@@ -32,12 +33,13 @@ public class PermissionEvaluatorImplTest extends ConfluenceTestBase {
   private final UserAccessor mockUserAccessor = mock(UserAccessor.class);
   private final UserManager mockUserManager = mock(UserManager.class);
   private final PermissionManager mockPermissionManager = mock(PermissionManager.class);
+  private final EventPublisher mockEventPublisher = mock(EventPublisher.class);
 
   private PermissionEvaluatorImpl classUnderTest;
 
   @Before
   public void setup() {
-    classUnderTest = new PermissionEvaluatorImpl(mockUserAccessor, mockUserManager, mockPermissionManager);
+    classUnderTest = new PermissionEvaluatorImpl(mockUserManager, mockPermissionManager, new GroupMembershipCache(mockUserAccessor, mockEventPublisher), new ResolvedUserCache(mockUserAccessor, mockEventPublisher));
   }
 
   @Test
@@ -119,7 +121,7 @@ public class PermissionEvaluatorImplTest extends ConfluenceTestBase {
     List<String> permissionsList = new ArrayList<String>();
     permissionsList.add("IsAGroup");
     permissionsList.add("AnotherUser");
-    when(mockUserAccessor.hasMembership("IsAGroup", "KnownUser")).thenReturn(true);
+    when(mockUserAccessor.getGroupNamesForUserName("KnownUser")).thenReturn(newArrayList("someOtherGroup", "IsAGroup"));
     final Boolean canPerformAction = classUnderTest.isPermissionListEmptyOrContainsGivenUser(permissionsList, new DefaultUser("KnownUser"));
     assertEquals(Boolean.TRUE, canPerformAction);
   }
@@ -0,0 +1,94 @@
+package org.hivesoft.confluence.utils;
+
+import com.atlassian.confluence.user.UserAccessor;
+import com.atlassian.confluence.util.RequestCacheThreadLocal;
+import com.atlassian.crowd.event.user.UserEditedEvent;
+import com.atlassian.event.api.EventPublisher;
+import com.atlassian.user.User;
+import org.hivesoft.confluence.macros.ConfluenceTestBase;
+import org.hivesoft.confluence.model.wrapper.AnonymousUser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.mockito.Mockito.*;
+
+public class ResolvedUserCacheTest extends ConfluenceTestBase {
+  private final UserAccessor mockUserAccessor = mock(UserAccessor.class);
+  private final EventPublisher mockEventPublisher = mock(EventPublisher.class);
+
+  private ResolvedUserCache classUnderTest;
+
+  @Before
+  public void setup() {
+    when(mockUserAccessor.getUser(SOME_USER1.getName())).thenReturn(SOME_USER1);
+
+    classUnderTest = new ResolvedUserCache(mockUserAccessor, mockEventPublisher, 10);
+  }
+
+  @After
+  public void tearDown() {
+    RequestCacheThreadLocal.clearRequestCache(); // the request cache is bound to the thread running all tests
+  }
+
+  @Test
+  public void test_getUser_secondTimeFromCache_success() {
+    final User firstResult = classUnderTest.getUser(SOME_USER1.getName());
+    final User secondResult = classUnderTest.getUser(SOME_USER1.getName());
+
+    assertThat(secondResult, is(sameInstance(firstResult)));
+    assertThat(secondResult.getFullName(), is(SOME_USER1.getFullName()));
+    verify(mockUserAccessor, times(1)).getUser(SOME_USER1.getName());
+  }
+
+  @Test
+  public void test_getUser_cacheDisabled_success() {
+    classUnderTest = new ResolvedUserCache(mockUserAccessor, mockEventPublisher, 0);
+
+    classUnderTest.getUser(SOME_USER1.getName());
+    classUnderTest.getUser(SOME_USER1.getName());
+
+    assertThat(classUnderTest.size(), is(0));
+    verify(mockUserAccessor, times(2)).getUser(SOME_USER1.getName());
+  }
+
+  @Test
+  public void test_getUser_unknownUserNotCached_success() {
+    final User result = classUnderTest.getUser("unknownUser");
+
+    assertThat(result.getName(), is("unknownUser"));
+    assertThat(classUnderTest.size(), is(0));
+  }
+
+  @Test
+  public void test_getUser_null_anonymous() {
+    final User result = classUnderTest.getUser(null);
+
+    assertThat(result, is(instanceOf(AnonymousUser.class)));
+    verifyZeroInteractions(mockUserAccessor);
+  }
+
+  @Test
+  public void test_getUser_maxSizeReached_eldestDropped_success() {
+    classUnderTest = new ResolvedUserCache(mockUserAccessor, mockEventPublisher, 1);
+    when(mockUserAccessor.getUser(SOME_USER2.getName())).thenReturn(SOME_USER2);
+
+    classUnderTest.getUser(SOME_USER1.getName());
+    classUnderTest.getUser(SOME_USER2.getName());
+    classUnderTest.getUser(SOME_USER1.getName());
+
+    assertThat(classUnderTest.size(), is(1));
+    verify(mockUserAccessor, times(2)).getUser(SOME_USER1.getName());
+  }
+
+  @Test
+  public void test_onUserEdited_invalidates_success() {
+    classUnderTest.getUser(SOME_USER1.getName());
+
+    classUnderTest.onUserEdited(mock(UserEditedEvent.class));
+
+    assertThat(classUnderTest.size(), is(0));
+  }
+}
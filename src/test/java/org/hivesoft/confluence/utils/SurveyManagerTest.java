@@ -6,6 +6,8 @@ import com.atlassian.confluence.core.ContentPropertyManager;
 import com.atlassian.confluence.pages.Comment;
 import com.atlassian.confluence.pages.Page;
 import com.atlassian.renderer.v2.macro.MacroException;
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
 import com.opensymphony.xwork.ActionContext;
 import org.hivesoft.confluence.macros.ConfluenceTestBase;
 import org.hivesoft.confluence.macros.vote.VoteConfig;
@@ -15,8 +17,13 @@ import org.hivesoft.confluence.model.enums.VoteAction;
 import org.hivesoft.confluence.model.vote.Ballot;
 import org.hivesoft.confluence.model.vote.Choice;
 import org.hivesoft.confluence.model.wrapper.SurveyUser;
+import org.hivesoft.confluence.storage.ContentPropertyVoteStore;
+import org.hivesoft.confluence.storage.StoredBallot;
+import org.hivesoft.confluence.storage.TestBallotLockService;
+import org.hivesoft.confluence.storage.UserDictionary;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 
 import java.util.*;
 
@@ -30,14 +37,16 @@ import static org.mockito.Mockito.*;
 public class SurveyManagerTest extends ConfluenceTestBase {
   private final ContentPropertyManager mockContentPropertyManager = mock(ContentPropertyManager.class);
   private final PermissionEvaluator mockPermissionEvaluator = mock(PermissionEvaluator.class);
+  private final PluginSettingsFactory mockPluginSettingsFactory = mock(PluginSettingsFactory.class);
 
   private SurveyManager classUnderTest;
 
   @Before
   public void setup() {
     when(mockPermissionEvaluator.getRemoteUser()).thenReturn(SOME_USER1);
+    when(mockPluginSettingsFactory.createGlobalSettings()).thenReturn(mock(PluginSettings.class));
 
-    classUnderTest = new SurveyManager(mockContentPropertyManager, mockPermissionEvaluator);
+    classUnderTest = new SurveyManager(new ContentPropertyVoteStore(mockContentPropertyManager, mockPluginSettingsFactory, new TestBallotLockService()), new BallotStateCache(), mockPermissionEvaluator);
   }
 
   @Test
@@ -124,6 +133,27 @@ public class SurveyManagerTest extends ConfluenceTestBase {
     assertThat(returnedSurvey.getBallot(someBallotTitle2).getChoices(), hasSize(5));
   }
 
+  @Test
+  public void test_reconstructBallotFromSurvey_onlyRequestedBallotLoaded_success() {
+    final String someBallotTitle1 = "someBallotTitle1";
+    final String someBallotTitle2 = "someBallotTitle2";
+    final Page somePage = new Page();
+
+    final Ballot returnedBallot = classUnderTest.reconstructBallotFromPlainTextSurveyMacroBody(someBallotTitle2, someBallotTitle1 + "\r\n" + someBallotTitle2 + " - someDescription - choice1 - choice2", somePage, parametersWithTitle());
+
+    assertThat(returnedBallot.getTitle(), is(someBallotTitle2));
+    assertThat(returnedBallot.getDescription(), is("someDescription"));
+    assertThat(returnedBallot.getChoices(), hasSize(2));
+    verify(mockContentPropertyManager).getTextProperty(somePage, ContentPropertyVoteStore.BALLOT_STORAGE_PREFIX + someBallotTitle2);
+    verify(mockContentPropertyManager, never()).getTextProperty(somePage, ContentPropertyVoteStore.BALLOT_STORAGE_PREFIX + someBallotTitle1);
+  }
+
+  @Test
+  public void test_reconstructBallotFromSurvey_ballotNotFound_success() {
+    assertThat(classUnderTest.reconstructBallotFromPlainTextSurveyMacroBody("someOtherTitle", "someBallotTitle1", new Page(), parametersWithTitle()), is((Ballot) null));
+    assertThat(classUnderTest.reconstructBallotFromPlainTextSurveyMacroBody("someOtherTitle", "", new Page(), parametersWithTitle()), is((Ballot) null));
+  }
+
   @Test
   public void test_reconstructSurvey_twoParametersWithCommenter_success() {
     final String someBallotTitle1 = "someBallotTitle1";
@@ -133,7 +163,7 @@ public class SurveyManagerTest extends ConfluenceTestBase {
 
     final String userName1 = SOME_USER1.getName();
     final String userName2 = SOME_USER2.getName();
-    final String commentUsers = userName1 + SurveyManager.COMMENTERS_SEPARATOR + userName2;
+    final String commentUsers = userName1 + ContentPropertyVoteStore.COMMENTERS_SEPARATOR + userName2;
     final String commentForUser1 = "someComment";
     final String commentForUser2 = "another Comment";
     when(mockContentPropertyManager.getTextProperty(somePage, "survey." + someBallotTitle1 + ".commenters")).thenReturn(commentUsers);
@@ -189,7 +219,8 @@ public class SurveyManagerTest extends ConfluenceTestBase {
 
     classUnderTest.recordVote(ballot, new Page(), choiceToVoteOn.getDescription(), VoteAction.VOTE);
 
-    verify(mockContentPropertyManager, times(1)).setTextProperty(any(ContentEntityObject.class), anyString(), anyString());
+    verify(mockContentPropertyManager, times(1)).setTextProperty(any(ContentEntityObject.class), eq(ContentPropertyVoteStore.BALLOT_STORAGE_PREFIX + SOME_BALLOT_TITLE), anyString());
+    verify(mockContentPropertyManager, times(1)).setTextProperty(any(ContentEntityObject.class), eq(ContentPropertyVoteStore.USER_DICTIONARY_KEY), anyString());
   }
 
   @Test
@@ -209,7 +240,8 @@ public class SurveyManagerTest extends ConfluenceTestBase {
 
     classUnderTest.recordVote(ballot, new Page(), choiceToVoteOn.getDescription(), VoteAction.VOTE);
 
-    verify(mockContentPropertyManager, times(2)).setTextProperty(any(ContentEntityObject.class), anyString(), anyString());
+    verify(mockContentPropertyManager, times(1)).setTextProperty(any(ContentEntityObject.class), eq(ContentPropertyVoteStore.BALLOT_STORAGE_PREFIX + SOME_BALLOT_TITLE), anyString());
+    verify(mockContentPropertyManager, times(1)).setTextProperty(any(ContentEntityObject.class), eq(ContentPropertyVoteStore.USER_DICTIONARY_KEY), anyString());
   }
 
   @Test
@@ -228,7 +260,7 @@ public class SurveyManagerTest extends ConfluenceTestBase {
 
     classUnderTest.recordVote(ballot, new Page(), choiceAlreadyVotedOn.getDescription(), VoteAction.UNVOTE);
 
-    verify(mockContentPropertyManager, times(1)).setTextProperty(any(ContentEntityObject.class), anyString(), anyString());
+    verify(mockContentPropertyManager, times(1)).setTextProperty(any(ContentEntityObject.class), eq(ContentPropertyVoteStore.BALLOT_STORAGE_PREFIX + SOME_BALLOT_TITLE), anyString());
   }
 
   @Test
@@ -283,72 +315,175 @@ public class SurveyManagerTest extends ConfluenceTestBase {
 
     final Page somePage = new Page();
 
-    when(mockContentPropertyManager.getTextProperty(somePage, "survey." + someBallotTitle + ".commenters")).thenReturn("|" + SOME_USER1.getName() + "|" + SOME_USER2.getName() + "|");
-    when(mockContentPropertyManager.getTextProperty(somePage, "survey." + someBallotTitle + ".comment." + SOME_USER1.getName())).thenReturn("some comment 123");
-    when(mockContentPropertyManager.getTextProperty(somePage, "survey." + someBallotTitle + ".comment." + SOME_USER2.getName())).thenReturn("some comment 456");
+    classUnderTest.resetVotes(survey, somePage);
+
+    final StoredBallot expectedStoredBallot = new StoredBallot();
+    expectedStoredBallot.setRevision(1);
+    verify(mockContentPropertyManager).setTextProperty(somePage, ContentPropertyVoteStore.BALLOT_STORAGE_PREFIX + someBallotTitle, expectedStoredBallot.serialize(new UserDictionary()));
+  }
+
+  @Test
+  public void test_reconstructSurvey_storedBallot_success() {
+    final Page somePage = new Page();
+
+    StoredBallot storedBallot = new StoredBallot();
+    storedBallot.addVote("5-Outstanding", SOME_USER1.getName());
+    storedBallot.setComment(SOME_USER2.getName(), "someComment");
+    final UserDictionary userDictionary = new UserDictionary();
+    when(mockContentPropertyManager.getTextProperty(somePage, ContentPropertyVoteStore.BALLOT_STORAGE_PREFIX + SOME_BALLOT_TITLE)).thenReturn(storedBallot.serialize(userDictionary));
+    when(mockContentPropertyManager.getTextProperty(somePage, ContentPropertyVoteStore.USER_DICTIONARY_KEY)).thenReturn(userDictionary.serialize());
     when(mockPermissionEvaluator.getUserByName(SOME_USER1.getName())).thenReturn(SOME_USER1);
     when(mockPermissionEvaluator.getUserByName(SOME_USER2.getName())).thenReturn(SOME_USER2);
 
-    classUnderTest.resetVotes(survey, somePage);
+    final Survey returnedSurvey = classUnderTest.reconstructSurveyFromPlainTextMacroBody(SOME_BALLOT_TITLE, somePage, parametersWithTitle());
 
-    for (Choice choice : someBallot.getChoices()) {
-      verify(mockContentPropertyManager).setTextProperty(somePage, VoteMacro.VOTE_STORAGE_PREFIX + someBallotTitle + "." + choice.getDescription(), null);
-    }
-    verify(mockContentPropertyManager).setTextProperty(somePage, "survey." + someBallotTitle + ".comment." + SOME_USER1.getName(), null);
-    verify(mockContentPropertyManager).setTextProperty(somePage, "survey." + someBallotTitle + ".commenters", SOME_USER2.getName() + "|");
-    verify(mockContentPropertyManager).setTextProperty(somePage, "survey." + someBallotTitle + ".comment." + SOME_USER2.getName(), null);
-    verify(mockContentPropertyManager).setTextProperty(somePage, "survey." + someBallotTitle + ".commenters", "|" + SOME_USER1.getName());
+    final Ballot returnedBallot = returnedSurvey.getBallot(SOME_BALLOT_TITLE);
+    assertThat(returnedBallot.getChoice("5-Outstanding").getHasVotedFor(SOME_USER1), is(true));
+    assertThat(returnedBallot.getCommentForUser(SOME_USER2).getComment(), is("someComment"));
+    verify(mockContentPropertyManager, times(2)).getTextProperty(eq(somePage), anyString());
+    verify(mockContentPropertyManager, never()).setTextProperty(any(ContentEntityObject.class), anyString(), anyString());
+  }
+
+  @Test
+  public void test_reconstructSurvey_secondTimeFromCache_success() {
+    final Page somePage = new Page();
+    somePage.setId(SOME_PAGE_ID);
+
+    StoredBallot storedBallot = new StoredBallot();
+    storedBallot.addVote("5-Outstanding", SOME_USER1.getName());
+    final UserDictionary userDictionary = new UserDictionary();
+    when(mockContentPropertyManager.getTextProperty(somePage, ContentPropertyVoteStore.BALLOT_STORAGE_PREFIX + SOME_BALLOT_TITLE)).thenReturn(storedBallot.serialize(userDictionary));
+    when(mockContentPropertyManager.getTextProperty(somePage, ContentPropertyVoteStore.USER_DICTIONARY_KEY)).thenReturn(userDictionary.serialize());
+    when(mockPermissionEvaluator.getUserByName(SOME_USER1.getName())).thenReturn(SOME_USER1);
+
+    classUnderTest.reconstructSurveyFromPlainTextMacroBody(SOME_BALLOT_TITLE, somePage, parametersWithTitle());
+    final Survey returnedSurvey = classUnderTest.reconstructSurveyFromPlainTextMacroBody(SOME_BALLOT_TITLE, somePage, parametersWithTitle());
+
+    assertThat(returnedSurvey.getBallot(SOME_BALLOT_TITLE).getChoice("5-Outstanding").getHasVotedFor(SOME_USER1), is(true));
+    verify(mockPermissionEvaluator, times(1)).getUserByName(SOME_USER1.getName());
+  }
+
+  @Test
+  public void test_reconstructSurvey_afterCommentNotFromCache_success() {
+    final Page somePage = new Page();
+    somePage.setId(SOME_PAGE_ID);
+    when(mockPermissionEvaluator.getUserByName(SOME_USER1.getName())).thenReturn(SOME_USER1);
+
+    classUnderTest.reconstructSurveyFromPlainTextMacroBody(SOME_BALLOT_TITLE, somePage, parametersWithTitle());
+    classUnderTest.storeComment(SOME_BALLOT_TITLE, "someComment", SOME_USER1, somePage);
+    final Survey returnedSurvey = classUnderTest.reconstructSurveyFromPlainTextMacroBody(SOME_BALLOT_TITLE, somePage, parametersWithTitle());
+
+    assertThat(returnedSurvey.getBallot(SOME_BALLOT_TITLE).getCommentForUser(SOME_USER1).getComment(), is("someComment"));
+  }
+
+  @Test
+  public void test_reconstructBallot_legacyVotesReadOnly_success() {
+    final Page somePage = new Page();
+    final String legacyKey = VoteMacro.VOTE_STORAGE_PREFIX + "someTitle.someChoice1";
+
+    when(mockContentPropertyManager.getTextProperty(somePage, legacyKey)).thenReturn(SOME_USER1.getName());
+    when(mockPermissionEvaluator.getUserByName(SOME_USER1.getName())).thenReturn(SOME_USER1);
+
+    final Ballot reconstructedBallot = classUnderTest.reconstructBallotFromPlainTextMacroBody(parametersWithTitle(), "someChoice1\r\nsomeChoice2", somePage);
+
+    assertThat(reconstructedBallot.getChoice("someChoice1").getHasVotedFor(SOME_USER1), is(true));
+    verify(mockContentPropertyManager, never()).setTextProperty(any(ContentEntityObject.class), anyString(), anyString());
+  }
+
+  @Test
+  public void test_storeComment_storedBallot_success() {
+    final Page somePage = new Page();
+    final String someBallotTitle = "someBallotName";
+
+    StoredBallot storedBallot = new StoredBallot();
+    storedBallot.addVote(SOME_CHOICE_DESCRIPTION, SOME_USER1.getName());
+    final UserDictionary userDictionary = new UserDictionary();
+    when(mockContentPropertyManager.getTextProperty(somePage, ContentPropertyVoteStore.BALLOT_STORAGE_PREFIX + someBallotTitle)).thenReturn(storedBallot.serialize(userDictionary));
+    when(mockContentPropertyManager.getTextProperty(somePage, ContentPropertyVoteStore.USER_DICTIONARY_KEY)).thenReturn(userDictionary.serialize());
+
+    classUnderTest.storeComment(someBallotTitle, "someComment", SOME_USER1, somePage);
+
+    storedBallot.setComment(SOME_USER1.getName(), "someComment");
+    storedBallot.setRevision(1);
+    verify(mockContentPropertyManager).setTextProperty(somePage, ContentPropertyVoteStore.BALLOT_STORAGE_PREFIX + someBallotTitle, storedBallot.serialize(userDictionary));
+    verify(mockContentPropertyManager, never()).setTextProperty(any(Page.class), eq("survey." + someBallotTitle + ".comment." + SOME_USER1.getName()), anyString());
   }
 
   @Test
   public void test_storeComment_success() {
+    final Page somePage = new Page();
     final String someBallotTitle = "someBallotName";
     final String someComment = "someComment";
 
     when(mockContentPropertyManager.getStringProperty(any(Page.class), anyString())).thenReturn("");
 
-    classUnderTest.storeComment(someBallotTitle, someComment, SOME_USER1, new Page());
+    classUnderTest.storeComment(someBallotTitle, someComment, SOME_USER1, somePage);
 
-    verify(mockContentPropertyManager).setTextProperty(any(Page.class), eq("survey." + someBallotTitle + ".comment." + SOME_USER1.getName()), eq(someComment));
+    assertThat(getStoredBallot(somePage, someBallotTitle).getComments().get(SOME_USER1.getName()), is(someComment));
+    verify(mockContentPropertyManager, never()).setTextProperty(any(Page.class), eq("survey." + someBallotTitle + ".comment." + SOME_USER1.getName()), anyString());
   }
 
   @Test
   public void test_storeComment_stringExists_addComment_success() {
+    final Page somePage = new Page();
     final String someBallotTitle = "someBallotName";
     final String someComment = "someComment";
+    final String commentersKey = "survey." + someBallotTitle + ".commenters";
 
-    when(mockContentPropertyManager.getStringProperty(any(Page.class), anyString())).thenReturn("|" + SOME_USER2.getName() + "|");
+    when(mockContentPropertyManager.getStringProperty(somePage, commentersKey)).thenReturn("|" + SOME_USER2.getName() + "|");
+    when(mockContentPropertyManager.getTextProperty(somePage, "survey." + someBallotTitle + ".comment." + SOME_USER2.getName())).thenReturn("otherComment");
 
-    classUnderTest.storeComment(someBallotTitle, someComment, SOME_USER1, new Page());
+    classUnderTest.storeComment(someBallotTitle, someComment, SOME_USER1, somePage);
 
-    verify(mockContentPropertyManager).setTextProperty(any(Page.class), eq("survey." + someBallotTitle + ".comment." + SOME_USER1.getName()), eq(someComment));
+    final StoredBallot storedBallot = getStoredBallot(somePage, someBallotTitle);
+    assertThat(storedBallot.getComments().get(SOME_USER1.getName()), is(someComment));
+    assertThat(storedBallot.getComments().get(SOME_USER2.getName()), is("otherComment"));
+    verify(mockContentPropertyManager).setStringProperty(somePage, commentersKey, null);
+    verify(mockContentPropertyManager).setTextProperty(somePage, "survey." + someBallotTitle + ".comment." + SOME_USER2.getName(), null);
   }
 
   @Test
   public void test_storeComment_stringExists_updateComment_success() {
+    final Page somePage = new Page();
     final String someBallotTitle = "someBallotName";
     final String someComment = "someComment";
 
     ActionContext.getContext().put("request", new HashMap<String, String>());
 
     when(mockContentPropertyManager.getStringProperty(any(Page.class), anyString())).thenReturn("|" + SOME_USER1.getName() + "||" + SOME_USER2.getName() + "|");
+    when(mockContentPropertyManager.getTextProperty(somePage, "survey." + someBallotTitle + ".comment." + SOME_USER1.getName())).thenReturn("oldComment");
 
-    classUnderTest.storeComment(someBallotTitle, someComment, SOME_USER1, new Page());
+    classUnderTest.storeComment(someBallotTitle, someComment, SOME_USER1, somePage);
 
-    verify(mockContentPropertyManager).setTextProperty(any(Page.class), eq("survey." + someBallotTitle + ".comment." + SOME_USER1.getName()), eq(someComment));
+    assertThat(getStoredBallot(somePage, someBallotTitle).getComments().get(SOME_USER1.getName()), is(someComment));
+    verify(mockContentPropertyManager).setTextProperty(somePage, "survey." + someBallotTitle + ".comment." + SOME_USER1.getName(), null);
   }
 
   @Test
   public void test_storeComment_stringExists_removeComment_success() {
+    final Page somePage = new Page();
     final String someBallotTitle = "someBallotName";
     final String someComment = "";
 
     when(mockContentPropertyManager.getStringProperty(any(Page.class), anyString())).thenReturn("|" + SOME_USER1.getName() + "||" + SOME_USER2.getName() + "|");
+    when(mockContentPropertyManager.getTextProperty(somePage, "survey." + someBallotTitle + ".comment." + SOME_USER1.getName())).thenReturn("oldComment");
+    when(mockContentPropertyManager.getTextProperty(somePage, "survey." + someBallotTitle + ".comment." + SOME_USER2.getName())).thenReturn("otherComment");
+
+    classUnderTest.storeComment(someBallotTitle, someComment, SOME_USER1, somePage);
 
-    classUnderTest.storeComment(someBallotTitle, someComment, SOME_USER1, new Page());
+    final StoredBallot storedBallot = getStoredBallot(somePage, someBallotTitle);
+    assertThat(storedBallot.getComments().containsKey(SOME_USER1.getName()), is(false));
+    assertThat(storedBallot.getComments().get(SOME_USER2.getName()), is("otherComment"));
+    verify(mockContentPropertyManager).setTextProperty(somePage, "survey." + someBallotTitle + ".comment." + SOME_USER1.getName(), null);
+  }
 
-    verify(mockContentPropertyManager).setTextProperty(any(Page.class), eq("survey." + someBallotTitle + ".commenters"), eq("|" + SOME_USER2.getName() + "|"));
-    verify(mockContentPropertyManager).setTextProperty(any(Page.class), eq("survey." + someBallotTitle + ".comment." + SOME_USER1.getName()), isNull(String.class));
+  private StoredBallot getStoredBallot(Page page, String ballotTitle) {
+    final ArgumentCaptor<String> ballotCaptor = ArgumentCaptor.forClass(String.class);
+    final ArgumentCaptor<String> userDictionaryCaptor = ArgumentCaptor.forClass(String.class);
+    verify(mockContentPropertyManager).setTextProperty(eq(page), eq(ContentPropertyVoteStore.BALLOT_STORAGE_PREFIX + ballotTitle), ballotCaptor.capture());
+    verify(mockContentPropertyManager, atMost(1)).setTextProperty(eq(page), eq(ContentPropertyVoteStore.USER_DICTIONARY_KEY), userDictionaryCaptor.capture());
+    final String userDictionary = userDictionaryCaptor.getAllValues().isEmpty() ? null : userDictionaryCaptor.getValue();
+    return StoredBallot.parse(ballotCaptor.getValue(), UserDictionary.parse(userDictionary));
   }
 
   @Test
@@ -367,6 +502,7 @@ public class SurveyManagerTest extends ConfluenceTestBase {
     Survey survey = new SurveyBuilder().build();
 
     when(mockPermissionEvaluator.getRemoteUser()).thenReturn(SOME_USER1);
+    when(mockPluginSettingsFactory.createGlobalSettings()).thenReturn(mock(PluginSettings.class));
     when(mockPermissionEvaluator.isPermissionListEmptyOrContainsGivenUser(any(List.class), eq(SOME_USER1))).thenReturn(true);
 
     boolean result = classUnderTest.canResetSurvey(survey);
@@ -383,23 +519,4 @@ public class SurveyManagerTest extends ConfluenceTestBase {
     boolean result = classUnderTest.canAttachFile(contentEntityObject);
     assertThat(result, is(true));
   }
-
-  @Test
-  public void test_migrateOldDefaultVotesIfPresent_success() {
-    Page contentObject = new Page();
-
-    String oldChoiceName = SurveyUtils.DEFAULT_OLD_CHOICE_NAMES.get(0);
-    String newChoiceName = SurveyUtils.DEFAULT_CHOICE_NAMES.get(0);
-    String someBallotTitle = SOME_BALLOT_TITLE;
-
-    String oldKey = VoteMacro.VOTE_STORAGE_PREFIX + someBallotTitle + "." + oldChoiceName;
-    String newKey = VoteMacro.VOTE_STORAGE_PREFIX + someBallotTitle + "." + newChoiceName;
-
-    when(mockContentPropertyManager.getTextProperty(contentObject, oldKey)).thenReturn("user1,user2");
-
-    classUnderTest.migrateOldDefaultVotesIfPresent(contentObject, someBallotTitle, newChoiceName);
-
-    verify(mockContentPropertyManager).setTextProperty(contentObject, newKey, "user1,user2");
-    verify(mockContentPropertyManager).setTextProperty(contentObject, oldKey, null);
-  }
 }
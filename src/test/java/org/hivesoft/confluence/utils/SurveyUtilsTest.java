@@ -68,6 +68,17 @@ public class SurveyUtilsTest extends ConfluenceTestBase {
     assertThat(SurveyUtils.enrichStringWithHttpPattern("<a href=\"#\">i am a tag</a> that's not valid but http://google.com is"), is("&lt;a href=&quot;#&quot;&gt;i am a tag&lt;/a&gt; that's not valid but <a href=\"http://google.com\" target=\"_blank\">http://google.com</a> is"));
   }
 
+  @Test
+  public void test_enrichStringWithHttpPattern_secondCallMemoized_success() {
+    final String someText = "memoized link to http://google.de and https://www.google.com?a=b";
+
+    final String result = SurveyUtils.enrichStringWithHttpPattern(someText);
+
+    assertThat(result, is("memoized link to <a href=\"http://google.de\" target=\"_blank\">http://google.de</a> and <a href=\"https://www.google.com?a=b\" target=\"_blank\">https://www.google.com?a=b</a>"));
+    assertThat(SurveyUtils.enrichStringWithHttpPattern(someText), is(sameInstance(result)));
+    assertThat(SurveyUtils.enrichStringWithHttpPattern(null), is(nullValue()));
+  }
+
   @Test
   public void test_getUserVisualizationFromString_should_return_default_for_null() {
     UserVisualization result = SurveyUtils.getUserVisualizationFromString(null, UserVisualization.PLAIN_LOGIN);
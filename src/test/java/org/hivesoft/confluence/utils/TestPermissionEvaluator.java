@@ -6,8 +6,10 @@ import org.apache.commons.lang3.StringUtils;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class TestPermissionEvaluator implements PermissionEvaluator {
 
@@ -85,6 +87,15 @@ public class TestPermissionEvaluator implements PermissionEvaluator {
     return users;
   }
 
+  @Override
+  public Set<String> getActiveUserNamesForGroupOrUser(String userOrGroupName) {
+    Set<String> names = new LinkedHashSet<String>();
+    for (User user : getActiveUsersForGroupOrUser(userOrGroupName)) {
+      names.add(user.getName());
+    }
+    return names;
+  }
+
   public static class Builder {
 
     private final User currentUser;